@@ -7,6 +7,8 @@ import android.opengl.GLSurfaceView;
 import com.roger.opengl.util.LoggerConfig;
 import com.roger.opengl.util.ShaderHelper;
 import com.roger.opengl.util.TextResourceReader;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -20,6 +22,11 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private static final int BYTES_PER_FLOAT = 4;
     private final FloatBuffer vertexData;
     private static final int POSITION_COMOPNENT_COUNT = 2;
@@ -89,6 +96,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         GLES20.glVertexAttribPointer(aPostionLocation, POSITION_COMOPNENT_COUNT, GLES20.GL_FLOAT, false,
                 0, vertexData);// 指定了渲染时索引值为 aPostionLocation 的顶点属性数组的数据格式和位置
         GLES20.glEnableVertexAttribArray(aPostionLocation);// Enable or disable a generic vertex attribute array
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
     }
 
     @Override
@@ -98,6 +107,10 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
     /*
 函数原型:
       void glClear(GLbitfield mask);
@@ -119,6 +132,7 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
      */
         // 1.清除屏幕和深度缓存
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        long start = timings.start();
 
 //        GLES20.glUniform4f(uColorLocation, 0.0f, 1.0f, 0.0f, 1.0f);//为 u_Color 这个 Uniform 设置颜色值 RGB 为 0 1 0 1 绿色
 //        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 10, 6);//画三角形
@@ -134,5 +148,17 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 //
         GLES20.glUniform4f(uColorLocation, 1.0f, 0.0f, 0.0f, 1.0f);
         GLES20.glDrawArrays(GLES20.GL_POINTS, 9, 1);
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
+
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 }
@@ -7,6 +7,8 @@ import android.opengl.GLSurfaceView;
 import com.roger.airhockey2.util.LoggerConfig;
 import com.roger.airhockey2.util.ShaderHelper;
 import com.roger.airhockey2.util.TextResourceReader;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -20,6 +22,11 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private static final int BYTES_PER_FLOAT = 4;
     private final FloatBuffer vertexData;
     private static final int POSITION_COMOPNENT_COUNT = 2;
@@ -87,6 +94,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         vertexData.position(POSITION_COMOPNENT_COUNT);
         GLES20.glVertexAttribPointer(aColorLocation, COLOR_COMPONENT_COUNT, GLES20.GL_FLOAT, false, STRIDE, vertexData);
         GLES20.glEnableVertexAttribArray(aColorLocation);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
     }
 
     @Override
@@ -96,7 +105,12 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        long start = timings.start();
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 6);
 
@@ -115,6 +129,17 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         参数2：从数组缓存中的哪一位开始绘制，一般都定义为0
         参数3：顶点的数量
         */
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
 
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 }
@@ -9,6 +9,8 @@ import com.roger.airhockey3d.util.LoggerConfig;
 import com.roger.airhockey3d.util.MatrixHelper;
 import com.roger.airhockey3d.util.ShaderHelper;
 import com.roger.airhockey3d.util.TextResourceReader;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -22,6 +24,11 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private static final int BYTES_PER_FLOAT = 4;
     private final FloatBuffer vertexData;
     private static final int POSITION_COMOPNENT_COUNT = 2;
@@ -110,6 +117,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         GLES20.glEnableVertexAttribArray(aColorLocation);
 
         uMatrixLocation = GLES20.glGetUniformLocation(program, U_MATRIX);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
     }
 
     @Override
@@ -129,13 +138,29 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        long start = timings.start();
 //        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 6);
         GLES20.glUniformMatrix4fv(uMatrixLocation, 1, false, projectionMatrix, 0);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
         GLES20.glDrawArrays(GLES20.GL_LINES, 6, 2);
         GLES20.glDrawArrays(GLES20.GL_POINTS, 8, 1);
         GLES20.glDrawArrays(GLES20.GL_POINTS, 9, 1);
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
 
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 }
@@ -8,6 +8,8 @@ import android.opengl.Matrix;
 import com.roger.airhockeyortho.util.LoggerConfig;
 import com.roger.airhockeyortho.util.ShaderHelper;
 import com.roger.airhockeyortho.util.TextResourceReader;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -21,6 +23,11 @@ import javax.microedition.khronos.opengles.GL10;
  */
 public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private static final int BYTES_PER_FLOAT = 4;
     private final FloatBuffer vertexData;
     private static final int POSITION_COMOPNENT_COUNT = 2;
@@ -93,6 +100,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         GLES20.glEnableVertexAttribArray(aColorLocation);
 
         uMatrixLocation = GLES20.glGetUniformLocation(program, U_MATRIX);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
     }
 
     @Override
@@ -110,7 +119,12 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        long start = timings.start();
 
         GLES20.glUniformMatrix4fv(uMatrixLocation, 1, false, projectionMatrix, 0);
 
@@ -121,6 +135,17 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         GLES20.glDrawArrays(GLES20.GL_POINTS, 8, 1);
 
         GLES20.glDrawArrays(GLES20.GL_POINTS, 9, 1);
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
 
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 }
@@ -11,6 +11,8 @@ import com.roger.airhockeytextured.programs.ColorShaderProgram;
 import com.roger.airhockeytextured.programs.TextureShaderProgram;
 import com.roger.airhockeytextured.util.MatrixHelper;
 import com.roger.airhockeytextured.util.TextureHelper;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -22,6 +24,11 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     private final Context context;
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private final float[] projectionMatrix = new float[16];
     private final float[] modelMatrix = new float[16];
 
@@ -47,6 +54,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         colorProgram = new ColorShaderProgram(context);
 
         texture = TextureHelper.loadTexture(context, R.drawable.air_hockey_surface);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
     }
 
     @Override
@@ -66,9 +75,13 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
-
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
+        long start = timings.start();
         textureProgram.useProgram();
         textureProgram.setUniforms(projectionMatrix, texture);
         table.bindData(textureProgram);
@@ -78,6 +91,17 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         colorProgram.setUniforms(projectionMatrix);
         mallet.bindData(colorProgram);
         mallet.draw();
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
 
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 }
@@ -3,8 +3,8 @@ package com.roger.airhockeytextured.objects;
 import android.opengl.GLES20;
 
 import com.roger.airhockeytextured.data.Constands;
-import com.roger.airhockeytextured.data.VertexArray;
 import com.roger.airhockeytextured.programs.ColorShaderProgram;
+import com.roger.glcommon.buffer.VertexArray;
 
 /**
  * Created by Administrator on 2016/7/5.
@@ -13,6 +13,11 @@ import com.roger.airhockeytouch.programs.TextureShaderProgram;
 import com.roger.airhockeytouch.util.Geometry;
 import com.roger.airhockeytouch.util.MatrixHelper;
 import com.roger.airhockeytouch.util.TextureHelper;
+import com.roger.glcommon.gl.Gles20Api;
+import com.roger.glcommon.gl.StateTrackingGl;
+import com.roger.glcommon.spatial.SpatialHash;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -21,8 +26,19 @@ import javax.microedition.khronos.opengles.GL10;
  * Created by Administrator on 2016/6/30.
  */
 public class AirHockeyRenderer implements GLSurfaceView.Renderer {
+    private static final int RED_MALLET = 0;
+    private static final int BLUE_MALLET = 1;
+    private static final float RED_MALLET_Z = -0.4f;
 
     private final Context context;
+    // Drops the program and texture binds that repeat between the objects of a frame.
+    private final StateTrackingGl gl = new StateTrackingGl(Gles20Api.get());
+
+    private final FrameTimings timings = new FrameTimings();
+    private final int physicsStage = timings.addStage("physics");
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
 
     private final float[] projectionMatrix = new float[16];
     private final float[] modelMatrix = new float[16];
@@ -54,6 +70,13 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
     private Geometry.Point puckPosition;
     private Geometry.Vector puckVector;
 
+    // Broad phase of the puck's collisions: the mallet centres, rebuilt whenever one moves.
+    private SpatialHash malletIndex;
+    private final float[] malletX = new float[2];
+    private final float[] malletY = new float[2];
+    private final float[] malletZ = new float[2];
+    private final int[] contacts = new int[2];
+
     public AirHockeyRenderer(Context context) {
         this.context = context;
     }
@@ -61,19 +84,24 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        texture = TextureHelper.loadTexture(context, R.drawable.air_hockey_surface);
+        // The context is new and TextureHelper binds textures directly: trust nothing tracked.
+        gl.invalidate();
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
 
-        table = new Table();
-        mallet = new Mallet(0.08f, 0.15f, 32);
-        puck = new Puck(0.06f, 0.02f, 32);
+        table = new Table(gl);
+        mallet = new Mallet(0.08f, 0.15f, 32, gl);
+        puck = new Puck(0.06f, 0.02f, 32, gl);
 
-        textureProgram = new TextureShaderProgram(context);
-        colorProgram = new ColorShaderProgram(context);
-
-        texture = TextureHelper.loadTexture(context, R.drawable.air_hockey_surface);
+        textureProgram = new TextureShaderProgram(context, gl);
+        colorProgram = new ColorShaderProgram(context, gl);
 
         blueMalletPosition = new Geometry.Point(0f, mallet.height / 2f, 0.4f);
         puckPosition = new Geometry.Point(0f, puck.height / 2f, 0f);
         puckVector = new Geometry.Vector(0f, 0f, 0f);
+        // Cells as wide as the contact distance: a query looks at no more than eight.
+        malletIndex = new SpatialHash(puck.radius + mallet.radius, 16);
     }
 
     @Override
@@ -87,9 +115,14 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
-
+        gl.beginFrame();
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
+        long start = timings.start();
         puckPosition = puckPosition.translate(puckVector);
 
         if (puckPosition.x < leftBound + puck.radius
@@ -110,6 +143,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         );
 
         puckVector = puckVector.scale(0.99f);
+        timings.stop(physicsStage, start);
+        start = timings.start();
 
         Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
 
@@ -121,7 +156,7 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         table.bindData(textureProgram);
         table.draw();
 
-        positionObjectInScene(0f, mallet.height / 2f, -0.4f);
+        positionObjectInScene(0f, mallet.height / 2f, RED_MALLET_Z);
         colorProgram.useProgram();
         colorProgram.setUniforms(modelViewProjectionMatrix, 1f, 0f, 0f);
         mallet.bindData(colorProgram);
@@ -135,6 +170,10 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         colorProgram.setUniforms(modelViewProjectionMatrix, 0.8f, 0.8f, 1f);
         puck.bindData(colorProgram);
         puck.draw();
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
     }
 
     private void positionTableInScene() {
@@ -200,17 +239,43 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
                     clamp(touchedPoint.x, leftBound + mallet.radius, rightBound - mallet.radius),
                     mallet.height / 2f, clamp(touchedPoint.z, 0f + mallet.radius, nearBound - mallet.radius));
 
-            float distance = Geometry.vectorBetween(blueMalletPosition, puckPosition).length();
-
-            if (distance < (puck.radius + mallet.radius)) {
-                // The mallet has struck the puck. Now send the puck flying
-                // based on the mallet velocity.
-                puckVector = Geometry.vectorBetween(previousBlueMalletPosition, blueMalletPosition);
+            int contactCount = findMalletContacts();
+            for (int i = 0; i < contactCount; i++) {
+                if (contacts[i] == BLUE_MALLET) {
+                    // The mallet has struck the puck. Now send the puck flying
+                    // based on the mallet velocity.
+                    puckVector = Geometry.vectorBetween(previousBlueMalletPosition, blueMalletPosition);
+                }
             }
         }
     }
 
+    /**
+     * Indexes the mallets where they are now and finds those touching the puck.
+     *
+     * @return the number of mallets found, whose indices are at the start of {@link #contacts}
+     */
+    private int findMalletContacts() {
+        malletX[RED_MALLET] = 0f;
+        malletY[RED_MALLET] = mallet.height / 2f;
+        malletZ[RED_MALLET] = RED_MALLET_Z;
+        malletX[BLUE_MALLET] = blueMalletPosition.x;
+        malletY[BLUE_MALLET] = blueMalletPosition.y;
+        malletZ[BLUE_MALLET] = blueMalletPosition.z;
+        malletIndex.build(malletX, malletY, malletZ, 2);
+        return Math.min(contacts.length, malletIndex.queryRadius(puckPosition.x, puckPosition.y,
+                puckPosition.z, puck.radius + mallet.radius, contacts));
+    }
+
     private float clamp(float value, float min, float max) {
         return Math.min(max, Math.max(value, min));
     }
+
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
+    }
 }
@@ -1,8 +1,10 @@
 package com.roger.airhockeytouch.objects;
 
-import com.roger.airhockeytouch.data.VertexArray;
 import com.roger.airhockeytouch.programs.ColorShaderProgram;
 import com.roger.airhockeytouch.util.Geometry;
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.VertexArray;
+import com.roger.glcommon.gl.GlApi;
 
 import java.util.List;
 
@@ -19,7 +21,7 @@ public class Mallet {
     private final VertexArray vertexArray;
     private final List<ObjectBuilder.DrawCommand> drawList;
 
-    public Mallet(float radius, float height, int numPointsAroundMallet) {
+    public Mallet(float radius, float height, int numPointsAroundMallet, GlApi gl) {
         ObjectBuilder.GeneratedData generatedData =
                 ObjectBuilder.createMallet(new Geometry.Point(0f, 0f, 0f), radius, height,
                         numPointsAroundMallet);
@@ -27,7 +29,7 @@ public class Mallet {
         this.radius = radius;
         this.height = height;
 
-        vertexArray = new VertexArray(generatedData.vertexData);
+        vertexArray = new VertexArray(gl, DirectBufferPool.getDefault(), generatedData.vertexData);
         drawList = generatedData.drawList;
     }
 
@@ -1,8 +1,10 @@
 package com.roger.airhockeytouch.objects;
 
-import com.roger.airhockeytouch.data.VertexArray;
 import com.roger.airhockeytouch.programs.ColorShaderProgram;
 import com.roger.airhockeytouch.util.Geometry;
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.VertexArray;
+import com.roger.glcommon.gl.GlApi;
 
 import java.util.List;
 
@@ -16,13 +18,13 @@ public class Puck {
     private final VertexArray vertexArray;
     private final List<ObjectBuilder.DrawCommand> drawList;
 
-    public Puck(float radius, float height, int numPointsAroundPuck) {
+    public Puck(float radius, float height, int numPointsAroundPuck, GlApi gl) {
         ObjectBuilder.GeneratedData generatedData = ObjectBuilder.createPuck(
                 new Geometry.Cylinder(new Geometry.Point(0f, 0f, 0f), radius, height), numPointsAroundPuck);
         this.radius = radius;
         this.height = height;
 
-        vertexArray = new VertexArray((generatedData.vertexData));
+        vertexArray = new VertexArray(gl, DirectBufferPool.getDefault(), generatedData.vertexData);
         drawList = generatedData.drawList;
     }
 
@@ -1,10 +1,10 @@
 package com.roger.airhockeytouch.objects;
 
-import android.opengl.GLES20;
-
 import com.roger.airhockeytouch.data.Constands;
-import com.roger.airhockeytouch.data.VertexArray;
 import com.roger.airhockeytouch.programs.TextureShaderProgram;
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.VertexArray;
+import com.roger.glcommon.gl.GlApi;
 
 /**
  * Created by Administrator on 2016/7/5.
@@ -24,10 +24,12 @@ public class Table {
             -0.5f, -0.8f, 0f, 0.9f
     };
 
+    private final GlApi gl;
     private final VertexArray vertexArray;
 
-    public Table() {
-        vertexArray = new VertexArray(VERTEX_DATA);
+    public Table(GlApi gl) {
+        this.gl = gl;
+        vertexArray = new VertexArray(gl, DirectBufferPool.getDefault(), VERTEX_DATA);
     }
 
     public void bindData(TextureShaderProgram textureProgram) {
@@ -40,6 +42,6 @@ public class Table {
     }
 
     public void draw() {
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 6);
+        gl.glDrawArrays(GlApi.GL_TRIANGLE_FAN, 0, 6);
     }
 }
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES20;
 
 import com.roger.airhockeytouch.R;
+import com.roger.glcommon.gl.GlApi;
 
 /**
  * Created by Administrator on 2016/7/5.
@@ -16,8 +17,8 @@ public class ColorShaderProgram extends ShaderProgram {
 
     private final int uColorLocation;
 
-    public ColorShaderProgram(Context context) {
-        super(context, R.raw.simple_vertex_shader, R.raw.simple_fragment_shader);
+    public ColorShaderProgram(Context context, GlApi gl) {
+        super(context, gl, R.raw.simple_vertex_shader, R.raw.simple_fragment_shader);
         uMatrixLocation = GLES20.glGetUniformLocation(program, U_MATRIX);
 
         aPositionLocation = GLES20.glGetAttribLocation(program, A_POSITION);
@@ -1,10 +1,10 @@
 package com.roger.airhockeytouch.programs;
 
 import android.content.Context;
-import android.opengl.GLES20;
 
 import com.roger.airhockeytouch.util.ShaderHelper;
 import com.roger.airhockeytouch.util.TextResourceReader;
+import com.roger.glcommon.gl.GlApi;
 
 /**
  * Created by Administrator on 2016/7/5.
@@ -21,15 +21,17 @@ public class ShaderProgram {
     protected static final String U_COLOR = "u_Color";
 
     protected final int program;
+    protected final GlApi gl;
 
-    protected ShaderProgram(Context context, int vertexShaderResourceId,
+    protected ShaderProgram(Context context, GlApi gl, int vertexShaderResourceId,
                             int fragmentShaderResourceId) {
+        this.gl = gl;
         program = ShaderHelper.buildProgram(
                 TextResourceReader.readTextFileFromResource(context, vertexShaderResourceId),
                 TextResourceReader.readTextFileFromResource(context, fragmentShaderResourceId));
     }
 
     public void useProgram() {
-        GLES20.glUseProgram(program);
+        gl.glUseProgram(program);
     }
 }
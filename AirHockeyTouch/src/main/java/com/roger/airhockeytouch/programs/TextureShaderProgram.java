@@ -4,6 +4,7 @@ import android.content.Context;
 import android.opengl.GLES20;
 
 import com.roger.airhockeytouch.R;
+import com.roger.glcommon.gl.GlApi;
 
 /**
  * Created by Administrator on 2016/7/5.
@@ -16,8 +17,8 @@ public class TextureShaderProgram extends ShaderProgram {
     private final int aPositionLocation;
     private final int aTextureCoordnatesLocation;
 
-    public TextureShaderProgram(Context context) {
-        super(context, R.raw.texture_vertex_shader, R.raw.texture_fragment_shader);
+    public TextureShaderProgram(Context context, GlApi gl) {
+        super(context, gl, R.raw.texture_vertex_shader, R.raw.texture_fragment_shader);
         uMatrixLocation = GLES20.glGetUniformLocation(program, U_MATRIX);
         uTextureUnitLocation = GLES20.glGetUniformLocation(program, U_TEXTURE_UNIT);
 
@@ -32,8 +33,8 @@ public class TextureShaderProgram extends ShaderProgram {
 
     public void setUniforms(float[] matrix, int textureId) {
         GLES20.glUniformMatrix4fv(uMatrixLocation, 1, false, matrix, 0);
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        gl.glActiveTexture(GlApi.GL_TEXTURE0);
+        gl.glBindTexture(GlApi.GL_TEXTURE_2D, textureId);
         GLES20.glUniform1i(uTextureUnitLocation, 0);
     }
 
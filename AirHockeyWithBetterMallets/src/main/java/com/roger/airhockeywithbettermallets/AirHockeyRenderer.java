@@ -12,6 +12,8 @@ import com.roger.airhockeywithbettermallets.programs.ColorShaderProgram;
 import com.roger.airhockeywithbettermallets.programs.TextureShaderProgram;
 import com.roger.airhockeywithbettermallets.util.MatrixHelper;
 import com.roger.airhockeywithbettermallets.util.TextureHelper;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -23,6 +25,11 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     private final Context context;
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private final float[] projectionMatrix = new float[16];
     private final float[] modelMatrix = new float[16];
 
@@ -55,6 +62,8 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         colorProgram = new ColorShaderProgram(context);
 
         texture = TextureHelper.loadTexture(context, R.drawable.air_hockey_surface);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
     }
 
     @Override
@@ -68,9 +77,13 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
-
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
+        long start = timings.start();
         Matrix.multiplyMM(viewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
 
         positionTableInScene();
@@ -93,6 +106,10 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         colorProgram.setUniforms(modelViewProjectionMatrix, 0.8f, 0.8f, 1f);
         puck.bindData(colorProgram);
         puck.draw();
+        timings.stop(drawStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
     }
 
     private void positionTableInScene() {
@@ -106,4 +123,12 @@ public class AirHockeyRenderer implements GLSurfaceView.Renderer {
         Matrix.translateM(modelMatrix, 0, x, y, z);
         Matrix.multiplyMM(modelViewProjectionMatrix, 0, viewProjectionMatrix, 0, modelMatrix, 0);
     }
+
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
+    }
 }
@@ -1,8 +1,8 @@
 package com.roger.airhockeywithbettermallets.objects;
 
-import com.roger.airhockeywithbettermallets.data.VertexArray;
 import com.roger.airhockeywithbettermallets.programs.ColorShaderProgram;
 import com.roger.airhockeywithbettermallets.util.Geometry;
+import com.roger.glcommon.buffer.VertexArray;
 
 import java.util.List;
 
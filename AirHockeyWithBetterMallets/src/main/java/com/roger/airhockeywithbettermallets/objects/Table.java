@@ -3,8 +3,8 @@ package com.roger.airhockeywithbettermallets.objects;
 import android.opengl.GLES20;
 
 import com.roger.airhockeywithbettermallets.data.Constands;
-import com.roger.airhockeywithbettermallets.data.VertexArray;
 import com.roger.airhockeywithbettermallets.programs.TextureShaderProgram;
+import com.roger.glcommon.buffer.VertexArray;
 
 /**
  * Created by Administrator on 2016/7/5.
@@ -10,8 +10,8 @@ package com.roger.heightmap.objects;
 
 import android.graphics.Color;
 
-import com.roger.heightmap.data.Constands;
-import com.roger.heightmap.data.VertexArray;
+import com.roger.glcommon.particles.ParticleEmitter;
+import com.roger.glcommon.particles.ParticleStore;
 import com.roger.heightmap.programs.ParticleShaderProgram;
 import com.roger.heightmap.util.Geometry;
 
@@ -29,37 +29,17 @@ public class ParticleSystem {
             + VECTOR_COMPONENT_COUNT
             + PARTICLE_START_TIME_COMPONENT_COUNT;
 
-    private static final int STRIDE = TOTAL_COMPONENT_COUNT * Constands.BYTES_PER_FLOAT;
-
-    private final float[] particles;
-    private final VertexArray vertexArray;
-    private final int maxParticleCount;
-
-    private int currentParticleCount;
-    private int nextParticle;
+    // Particles are written in place and only the new ones are uploaded, once per frame.
+    private final ParticleStore store;
 
     public ParticleSystem(int maxParticleCount) {
-        particles = new float[maxParticleCount * TOTAL_COMPONENT_COUNT];
-        vertexArray = new VertexArray(particles);
-        this.maxParticleCount = maxParticleCount;
+        store = new ParticleStore(maxParticleCount, TOTAL_COMPONENT_COUNT);
     }
 
     public void addParticle(Geometry.Point position, int color, Geometry.Vector direction,
                             float particleStartTime) {
-        final int particleOffset = nextParticle * TOTAL_COMPONENT_COUNT;
-
-        int currentOffset = particleOffset;
-        nextParticle++;
-
-        if (currentParticleCount < maxParticleCount) {
-            currentParticleCount++;
-        }
-
-        if (nextParticle == maxParticleCount) {
-            // Start over at the beginning, but keep currentParticleCount so
-            // that all the other particles still get drawn.
-            nextParticle = 0;
-        }
+        final float[] particles = store.getData();
+        int currentOffset = store.add();
 
         particles[currentOffset++] = position.x;
         particles[currentOffset++] = position.y;
@@ -74,30 +54,37 @@ public class ParticleSystem {
         particles[currentOffset++] = direction.z;
 
         particles[currentOffset++] = particleStartTime;
+    }
 
-        vertexArray.updateBuffer(particles, particleOffset, TOTAL_COMPONENT_COUNT);
+    /**
+     * Writes {@code count} particles from {@code emitter} straight into the store.
+     */
+    public void addParticles(ParticleEmitter emitter, float particleStartTime, int count) {
+        emitter.emit(store, particleStartTime, count);
     }
 
     public void bindData(ParticleShaderProgram particleProgram) {
+        store.flush();
+
         int dataOffset = 0;
-        vertexArray.setVertexAttribPointer(dataOffset, particleProgram.getPositionAttributeLocation(),
-                POSITION_COMPONENT_COUNT, STRIDE);
+        store.setVertexAttribPointer(dataOffset, particleProgram.getPositionAttributeLocation(),
+                POSITION_COMPONENT_COUNT);
         dataOffset += POSITION_COMPONENT_COUNT;
 
-        vertexArray.setVertexAttribPointer(dataOffset, particleProgram.getColorAttributeLocation(),
-                COLOR_COMPONENT_COUNT, STRIDE);
+        store.setVertexAttribPointer(dataOffset, particleProgram.getColorAttributeLocation(),
+                COLOR_COMPONENT_COUNT);
         dataOffset += COLOR_COMPONENT_COUNT;
 
-        vertexArray.setVertexAttribPointer(dataOffset,
-                particleProgram.getDirectionVectorAttributeLocation(), VECTOR_COMPONENT_COUNT, STRIDE);
+        store.setVertexAttribPointer(dataOffset,
+                particleProgram.getDirectionVectorAttributeLocation(), VECTOR_COMPONENT_COUNT);
         dataOffset += VECTOR_COMPONENT_COUNT;
 
-        vertexArray.setVertexAttribPointer(dataOffset,
+        store.setVertexAttribPointer(dataOffset,
                 particleProgram.getParticleStartTimeAttributeLocation(),
-                PARTICLE_START_TIME_COMPONENT_COUNT, STRIDE);
+                PARTICLE_START_TIME_COMPONENT_COUNT);
     }
 
     public void draw() {
-        glDrawArrays(GL_POINTS, 0, currentParticleCount);
+        glDrawArrays(GL_POINTS, 0, store.getParticleCount());
     }
 }
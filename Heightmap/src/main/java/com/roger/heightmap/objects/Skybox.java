@@ -8,7 +8,7 @@
  ***/
 package com.roger.heightmap.objects;
 
-import com.roger.heightmap.data.VertexArray;
+import com.roger.glcommon.buffer.VertexArray;
 import com.roger.heightmap.programs.SkyboxShaderProgram;
 
 import java.nio.ByteBuffer;
@@ -7,6 +7,8 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 import com.roger.lighting.objects.Heightmap;
 import com.roger.lighting.objects.ParticleShooter;
 import com.roger.lighting.objects.ParticleSystem;
@@ -48,6 +50,13 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
 
     private final Context context;
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int heightmapStage = timings.addStage("heightmap");
+    private final int skyboxStage = timings.addStage("skybox");
+    private final int particlesStage = timings.addStage("particles");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private final float[] modelMatrix = new float[16];
     private final float[] viewMatrix = new float[16];
     private final float[] viewMatrixForSkybox = new float[16];
@@ -124,6 +133,8 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
         glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
         glEnable(GL_DEPTH_TEST);
         glEnable(GL_CULL_FACE);
 
@@ -169,10 +180,31 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        long start = timings.start();
         drawHeightmap();
+        timings.stop(heightmapStage, start);
+        start = timings.start();
         drawSkybox();
+        timings.stop(skyboxStage, start);
+        start = timings.start();
         drawParticles();
+        timings.stop(particlesStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
+
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 
     private void drawHeightmap() {
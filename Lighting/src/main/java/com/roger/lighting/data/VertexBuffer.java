@@ -1,67 +0,0 @@
-/***
- * Excerpted from "OpenGL ES for Android",
- * published by The Pragmatic Bookshelf.
- * Copyrights apply to this code. It may not be used to create training material,
- * courses, books, articles, and the like. Contact us if you are in doubt.
- * We make no guarantees that this code is fit for any purpose.
- * Visit http://www.pragmaticprogrammer.com/titles/kbogla for more book information.
- ***/
-package com.roger.lighting.data;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
-import static android.opengl.GLES20.GL_ARRAY_BUFFER;
-import static android.opengl.GLES20.GL_FLOAT;
-import static android.opengl.GLES20.GL_STATIC_DRAW;
-import static android.opengl.GLES20.glBindBuffer;
-import static android.opengl.GLES20.glBufferData;
-import static android.opengl.GLES20.glEnableVertexAttribArray;
-import static android.opengl.GLES20.glGenBuffers;
-import static android.opengl.GLES20.glVertexAttribPointer;
-
-public class VertexBuffer {
-    private final int bufferId;
-
-    public VertexBuffer(float[] vertexData) {
-        // Allocate a buffer.
-        final int buffers[] = new int[1];
-        glGenBuffers(buffers.length, buffers, 0);
-        if (buffers[0] == 0) {
-            throw new RuntimeException("Could not create a new vertex buffer object.");
-        }
-        bufferId = buffers[0];
-
-        // Bind to the buffer.
-        glBindBuffer(GL_ARRAY_BUFFER, buffers[0]);
-
-        // Transfer data to native memory.
-        FloatBuffer vertexArray =
-                ByteBuffer.allocateDirect(vertexData.length * Constands.BYTES_PER_FLOAT)
-                        .order(ByteOrder.nativeOrder())
-                        .asFloatBuffer()
-                        .put(vertexData);
-        vertexArray.position(0);
-
-        // Transfer data from native memory to the GPU buffer.
-        glBufferData(GL_ARRAY_BUFFER, vertexArray.capacity() * Constands.BYTES_PER_FLOAT, vertexArray,
-                GL_STATIC_DRAW);
-
-        // IMPORTANT: Unbind from the buffer when we're done with it.
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        // We let vertexArray go out of scope, but it won't be released
-        // until the next time the garbage collector is run.
-    }
-
-    public void setVertexAttribPointer(int dataOffset, int attributeLocation, int componentCount,
-                                       int stride) {
-        glBindBuffer(GL_ARRAY_BUFFER, bufferId);
-        // This call is slightly different than the glVertexAttribPointer we've
-        // used in the past: the last parameter is set to dataOffset, to tell OpenGL
-        // to begin reading data at this position of the currently bound buffer.
-        glVertexAttribPointer(attributeLocation, componentCount, GL_FLOAT, false, stride, dataOffset);
-        glEnableVertexAttribArray(attributeLocation);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-    }
-}
@@ -8,7 +8,7 @@
  ***/
 package com.roger.lighting.objects;
 
-import com.roger.lighting.data.VertexArray;
+import com.roger.glcommon.buffer.VertexArray;
 import com.roger.lighting.programs.SkyboxShaderProgram;
 
 import java.nio.ByteBuffer;
@@ -9,6 +9,11 @@ import android.opengl.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.roger.glcommon.gl.Gles20Api;
+import com.roger.glcommon.gl.StateTrackingGl;
+import com.roger.glcommon.particles.ParticleSimulation;
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 import com.roger.livewallpaper.objects.Heightmap;
 import com.roger.livewallpaper.objects.ParticleShooter;
 import com.roger.livewallpaper.objects.ParticleSystem;
@@ -32,12 +37,9 @@ import static android.opengl.GLES20.GL_DEPTH_TEST;
 import static android.opengl.GLES20.GL_LEQUAL;
 import static android.opengl.GLES20.GL_LESS;
 import static android.opengl.GLES20.GL_ONE;
-import static android.opengl.GLES20.glBlendFunc;
+import static android.opengl.GLES20.GL_ONE_MINUS_SRC_ALPHA;
+import static android.opengl.GLES20.GL_SRC_ALPHA;
 import static android.opengl.GLES20.glClearColor;
-import static android.opengl.GLES20.glDepthFunc;
-import static android.opengl.GLES20.glDepthMask;
-import static android.opengl.GLES20.glDisable;
-import static android.opengl.GLES20.glEnable;
 import static android.opengl.Matrix.multiplyMM;
 import static android.opengl.Matrix.multiplyMV;
 import static android.opengl.Matrix.rotateM;
@@ -48,8 +50,24 @@ import static android.opengl.Matrix.translateM;
  * Created by Administrator on 2016/6/30.
  */
 public class ParticlesRenderer implements GLSurfaceView.Renderer {
+    private static final float HEIGHTMAP_SCALE_XZ = 100f;
+    private static final float HEIGHTMAP_SCALE_Y = 10f;
+    // Sparks moved on the CPU so they bounce off the mountains, drift downwind and spread out
+    // where they crowd, instead of along the fixed paths of the vertex shader.
+    private static final boolean SIMULATED_PARTICLES = false;
+    // Smoky particles blended by alpha and drawn back to front, instead of additive sparks.
+    private static final boolean SORTED_ALPHA_PARTICLES = false;
 
     private final Context context;
+    // Every state change of a frame goes through here so repeated ones never reach the driver.
+    private final StateTrackingGl gl = new StateTrackingGl(Gles20Api.get());
+
+    private final FrameTimings timings = new FrameTimings();
+    private final int heightmapStage = timings.addStage("heightmap");
+    private final int skyboxStage = timings.addStage("skybox");
+    private final int particlesStage = timings.addStage("particles");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
 
     private final float[] modelMatrix = new float[16];
     private final float[] viewMatrix = new float[16];
@@ -136,23 +154,48 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
         // We want the translation to apply to the regular view matrix, and not
         // the skybox.
         translateM(viewMatrix, 0, 0 - xOffset, -1.5f - yOffset, -5f);
+
+        // The rotations turn the camera in place, so it sits where the translation puts it.
+        if (heightmap != null) {
+            heightmap.updateLod(xOffset, 1.5f + yOffset, 5f);
+        }
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
         glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
-        glEnable(GL_DEPTH_TEST);
-        glEnable(GL_CULL_FACE);
-
-        heightmapProgram = new HeightmapShaderProgram(context);
+        particleTexture = TextureHelper.loadTexture(context, R.drawable.particle_texture);
+        skyboxTexture = TextureHelper.loadCubeMap(context, new int[]{
+                R.drawable.night_left, R.drawable.night_right, R.drawable.night_bottom,
+                R.drawable.night_top, R.drawable.night_front, R.drawable.night_back
+        });
+        // The context is new and TextureHelper binds textures directly: trust nothing tracked.
+        gl.invalidate();
+        gl.glEnable(GL_DEPTH_TEST);
+        gl.glEnable(GL_CULL_FACE);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
+
+        heightmapProgram = new HeightmapShaderProgram(context, gl);
         heightmap = new Heightmap(
-                ((BitmapDrawable) context.getResources().getDrawable(R.drawable.heightmap)).getBitmap());
-
-        skyboxProgram = new SkyboxShaderProgram(context);
-        skybox = new Skybox();
-
-        particleProgram = new ParticleShaderProgram(context);
-        particleSystem = new ParticleSystem(10000);
+                ((BitmapDrawable) context.getResources().getDrawable(R.drawable.heightmap)).getBitmap(),
+                gl);
+        heightmap.setScale(HEIGHTMAP_SCALE_XZ, HEIGHTMAP_SCALE_Y, HEIGHTMAP_SCALE_XZ);
+
+        skyboxProgram = new SkyboxShaderProgram(context, gl);
+        skybox = new Skybox(gl);
+
+        particleProgram = new ParticleShaderProgram(context, gl);
+        particleSystem = new ParticleSystem(10000, gl);
+        if (SIMULATED_PARTICLES) {
+            ParticleSimulation simulation = new ParticleSimulation(10000);
+            simulation.setTerrain(heightmap.getHeightField(), 0.4f, 0.8f, false);
+            simulation.setRepulsion(0.05f, 0.5f);
+            simulation.setDrag(0.1f);
+            simulation.setWind(0.3f, 0f, 0f);
+            particleSystem.setSimulation(simulation);
+        }
+        particleSystem.setSorted(SORTED_ALPHA_PARTICLES);
         globalStartTime = System.nanoTime();
 
         final Vector particleDirection = new Geometry.Vector(0f, 0.5f, 0f);
@@ -170,17 +213,13 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
         blueParticleShooter =
                 new ParticleShooter(new Point(1f, 0f, 0f), particleDirection, Color.rgb(5, 50, 255),
                         angleVarianceInDegrees, speedVariance);
-        particleTexture = TextureHelper.loadTexture(context, R.drawable.particle_texture);
-        skyboxTexture = TextureHelper.loadCubeMap(context, new int[]{
-                R.drawable.night_left, R.drawable.night_right, R.drawable.night_bottom,
-                R.drawable.night_top, R.drawable.night_front, R.drawable.night_back
-        });
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl10, int width, int height) {
         GLES20.glViewport(0, 0, width, height);
         MatrixHelper.perspectiveM(projectionMatrix, 45, (float) width / (float) height, 1f, 100f);
+        heightmap.setProjection(45, height);
         updateViewMatrices();
     }
 
@@ -188,10 +227,32 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
     public void onDrawFrame(GL10 gl10) {
         limitFrameRate(24);
         logFrameRate();
+        timings.frame();
+        gl.beginFrame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        long start = timings.start();
         drawHeightmap();
+        timings.stop(heightmapStage, start);
+        start = timings.start();
         drawSkybox();
+        timings.stop(skyboxStage, start);
+        start = timings.start();
         drawParticles();
+        timings.stop(particlesStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
+
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries; cleared every time they are logged
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 
     private void limitFrameRate(int framesPerSecond) {
@@ -211,7 +272,11 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
             double elapsedSeconds = (elapsedRealtimeMs - startTimeMs) / 1000.0;
 
             if (elapsedSeconds >= 1.0) {
-                Log.v("Tag", frameCount / elapsedSeconds + "fps");
+                Log.v("Tag", frameCount / elapsedSeconds + "fps, "
+                        + heightmap.getTriangleCount() + " terrain triangles, "
+                        + gl.getIssuedCount() + " state calls issued, "
+                        + gl.getSkippedCount() + " skipped\n" + timings.report());
+                timings.reset();
                 startTimeMs = SystemClock.elapsedRealtime();
                 frameCount = 0;
             }
@@ -223,7 +288,7 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
         setIdentityM(modelMatrix, 0);
         // Expand the heightmap's dimensions, but don't expand the height as
         // much so that we don't get insanely tall mountains.
-        Matrix.scaleM(modelMatrix, 0, 100f, 10f, 100f);
+        Matrix.scaleM(modelMatrix, 0, HEIGHTMAP_SCALE_XZ, HEIGHTMAP_SCALE_Y, HEIGHTMAP_SCALE_XZ);
         updateMvpMatrix();
         heightmapProgram.useProgram();
         final float[] vectorToLightInEyeSpace = new float[4];
@@ -242,12 +307,12 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
         setIdentityM(modelMatrix, 0);
         updateMvpMatrixForSkybox();
 
-        glDepthFunc(GL_LEQUAL); // This avoids problems with the skybox itself getting clipped.
+        gl.glDepthFunc(GL_LEQUAL); // This avoids problems with the skybox itself getting clipped.
         skyboxProgram.useProgram();
         skyboxProgram.setUniforms(modelViewProjectionMatrix, skyboxTexture);
         skybox.bindData(skyboxProgram);
         skybox.draw();
-        glDepthFunc(GL_LESS);
+        gl.glDepthFunc(GL_LESS);
     }
 
     private void drawParticles() {
@@ -256,20 +321,29 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
         redParticleShooter.addParticles(particleSystem, currentTime, 1);
         greenParticleShooter.addParticles(particleSystem, currentTime, 1);
         blueParticleShooter.addParticles(particleSystem, currentTime, 1);
+        particleSystem.update(currentTime);
 
         setIdentityM(modelMatrix, 0);
         updateMvpMatrix();
 
-        glEnable(GL_BLEND);
-        glBlendFunc(GL_ONE, GL_ONE);
+        gl.glEnable(GL_BLEND);
+        if (particleSystem.isSorted()) {
+            particleSystem.sortBackToFront(modelViewMatrix, currentTime);
+            gl.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+            // Nearer particles are drawn later, so they need not hide the others.
+            gl.glDepthMask(false);
+        } else {
+            gl.glBlendFunc(GL_ONE, GL_ONE);
+        }
 
         particleProgram.useProgram();
-        particleProgram.setUniforms(modelViewProjectionMatrix, currentTime, particleTexture);
+        particleProgram.setUniforms(modelViewProjectionMatrix, currentTime, particleTexture,
+                particleSystem.isSimulated());
         particleSystem.bindData(particleProgram);
         particleSystem.draw();
 
-        glDisable(GL_BLEND);
-        glDepthMask(true);
+        gl.glDisable(GL_BLEND);
+        gl.glDepthMask(true);
     }
 
     private void updateMvpMatrix() {
@@ -10,13 +10,18 @@ package com.roger.livewallpaper.objects;
 
 import android.graphics.Color;
 
-import com.roger.livewallpaper.data.Constands;
-import com.roger.livewallpaper.data.VertexArray;
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.gl.GlApi;
+import com.roger.glcommon.gl.GlCapabilities;
+import com.roger.glcommon.particles.ParticleEmitter;
+import com.roger.glcommon.particles.ParticleSimulation;
+import com.roger.glcommon.particles.ParticleSorter;
+import com.roger.glcommon.particles.ParticleStore;
 import com.roger.livewallpaper.programs.ParticleShaderProgram;
 import com.roger.livewallpaper.util.Geometry;
 
 import static android.opengl.GLES20.GL_POINTS;
-import static android.opengl.GLES20.glDrawArrays;
 
 public class ParticleSystem {
     private static final int POSITION_COMPONENT_COUNT = 3;
@@ -29,37 +34,126 @@ public class ParticleSystem {
             + VECTOR_COMPONENT_COUNT
             + PARTICLE_START_TIME_COMPONENT_COUNT;
 
-    private static final int STRIDE = TOTAL_COMPONENT_COUNT * Constands.BYTES_PER_FLOAT;
+    // How far particle_vertex_shader.glsl drops a particle per second squared of its age.
+    private static final float GRAVITY_FACTOR = 1f / 8f;
+
+    private final GlApi gl;
+    // Particles are written in place and only the new ones are uploaded, once per frame.
+    private final ParticleStore store;
+    private ParticleSimulation simulation;
+    private ParticleSorter sorter;
+    private IndexBuffer sortedIndices;
+    private boolean intIndices;
+    // The particles in drawing order, for orders that need 32-bit indices the GL lacks.
+    private ParticleStore gatheredStore;
+    private boolean drawGathered;
+
+    public ParticleSystem(int maxParticleCount, GlApi gl) {
+        this.gl = gl;
+        store = new ParticleStore(gl, DirectBufferPool.getDefault(), maxParticleCount,
+                TOTAL_COMPONENT_COUNT);
+    }
 
-    private final float[] particles;
-    private final VertexArray vertexArray;
-    private final int maxParticleCount;
+    /**
+     * Moves the particles on the CPU with {@code simulation} from now on, or in the vertex
+     * shader when null. The simulation must hold no more particles than this system.
+     */
+    public void setSimulation(ParticleSimulation simulation) {
+        if (simulation != null && simulation.getMaxParticles() > store.getMaxParticles()) {
+            throw new IllegalArgumentException("Simulation of " + simulation.getMaxParticles()
+                    + " particles does not fit in " + store.getMaxParticles());
+        }
+        this.simulation = simulation;
+        store.setParticleCount(0);
+    }
 
-    private int currentParticleCount;
-    private int nextParticle;
+    public boolean isSimulated() {
+        return simulation != null;
+    }
 
-    public ParticleSystem(int maxParticleCount) {
-        particles = new float[maxParticleCount * TOTAL_COMPONENT_COUNT];
-        vertexArray = new VertexArray(particles);
-        this.maxParticleCount = maxParticleCount;
+    /**
+     * Advances the simulation, if any, to {@code currentTime} and copies the particles into the
+     * vertex data.
+     */
+    public void update(float currentTime) {
+        if (simulation != null) {
+            simulation.update(currentTime);
+            simulation.writeTo(store);
+        }
     }
 
-    public void addParticle(Geometry.Point position, int color, Geometry.Vector direction,
-                            float particleStartTime) {
-        final int particleOffset = nextParticle * TOTAL_COMPONENT_COUNT;
+    /**
+     * Draws the particles back to front through an index buffer, as alpha blending needs, or
+     * in the order they were added. Call on the GL thread.
+     */
+    public void setSorted(boolean sorted) {
+        if (sorted && sorter == null) {
+            sorter = new ParticleSorter(store.getMaxParticles());
+            sortedIndices = new IndexBuffer(gl, DirectBufferPool.getDefault(),
+                    GlApi.GL_STREAM_DRAW);
+            intIndices = GlCapabilities.hasExtension(GlCapabilities.OES_ELEMENT_INDEX_UINT);
+        } else if (!sorted && sorter != null) {
+            sortedIndices.release();
+            sortedIndices = null;
+            sorter = null;
+            if (gatheredStore != null) {
+                gatheredStore.release();
+                gatheredStore = null;
+            }
+            drawGathered = false;
+        }
+    }
 
-        int currentOffset = particleOffset;
-        nextParticle++;
+    public boolean isSorted() {
+        return sorter != null;
+    }
 
-        if (currentParticleCount < maxParticleCount) {
-            currentParticleCount++;
+    /**
+     * Orders the particles from the farthest to the nearest as seen with {@code viewMatrix},
+     * where the shader draws them at {@code currentTime}. Call after adding and updating the
+     * particles of the frame; does nothing unless {@link #setSorted sorted}.
+     */
+    public void sortBackToFront(float[] viewMatrix, float currentTime) {
+        if (sorter == null) {
+            return;
         }
+        boolean changed;
+        if (simulation != null) {
+            changed = sorter.sort(store.getData(), TOTAL_COMPONENT_COUNT,
+                    store.getParticleCount(), viewMatrix);
+        } else {
+            changed = sorter.sortMoving(store.getData(), TOTAL_COMPONENT_COUNT,
+                    store.getParticleCount(), viewMatrix, currentTime, GRAVITY_FACTOR);
+        }
+        int count = sorter.getCount();
+        boolean wasGathered = drawGathered;
+        drawGathered = count > ParticleSorter.MAX_SHORT_INDICES && !intIndices;
+        if (drawGathered) {
+            if (gatheredStore == null) {
+                gatheredStore = new ParticleStore(gl, DirectBufferPool.getDefault(),
+                        store.getMaxParticles(), TOTAL_COMPONENT_COUNT);
+            }
+            sorter.gather(store.getData(), TOTAL_COMPONENT_COUNT, gatheredStore.getData());
+            gatheredStore.setParticleCount(count);
+            gatheredStore.markDirty(0, count);
+        } else if (changed || wasGathered) {
+            sorter.writeTo(sortedIndices);
+        }
+    }
 
-        if (nextParticle == maxParticleCount) {
-            // Start over at the beginning, but keep currentParticleCount so
-            // that all the other particles still get drawn.
-            nextParticle = 0;
+    public void addParticle(Geometry.Point position, int color, Geometry.Vector direction,
+                            float particleStartTime) {
+        if (simulation != null) {
+            int index = simulation.allocate(1);
+            if (index < simulation.getCount()) {
+                simulation.set(index, position.x, position.y, position.z, direction.x,
+                        direction.y, direction.z, Color.red(color) / 255f,
+                        Color.green(color) / 255f, Color.blue(color) / 255f, particleStartTime);
+            }
+            return;
         }
+        final float[] particles = store.getData();
+        int currentOffset = store.add();
 
         particles[currentOffset++] = position.x;
         particles[currentOffset++] = position.y;
@@ -74,30 +168,55 @@ public class ParticleSystem {
         particles[currentOffset++] = direction.z;
 
         particles[currentOffset++] = particleStartTime;
+    }
 
-        vertexArray.updateBuffer(particles, particleOffset, TOTAL_COMPONENT_COUNT);
+    /**
+     * Writes {@code count} particles from {@code emitter} straight into the store, or into the
+     * simulation when there is one.
+     */
+    public void addParticles(ParticleEmitter emitter, float particleStartTime, int count) {
+        if (simulation != null) {
+            emitter.emit(simulation, particleStartTime, count);
+        } else {
+            emitter.emit(store, particleStartTime, count);
+        }
     }
 
     public void bindData(ParticleShaderProgram particleProgram) {
+        store.flush();
+        ParticleStore source = store;
+        if (drawGathered) {
+            gatheredStore.flush();
+            source = gatheredStore;
+        }
+
         int dataOffset = 0;
-        vertexArray.setVertexAttribPointer(dataOffset, particleProgram.getPositionAttributeLocation(),
-                POSITION_COMPONENT_COUNT, STRIDE);
+        source.setVertexAttribPointer(dataOffset, particleProgram.getPositionAttributeLocation(),
+                POSITION_COMPONENT_COUNT);
         dataOffset += POSITION_COMPONENT_COUNT;
 
-        vertexArray.setVertexAttribPointer(dataOffset, particleProgram.getColorAttributeLocation(),
-                COLOR_COMPONENT_COUNT, STRIDE);
+        source.setVertexAttribPointer(dataOffset, particleProgram.getColorAttributeLocation(),
+                COLOR_COMPONENT_COUNT);
         dataOffset += COLOR_COMPONENT_COUNT;
 
-        vertexArray.setVertexAttribPointer(dataOffset,
-                particleProgram.getDirectionVectorAttributeLocation(), VECTOR_COMPONENT_COUNT, STRIDE);
+        source.setVertexAttribPointer(dataOffset,
+                particleProgram.getDirectionVectorAttributeLocation(), VECTOR_COMPONENT_COUNT);
         dataOffset += VECTOR_COMPONENT_COUNT;
 
-        vertexArray.setVertexAttribPointer(dataOffset,
+        source.setVertexAttribPointer(dataOffset,
                 particleProgram.getParticleStartTimeAttributeLocation(),
-                PARTICLE_START_TIME_COMPONENT_COUNT, STRIDE);
+                PARTICLE_START_TIME_COMPONENT_COUNT);
     }
 
     public void draw() {
-        glDrawArrays(GL_POINTS, 0, currentParticleCount);
+        if (drawGathered) {
+            gl.glDrawArrays(GL_POINTS, 0, gatheredStore.getParticleCount());
+        } else if (sorter != null) {
+            sortedIndices.bind();
+            gl.glDrawElements(GL_POINTS, sortedIndices.getCount(), sortedIndices.getType(), 0);
+            sortedIndices.unbind();
+        } else {
+            gl.glDrawArrays(GL_POINTS, 0, store.getParticleCount());
+        }
     }
 }
@@ -8,23 +8,26 @@
  ***/
 package com.roger.livewallpaper.objects;
 
-import com.roger.livewallpaper.data.VertexArray;
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.VertexArray;
+import com.roger.glcommon.gl.GlApi;
 import com.roger.livewallpaper.programs.SkyboxShaderProgram;
 
 import java.nio.ByteBuffer;
 
 import static android.opengl.GLES20.GL_TRIANGLES;
 import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
-import static android.opengl.GLES20.glDrawElements;
 
 public class Skybox {
     private static final int POSITION_COMPONENT_COUNT = 3;
+    private final GlApi gl;
     private final VertexArray vertexArray;
     private final ByteBuffer indexArray;
 
-    public Skybox() {
+    public Skybox(GlApi gl) {
+        this.gl = gl;
         // Create a unit cube.
-        vertexArray = new VertexArray(new float[]{
+        vertexArray = new VertexArray(gl, DirectBufferPool.getDefault(), new float[]{
                 -1, 1, 1,     // (0) Top-left near
                 1, 1, 1,     // (1) Top-right near
                 -1, -1, 1,     // (2) Bottom-left near
@@ -72,6 +75,6 @@ public class Skybox {
     }
 
     public void draw() {
-        glDrawElements(GL_TRIANGLES, 36, GL_UNSIGNED_BYTE, indexArray);
+        gl.glDrawElements(GL_TRIANGLES, 36, GL_UNSIGNED_BYTE, indexArray);
     }
 }
\ No newline at end of file
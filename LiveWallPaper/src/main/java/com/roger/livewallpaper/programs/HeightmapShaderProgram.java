@@ -10,6 +10,7 @@ package com.roger.livewallpaper.programs;
 
 import android.content.Context;
 
+import com.roger.glcommon.gl.GlApi;
 import com.roger.livewallpaper.R;
 
 import static android.opengl.GLES20.glGetAttribLocation;
@@ -29,8 +30,8 @@ public class HeightmapShaderProgram extends ShaderProgram {
     private final int aPositionLocation;
     private final int aNormalLocation;
 
-    public HeightmapShaderProgram(Context context) {
-        super(context, R.raw.heightmap_vertex_shader,
+    public HeightmapShaderProgram(Context context, GlApi gl) {
+        super(context, gl, R.raw.heightmap_vertex_shader,
                 R.raw.heightmap_fragment_shader);
 
         uVectorToLightLocation = glGetUniformLocation(program, U_VECTOR_TO_LIGHT);
@@ -10,12 +10,11 @@ package com.roger.livewallpaper.programs;
 
 import android.content.Context;
 
+import com.roger.glcommon.gl.GlApi;
 import com.roger.livewallpaper.R;
 
 import static android.opengl.GLES20.GL_TEXTURE0;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
-import static android.opengl.GLES20.glActiveTexture;
-import static android.opengl.GLES20.glBindTexture;
 import static android.opengl.GLES20.glGetAttribLocation;
 import static android.opengl.GLES20.glGetUniformLocation;
 import static android.opengl.GLES20.glUniform1f;
@@ -26,6 +25,7 @@ public class ParticleShaderProgram extends ShaderProgram {
     // Uniform locations
     private final int uMatrixLocation;
     private final int uTimeLocation;
+    private final int uSimulatedLocation;
 
     // Attribute locations
     private final int aPositionLocation;
@@ -34,13 +34,14 @@ public class ParticleShaderProgram extends ShaderProgram {
     private final int aParticleStartTimeLocation;
     private final int uTextureUnitLocation;
 
-    public ParticleShaderProgram(Context context) {
-        super(context, R.raw.particle_vertex_shader, R.raw.particle_fragment_shader);
+    public ParticleShaderProgram(Context context, GlApi gl) {
+        super(context, gl, R.raw.particle_vertex_shader, R.raw.particle_fragment_shader);
 
         // Retrieve uniform locations for the shader program.
         uMatrixLocation = glGetUniformLocation(program, U_MATRIX);
         uTimeLocation = glGetUniformLocation(program, U_TIME);
         uTextureUnitLocation = glGetUniformLocation(program, U_TEXTURE_UNIT);
+        uSimulatedLocation = glGetUniformLocation(program, U_SIMULATED);
 
         // Retrieve attribute locations for the shader program.
         aPositionLocation = glGetAttribLocation(program, A_POSITION);
@@ -53,10 +54,19 @@ public class ParticleShaderProgram extends ShaderProgram {
     public void setUniforms(float[] matrix, float elapsedTime) {
      */
     public void setUniforms(float[] matrix, float elapsedTime, int textureId) {
+        setUniforms(matrix, elapsedTime, textureId, false);
+    }
+
+    /**
+     * @param simulated whether the particles were moved on the CPU, so the shader must not
+     *                  apply gravity to them again
+     */
+    public void setUniforms(float[] matrix, float elapsedTime, int textureId, boolean simulated) {
         glUniformMatrix4fv(uMatrixLocation, 1, false, matrix, 0);
         glUniform1f(uTimeLocation, elapsedTime);
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, textureId);
+        glUniform1f(uSimulatedLocation, simulated ? 1f : 0f);
+        gl.glActiveTexture(GL_TEXTURE0);
+        gl.glBindTexture(GL_TEXTURE_2D, textureId);
         glUniform1i(uTextureUnitLocation, 0);
     }
 
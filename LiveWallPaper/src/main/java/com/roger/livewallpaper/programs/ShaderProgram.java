@@ -1,8 +1,8 @@
 package com.roger.livewallpaper.programs;
 
 import android.content.Context;
-import android.opengl.GLES20;
 
+import com.roger.glcommon.gl.GlApi;
 import com.roger.livewallpaper.util.ShaderHelper;
 import com.roger.livewallpaper.util.TextResourceReader;
 
@@ -15,6 +15,7 @@ public class ShaderProgram {
     protected static final String U_COLOR = "u_Color";
     protected static final String U_TEXTURE_UNIT = "u_TextureUnit";
     protected static final String U_TIME = "u_Time";
+    protected static final String U_SIMULATED = "u_Simulated";
     protected static final String U_VECTOR_TO_LIGHT = "u_VectorToLight";
     protected static final String U_MV_MATRIX = "u_MVMatrix";
     protected static final String U_IT_MV_MATRIX = "u_IT_MVMatrix";
@@ -34,9 +35,11 @@ public class ShaderProgram {
 
     // Shader program
     protected final int program;
+    protected final GlApi gl;
 
-    protected ShaderProgram(Context context, int vertexShaderResourceId,
+    protected ShaderProgram(Context context, GlApi gl, int vertexShaderResourceId,
                             int fragmentShaderResourceId) {
+        this.gl = gl;
         // Compile the shaders and link the program.
         program = ShaderHelper.buildProgram(
                 TextResourceReader
@@ -47,6 +50,6 @@ public class ShaderProgram {
 
     public void useProgram() {
         // Set the current OpenGL shader program to this program.
-        GLES20.glUseProgram(program);
+        gl.glUseProgram(program);
     }
 }
@@ -10,12 +10,11 @@ package com.roger.livewallpaper.programs;
 
 import android.content.Context;
 
+import com.roger.glcommon.gl.GlApi;
 import com.roger.livewallpaper.R;
 
 import static android.opengl.GLES20.GL_TEXTURE0;
 import static android.opengl.GLES20.GL_TEXTURE_CUBE_MAP;
-import static android.opengl.GLES20.glActiveTexture;
-import static android.opengl.GLES20.glBindTexture;
 import static android.opengl.GLES20.glGetAttribLocation;
 import static android.opengl.GLES20.glGetUniformLocation;
 import static android.opengl.GLES20.glUniform1i;
@@ -26,8 +25,8 @@ public class SkyboxShaderProgram extends ShaderProgram {
     private final int uTextureUnitLocation;
     private final int aPositionLocation;
 
-    public SkyboxShaderProgram(Context context) {
-        super(context, R.raw.skybox_vertex_shader, R.raw.skybox_fragment_shader);
+    public SkyboxShaderProgram(Context context, GlApi gl) {
+        super(context, gl, R.raw.skybox_vertex_shader, R.raw.skybox_fragment_shader);
 
         uMatrixLocation = glGetUniformLocation(program, U_MATRIX);
         uTextureUnitLocation = glGetUniformLocation(program, U_TEXTURE_UNIT);
@@ -37,8 +36,8 @@ public class SkyboxShaderProgram extends ShaderProgram {
     public void setUniforms(float[] matrix, int textureId) {
         glUniformMatrix4fv(uMatrixLocation, 1, false, matrix, 0);
 
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_CUBE_MAP, textureId);
+        gl.glActiveTexture(GL_TEXTURE0);
+        gl.glBindTexture(GL_TEXTURE_CUBE_MAP, textureId);
         glUniform1i(uTextureUnitLocation, 0);
     }
 
@@ -17,6 +17,7 @@ void main()
         gl_FragColor = vec4(v_Color / v_ElapsedTime, 1.0);        
     }
     */
-    gl_FragColor = vec4(v_Color / v_ElapsedTime, 1.0)
+    // Alpha only matters when blending by alpha; additive blending ignores it.
+    gl_FragColor = vec4(v_Color / v_ElapsedTime, min(1.0, 1.0 / v_ElapsedTime))
                  * texture2D(u_TextureUnit, gl_PointCoord);
 }
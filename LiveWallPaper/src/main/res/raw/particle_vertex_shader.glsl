@@ -1,5 +1,7 @@
 uniform mat4 u_Matrix;
 uniform float u_Time;
+// 1.0 when the particles were moved on the CPU: the direction is zero and gravity is applied.
+uniform float u_Simulated;
 
 attribute vec3 a_Position;  
 attribute vec3 a_Color;
@@ -13,7 +15,7 @@ void main()
 {                                	  	  
     v_Color = a_Color;
     v_ElapsedTime = u_Time - a_ParticleStartTime;    
-    float gravityFactor = v_ElapsedTime * v_ElapsedTime / 8.0;
+    float gravityFactor = v_ElapsedTime * v_ElapsedTime / 8.0 * (1.0 - u_Simulated);
     vec3 currentPosition = a_Position + (a_DirectionVector * v_ElapsedTime);
     currentPosition.y -= gravityFactor;
     gl_Position = u_Matrix * vec4(currentPosition, 1.0);
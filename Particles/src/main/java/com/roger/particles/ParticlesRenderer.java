@@ -5,6 +5,8 @@ import android.graphics.Color;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 import com.roger.particles.objects.ParticleShooter;
 import com.roger.particles.objects.ParticleSystem;
 import com.roger.particles.programs.ParticleShaderProgram;
@@ -33,6 +35,11 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
 
     private final Context context;
 
+    private final FrameTimings timings = new FrameTimings();
+    private final int particlesStage = timings.addStage("particles");
+    private final int gpuStage = timings.addStage("gpu");
+    private GpuTimer gpuTimer;
+
     private final float[] projectionMatrix = new float[16];
     private final float[] viewMatrix = new float[16];
     private final float[] viewProjectionMatrix = new float[16];
@@ -58,6 +65,8 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onSurfaceCreated(GL10 gl10, EGLConfig eglConfig) {
         glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        // Queries of the previous context died with it.
+        gpuTimer = GpuTimer.create(timings, gpuStage);
 
         // Enable additive blending
         glEnable(GL_BLEND);
@@ -120,8 +129,13 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl10) {
+        timings.frame();
+        if (gpuTimer != null) {
+            gpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
+        long start = timings.start();
         float currentTime = (System.nanoTime() - globalStartTime) / 1000000000f;
 
         redParticleShooter.addParticles(particleSystem, currentTime, 5);
@@ -148,5 +162,17 @@ public class ParticlesRenderer implements GLSurfaceView.Renderer {
         particleProgram.setUniforms(viewProjectionMatrix, currentTime, texture);
         particleSystem.bindData(particleProgram);
         particleSystem.draw();
+        timings.stop(particlesStage, start);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
+
+    /**
+     * @return CPU time of each stage of the frame, plus GPU time where the driver supports timer
+     * queries
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
     }
 }
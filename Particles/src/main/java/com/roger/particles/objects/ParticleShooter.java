@@ -9,31 +9,16 @@
 
 package com.roger.particles.objects;
 
+import com.roger.glcommon.particles.ParticleEmitter;
 import com.roger.particles.util.Geometry;
 
-import java.util.Random;
-
-import static android.opengl.Matrix.multiplyMV;
-import static android.opengl.Matrix.setRotateEulerM;
-
 /**
  * This class shoots particles in a particular direction.
  */
 
 public class ParticleShooter {
-    private final Geometry.Point position;
-    private final Geometry.Vector direction;
-    private final int color;
-
-    private final float angleVariance;
-    private final float speedVariance;
-
-    private final Random random = new Random();
-
-    private float[] rotationMatrix = new float[16];
-    private float[] directionVector = new float[4];
-    private float[] resultVector = new float[4];
-
+    // Samples the cone of directions once, so shooting allocates nothing per particle.
+    private final ParticleEmitter emitter;
 
     //public ParticleShooter(Geometry.Point position, Geometry.Vector direction, int color) {
     //  this.position = position;
@@ -42,35 +27,13 @@ public class ParticleShooter {
     //}
     public ParticleShooter(Geometry.Point position, Geometry.Vector direction, int color,
                            float angleVarianceInDegrees, float speedVariance) {
-        this.position = position;
-        this.direction = direction;
-        this.color = color;
-        this.angleVariance = angleVarianceInDegrees;
-        this.speedVariance = speedVariance;
-
-        directionVector[0] = direction.x;
-        directionVector[1] = direction.y;
-        directionVector[2] = direction.z;
+        emitter = new ParticleEmitter(position.x, position.y, position.z,
+                direction.x, direction.y, direction.z, color,
+                angleVarianceInDegrees, speedVariance);
     }
 
 
     public void addParticles(ParticleSystem particleSystem, float currentTime, int count) {
-        for (int i = 0; i < count; i++) {
-            setRotateEulerM(rotationMatrix, 0, (random.nextFloat() - 0.5f) * angleVariance,
-                    (random.nextFloat() - 0.5f) * angleVariance, (random.nextFloat() - 0.5f) * angleVariance);
-
-            multiplyMV(resultVector, 0, rotationMatrix, 0, directionVector, 0);
-
-            float speedAdjustment = 1f + random.nextFloat() * speedVariance;
-
-            Geometry.Vector thisDirection =
-                    new Geometry.Vector(resultVector[0] * speedAdjustment, resultVector[1] * speedAdjustment,
-                            resultVector[2] * speedAdjustment);
-            
-            /*
-            particleSystem.addParticle(position, color, direction, currentTime);
-             */
-            particleSystem.addParticle(position, color, thisDirection, currentTime);
-        }
+        particleSystem.addParticles(emitter, currentTime, count);
     }
 }
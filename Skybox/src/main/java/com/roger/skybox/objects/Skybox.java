@@ -8,7 +8,7 @@
  ***/
 package com.roger.skybox.objects;
 
-import com.roger.skybox.data.VertexArray;
+import com.roger.glcommon.buffer.VertexArray;
 import com.roger.skybox.programs.SkyboxShaderProgram;
 
 import java.nio.ByteBuffer;
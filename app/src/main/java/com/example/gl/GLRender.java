@@ -4,6 +4,8 @@ import android.content.Context;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLUtils;
 
+import com.roger.glcommon.timing.FrameTimings;
+
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
@@ -32,6 +34,9 @@ public class GLRender implements GLSurfaceView.Renderer {
     private FloatBuffer mColorBuffer;
     private float xrot, yrot, zrot;
     private int one = 0x10000;
+    // 每帧绘制的耗时，ES 1.x没有计时查询，只记录CPU时间
+    private final FrameTimings timings = new FrameTimings();
+    private final int drawStage = timings.addStage("draw");
 
     // 正方体顶点
     private int[] vertices = {
@@ -123,10 +128,11 @@ public class GLRender implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
-
+        timings.frame();
 
         // 1.清除屏幕和深度缓存
         gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
+        long start = timings.start();
 
         //为了防止前面执行过变换“保留”在“当前矩阵”，我们需要把“当前矩阵”复位，即变为单位矩阵（对角线上的元素全为1）
         // 2.重置当前的模型观察矩阵
@@ -246,7 +252,7 @@ public class GLRender implements GLSurfaceView.Renderer {
         xrot += 0.5f;
         yrot += 0.4f;
         zrot += 0.6f;
-
+        timings.stop(drawStage, start);
     }
 
     @Override
@@ -448,4 +454,11 @@ public class GLRender implements GLSurfaceView.Renderer {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * @return 每帧绘制的CPU耗时
+     */
+    public FrameTimings getFrameTimings() {
+        return timings;
+    }
+
+}
@@ -6,6 +6,8 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 import com.yalantis.starwars.utils.gl.RawResourceReader;
 import com.yalantis.starwars.utils.gl.ShaderHelper;
 import com.yalantis.starwarsdemo.App;
@@ -53,6 +55,11 @@ public class ParticleSystemRenderer implements GLSurfaceView.Renderer {
     private int timeHandle;
     private long mStartTime;
     private int frames;
+    private final FrameTimings mTimings = new FrameTimings();
+    private final int mSceneStage = mTimings.addStage("scene");
+    private final int mParticlesStage = mTimings.addStage("particles");
+    private final int mGpuStage = mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
     private long startTime;
     private boolean mStart;
     private long timePassed;
@@ -83,6 +90,9 @@ public class ParticleSystemRenderer implements GLSurfaceView.Renderer {
         GLES20.glEnable(GLES20.GL_CULL_FACE);
         GLES20.glFrontFace(GLES20.GL_CW);
 
+        // Queries of a previous context died with it.
+        mGpuTimer = GpuTimer.create(mTimings, mGpuStage);
+
         // Enable depth testing
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
@@ -111,6 +121,17 @@ public class ParticleSystemRenderer implements GLSurfaceView.Renderer {
 
         programHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle,
                 new String[]{"a_Position", "a_TexCoordinate", "a_TileXY"});
+
+        // Look up program handles once per context instead of every frame
+        mvpMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
+        mvMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
+        timeHandle = GLES20.glGetUniformLocation(programHandle, "u_Time");
+        resolutionHandle = GLES20.glGetUniformLocation(programHandle, "u_Resolution");
+
+        positionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
+        normalHandle = GLES20.glGetAttribLocation(programHandle, "a_Normal");
+        textureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
+        miscHandle = GLES20.glGetAttribLocation(programHandle, "a_Misc");
     }
 
     /**
@@ -148,10 +169,20 @@ public class ParticleSystemRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onDrawFrame(GL10 gl10) {
         logFrame();
+        if (mGpuTimer != null) {
+            mGpuTimer.begin();
+        }
+        long start = mTimings.start();
         drawGl();
+        mTimings.stop(mSceneStage, start);
 
         if (mParticleSystem != null) {
+            start = mTimings.start();
             mParticleSystem.render();
+            mTimings.stop(mParticlesStage, start);
+        }
+        if (mGpuTimer != null) {
+            mGpuTimer.end();
         }
     }
 
@@ -160,17 +191,6 @@ public class ParticleSystemRenderer implements GLSurfaceView.Renderer {
 
         GLES20.glUseProgram(programHandle);
 
-        // Set program handles
-        mvpMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-        mvMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
-        timeHandle = GLES20.glGetUniformLocation(programHandle, "u_Time");
-        resolutionHandle = GLES20.glGetUniformLocation(programHandle, "u_Resolution");
-
-        positionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-        normalHandle = GLES20.glGetAttribLocation(programHandle, "a_Normal");
-        textureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
-        miscHandle = GLES20.glGetAttribLocation(programHandle, "a_Misc");
-
         Matrix.setIdentityM(mModelMatrix, 0);
         Matrix.translateM(mModelMatrix, 0, 0.0f, 0.0f, 5f);
 
@@ -195,11 +215,22 @@ public class ParticleSystemRenderer implements GLSurfaceView.Renderer {
         GLES20.glEnable(GLES20.GL_BLEND);
     }
 
+    /**
+     * @return frame interval, CPU time of the scene and the particles and, where supported, GPU
+     * time; cleared every time they are logged
+     */
+    public FrameTimings getFrameTimings() {
+        return mTimings;
+    }
+
     public void logFrame() {
+        mTimings.frame();
         frames++;
         timePassed = (System.nanoTime() - startTime) / 1_000_000;
         if(timePassed >= 10_000) {
-            Timber.d("fps %d @ %d stars || %f", frames / 10, ParticleSystem.PARTICLE_COUNT, mTime);
+            Timber.d("fps %d @ %d stars || %f\n%s", frames / 10, ParticleSystem.PARTICLE_COUNT,
+                    mTime, mTimings.report());
+            mTimings.reset();
             frames = 0;
             startTime = System.nanoTime();
         }
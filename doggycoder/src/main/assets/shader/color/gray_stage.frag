@@ -0,0 +1,2 @@
+float rgb=color.g;
+return vec4(rgb,rgb,rgb,color.a);
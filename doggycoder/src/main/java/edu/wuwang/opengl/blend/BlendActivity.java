@@ -17,11 +17,15 @@ import android.widget.TextView;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.BaseActivity;
 import edu.wuwang.opengl.R;
 import edu.wuwang.opengl.filter.NoFilter;
 import edu.wuwang.opengl.utils.EasyGlUtils;
 import edu.wuwang.opengl.utils.MatrixUtils;
+import edu.wuwang.opengl.utils.ProgramRegistry;
 
 /**
  * Created by aiya on 2017/8/2.
@@ -39,6 +43,11 @@ public class BlendActivity extends BaseActivity implements GLSurfaceView.Rendere
     private TextView mEqua;
 
     private int width,height;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("blend");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     private int nDstPar=GLES20.GL_ONE_MINUS_SRC_ALPHA;
     private int nSrcPar=GLES20.GL_SRC_ALPHA;
@@ -148,6 +157,8 @@ public class BlendActivity extends BaseActivity implements GLSurfaceView.Rendere
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        //新的GL环境，之前共享的程序都已失效
+        ProgramRegistry.getInstance().onContextCreated();
         GLES20.glClearColor(0,0,0,0);
         mSrcFilter.create();
         mDstFilter.create();
@@ -162,7 +173,8 @@ public class BlendActivity extends BaseActivity implements GLSurfaceView.Rendere
         EasyGlUtils.useTexParameter();
         GLUtils.texImage2D(GLES20.GL_TEXTURE_2D,0,GLES20.GL_RGBA,dstBitmap,0);
         mDstFilter.setTextureId(textures[1]);
-
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
     }
 
     @Override
@@ -179,12 +191,28 @@ public class BlendActivity extends BaseActivity implements GLSurfaceView.Rendere
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        mTimings.frame();
+        if(mGpuTimer!=null){
+            mGpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        long start=mTimings.start();
         GLES20.glEnable(GLES20.GL_BLEND);
         GLES20.glBlendFunc(nSrcPar,nDstPar);
         GLES20.glBlendEquation(equaInt[nEquaIndex]);
         GLES20.glViewport(0,0,width,height);
         mDstFilter.draw();
         mSrcFilter.draw();
+        mTimings.stop(mDrawStage,start);
+        if(mGpuTimer!=null){
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 每帧绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 }
@@ -7,17 +7,15 @@
  */
 package edu.wuwang.opengl.camera;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 import android.Manifest;
-import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
@@ -48,6 +46,7 @@ import android.widget.Toast;
 
 import edu.wuwang.opengl.BaseActivity;
 import edu.wuwang.opengl.R;
+import edu.wuwang.opengl.etc.PkmAnimation;
 import edu.wuwang.opengl.filter.GrayFilter;
 import edu.wuwang.opengl.filter.NoFilter;
 import edu.wuwang.opengl.filter.WaterMarkFilter;
@@ -60,12 +59,14 @@ import static android.hardware.camera2.CameraDevice.TEMPLATE_PREVIEW;
 /**
  * Description:
  */
-public class Camera2Activity extends BaseActivity implements FrameCallback {
+public class Camera2Activity extends BaseActivity implements FrameBufferCallback {
 
     private SurfaceView mSurfaceView;
     private TextureController mController;
     private Renderer mRenderer;
     private int cameraId = 1;
+    private FrameExporter mExporter;
+    private ZipPkmAnimationFilter mAniFilter;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -74,10 +75,27 @@ public class Camera2Activity extends BaseActivity implements FrameCallback {
             .permission.WRITE_EXTERNAL_STORAGE}, 10, initViewRunnable);
     }
 
-    protected void onFilterSet(TextureController controller){
-        ZipPkmAnimationFilter mAniFilter=new ZipPkmAnimationFilter(getResources());
-        mAniFilter.setAnimation("assets/etczip/cc.zip");
+    protected void onFilterSet(final TextureController controller){
+        mAniFilter=new ZipPkmAnimationFilter(getResources());
         controller.addFilter(mAniFilter);
+        //首次打开需要把zip转换为可随机访问的格式，放到后台线程
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final PkmAnimation animation=PkmAnimation.open(Camera2Activity.this,"assets/etczip/cc.zip");
+                //滤镜的状态只在GL线程中读写，结果交给GL线程设置
+                controller.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(animation!=null){
+                            mAniFilter.setAnimation(animation,20);
+                        }else{
+                            mAniFilter.setAnimation("assets/etczip/cc.zip");
+                        }
+                    }
+                });
+            }
+        }).start();
     }
 
     protected void setContentView(){
@@ -102,6 +120,7 @@ public class Camera2Activity extends BaseActivity implements FrameCallback {
 //            filter.setPosition(300,50,300,150);
 //            mController.addFilter(filter);
             onFilterSet(mController);
+            mExporter=createExporter();
             mController.setFrameCallback(720, 1280, Camera2Activity.this);
             mSurfaceView.getHolder().addCallback(new SurfaceHolder.Callback() {
                 @Override
@@ -167,58 +186,52 @@ public class Camera2Activity extends BaseActivity implements FrameCallback {
         if (mController != null) {
             mController.destroy();
         }
+        if (mAniFilter != null) {
+            mAniFilter.stop();
+        }
+        if (mExporter != null) {
+            mExporter.shutdown();
+        }
     }
 
     @Override
-    public void onFrame(final byte[] bytes, long time) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                Bitmap bitmap=Bitmap.createBitmap(720,1280, Bitmap.Config.ARGB_8888);
-                ByteBuffer b=ByteBuffer.wrap(bytes);
-                bitmap.copyPixelsFromBuffer(b);
-                saveBitmap(bitmap);
-                bitmap.recycle();
-            }
-        }).start();
+    public void onFrame(ByteBuffer buffer, int width, int height, long timestamp) {
+        //拷贝后立即返回，编码和写文件在导出线程中进行
+        mExporter.submit(buffer,width,height,timestamp);
     }
 
     protected String getSD(){
         return Environment.getExternalStorageDirectory().getAbsolutePath();
     }
 
-    //图片保存
-    public void saveBitmap(Bitmap b){
-        String path =  getSD()+ "/OpenGLDemo/photo/";
-        File folder=new File(path);
-        if(!folder.exists()&&!folder.mkdirs()){
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(Camera2Activity.this, "无法保存照片", Toast.LENGTH_SHORT).show();
-                }
-            });
-            return;
-        }
-        long dataTake = System.currentTimeMillis();
-        final String jpegName=path+ dataTake +".jpg";
-        try {
-            FileOutputStream fout = new FileOutputStream(jpegName);
-            BufferedOutputStream bos = new BufferedOutputStream(fout);
-            b.compress(Bitmap.CompressFormat.JPEG, 100, bos);
-            bos.flush();
-            bos.close();
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        runOnUiThread(new Runnable() {
+    //拍照和录制共用的导出流水线，两个编码线程，最多排队4帧
+    private FrameExporter createExporter(){
+        final DirectoryOutput output=new DirectoryOutput(new File(getSD()+"/OpenGLDemo/photo/"),".jpg");
+        FrameExporter exporter=new FrameExporter(new JpegEncoder(90),output,2,4);
+        exporter.setListener(new FrameExporter.Listener() {
             @Override
-            public void run() {
-                Toast.makeText(Camera2Activity.this, "保存成功->"+jpegName, Toast.LENGTH_SHORT).show();
+            public void onWritten(List<FrameExporter.Frame> frames) {
+                final String jpegName=output.getFile(frames.get(frames.size()-1)).getAbsolutePath();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(Camera2Activity.this, "保存成功->"+jpegName, Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
-        });
 
+            @Override
+            public void onError(Exception e) {
+                e.printStackTrace();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(Camera2Activity.this, "无法保存照片", Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+        return exporter;
     }
 
     private class Camera1Renderer implements Renderer {
@@ -24,9 +24,13 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.filter.AFilter;
 import edu.wuwang.opengl.filter.OesFilter;
 import edu.wuwang.opengl.utils.Gl2Utils;
+import edu.wuwang.opengl.utils.ProgramRegistry;
 import edu.wuwang.opengl.utils.ShaderUtils;
 
 /**
@@ -40,6 +44,12 @@ public class CameraDrawer implements GLSurfaceView.Renderer {
     private int dataWidth,dataHeight;
     private AFilter mOesFilter;
     private int cameraId=1;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mUploadStage=mTimings.addStage("upload");
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     public CameraDrawer(Resources res){
         mOesFilter=new OesFilter(res);
@@ -78,10 +88,14 @@ public class CameraDrawer implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        //新的GL环境，之前共享的程序都已失效
+        ProgramRegistry.getInstance().onContextCreated();
         int texture = createTextureID();
         surfaceTexture=new SurfaceTexture(texture);
         mOesFilter.create();
         mOesFilter.setTextureId(texture);
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
     }
 
     @Override
@@ -91,10 +105,28 @@ public class CameraDrawer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        mTimings.frame();
+        if(mGpuTimer!=null){
+            mGpuTimer.begin();
+        }
+        long start=mTimings.start();
         if(surfaceTexture!=null){
             surfaceTexture.updateTexImage();
         }
+        mTimings.stop(mUploadStage,start);
+        start=mTimings.start();
         mOesFilter.draw();
+        mTimings.stop(mDrawStage,start);
+        if(mGpuTimer!=null){
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 每帧各阶段的耗时：upload、draw，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 
     private int createTextureID(){
@@ -0,0 +1,47 @@
+/*
+ *
+ * DirectoryOutput.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.camera;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Description: 把编码好的帧写到目录中，文件名为"提交时间_序号"加后缀。
+ * 一批帧只检查一次目录，每个文件一次write写完
+ */
+public class DirectoryOutput implements FrameExporter.Output {
+
+    private final File dir;
+    private final String suffix;
+
+    public DirectoryOutput(File dir,String suffix){
+        this.dir=dir;
+        this.suffix=suffix;
+    }
+
+    @Override
+    public void write(List<FrameExporter.Frame> frames) throws IOException {
+        if(!dir.exists()&&!dir.mkdirs()){
+            throw new IOException("Could not create "+dir);
+        }
+        for (FrameExporter.Frame frame:frames){
+            FileOutputStream fos=new FileOutputStream(getFile(frame));
+            try {
+                fos.write(frame.getData());
+            } finally {
+                fos.close();
+            }
+        }
+    }
+
+    public File getFile(FrameExporter.Frame frame){
+        return new File(dir,frame.getTime()+"_"+frame.getSequence()+suffix);
+    }
+
+}
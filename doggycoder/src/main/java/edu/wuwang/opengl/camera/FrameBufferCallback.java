@@ -0,0 +1,16 @@
+package edu.wuwang.opengl.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Description: 带时间戳的帧数据回调，在{@link FrameReader}的回调线程中调用
+ */
+public interface FrameBufferCallback {
+
+    /**
+     * @param buffer RGBA数据，direct ByteBuffer，回调返回后会被复用，需要保留时自行拷贝
+     * @param timestamp 帧时间戳，来自相机SurfaceTexture，单位纳秒
+     */
+    void onFrame(ByteBuffer buffer, int width, int height, long timestamp);
+
+}
@@ -0,0 +1,471 @@
+/*
+ *
+ * FrameExporter.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.camera;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description: 帧导出流水线。{@link #submit}把像素拷贝到{@link PixelBufferPool}的buffer中放入有界队列，
+ * 固定数量的编码线程从队列中取帧交给{@link Encoder}编码，编码结果由单独的写出线程成批交给
+ * {@link Output}。队列满时按{@link #DROP_OLDEST}丢弃最早排队的帧，或按{@link #BLOCK}等待。
+ * 同时进行的帧数不超过队列容量加编码线程数，像素buffer全部复用，连拍和录制时内存不会持续增长。
+ */
+public class FrameExporter {
+
+    /**
+     * 队列满时丢弃最早排队的帧
+     */
+    public static final int DROP_OLDEST=0;
+    /**
+     * 队列满时submit等待
+     */
+    public static final int BLOCK=1;
+
+    public interface Encoder{
+        /**
+         * 编码width*height的RGBA数据写入out，可能在多个线程中同时调用
+         */
+        void encode(ByteBuffer rgba,int width,int height,OutputStream out) throws IOException;
+    }
+
+    public interface Output{
+        /**
+         * 依次写出一批编码好的帧，只在写出线程中调用
+         */
+        void write(List<Frame> frames) throws IOException;
+    }
+
+    public interface Listener{
+        /**
+         * 一批帧写出完成，在写出线程中调用
+         */
+        void onWritten(List<Frame> frames);
+
+        /**
+         * 编码或写出失败，出错的帧被丢弃
+         */
+        void onError(Exception e);
+    }
+
+    private final Encoder mEncoder;
+    private final Output mOutput;
+    private final Executor mWorkers;
+    private final Executor mWriter;
+    private final boolean isOwnExecutor;
+    private final int mCapacity;
+    private final PixelBufferPool mPixels;
+    private volatile int mPolicy=DROP_OLDEST;
+    private volatile Listener mListener;
+
+    private final Object mLock=new Object();
+    private final ArrayDeque<Frame> mQueue=new ArrayDeque<>();
+    private int mReserved=0;                 //正在拷贝、即将入队的帧
+    private int mInFlight=0;                 //已提交还未写出或丢弃的帧
+    private boolean isShutdown=false;
+    private int mSequence=0;
+    private int mMaxQueueDepth=0;
+    private int mDroppedCount=0;
+    private int mWrittenCount=0;
+    private int mFailedCount=0;
+    private int mEncodedCount=0;
+    private long mEncodeNanos=0;
+    private long mMaxEncodeNanos=0;
+    private long mLatencyNanos=0;
+
+    private final ArrayDeque<Frame> mWriteQueue=new ArrayDeque<>();
+    private final List<Frame> mBatch=new ArrayList<>();
+
+    //每个编码线程复用的输出流
+    private final ThreadLocal<ByteArrayOutputStream> mStream=
+        new ThreadLocal<ByteArrayOutputStream>(){
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(256*1024);
+        }
+    };
+
+    private final Runnable mEncodeTask=new Runnable() {
+        @Override
+        public void run() {
+            encodeNext();
+        }
+    };
+
+    private final Runnable mWriteTask=new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+
+    /**
+     * @param workerCount 编码线程数
+     * @param queueCapacity 等待编码的最大帧数
+     */
+    public FrameExporter(Encoder encoder,Output output,int workerCount,int queueCapacity){
+        this(encoder,output,Executors.newFixedThreadPool(workerCount,factory("FrameEncoder-")),
+            Executors.newSingleThreadExecutor(factory("FrameWriter-")),true,
+            workerCount,queueCapacity);
+    }
+
+    FrameExporter(Encoder encoder,Output output,Executor workers,Executor writer,
+                  boolean isOwnExecutor,int workerCount,int queueCapacity){
+        if(queueCapacity<=0){
+            throw new IllegalArgumentException("Invalid queue capacity: "+queueCapacity);
+        }
+        this.mEncoder=encoder;
+        this.mOutput=output;
+        this.mWorkers=workers;
+        this.mWriter=writer;
+        this.isOwnExecutor=isOwnExecutor;
+        this.mCapacity=queueCapacity;
+        this.mPixels=new PixelBufferPool(queueCapacity+workerCount);
+    }
+
+    /**
+     * @param policy {@link #DROP_OLDEST}或{@link #BLOCK}
+     */
+    public void setDropPolicy(int policy){
+        this.mPolicy=policy;
+    }
+
+    public void setListener(Listener listener){
+        this.mListener=listener;
+    }
+
+    /**
+     * 拷贝rgba从position开始的width*height*4字节并排队编码，返回后rgba可以立即复用
+     * @return 关闭后或等待时被中断返回false
+     */
+    public boolean submit(ByteBuffer rgba,int width,int height,long timestamp){
+        int size=width*height*4;
+        if(rgba.remaining()<size){
+            throw new IllegalArgumentException("Need "+size+" bytes, got "+rgba.remaining());
+        }
+        synchronized (mLock){
+            if(isShutdown){
+                return false;
+            }
+            while (mQueue.size()+mReserved>=mCapacity){
+                if(mPolicy==BLOCK||mQueue.isEmpty()){
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        mDroppedCount++;
+                        return false;
+                    }
+                    if(isShutdown){
+                        return false;
+                    }
+                }else{
+                    Frame old=mQueue.pollFirst();
+                    mPixels.recycle(old.pixels);
+                    old.pixels=null;
+                    mDroppedCount++;
+                    mInFlight--;
+                }
+            }
+            mReserved++;
+            mInFlight++;
+        }
+        ByteBuffer pixels=mPixels.obtain(size);
+        ByteBuffer src=rgba.duplicate();
+        src.limit(src.position()+size);
+        pixels.put(src);
+        pixels.clear();
+        Frame frame=new Frame(pixels,width,height,timestamp,System.currentTimeMillis());
+        synchronized (mLock){
+            mReserved--;
+            frame.sequence=mSequence++;
+            mQueue.addLast(frame);
+            mMaxQueueDepth=Math.max(mMaxQueueDepth,mQueue.size());
+        }
+        mWorkers.execute(mEncodeTask);
+        return true;
+    }
+
+    /**
+     * 等待所有已提交的帧写出
+     * @return 超时返回false
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException{
+        long end=System.currentTimeMillis()+timeoutMillis;
+        synchronized (mLock){
+            while (mInFlight>0){
+                long left=end-System.currentTimeMillis();
+                if(left<=0){
+                    return false;
+                }
+                mLock.wait(left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * 不再接受新的帧，已提交的帧仍会编码写出，之后线程退出
+     */
+    public void shutdown(){
+        synchronized (mLock){
+            isShutdown=true;
+            mLock.notifyAll();
+            shutdownIfIdle();
+        }
+    }
+
+    /**
+     * @return 等待编码的帧数
+     */
+    public int getQueueDepth(){
+        synchronized (mLock){
+            return mQueue.size();
+        }
+    }
+
+    public int getMaxQueueDepth(){
+        synchronized (mLock){
+            return mMaxQueueDepth;
+        }
+    }
+
+    public int getDroppedCount(){
+        synchronized (mLock){
+            return mDroppedCount;
+        }
+    }
+
+    public int getWrittenCount(){
+        synchronized (mLock){
+            return mWrittenCount;
+        }
+    }
+
+    public int getFailedCount(){
+        synchronized (mLock){
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * @return 平均单帧编码耗时，纳秒
+     */
+    public long getAverageEncodeNanos(){
+        synchronized (mLock){
+            return mEncodedCount==0?0:mEncodeNanos/mEncodedCount;
+        }
+    }
+
+    public long getMaxEncodeNanos(){
+        synchronized (mLock){
+            return mMaxEncodeNanos;
+        }
+    }
+
+    /**
+     * @return 从提交到写出的平均耗时，纳秒
+     */
+    public long getAverageLatencyNanos(){
+        synchronized (mLock){
+            return mWrittenCount==0?0:mLatencyNanos/mWrittenCount;
+        }
+    }
+
+    public PixelBufferPool getPixelBufferPool(){
+        return mPixels;
+    }
+
+    private void encodeNext(){
+        Frame frame;
+        synchronized (mLock){
+            //被DROP_OLDEST丢弃的帧没有对应的任务，这里可能为空
+            frame=mQueue.pollFirst();
+            if(frame==null){
+                return;
+            }
+            mLock.notifyAll();
+        }
+        long start=System.nanoTime();
+        Exception error=null;
+        try {
+            ByteArrayOutputStream stream=mStream.get();
+            stream.reset();
+            mEncoder.encode(frame.pixels,frame.width,frame.height,stream);
+            frame.data=stream.toByteArray();
+        } catch (IOException|RuntimeException e) {
+            error=e;
+        } finally {
+            mPixels.recycle(frame.pixels);
+            frame.pixels=null;
+        }
+        long cost=System.nanoTime()-start;
+        if(error!=null){
+            try {
+                notifyError(error);
+            } finally {
+                synchronized (mLock){
+                    mFailedCount++;
+                    finish(1);
+                }
+            }
+            return;
+        }
+        synchronized (mLock){
+            mEncodedCount++;
+            mEncodeNanos+=cost;
+            mMaxEncodeNanos=Math.max(mMaxEncodeNanos,cost);
+            mWriteQueue.addLast(frame);
+        }
+        mWriter.execute(mWriteTask);
+    }
+
+    private void writePending(){
+        mBatch.clear();
+        synchronized (mLock){
+            //前面的任务已经把帧一起写出时这里为空
+            Frame frame;
+            while ((frame=mWriteQueue.pollFirst())!=null){
+                mBatch.add(frame);
+            }
+        }
+        if(mBatch.isEmpty()){
+            return;
+        }
+        Exception error=null;
+        try {
+            mOutput.write(mBatch);
+        } catch (IOException|RuntimeException e) {
+            error=e;
+        }
+        long now=System.nanoTime();
+        Listener listener=mListener;
+        try {
+            if(error!=null){
+                notifyError(error);
+            }else if(listener!=null){
+                listener.onWritten(mBatch);
+            }
+        } finally {
+            synchronized (mLock){
+                if(error==null){
+                    mWrittenCount+=mBatch.size();
+                    for (Frame frame:mBatch){
+                        mLatencyNanos+=now-frame.submitNanos;
+                    }
+                }else{
+                    mFailedCount+=mBatch.size();
+                }
+                finish(mBatch.size());
+            }
+        }
+    }
+
+    private void finish(int count){
+        mInFlight-=count;
+        mLock.notifyAll();
+        shutdownIfIdle();
+    }
+
+    private void shutdownIfIdle(){
+        if(isShutdown&&mInFlight==0&&isOwnExecutor){
+            ((ExecutorService)mWorkers).shutdown();
+            ((ExecutorService)mWriter).shutdown();
+        }
+    }
+
+    private void notifyError(Exception e){
+        Listener listener=mListener;
+        if(listener!=null){
+            listener.onError(e);
+        }
+    }
+
+    private static ThreadFactory factory(final String prefix){
+        return new ThreadFactory() {
+
+            private final AtomicInteger count=new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread=new Thread(r,prefix+count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * 导出中的一帧，编码前持有像素，编码后持有编码数据
+     */
+    public static class Frame{
+        private ByteBuffer pixels;
+        private byte[] data;
+        private final int width;
+        private final int height;
+        private final long timestamp;
+        private final long time;
+        private final long submitNanos;
+        private int sequence;
+
+        Frame(ByteBuffer pixels,int width,int height,long timestamp,long time){
+            this.pixels=pixels;
+            this.width=width;
+            this.height=height;
+            this.timestamp=timestamp;
+            this.time=time;
+            this.submitNanos=System.nanoTime();
+        }
+
+        public int getWidth(){
+            return width;
+        }
+
+        public int getHeight(){
+            return height;
+        }
+
+        /**
+         * @return 提交时传入的时间戳
+         */
+        public long getTimestamp(){
+            return timestamp;
+        }
+
+        /**
+         * @return 提交时的系统时间，毫秒
+         */
+        public long getTime(){
+            return time;
+        }
+
+        /**
+         * @return 提交的序号，从0开始
+         */
+        public int getSequence(){
+            return sequence;
+        }
+
+        /**
+         * @return 编码后的数据
+         */
+        public byte[] getData(){
+            return data;
+        }
+    }
+
+}
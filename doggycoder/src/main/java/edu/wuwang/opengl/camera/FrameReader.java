@@ -0,0 +1,385 @@
+/*
+ *
+ * FrameReader.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import com.roger.glcommon.gl.GlCapabilities;
+import com.roger.glcommon.timing.FrameTimings;
+
+/**
+ * Description: 异步读取当前FrameBuffer中的图像。
+ * 支持时使用一组GL_PIXEL_PACK_BUFFER轮流读取，glReadPixels只发起拷贝而不等待GPU完成，
+ * 第N帧发起读取后才映射第N-2帧的PBO取数据，这时GPU早已完成，GL线程不会被阻塞。
+ * 不支持时(上下文不是以ES3.0创建的，或API 24以下没有带offset的glReadPixels)退回同步的glReadPixels。
+ * 取得的数据拷贝到direct ByteBuffer中，在单独的线程里交给{@link FrameBufferCallback}。
+ * 回调处理不过来、所有ByteBuffer都被占用时，按{@link #setDropPolicy(int)}丢帧或等待。
+ * 除回调外所有方法只能在GL线程中调用。
+ */
+public class FrameReader {
+
+    /**
+     * 丢弃排队中最旧的一帧，保证交付的是最新的画面
+     */
+    public static final int DROP_OLDEST=0;
+    /**
+     * 丢弃当前这一帧，已排队的帧不受影响
+     */
+    public static final int DROP_NEWEST=1;
+    /**
+     * GL线程等待回调处理完，不丢帧
+     */
+    public static final int BLOCK=2;
+
+    public static final int PACK_BUFFER_COUNT=3;
+    public static final int DEFAULT_FRAME_COUNT=3;
+
+    private final Backend mBackend;
+    private final FrameBufferCallback mCallback;
+    private final Executor mExecutor;
+    private final int width;
+    private final int height;
+    private final int size;
+    private final int mFrameCount;
+
+    private int[] mPackBuffers;
+    private final long[] mTimestamps=new long[PACK_BUFFER_COUNT];
+    private int mIssued=0;           //已发起读取的帧数
+    private int mCompleted=0;        //已从PBO中取出的帧数
+
+    private final Object mLock=new Object();
+    private final ArrayDeque<Frame> mFree=new ArrayDeque<>();
+    private final ArrayDeque<Frame> mPending=new ArrayDeque<>();
+    private int mCreated=0;
+    private volatile int mDropPolicy=DROP_OLDEST;
+    private int mDroppedCount=0;
+    private int mDeliveredCount=0;
+    private volatile FrameTimings mTimings;
+    private volatile int mCallbackStage;
+
+    private final Runnable mDeliverTask=new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    private static Executor sDefaultExecutor;
+
+    public FrameReader(int width,int height,FrameBufferCallback callback){
+        this(new GlesBackend(),width,height,DEFAULT_FRAME_COUNT,callback,getDefaultExecutor());
+    }
+
+    FrameReader(Backend backend,int width,int height,int frameCount,
+                FrameBufferCallback callback,Executor executor){
+        if(width<=0||height<=0){
+            throw new IllegalArgumentException("Invalid size: "+width+"x"+height);
+        }
+        this.mBackend=backend;
+        this.width=width;
+        this.height=height;
+        this.size=width*height*4;
+        this.mFrameCount=frameCount;
+        this.mCallback=callback;
+        this.mExecutor=executor;
+        if(backend.isAsyncSupported()){
+            mPackBuffers=new int[PACK_BUFFER_COUNT];
+            for (int i=0;i<PACK_BUFFER_COUNT;i++){
+                mPackBuffers[i]=backend.createPackBuffer(size);
+            }
+        }
+    }
+
+    /**
+     * @param policy {@link #DROP_OLDEST}、{@link #DROP_NEWEST}或{@link #BLOCK}
+     */
+    public void setDropPolicy(int policy){
+        this.mDropPolicy=policy;
+    }
+
+    /**
+     * 记录每次回调的耗时，在回调线程中记录
+     * @param stage 在timings中登记的阶段，timings为null时不再记录
+     */
+    public void setFrameTimings(FrameTimings timings,int stage){
+        this.mCallbackStage=stage;
+        this.mTimings=timings;
+    }
+
+    /**
+     * 读取当前绑定的FrameBuffer左下角width*height的内容
+     * @param timestamp 随数据一起回调的时间戳
+     */
+    public void read(long timestamp){
+        if(mPackBuffers!=null){
+            int slot=mIssued%PACK_BUFFER_COUNT;
+            mBackend.readToPackBuffer(mPackBuffers[slot],width,height);
+            mTimestamps[slot]=timestamp;
+            mIssued++;
+            //PBO都在使用中时取出最早的一帧，即第N-2帧
+            if(mIssued-mCompleted==PACK_BUFFER_COUNT){
+                finishOldest(false);
+            }
+        }else{
+            Frame frame=obtainFrame(false);
+            if(frame!=null){
+                mBackend.readPixels(width,height,frame.buffer);
+                frame.buffer.clear();
+                frame.timestamp=timestamp;
+                submit(frame);
+            }
+        }
+    }
+
+    /**
+     * 立即取出所有已发起读取的帧，会等待GPU完成，在拍照或停止录制时调用。
+     * 此时不会丢帧，回调处理不过来时等待
+     */
+    public void flush(){
+        while (mIssued>mCompleted){
+            finishOldest(true);
+        }
+    }
+
+    /**
+     * 删除PBO，已交给回调线程的帧仍会回调。未flush的帧被丢弃
+     */
+    public void release(){
+        if(mPackBuffers!=null){
+            for (int buffer:mPackBuffers){
+                mBackend.deleteBuffer(buffer);
+            }
+            mPackBuffers=null;
+        }
+        mCompleted=mIssued;
+    }
+
+    /**
+     * 所有FrameReader共用一个回调线程，保证回调按帧的顺序执行
+     */
+    private static synchronized Executor getDefaultExecutor(){
+        if(sDefaultExecutor==null){
+            sDefaultExecutor=Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread=new Thread(r,"FrameReader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sDefaultExecutor;
+    }
+
+    public boolean isAsync(){
+        return mPackBuffers!=null;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public FrameBufferCallback getCallback(){
+        return mCallback;
+    }
+
+    /**
+     * @return 已发起读取但还未取出的帧数
+     */
+    public int getPendingCount(){
+        return mIssued-mCompleted;
+    }
+
+    public int getDroppedCount(){
+        synchronized (mLock){
+            return mDroppedCount;
+        }
+    }
+
+    public int getDeliveredCount(){
+        synchronized (mLock){
+            return mDeliveredCount;
+        }
+    }
+
+    private void finishOldest(boolean wait){
+        int slot=mCompleted%PACK_BUFFER_COUNT;
+        mCompleted++;
+        Frame frame=obtainFrame(wait);
+        if(frame!=null){
+            if(!mBackend.copyPackBuffer(mPackBuffers[slot],size,frame.buffer)){
+                //映射失败时没有数据，不能把上一次的内容当作这一帧交出去
+                frame.buffer.clear();
+                synchronized (mLock){
+                    mDroppedCount++;
+                    mFree.addLast(frame);
+                }
+                return;
+            }
+            frame.buffer.clear();
+            frame.timestamp=mTimestamps[slot];
+            submit(frame);
+        }
+    }
+
+    //取得一个空闲的ByteBuffer，取不到时按丢帧策略处理，返回null表示丢弃当前帧
+    private Frame obtainFrame(boolean wait){
+        synchronized (mLock){
+            Frame frame=mFree.pollLast();
+            if(frame!=null){
+                return frame;
+            }
+            if(mCreated<mFrameCount){
+                mCreated++;
+                return new Frame(ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder()));
+            }
+            if(wait||mDropPolicy==BLOCK){
+                while (mFree.isEmpty()){
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        mDroppedCount++;
+                        return null;
+                    }
+                }
+                return mFree.pollLast();
+            }
+            mDroppedCount++;
+            if(mDropPolicy==DROP_OLDEST){
+                //还没开始回调的帧可以直接拿来复用
+                return mPending.pollFirst();
+            }
+            return null;
+        }
+    }
+
+    private void submit(Frame frame){
+        synchronized (mLock){
+            mPending.addLast(frame);
+        }
+        mExecutor.execute(mDeliverTask);
+    }
+
+    private void deliver(){
+        Frame frame;
+        synchronized (mLock){
+            //被DROP_OLDEST取走的帧没有对应的任务，这里可能为空
+            frame=mPending.pollFirst();
+        }
+        if(frame==null){
+            return;
+        }
+        FrameTimings timings=mTimings;
+        long start=timings==null?0:timings.start();
+        try {
+            mCallback.onFrame(frame.buffer,width,height,frame.timestamp);
+        } finally {
+            if(timings!=null){
+                timings.stop(mCallbackStage,start);
+            }
+            frame.buffer.clear();
+            synchronized (mLock){
+                mDeliveredCount++;
+                mFree.addLast(frame);
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private static class Frame{
+        final ByteBuffer buffer;
+        long timestamp;
+
+        Frame(ByteBuffer buffer){
+            this.buffer=buffer;
+        }
+    }
+
+    interface Backend{
+        boolean isAsyncSupported();
+        int createPackBuffer(int size);
+        /** 读取当前FrameBuffer的内容到PBO，不等待完成 */
+        void readToPackBuffer(int buffer,int width,int height);
+        /**
+         * 映射PBO并把size字节拷贝到out中
+         * @return 映射失败时返回false，out的内容无效
+         */
+        boolean copyPackBuffer(int buffer,int size,ByteBuffer out);
+        /** 同步读取当前FrameBuffer的内容到out中 */
+        void readPixels(int width,int height,ByteBuffer out);
+        void deleteBuffer(int buffer);
+    }
+
+    static class GlesBackend implements Backend{
+
+        private final int[] ids=new int[1];
+
+        @Override
+        public boolean isAsyncSupported() {
+            if(Build.VERSION.SDK_INT<Build.VERSION_CODES.N){
+                return false;
+            }
+            //GL_VERSION是驱动实际提供的版本，以ES2.0创建的上下文不能调用ES3.0的函数
+            return GlCapabilities.getClientVersion()>=3;
+        }
+
+        @Override
+        public int createPackBuffer(int size) {
+            GLES30.glGenBuffers(1,ids,0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER,ids[0]);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER,size,null,GLES30.GL_STREAM_READ);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER,0);
+            return ids[0];
+        }
+
+        @Override
+        public void readToPackBuffer(int buffer, int width, int height) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER,buffer);
+            GLES30.glReadPixels(0,0,width,height,GLES30.GL_RGBA,GLES30.GL_UNSIGNED_BYTE,0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER,0);
+        }
+
+        @Override
+        public boolean copyPackBuffer(int buffer, int size, ByteBuffer out) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER,buffer);
+            ByteBuffer mapped=(ByteBuffer)GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,0,
+                size,GLES30.GL_MAP_READ_BIT);
+            if(mapped!=null){
+                out.put(mapped);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER,0);
+            return mapped!=null;
+        }
+
+        @Override
+        public void readPixels(int width, int height, ByteBuffer out) {
+            GLES20.glReadPixels(0,0,width,height,GLES20.GL_RGBA,GLES20.GL_UNSIGNED_BYTE,out);
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            ids[0]=buffer;
+            GLES30.glDeleteBuffers(1,ids,0);
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ *
+ * JpegEncoder.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.camera;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import android.graphics.Bitmap;
+
+/**
+ * Description: 把RGBA数据编码为JPEG。每个编码线程复用一个同尺寸的Bitmap，
+ * 不再每帧创建和回收Bitmap
+ */
+public class JpegEncoder implements FrameExporter.Encoder {
+
+    private final int quality;
+    private final ThreadLocal<Bitmap> mBitmap=new ThreadLocal<>();
+
+    /**
+     * @param quality JPEG质量，0-100
+     */
+    public JpegEncoder(int quality){
+        this.quality=quality;
+    }
+
+    @Override
+    public void encode(ByteBuffer rgba, int width, int height, OutputStream out) throws IOException {
+        Bitmap bitmap=mBitmap.get();
+        if(bitmap==null||bitmap.getWidth()!=width||bitmap.getHeight()!=height){
+            if(bitmap!=null){
+                bitmap.recycle();
+            }
+            bitmap=Bitmap.createBitmap(width,height,Bitmap.Config.ARGB_8888);
+            mBitmap.set(bitmap);
+        }
+        bitmap.copyPixelsFromBuffer(rgba);
+        if(!bitmap.compress(Bitmap.CompressFormat.JPEG,quality,out)){
+            throw new IOException("Could not encode "+width+"x"+height+" frame");
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ *
+ * PixelBufferPool.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Description: 按字节数复用的像素buffer池，线程安全。
+ * 每种大小最多保留maxPerSize个空闲buffer，多出的归还直接交给GC
+ */
+public class PixelBufferPool {
+
+    private final Map<Integer,ArrayDeque<ByteBuffer>> mFree=new HashMap<>();
+    private final int mMaxPerSize;
+    private int mAllocationCount=0;
+    private int mReuseCount=0;
+
+    public PixelBufferPool(int maxPerSize){
+        this.mMaxPerSize=maxPerSize;
+    }
+
+    /**
+     * @return position为0、limit为size的direct buffer
+     */
+    public synchronized ByteBuffer obtain(int size){
+        ArrayDeque<ByteBuffer> free=mFree.get(size);
+        ByteBuffer buffer=free==null?null:free.pollLast();
+        if(buffer==null){
+            buffer=ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            mAllocationCount++;
+        }else{
+            mReuseCount++;
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    public synchronized void recycle(ByteBuffer buffer){
+        if(buffer==null){
+            return;
+        }
+        ArrayDeque<ByteBuffer> free=mFree.get(buffer.capacity());
+        if(free==null){
+            free=new ArrayDeque<>();
+            mFree.put(buffer.capacity(),free);
+        }
+        if(free.size()<mMaxPerSize){
+            free.addLast(buffer);
+        }
+    }
+
+    /**
+     * 丢弃所有空闲buffer，比如导出大小变化后
+     */
+    public synchronized void trim(){
+        mFree.clear();
+    }
+
+    public synchronized int getAllocationCount(){
+        return mAllocationCount;
+    }
+
+    public synchronized int getReuseCount(){
+        return mReuseCount;
+    }
+
+}
@@ -17,11 +17,19 @@ import android.opengl.GLSurfaceView;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.filter.AFilter;
 import edu.wuwang.opengl.filter.GroupFilter;
 import edu.wuwang.opengl.filter.NoFilter;
+import edu.wuwang.opengl.filter.RenderTarget;
+import edu.wuwang.opengl.filter.RenderTargetPool;
 import edu.wuwang.opengl.utils.EasyGlUtils;
 import edu.wuwang.opengl.utils.MatrixUtils;
+import edu.wuwang.opengl.utils.ProgramBinaryCache;
+import edu.wuwang.opengl.utils.ProgramRegistry;
+import edu.wuwang.opengl.utils.ProgramWarmer;
 
 /**
  * Description: 借助GLSurfaceView创建的GL环境，做渲染工作。不将内容渲染到GLSurfaceView
@@ -33,6 +41,7 @@ public class TextureController implements GLSurfaceView.Renderer {
 
     private GLView mGLView;
     private Context mContext;
+    private volatile String[] mWarmUpAssets;
 
     private Renderer mRenderer;                                 //用户附加的Renderer或用来监听Renderer
     private TextureFilter mEffectFilter;                        //特效处理的Filter
@@ -47,22 +56,39 @@ public class TextureController implements GLSurfaceView.Renderer {
 
     private float[] callbackOM=new float[16];                   //用于绘制回调缩放的矩阵
 
-    //创建离屏buffer，用于最后导出数据
-    private int[] mExportFrame = new int[1];
-    private int[] mExportTexture = new int[1];
+    //离屏绘制目标池，GroupFilter和最后导出数据共用
+    private RenderTargetPool mTargetPool=new RenderTargetPool();
 
     private boolean isRecord=false;                             //录像flag
     private boolean isShoot=false;                              //一次拍摄flag
-    private ByteBuffer[] outPutBuffer = new ByteBuffer[3];      //用于存储回调数据的buffer
-    private FrameCallback mFrameCallback;                       //回调
+    private volatile FrameBufferCallback mFrameCallback;        //回调
     private int frameCallbackWidth, frameCallbackHeight;        //回调数据的宽高
-    private int indexOutput=0;                                  //回调数据使用的buffer索引
+    private FrameReader mFrameReader;                           //异步读取回调数据
+    private volatile int mDropPolicy=FrameReader.DROP_OLDEST;   //回调处理不过来时的丢帧策略
+
+    //各阶段耗时，滤镜的每一步由GroupFilter登记
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mUploadStage=mTimings.addStage("upload");
+    private final int mShowStage=mTimings.addStage("show");
+    private final int mReadbackStage=mTimings.addStage("readback");
+    private final int mCallbackStage=mTimings.addStage("callback");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     public TextureController(Context context) {
         this.mContext=context;
+        ProgramBinaryCache.install(context.getApplicationContext());
         init();
     }
 
+    /**
+     * 设置界面稍后会用到的程序，每次GL环境创建后在后台共享环境中提前创建
+     * @param assets 依次为每个程序的顶点着色器和片元着色器在assets中的路径
+     */
+    public void setWarmUpPrograms(String ... assets){
+        mWarmUpAssets=assets;
+    }
+
     public void surfaceCreated(Object nativeWindow){
         this.surface=nativeWindow;
         mGLView.surfaceCreated(null);
@@ -99,6 +125,7 @@ public class TextureController implements GLSurfaceView.Renderer {
         mEffectFilter=new TextureFilter(mContext.getResources());
         mShowFilter=new NoFilter(mContext.getResources());
         mGroupFilter=new GroupFilter(mContext.getResources());
+        mGroupFilter.setFrameTimings(mTimings);
 
         //设置默认的DateSize，DataSize由AiyaProvider根据数据源的图像宽高进行设置
         mDataSize=new Point(720,1280);
@@ -127,7 +154,15 @@ public class TextureController implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        //GL环境可能是新建的，之前的目标和程序都已失效
+        ProgramRegistry.getInstance().onContextCreated();
+        mTargetPool.release();
+        if(mFrameReader!=null){
+            mFrameReader.release();
+            mFrameReader=null;
+        }
         mEffectFilter.create();
+        mGroupFilter.setRenderTargetPool(mTargetPool);
         mGroupFilter.create();
         mShowFilter.create();
         if(!isParamSet.get()){
@@ -138,16 +173,12 @@ public class TextureController implements GLSurfaceView.Renderer {
         }
         calculateCallbackOM();
         mEffectFilter.setFlag(mDirectionFlag);
-
-        deleteFrameBuffer();
-        GLES20.glGenFramebuffers(1,mExportFrame,0);
-        EasyGlUtils.genTexturesWithParameter(1,mExportTexture,0,GLES20.GL_RGBA,mDataSize.x,
-            mDataSize.y);
-    }
-
-    private void deleteFrameBuffer() {
-        GLES20.glDeleteFramebuffers(1, mExportFrame, 0);
-        GLES20.glDeleteTextures(1, mExportTexture, 0);
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
+        String[] warmUp=mWarmUpAssets;
+        if(warmUp!=null&&warmUp.length>0){
+            ProgramWarmer.warmUp(mContext.getResources(),warmUp);
+        }
     }
 
     @Override
@@ -167,19 +198,31 @@ public class TextureController implements GLSurfaceView.Renderer {
     @Override
     public void onDrawFrame(GL10 gl) {
         if(isParamSet.get()){
+            mTimings.frame();
+            if(mGpuTimer!=null){
+                mGpuTimer.begin();
+            }
+            long start=mTimings.start();
             mEffectFilter.draw();
+            mTimings.stop(mUploadStage,start);
             mGroupFilter.setTextureId(mEffectFilter.getOutputTexture());
             mGroupFilter.draw();
 
             //显示传入的texture上，一般是显示在屏幕上
+            start=mTimings.start();
             GLES20.glViewport(0,0,mWindowSize.x,mWindowSize.y);
             mShowFilter.setMatrix(SM);
             mShowFilter.setTextureId(mGroupFilter.getOutputTexture());
             mShowFilter.draw();
+            mTimings.stop(mShowStage,start);
             if(mRenderer!=null){
                 mRenderer.onDrawFrame(gl);
             }
+            if(mGpuTimer!=null){
+                mGpuTimer.end();
+            }
             callbackIfNeeded();
+            mTargetPool.nextFrame();
         }
     }
 
@@ -220,13 +263,21 @@ public class TextureController implements GLSurfaceView.Renderer {
         isShoot=true;
     }
 
+    /**
+     * 设置录像和拍照的数据回调，回调在单独的线程中执行，数据为RGBA格式
+     */
     public void setFrameCallback(int width,int height,FrameCallback frameCallback){
+        setFrameCallback(width,height,frameCallback==null?null:
+            new ArrayFrameCallback(frameCallback));
+    }
+
+    /**
+     * 设置录像和拍照的数据回调，直接回调存放数据的direct ByteBuffer和相机时间戳
+     */
+    public void setFrameCallback(int width,int height,FrameBufferCallback frameCallback){
         this.frameCallbackWidth =width;
         this.frameCallbackHeight = height;
         if (frameCallbackWidth > 0 && frameCallbackHeight > 0) {
-            if(outPutBuffer!=null){
-                outPutBuffer=new ByteBuffer[3];
-            }
             calculateCallbackOM();
             this.mFrameCallback = frameCallback;
         } else {
@@ -234,6 +285,15 @@ public class TextureController implements GLSurfaceView.Renderer {
         }
     }
 
+    /**
+     * 设置录像时回调处理不过来的丢帧策略，默认丢弃最旧的帧
+     * @param policy {@link FrameReader#DROP_OLDEST}、{@link FrameReader#DROP_NEWEST}
+     *               或{@link FrameReader#BLOCK}
+     */
+    public void setFrameDropPolicy(int policy){
+        this.mDropPolicy=policy;
+    }
+
     private void calculateCallbackOM(){
         if(frameCallbackHeight>0&&frameCallbackWidth>0&&mDataSize.x>0&&mDataSize.y>0){
             //计算输出的变换矩阵
@@ -244,6 +304,14 @@ public class TextureController implements GLSurfaceView.Renderer {
         }
     }
 
+    /**
+     * @return 每帧各阶段的耗时：upload、每一步滤镜、show、readback、callback，
+     * 驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
+    }
+
     public Point getWindowSize(){
         return mWindowSize;
     }
@@ -256,28 +324,45 @@ public class TextureController implements GLSurfaceView.Renderer {
 
     //需要回调，则缩放图片到指定大小，读取数据并回调
     private void callbackIfNeeded() {
-        if (mFrameCallback != null && (isRecord || isShoot)) {
-            indexOutput = indexOutput++ >= 2 ? 0 : indexOutput;
-            if (outPutBuffer[indexOutput] == null) {
-                outPutBuffer[indexOutput] = ByteBuffer.allocate(frameCallbackWidth *
-                    frameCallbackHeight*4);
-            }
+        FrameBufferCallback callback=mFrameCallback;
+        if (callback != null && (isRecord || isShoot)) {
+            long start=mTimings.start();
+            prepareFrameReader(callback);
             GLES20.glViewport(0, 0, frameCallbackWidth, frameCallbackHeight);
-            EasyGlUtils.bindFrameTexture(mExportFrame[0],mExportTexture[0]);
+            RenderTarget target=mTargetPool.obtain(frameCallbackWidth,frameCallbackHeight);
+            target.bind(false);
             mShowFilter.setMatrix(callbackOM);
             mShowFilter.draw();
-            frameCallback();
-            isShoot = false;
+            mFrameReader.read(mEffectFilter.getTexture().getTimestamp());
+            if(isShoot){
+                //拍照需要立即拿到这一帧
+                mFrameReader.flush();
+                isShoot = false;
+            }
+            mTimings.stop(mReadbackStage,start);
             EasyGlUtils.unBindFrameBuffer();
+            mTargetPool.recycle(target);
             mShowFilter.setMatrix(SM);
+        }else if(mFrameReader!=null&&mFrameReader.getPendingCount()>0){
+            //停止录制后交出还在PBO中的帧
+            mFrameReader.flush();
         }
     }
 
-    //读取数据并回调
-    private void frameCallback(){
-        GLES20.glReadPixels(0, 0, frameCallbackWidth, frameCallbackHeight,
-            GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, outPutBuffer[indexOutput]);
-        mFrameCallback.onFrame(outPutBuffer[indexOutput].array(),0);
+    //回调或回调大小变化后重建FrameReader
+    private void prepareFrameReader(FrameBufferCallback callback){
+        if(mFrameReader!=null&&(mFrameReader.getCallback()!=callback
+            ||mFrameReader.getWidth()!=frameCallbackWidth
+            ||mFrameReader.getHeight()!=frameCallbackHeight)){
+            mFrameReader.flush();
+            mFrameReader.release();
+            mFrameReader=null;
+        }
+        if(mFrameReader==null){
+            mFrameReader=new FrameReader(frameCallbackWidth,frameCallbackHeight,callback);
+            mFrameReader.setFrameTimings(mTimings,mCallbackStage);
+        }
+        mFrameReader.setDropPolicy(mDropPolicy);
     }
 
     public void create(int width,int height){
@@ -299,6 +384,13 @@ public class TextureController implements GLSurfaceView.Renderer {
         mGLView.requestRender();
     }
 
+    /**
+     * 在GL线程中执行，用于把后台线程的结果交给滤镜
+     */
+    public void queueEvent(Runnable r){
+        mGLView.queueEvent(r);
+    }
+
     public void onPause(){
         mGLView.onPause();
     }
@@ -307,6 +399,28 @@ public class TextureController implements GLSurfaceView.Renderer {
         mGLView.onResume();
     }
 
+    //把ByteBuffer回调转为原有的byte[]回调，三个数组轮流使用
+    private static class ArrayFrameCallback implements FrameBufferCallback{
+
+        private final FrameCallback mCallback;
+        private byte[][] mArrays=new byte[3][];
+        private int mIndex=0;
+
+        ArrayFrameCallback(FrameCallback callback){
+            this.mCallback=callback;
+        }
+
+        @Override
+        public void onFrame(ByteBuffer buffer, int width, int height, long timestamp) {
+            mIndex=(mIndex+1)%mArrays.length;
+            if(mArrays[mIndex]==null||mArrays[mIndex].length!=buffer.remaining()){
+                mArrays[mIndex]=new byte[buffer.remaining()];
+            }
+            buffer.get(mArrays[mIndex]);
+            mCallback.onFrame(mArrays[mIndex],timestamp);
+        }
+    }
+
     /** 自定义GLSurfaceView，暴露出onAttachedToWindow
      * 方法及onDetachedFromWindow方法，取消holder的默认监听
      * onAttachedToWindow及onDetachedFromWindow必须保证view
@@ -7,6 +7,8 @@ import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.util.Log;
 
+import com.roger.glcommon.timing.FrameTimings;
+
 import edu.wuwang.opengl.filter.AFilter;
 
 /**
@@ -24,6 +26,10 @@ public class GLES20BackEnv {
     private AFilter mFilter;
     Bitmap mBitmap;
     String mThreadOwner;
+    //离屏单次渲染，不统计帧间隔
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mReadbackStage=mTimings.addStage("readback");
 
     public GLES20BackEnv(int width,int height){
         this.mWidth=width;
@@ -59,8 +65,20 @@ public class GLES20BackEnv {
             return null;
         }
         mFilter.setTextureId(createTexture(mBitmap));
+        long start=mTimings.start();
         mFilter.draw();
-        return convertToBitmap();
+        mTimings.stop(mDrawStage,start);
+        start=mTimings.start();
+        Bitmap bitmap=convertToBitmap();
+        mTimings.stop(mReadbackStage,start);
+        return bitmap;
+    }
+
+    /**
+     * @return 滤镜绘制和读回像素的耗时
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 
     public void destroy() {
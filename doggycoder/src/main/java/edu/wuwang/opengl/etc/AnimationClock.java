@@ -0,0 +1,150 @@
+/*
+ *
+ * AnimationClock.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.etc;
+
+/**
+ * Description: 按时间计算帧动画当前应该显示的帧，与渲染帧率无关。
+ * 渲染跟不上动画时直接跳到当前时间对应的帧，渲染比动画快时重复返回同一帧。
+ * 支持跳转、倒放(rate为负数)和变速播放，时间单位为毫秒。
+ */
+public class AnimationClock {
+
+    private static final double EPSILON=1e-6;
+
+    private final int frameCount;
+    private float fps;
+    private float rate=1;
+    private boolean isLooping=true;
+
+    private double basePosition;
+    private long baseTime;
+    private boolean isStarted=false;
+    private boolean isFinished=false;
+
+    private int lastFrame=-1;
+    private int skippedFrames=0;
+
+    public AnimationClock(int frameCount,float fps){
+        if(frameCount<=0||fps<=0){
+            throw new IllegalArgumentException("frameCount and fps must be positive");
+        }
+        this.frameCount=frameCount;
+        this.fps=fps;
+    }
+
+    public void setLooping(boolean looping){
+        this.isLooping=looping;
+    }
+
+    /**
+     * 修改帧率，从当前位置继续播放
+     */
+    public void setFps(float fps,long now){
+        if(fps<=0){
+            throw new IllegalArgumentException("fps must be positive");
+        }
+        rebase(now);
+        this.fps=fps;
+    }
+
+    /**
+     * 修改播放速度，从当前位置继续播放
+     * @param rate 1为正常速度，负数为倒放
+     */
+    public void setRate(float rate,long now){
+        rebase(now);
+        this.rate=rate;
+    }
+
+    public float getRate(){
+        return rate;
+    }
+
+    /**
+     * 从头开始播放，倒放时从最后一帧开始
+     */
+    public void start(long now){
+        seek(rate<0?frameCount-1:0,now);
+    }
+
+    /**
+     * 跳转到指定帧，从now开始计时，该帧完整显示一个帧间隔
+     */
+    public void seek(int frame,long now){
+        basePosition=Math.max(0,Math.min(frame,frameCount-1));
+        if(rate<0){
+            //倒放时位置向下减小，从帧的末尾开始
+            basePosition+=1-EPSILON;
+        }
+        baseTime=now;
+        isStarted=true;
+        isFinished=false;
+        lastFrame=-1;
+    }
+
+    /**
+     * 计算now时刻应该显示的帧，第一次调用时开始计时
+     * @return 帧序号，非循环模式下播放结束后停在最后显示的一帧
+     */
+    public int getFrame(long now){
+        if(!isStarted){
+            start(now);
+        }
+        double position=position(now);
+        long index=(long)Math.floor(position);
+        int frame;
+        if(isLooping){
+            frame=(int)(((index%frameCount)+frameCount)%frameCount);
+        }else if(index<0||index>=frameCount){
+            isFinished=true;
+            frame=index<0?0:frameCount-1;
+        }else{
+            frame=(int)index;
+        }
+        if(lastFrame>=0&&frame!=lastFrame){
+            int step=rate<0?lastFrame-frame:frame-lastFrame;
+            if(isLooping){
+                step=((step%frameCount)+frameCount)%frameCount;
+            }
+            if(step>1){
+                skippedFrames+=step-1;
+            }
+        }
+        lastFrame=frame;
+        return frame;
+    }
+
+    /**
+     * @return 非循环模式下是否已经播放完成
+     */
+    public boolean isFinished(){
+        return isFinished;
+    }
+
+    /**
+     * @return 因为渲染跟不上而跳过的帧数，用于统计
+     */
+    public int getSkippedFrames(){
+        return skippedFrames;
+    }
+
+    public int getFrameCount(){
+        return frameCount;
+    }
+
+    private double position(long now){
+        return basePosition+(now-baseTime)*(double)fps*rate/1000;
+    }
+
+    private void rebase(long now){
+        if(isStarted){
+            basePosition=position(now);
+            baseTime=now;
+        }
+    }
+
+}
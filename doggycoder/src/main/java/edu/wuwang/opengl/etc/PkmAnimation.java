@@ -0,0 +1,334 @@
+/*
+ *
+ * PkmAnimation.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.etc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipInputStream;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+/**
+ * Description: 可随机访问的PKM动画，由颜色帧和透明度帧交替存放的zip转换而来。
+ * zip只能顺序解压，循环播放需要重新打开并解压全部数据，也无法跳帧和倒放。
+ * 转换后的文件不压缩，带有帧偏移表，通过内存映射读取，任意一帧都可以直接取出，
+ * 配合{@link AnimationClock}按时间播放。
+ * 文件格式(小端序)：
+ * <pre>
+ * int    magic 'PKMA'
+ * int    version
+ * long   源zip中央目录的CRC32
+ * int    帧数
+ * int    帧偏移表的位置
+ * ETC1数据，不含PKM文件头，按4字节对齐
+ * 帧偏移表，每帧 {
+ *     int 颜色数据偏移，int 宽，int 高，int 数据长度
+ *     int 透明度数据偏移，int 宽，int 高，int 数据长度
+ * }
+ * </pre>
+ * 预生成的文件放在assets中时需要配置aaptOptions.noCompress，否则无法openFd映射。
+ */
+public class PkmAnimation {
+
+    private static final String TAG="PkmAnimation";
+
+    public static final String SUFFIX=".pkma";
+
+    private static final int MAGIC=0x414D4B50;
+    private static final int VERSION=2;
+    private static final int HEADER_SIZE=24;
+    private static final int FRAME_INFO_SIZE=32;
+
+    private static final int EOCD_SIGNATURE=0x06054B50;
+    private static final int EOCD_SIZE=22;
+    private static final int MAX_COMMENT_SIZE=0xFFFF;
+
+    private final ZipPkmPrefetcher.Frame[] mFrames;
+    private final long mFingerprint;
+
+    private PkmAnimation(ZipPkmPrefetcher.Frame[] frames,long fingerprint){
+        this.mFrames=frames;
+        this.mFingerprint=fingerprint;
+    }
+
+    /**
+     * 打开zip动画，用于替代{@link ZipPkmReader}。
+     * 查找顺序为assets中与zip同名的{@link #SUFFIX}文件，然后是应用cache目录。
+     * 两者都不可用时转换zip并写入cache目录，之后直接映射。
+     * 是否过期只比较zip的中央目录，不需要读取整个zip。
+     * 首次转换需要解压整个zip，不要在GL线程或UI线程中调用。
+     * @param file 以"assets/"开头时从assets中读取，否则作为文件路径读取
+     * @return 读取失败时返回null
+     */
+    public static PkmAnimation open(Context context,String file){
+        boolean isAssets=file.startsWith("assets/");
+        String path=isAssets?file.substring(7):file;
+        String parent=path.substring(0,path.lastIndexOf("/")+1);
+        String name=path.substring(path.lastIndexOf("/")+1);
+        String packName=(name.endsWith(".zip")?name.substring(0,name.length()-4):name)+SUFFIX;
+        File packFile=new File(context.getCacheDir(),packName);
+        try {
+            ByteBuffer zip=null;
+            if(isAssets){
+                zip=mapAsset(context,path);
+                if(zip==null){
+                    //zip在apk中被再次压缩时无法映射，只能整个读出
+                    zip=ByteBuffer.wrap(readFully(context.getAssets().open(path)));
+                }
+            }else{
+                zip=map(new File(file));
+            }
+            long fingerprint=fingerprint(zip);
+
+            PkmAnimation animation=null;
+            if(isAssets){
+                animation=load(mapAsset(context,parent+packName),fingerprint);
+            }
+            if(animation==null&&packFile.exists()){
+                animation=load(map(packFile),fingerprint);
+            }
+            if(animation==null){
+                Log.d(TAG,"pack missing or stale, convert "+file);
+                convert(isAssets?context.getAssets().open(path):new FileInputStream(file),fingerprint,packFile);
+                animation=load(map(packFile),fingerprint);
+            }
+            return animation;
+        } catch (IOException e) {
+            Log.e(TAG,"open animation failed:"+file,e);
+        }
+        return null;
+    }
+
+    /**
+     * 离线转换，供{@link PkmAnimationConverter}使用
+     */
+    public static void convert(File zipFile,File out) throws IOException {
+        convert(new FileInputStream(zipFile),fingerprint(map(zipFile)),out);
+    }
+
+    /**
+     * 将zip中的PKM条目依次写入，条目数为奇数时丢弃最后一个
+     * @param fingerprint 源zip的{@link #fingerprint(ByteBuffer)}，打开时用于判断是否过期
+     */
+    public static void convert(InputStream zipStream,long fingerprint,File out) throws IOException {
+        ZipInputStream zip=new ZipInputStream(zipStream);
+        //先写临时文件再重命名，避免写入中断留下不完整的文件
+        File temp=new File(out.getPath()+".tmp");
+        RandomAccessFile raf=new RandomAccessFile(temp,"rw");
+        try {
+            FileChannel channel=raf.getChannel();
+            channel.truncate(0);
+            channel.position(HEADER_SIZE);
+            byte[] ioBuffer=new byte[16*1024];
+            int[] size=new int[2];
+            int[] table=new int[64*4];
+            int entries=0;
+            int offset=HEADER_SIZE;
+            ByteBuffer data=null;
+            ByteBuffer padding=ByteBuffer.allocate(4);
+            while (ZipPkmPrefetcher.nextEntry(zip)){
+                data=ZipPkmPrefetcher.readPkm(zip,data,size,ioBuffer);
+                if(table.length<(entries+1)*4){
+                    table=Arrays.copyOf(table,table.length*2);
+                }
+                int length=data.remaining();
+                table[entries*4]=offset;
+                table[entries*4+1]=size[0];
+                table[entries*4+2]=size[1];
+                table[entries*4+3]=length;
+                entries++;
+                while (data.hasRemaining()){
+                    channel.write(data);
+                }
+                offset+=length;
+                int pad=(4-(offset&3))&3;
+                if(pad>0){
+                    padding.clear().limit(pad);
+                    channel.write(padding);
+                    offset+=pad;
+                }
+            }
+            int frameCount=entries/2;
+            ByteBuffer tail=ByteBuffer.allocate(frameCount*FRAME_INFO_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i=0;i<frameCount*8;i++){
+                tail.putInt(table[i]);
+            }
+            tail.flip();
+            while (tail.hasRemaining()){
+                channel.write(tail);
+            }
+            ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(frameCount).putInt(offset);
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()){
+                channel.write(header);
+            }
+        }finally {
+            raf.close();
+            zip.close();
+        }
+        if(!temp.renameTo(out)){
+            out.delete();
+            if(!temp.renameTo(out)){
+                throw new IOException("rename failed:"+out);
+            }
+        }
+    }
+
+    /**
+     * 从映射的数据中构建动画，帧数据直接引用映射区域
+     * @param fingerprint 源zip的{@link #fingerprint(ByteBuffer)}，与文件中记录的不一致时返回null
+     * @return 数据无效时返回null
+     */
+    static PkmAnimation load(ByteBuffer pack,long fingerprint){
+        if(pack==null||pack.remaining()<HEADER_SIZE){
+            return null;
+        }
+        ByteBuffer buffer=pack.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int limit=buffer.limit();
+        if(buffer.getInt(0)!=MAGIC||buffer.getInt(4)!=VERSION||buffer.getLong(8)!=fingerprint){
+            return null;
+        }
+        int frameCount=buffer.getInt(16);
+        int tableOffset=buffer.getInt(20);
+        if(frameCount<=0||tableOffset<HEADER_SIZE||tableOffset>limit
+            ||(long)frameCount*FRAME_INFO_SIZE>limit-tableOffset){
+            return null;
+        }
+        ZipPkmPrefetcher.Frame[] frames=new ZipPkmPrefetcher.Frame[frameCount];
+        for (int i=0;i<frameCount;i++){
+            int info=tableOffset+i*FRAME_INFO_SIZE;
+            ZipPkmPrefetcher.Frame frame=new ZipPkmPrefetcher.Frame();
+            frame.index=i;
+            frame.width=buffer.getInt(info+4);
+            frame.height=buffer.getInt(info+8);
+            frame.color=slice(buffer,buffer.getInt(info),buffer.getInt(info+12),tableOffset);
+            frame.alphaWidth=buffer.getInt(info+20);
+            frame.alphaHeight=buffer.getInt(info+24);
+            frame.alpha=slice(buffer,buffer.getInt(info+16),buffer.getInt(info+28),tableOffset);
+            if(frame.color==null||frame.alpha==null){
+                return null;
+            }
+            frames[i]=frame;
+        }
+        return new PkmAnimation(frames,fingerprint);
+    }
+
+    public int getFrameCount(){
+        return mFrames.length;
+    }
+
+    /**
+     * 取出指定帧，数据直接引用映射区域，不需要归还
+     */
+    public ZipPkmPrefetcher.Frame getFrame(int index){
+        return mFrames[index];
+    }
+
+    /**
+     * @return 源zip的{@link #fingerprint(ByteBuffer)}
+     */
+    public long getFingerprint(){
+        return mFingerprint;
+    }
+
+    /**
+     * 源zip中央目录的CRC32，用于判断转换后的文件是否与zip一致。
+     * 中央目录记录了每个条目的名称、大小和CRC，条目内容变化时它也会变化，
+     * 只有几十字节每条目，不需要读取和校验整个zip
+     * @param zip 整个zip文件的数据
+     * @throws IOException 找不到中央目录时抛出
+     */
+    public static long fingerprint(ByteBuffer zip) throws IOException {
+        ByteBuffer buffer=zip.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int limit=buffer.limit();
+        //结束记录在文件末尾，后面最多跟一段注释，从后往前找
+        int eocd=limit-EOCD_SIZE;
+        int min=Math.max(0,limit-EOCD_SIZE-MAX_COMMENT_SIZE);
+        while (eocd>=min&&buffer.getInt(eocd)!=EOCD_SIGNATURE){
+            eocd--;
+        }
+        if(eocd<min){
+            throw new IOException("zip end of central directory not found");
+        }
+        long size=buffer.getInt(eocd+12)&0xFFFFFFFFL;
+        long offset=buffer.getInt(eocd+16)&0xFFFFFFFFL;
+        if(offset+size>eocd){
+            throw new IOException("zip central directory out of range");
+        }
+        byte[] directory=new byte[(int)size];
+        buffer.position((int)offset);
+        buffer.get(directory);
+        CRC32 crc=new CRC32();
+        crc.update(directory,0,directory.length);
+        return crc.getValue();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer,int offset,int length,int end){
+        if(offset<HEADER_SIZE||length<0||offset>end-length){
+            return null;
+        }
+        ByteBuffer b=buffer.duplicate();
+        b.limit(offset+length);
+        b.position(offset);
+        return b.slice();
+    }
+
+    //映射assets中未压缩的文件，文件不存在或被压缩时返回null
+    private static ByteBuffer mapAsset(Context context,String path){
+        try {
+            AssetFileDescriptor afd=context.getAssets().openFd(path);
+            try {
+                FileChannel channel=afd.createInputStream().getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY,afd.getStartOffset(),afd.getLength());
+            }finally {
+                afd.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static ByteBuffer map(File file) throws IOException {
+        FileInputStream fis=new FileInputStream(file);
+        try {
+            FileChannel channel=fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }finally {
+            fis.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        try {
+            byte[] buffer=new byte[Math.max(stream.available(),8192)];
+            int size=0;
+            int len;
+            while ((len=stream.read(buffer,size,buffer.length-size))!=-1){
+                size+=len;
+                if(size==buffer.length){
+                    buffer=Arrays.copyOf(buffer,buffer.length*2);
+                }
+            }
+            return size==buffer.length?buffer:Arrays.copyOf(buffer,size);
+        }finally {
+            stream.close();
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package edu.wuwang.opengl.etc;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Description: 离线将zip动画转换为{@link PkmAnimation}格式，在PC上执行：
+ * <pre>
+ * java -cp build/intermediates/classes/debug:$ANDROID_HOME/platforms/android-24/android.jar \
+ *     edu.wuwang.opengl.etc.PkmAnimationConverter src/main/assets/etczip/cc.zip
+ * </pre>
+ * 不指定输出文件时，输出到zip所在目录下的同名{@link PkmAnimation#SUFFIX}文件。
+ */
+public class PkmAnimationConverter {
+
+    public static void main(String[] args) throws IOException {
+        if(args.length<1){
+            System.out.println("usage: PkmAnimationConverter <input.zip> [output"+PkmAnimation.SUFFIX+"]");
+            System.exit(1);
+        }
+        File in=new File(args[0]);
+        File out;
+        if(args.length>1){
+            out=new File(args[1]);
+        }else{
+            String name=in.getName();
+            if(name.endsWith(".zip")){
+                name=name.substring(0,name.length()-4);
+            }
+            out=new File(in.getAbsoluteFile().getParentFile(),name+PkmAnimation.SUFFIX);
+        }
+        long start=System.currentTimeMillis();
+        PkmAnimation.convert(in,out);
+        System.out.println(in+" -> "+out+" ("+out.length()+" bytes, "
+            +(System.currentTimeMillis()-start)+"ms)");
+    }
+
+}
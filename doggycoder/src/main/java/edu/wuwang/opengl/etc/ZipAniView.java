@@ -15,12 +15,22 @@ import android.graphics.PixelFormat;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
+import edu.wuwang.opengl.utils.ProgramRegistry;
+
 /**
  * Description:
  */
 public class ZipAniView extends GLSurfaceView implements GLSurfaceView.Renderer {
 
     private ZipMulDrawer mDrawer;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     public ZipAniView(Context context) {
         this(context,null);
@@ -69,7 +79,11 @@ public class ZipAniView extends GLSurfaceView implements GLSurfaceView.Renderer
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        //新的GL环境，之前共享的程序都已失效
+        ProgramRegistry.getInstance().onContextCreated();
         mDrawer.create();
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
     }
 
     @Override
@@ -79,7 +93,23 @@ public class ZipAniView extends GLSurfaceView implements GLSurfaceView.Renderer
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        mTimings.frame();
+        if(mGpuTimer!=null){
+            mGpuTimer.begin();
+        }
+        long start=mTimings.start();
         mDrawer.draw();
+        mTimings.stop(mDrawStage,start);
+        if(mGpuTimer!=null){
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 每帧绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 
 }
@@ -36,14 +36,18 @@ public class ZipMulDrawer extends AFilter {
 
     private int[] texture;
 
-    private ZipPkmReader mPkmReader;
+    private String mPath;
+    private int lookahead=4;
+    private ZipPkmPrefetcher mPrefetcher;
+    private boolean hasFrame=false;
+    //空白纹理已上传，没有新帧时不再重复上传
+    private boolean isEmptyBound=false;
     private int mGlHAlpha;
 
     private StateChangeListener mStateChangeListener;
 
     public ZipMulDrawer(Resources mRes) {
         super(mRes);
-        mPkmReader=new ZipPkmReader(mRes.getAssets());
     }
 
     @Override
@@ -52,6 +56,7 @@ public class ZipMulDrawer extends AFilter {
         texture=new int[2];
         createEtcTexture(texture);
         setTextureId(texture[0]);
+        isEmptyBound=false;
 
         mGlHAlpha=GLES20.glGetUniformLocation(mProgram,"vTextureAlpha");
     }
@@ -67,46 +72,65 @@ public class ZipMulDrawer extends AFilter {
         emptyBuffer=ByteBuffer.allocateDirect(ETC1.getEncodedDataSize(width,height));
         this.width=width;
         this.height=height;
+        isEmptyBound=false;
         GLES20.glEnable(GLES20.GL_BLEND);
         GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA,GLES20.GL_ONE_MINUS_SRC_ALPHA);
     }
 
     @Override
     protected void onBindTexture() {
-        ETC1Util.ETC1Texture t=mPkmReader.getNextTexture();
-        ETC1Util.ETC1Texture tAlpha=mPkmReader.getNextTexture();
-        Log.e("wuwang","is ETC null->"+(t==null));
-        if(t!=null&&tAlpha!=null){
-            Gl2Utils.getMatrix(SM,type,t.getWidth(),t.getHeight(),width,height);
+        ZipPkmPrefetcher prefetcher=mPrefetcher;
+        ZipPkmPrefetcher.Frame frame=prefetcher==null?null:prefetcher.poll();
+        boolean finished=prefetcher==null||prefetcher.isFinished();
+        if(frame!=null){
+            Gl2Utils.getMatrix(SM,type,frame.getWidth(),frame.getHeight(),width,height);
             setMatrix(SM);
             onSetExpandData();
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
-            ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                .GL_UNSIGNED_SHORT_5_6_5,t);
-            GLES20.glUniform1i(mHTexture,getTextureType());
-
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE1+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[1]);
-            ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                .GL_UNSIGNED_SHORT_5_6_5,tAlpha);
-            GLES20.glUniform1i(mGlHAlpha,1+getTextureType());
+            bindTexture(frame.getColorTexture(),frame.getAlphaTexture());
+            //纹理数据已经上传，归还给后台线程继续解码
+            prefetcher.release(frame);
+            hasFrame=true;
+            isEmptyBound=false;
+        }else if(hasFrame&&!finished){
+            //下一帧还未解码完成，继续使用上一帧的纹理
+            onSetExpandData();
+            bindTexture(null,null);
+        }else if(isEmptyBound){
+            onSetExpandData();
+            bindTexture(null,null);
+            if(finished){
+                isPlay=false;
+            }
         }else{
             setMatrix(OM);
             onSetExpandData();
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
+            ETC1Util.ETC1Texture empty=new ETC1Util.ETC1Texture(width,height,emptyBuffer);
+            bindTexture(empty,empty);
+            hasFrame=false;
+            isEmptyBound=true;
+            if(finished){
+                isPlay=false;
+            }
+        }
+    }
+
+    //texture为null时只绑定上一次上传的纹理
+    private void bindTexture(ETC1Util.ETC1Texture t,ETC1Util.ETC1Texture tAlpha){
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
+        if(t!=null){
             ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                .GL_UNSIGNED_SHORT_5_6_5,new ETC1Util.ETC1Texture(width,height,emptyBuffer));
-            GLES20.glUniform1i(mHTexture,getTextureType());
+                .GL_UNSIGNED_SHORT_5_6_5,t);
+        }
+        GLES20.glUniform1i(mHTexture,getTextureType());
 
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE1+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[1]);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1+getTextureType());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[1]);
+        if(tAlpha!=null){
             ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                .GL_UNSIGNED_SHORT_5_6_5,new ETC1Util.ETC1Texture(width,height,emptyBuffer));
-            GLES20.glUniform1i(mGlHAlpha,1+getTextureType());
-            isPlay=false;
+                .GL_UNSIGNED_SHORT_5_6_5,tAlpha);
         }
+        GLES20.glUniform1i(mGlHAlpha,1+getTextureType());
     }
 
     @Override
@@ -145,7 +169,14 @@ public class ZipMulDrawer extends AFilter {
     public void setAnimation(GLSurfaceView view,String path,int timeStep){
         this.mView=view;
         this.timeStep=timeStep;
-        mPkmReader.setZipPath(path);
+        this.mPath=path;
+    }
+
+    /**
+     * 设置后台预读取的帧数，下一次start时生效
+     */
+    public void setLookahead(int lookahead){
+        this.lookahead=lookahead;
     }
 
     public void start(){
@@ -153,7 +184,8 @@ public class ZipMulDrawer extends AFilter {
             stop();
             isPlay = true;
             changeState(StateChangeListener.STOP, StateChangeListener.START);
-            mPkmReader.open();
+            mPrefetcher=new ZipPkmPrefetcher(mRes.getAssets(),mPath,lookahead);
+            mPrefetcher.start();
             mView.requestRender();
         }
     }
@@ -163,9 +195,11 @@ public class ZipMulDrawer extends AFilter {
     }
 
     public void stop(){
-        if(mPkmReader!=null){
-            mPkmReader.close();
+        if(mPrefetcher!=null){
+            mPrefetcher.stop();
+            mPrefetcher=null;
         }
+        hasFrame=false;
         isPlay=false;
     }
 
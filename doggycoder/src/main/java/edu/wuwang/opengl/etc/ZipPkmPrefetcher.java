@@ -0,0 +1,386 @@
+/*
+ *
+ * ZipPkmPrefetcher.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.etc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import android.content.res.AssetManager;
+import android.opengl.ETC1Util;
+import android.util.Log;
+
+/**
+ * Description: 预读取的PKM动画读取器，用于替代在GL线程中直接调用{@link ZipPkmReader#getNextTexture()}。
+ * 后台线程依次解压zip中的颜色帧和透明度帧，写入固定数量、可重复使用的DirectBuffer中，
+ * GL线程通过{@link #poll()}取出已经准备好的帧，上传纹理后调用{@link #release(Frame)}归还。
+ * 所有帧都未被归还时后台线程会等待，预读取的帧数由lookahead决定。
+ */
+public class ZipPkmPrefetcher {
+
+    private static final String TAG="ZipPkmPrefetcher";
+
+    public static final int PKM_HEADER_SIZE=16;
+
+    private final Source mSource;
+    private final Frame[] mFrames;
+    private final ArrayBlockingQueue<Frame> mFree;
+    private final ArrayBlockingQueue<Frame> mReady;
+
+    private volatile boolean isLooping=false;
+    private volatile boolean isRunning=false;
+    private volatile boolean isFinished=false;
+    private Thread mThread;
+    //保护帧的取出状态，stop之后迟到的release不能让同一帧再次进入mFree
+    private final Object mLock=new Object();
+
+    /**
+     * @param path zip路径，以"assets/"开头时从assets中读取
+     * @param lookahead 预读取的帧数(颜色帧和透明度帧算一帧)
+     */
+    public ZipPkmPrefetcher(final AssetManager manager,final String path,int lookahead){
+        this(new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return path.startsWith("assets/")?manager.open(path.substring(7)):new FileInputStream(path);
+            }
+        },lookahead);
+    }
+
+    public ZipPkmPrefetcher(Source source,int lookahead){
+        this.mSource=source;
+        lookahead=Math.max(lookahead,1);
+        mFrames=new Frame[lookahead];
+        mFree=new ArrayBlockingQueue<>(lookahead);
+        mReady=new ArrayBlockingQueue<>(lookahead);
+        for (int i=0;i<lookahead;i++){
+            mFrames[i]=new Frame();
+            mFree.add(mFrames[i]);
+        }
+    }
+
+    /**
+     * 设置播放完成后是否从头循环，循环时不会产生结束状态
+     */
+    public void setLooping(boolean looping){
+        this.isLooping=looping;
+    }
+
+    public synchronized void start(){
+        if(isRunning){
+            return;
+        }
+        isRunning=true;
+        isFinished=false;
+        mThread=new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decodeLoop();
+            }
+        },TAG);
+        mThread.start();
+    }
+
+    /**
+     * 停止后台线程，已经取出但未归还的帧不再使用，之后对它们的release会被忽略。
+     * 停止后可以重新start，从第一帧开始。不能与poll、take同时调用
+     */
+    public synchronized void stop(){
+        isRunning=false;
+        if(mThread!=null){
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mThread=null;
+        }
+        synchronized (mLock){
+            mReady.clear();
+            mFree.clear();
+            for (Frame f:mFrames){
+                f.isOut=false;
+                mFree.add(f);
+            }
+        }
+    }
+
+    /**
+     * 取出下一帧，不阻塞，用于GL线程
+     * @return 下一帧还未准备好或者已经播放结束时返回null
+     */
+    public Frame poll(){
+        return lend(mReady.poll());
+    }
+
+    /**
+     * 取出下一帧，等待到下一帧准备好
+     * @return 播放结束时返回null
+     */
+    public Frame take() throws InterruptedException {
+        while (true){
+            Frame f=mReady.poll(10,TimeUnit.MILLISECONDS);
+            if(f!=null){
+                return lend(f);
+            }
+            if(isFinished&&mReady.isEmpty()){
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 归还取出的帧，归还后帧中的数据会被后续帧覆盖。重复归还和stop之前取出的帧会被忽略
+     */
+    public void release(Frame frame){
+        if(frame==null){
+            return;
+        }
+        synchronized (mLock){
+            if(!frame.isOut){
+                return;
+            }
+            frame.isOut=false;
+        }
+        mFree.offer(frame);
+    }
+
+    private Frame lend(Frame frame){
+        if(frame!=null){
+            synchronized (mLock){
+                frame.isOut=true;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * @return 非循环模式下所有帧都已被取出时为true
+     */
+    public boolean isFinished(){
+        return isFinished&&mReady.isEmpty();
+    }
+
+    /**
+     * @return 已经准备好的帧数
+     */
+    public int readyCount(){
+        return mReady.size();
+    }
+
+    private void decodeLoop(){
+        byte[] ioBuffer=new byte[16*1024];
+        int index=0;
+        ZipInputStream zip=null;
+        Exception failure=null;
+        try {
+            while (isRunning){
+                if(zip==null){
+                    zip=new ZipInputStream(mSource.open());
+                    index=0;
+                }
+                Frame frame=mFree.take();
+                if(readFrame(zip,frame,ioBuffer)){
+                    frame.index=index++;
+                    mReady.put(frame);
+                }else{
+                    mFree.put(frame);
+                    zip.close();
+                    zip=null;
+                    if(!isLooping||index==0){
+                        //没有任何帧时不再循环，避免空转
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            //stop
+        } catch (IOException|RuntimeException e) {
+            failure=e;
+        } finally {
+            //无论怎样退出都要先标记结束，否则take会一直等待
+            isFinished=true;
+            if(zip!=null){
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if(failure!=null){
+            Log.e(TAG,"decode failed",failure);
+        }
+    }
+
+    //读取一对颜色帧和透明度帧，没有完整的一对时返回false
+    private static boolean readFrame(ZipInputStream zip,Frame frame,byte[] ioBuffer) throws IOException {
+        if(!nextEntry(zip)){
+            return false;
+        }
+        frame.color=readPkm(zip,frame.color,frame.size,ioBuffer);
+        frame.width=frame.size[0];
+        frame.height=frame.size[1];
+        if(!nextEntry(zip)){
+            return false;
+        }
+        frame.alpha=readPkm(zip,frame.alpha,frame.size,ioBuffer);
+        frame.alphaWidth=frame.size[0];
+        frame.alphaHeight=frame.size[1];
+        return true;
+    }
+
+    static boolean nextEntry(ZipInputStream zip) throws IOException {
+        ZipEntry entry;
+        while ((entry=zip.getNextEntry())!=null){
+            if(!entry.isDirectory()){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取当前zip条目中的PKM数据到buffer中，buffer容量不足时重新分配
+     * @param size 输出宽高
+     * @return 存放数据的buffer，position为0，limit为数据长度
+     */
+    static ByteBuffer readPkm(InputStream input,ByteBuffer buffer,int[] size,byte[] ioBuffer) throws IOException {
+        int read=0;
+        while (read<PKM_HEADER_SIZE){
+            int len=input.read(ioBuffer,read,PKM_HEADER_SIZE-read);
+            if(len<0){
+                throw new IOException("Unable to read PKM file header.");
+            }
+            read+=len;
+        }
+        if(!isValid(ioBuffer)){
+            throw new IOException("Not a PKM file.");
+        }
+        size[0]=getWidth(ioBuffer);
+        size[1]=getHeight(ioBuffer);
+        int encodedSize=getEncodedDataSize(size[0],size[1]);
+        if(buffer==null||buffer.capacity()<encodedSize){
+            buffer=ByteBuffer.allocateDirect(encodedSize).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        buffer.limit(encodedSize);
+        int len;
+        while (buffer.hasRemaining()&&(len=input.read(ioBuffer,0,Math.min(ioBuffer.length,buffer.remaining())))!=-1){
+            buffer.put(ioBuffer,0,len);
+        }
+        if(buffer.hasRemaining()){
+            throw new IOException("PKM data is truncated: "+buffer.position()+" of "+encodedSize+" bytes.");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    //与ETC1.isValid一致，纯Java实现，不需要DirectBuffer
+    static boolean isValid(byte[] header){
+        if(header[0]!='P'||header[1]!='K'||header[2]!='M'||header[3]!=' '||header[4]!='1'||header[5]!='0'){
+            return false;
+        }
+        int format=readShort(header,6);
+        int encodedWidth=readShort(header,8);
+        int encodedHeight=readShort(header,10);
+        int width=getWidth(header);
+        int height=getHeight(header);
+        return format==0&&encodedWidth>=width&&encodedWidth-width<4
+            &&encodedHeight>=height&&encodedHeight-height<4;
+    }
+
+    static int getWidth(byte[] header){
+        return readShort(header,12);
+    }
+
+    static int getHeight(byte[] header){
+        return readShort(header,14);
+    }
+
+    static int getEncodedDataSize(int width,int height){
+        return (((width+3)&~3)*((height+3)&~3))>>1;
+    }
+
+    private static int readShort(byte[] data,int offset){
+        return ((data[offset]&0xff)<<8)|(data[offset+1]&0xff);
+    }
+
+    /**
+     * 打开zip数据，循环播放时会被多次调用
+     */
+    public interface Source{
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 一帧动画，包含颜色和透明度两张ETC1纹理数据
+     */
+    public static class Frame{
+        int index;
+        int width,height;
+        int alphaWidth,alphaHeight;
+        ByteBuffer color;
+        ByteBuffer alpha;
+        //已被取出、还未归还
+        boolean isOut;
+
+        private final int[] size=new int[2];
+        private ETC1Util.ETC1Texture colorTexture;
+        private ETC1Util.ETC1Texture alphaTexture;
+
+        /**
+         * @return 帧在动画中的序号，循环时从0重新开始
+         */
+        public int getIndex(){
+            return index;
+        }
+
+        public int getWidth(){
+            return width;
+        }
+
+        public int getHeight(){
+            return height;
+        }
+
+        public ByteBuffer getColorData(){
+            return color;
+        }
+
+        public ByteBuffer getAlphaData(){
+            return alpha;
+        }
+
+        /**
+         * @return 颜色纹理，buffer和尺寸不变时重复使用同一个对象
+         */
+        public ETC1Util.ETC1Texture getColorTexture(){
+            if(colorTexture==null||colorTexture.getData()!=color||colorTexture.getWidth()!=width
+                ||colorTexture.getHeight()!=height){
+                colorTexture=new ETC1Util.ETC1Texture(width,height,color);
+            }
+            return colorTexture;
+        }
+
+        public ETC1Util.ETC1Texture getAlphaTexture(){
+            if(alphaTexture==null||alphaTexture.getData()!=alpha||alphaTexture.getWidth()!=alphaWidth
+                ||alphaTexture.getHeight()!=alphaHeight){
+                alphaTexture=new ETC1Util.ETC1Texture(alphaWidth,alphaHeight,alpha);
+            }
+            return alphaTexture;
+        }
+    }
+
+}
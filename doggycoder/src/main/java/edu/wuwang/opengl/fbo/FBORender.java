@@ -18,9 +18,12 @@ import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLUtils;
 
+import com.roger.glcommon.timing.FrameTimings;
+
 import edu.wuwang.opengl.filter.AFilter;
 import edu.wuwang.opengl.filter.GrayFilter;
 import edu.wuwang.opengl.utils.Gl2Utils;
+import edu.wuwang.opengl.utils.ProgramRegistry;
 
 /**
  * Description:
@@ -37,6 +40,10 @@ public class FBORender implements GLSurfaceView.Renderer {
     private int[] fTexture = new int[2];
 
     private Callback mCallback;
+    //只渲染一次，不统计帧间隔
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mReadbackStage=mTimings.addStage("readback");
 
     public FBORender(Resources res) {
         mFilter = new GrayFilter(res);
@@ -52,6 +59,8 @@ public class FBORender implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        //新的GL环境，之前共享的程序都已失效
+        ProgramRegistry.getInstance().onContextCreated();
         mFilter.create();
         mFilter.setMatrix(Gl2Utils.flip(Gl2Utils.getOriginalMatrix(),false,true));
     }
@@ -72,9 +81,13 @@ public class FBORender implements GLSurfaceView.Renderer {
                 GLES20.GL_RENDERBUFFER, fRender[0]);
             GLES20.glViewport(0, 0, mBitmap.getWidth(), mBitmap.getHeight());
             mFilter.setTextureId(fTexture[0]);
+            long start=mTimings.start();
             mFilter.draw();
+            mTimings.stop(mDrawStage,start);
+            start=mTimings.start();
             GLES20.glReadPixels(0, 0, mBitmap.getWidth(), mBitmap.getHeight(), GLES20.GL_RGBA,
                 GLES20.GL_UNSIGNED_BYTE, mBuffer);
+            mTimings.stop(mReadbackStage,start);
             if(mCallback!=null){
                 mCallback.onCall(mBuffer);
             }
@@ -83,6 +96,13 @@ public class FBORender implements GLSurfaceView.Renderer {
         }
     }
 
+    /**
+     * @return 滤镜绘制和读回像素的耗时
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
+    }
+
     public void createEnvi() {
         GLES20.glGenFramebuffers(1, fFrame, 0);
         GLES20.glGenRenderbuffers(1, fRender, 0);
@@ -20,6 +20,7 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import edu.wuwang.opengl.utils.MatrixUtils;
+import edu.wuwang.opengl.utils.ProgramRegistry;
 
 /**
  * Description:
@@ -37,10 +38,19 @@ public abstract class AFilter {
      * 单位矩阵
      */
     public static final float[] OM= MatrixUtils.getOriginalMatrix();
+
+    private static final int ID_POSITION=ProgramRegistry.id("vPosition");
+    private static final int ID_COORD=ProgramRegistry.id("vCoord");
+    private static final int ID_MATRIX=ProgramRegistry.id("vMatrix");
+    private static final int ID_TEXTURE=ProgramRegistry.id("vTexture");
     /**
      * 程序句柄
      */
     protected int mProgram;
+    /**
+     * 与源码相同的其他滤镜共享的程序
+     */
+    private ProgramRegistry.Program mSharedProgram;
     /**
      * 顶点坐标句柄
      */
@@ -82,6 +92,7 @@ public abstract class AFilter {
 
     private int textureType=0;      //默认使用Texture2D0
     private int textureId=0;
+    private boolean isDrawInPlace=false;
     //顶点坐标
     private float pos[] = {
         -1.0f,  1.0f,
@@ -202,18 +213,81 @@ public abstract class AFilter {
         return -1;
     }
 
+    /**
+     * 离屏绘制时是否需要深度缓冲，{@link GroupFilter}只为返回true的滤镜挂载深度缓冲
+     */
+    public boolean isDepthRequired(){
+        return false;
+    }
+
+    /**
+     * 滤镜是否只是在输入图像上叠加内容。{@link GroupFilter}会让这样的滤镜直接绘制在
+     * 存放输入图像的{@link RenderTarget}上，并通过{@link #isDrawInPlace()}告知滤镜
+     * 省去拷贝输入图像的那次全屏绘制
+     */
+    public boolean isOverlay(){
+        return false;
+    }
+
+    /**
+     * 滤镜只做逐像素颜色变换时，返回对应的{@link ColorStage}，{@link GroupFilter}会把相邻的
+     * 这类滤镜合并成一次绘制。需要采样邻域像素或自己绘制几何的滤镜返回null
+     */
+    public ColorStage getColorStage(){
+        return null;
+    }
+
+    /**
+     * 合并绘制前在GL线程中调用，滤镜在此更新ColorStage中的uniform或准备纹理
+     */
+    protected void onPrepareColorStage(){
+
+    }
+
+    public final void setDrawInPlace(boolean inPlace){
+        this.isDrawInPlace=inPlace;
+    }
+
+    /**
+     * @return 当前绘制目标中已经是输入图像时返回true，叠加滤镜只需绘制叠加的内容
+     */
+    public final boolean isDrawInPlace(){
+        return isDrawInPlace;
+    }
+
     /**
      * 实现此方法，完成程序的创建，可直接调用createProgram来实现
      */
     protected abstract void onCreate();
     protected abstract void onSizeChanged(int width,int height);
 
+    /**
+     * 源码相同的滤镜共用一个程序，重复调用时释放之前的程序
+     */
     protected final void createProgram(String vertex,String fragment){
-        mProgram= uCreateGlProgram(vertex,fragment);
-        mHPosition= GLES20.glGetAttribLocation(mProgram, "vPosition");
-        mHCoord=GLES20.glGetAttribLocation(mProgram,"vCoord");
-        mHMatrix=GLES20.glGetUniformLocation(mProgram,"vMatrix");
-        mHTexture=GLES20.glGetUniformLocation(mProgram,"vTexture");
+        ProgramRegistry registry=ProgramRegistry.getInstance();
+        registry.release(mSharedProgram);
+        mSharedProgram=registry.acquire(vertex,fragment);
+        if(mSharedProgram==null){
+            glError(1,"Could not create program");
+            mProgram=0;
+            mHPosition=mHCoord=mHMatrix=mHTexture=-1;
+            return;
+        }
+        mProgram=mSharedProgram.getHandle();
+        mHPosition=mSharedProgram.getAttribLocation(ID_POSITION);
+        mHCoord=mSharedProgram.getAttribLocation(ID_COORD);
+        mHMatrix=mSharedProgram.getUniformLocation(ID_MATRIX);
+        mHTexture=mSharedProgram.getUniformLocation(ID_TEXTURE);
+    }
+
+    /**
+     * 滤镜不再使用时在GL线程中调用，释放共享的程序
+     */
+    public void destroy(){
+        ProgramRegistry.getInstance().release(mSharedProgram);
+        mSharedProgram=null;
+        mProgram=0;
     }
 
     protected final void createProgramByAssetsFile(String vertex,String fragment){
@@ -0,0 +1,131 @@
+/*
+ *
+ * ColorStage.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description: 滤镜的逐像素颜色变换片段，供{@link ShaderFusion}把相邻滤镜合并到一个程序中。
+ * 片段是函数体，输入为vec4 color，必须return一个vec4，只能依赖当前像素的颜色和自己声明的uniform，
+ * 不能读取textureCoordinate或vTexture。uniform的值保存在ColorStage中，由合并后的程序统一设置。
+ * key用于标识片段源码，相同key的片段源码和uniform声明必须完全一致。
+ */
+public class ColorStage {
+
+    public static final String TYPE_FLOAT="float";
+    public static final String TYPE_VEC2="vec2";
+    public static final String TYPE_VEC3="vec3";
+    public static final String TYPE_VEC4="vec4";
+    public static final String TYPE_INT="int";
+    public static final String TYPE_SAMPLER="sampler2D";
+
+    private final String key;
+    private final String body;
+    private final List<String> mTypes=new ArrayList<>();
+    private final List<String> mNames=new ArrayList<>();
+    private final List<float[]> mFloats=new ArrayList<>();
+    private final List<int[]> mInts=new ArrayList<>();
+
+    public ColorStage(String key,String body){
+        this.key=key;
+        this.body=body;
+    }
+
+    /**
+     * 声明片段中使用的uniform
+     * @param type TYPE_*之一
+     */
+    public ColorStage addUniform(String type,String name){
+        if(mNames.contains(name)){
+            throw new IllegalArgumentException("Duplicate uniform:"+name);
+        }
+        int count;
+        boolean isInt=false;
+        switch (type){
+            case TYPE_FLOAT:count=1;break;
+            case TYPE_VEC2:count=2;break;
+            case TYPE_VEC3:count=3;break;
+            case TYPE_VEC4:count=4;break;
+            case TYPE_INT:
+            case TYPE_SAMPLER:count=1;isInt=true;break;
+            default:throw new IllegalArgumentException("Unsupported uniform type:"+type);
+        }
+        mTypes.add(type);
+        mNames.add(name);
+        mFloats.add(isInt?null:new float[count]);
+        mInts.add(isInt?new int[count]:null);
+        return this;
+    }
+
+    public void setFloat(String name,float ... values){
+        float[] v=mFloats.get(indexOf(name));
+        if(v==null||values.length!=v.length){
+            throw new IllegalArgumentException("Uniform "+name+" is not a float"+
+                (v==null?"":" of "+v.length+" components"));
+        }
+        System.arraycopy(values,0,v,0,v.length);
+    }
+
+    /**
+     * 设置int或sampler2D类型uniform的值，sampler2D的值为纹理id，纹理单元由合并后的程序分配
+     */
+    public void setInt(String name,int value){
+        int[] v=mInts.get(indexOf(name));
+        if(v==null){
+            throw new IllegalArgumentException("Uniform "+name+" is not an int or sampler");
+        }
+        v[0]=value;
+    }
+
+    public String getKey(){
+        return key;
+    }
+
+    public String getBody(){
+        return body;
+    }
+
+    public int getUniformCount(){
+        return mNames.size();
+    }
+
+    public String getUniformType(int index){
+        return mTypes.get(index);
+    }
+
+    public String getUniformName(int index){
+        return mNames.get(index);
+    }
+
+    public float[] getFloats(int index){
+        return mFloats.get(index);
+    }
+
+    public int getInt(int index){
+        return mInts.get(index)[0];
+    }
+
+    public int getSamplerCount(){
+        int count=0;
+        for (String type:mTypes){
+            if(TYPE_SAMPLER.equals(type)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int indexOf(String name){
+        int index=mNames.indexOf(name);
+        if(index<0){
+            throw new IllegalArgumentException("Unknown uniform:"+name);
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ *
+ * FusedFilter.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.filter;
+
+import java.util.List;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+
+/**
+ * Description: 由{@link ShaderFusion}生成的合并滤镜，一次绘制完成多个{@link ColorStage}。
+ * 同一签名的程序可被不同的滤镜实例复用，绘制前通过{@link #setStages(List)}传入当前的片段。
+ */
+class FusedFilter extends AFilter {
+
+    private final String signature;
+    private List<ColorStage> mStages;
+    private int[][] mHUniforms;
+
+    FusedFilter(Resources res,List<ColorStage> stages){
+        super(res);
+        this.signature=ShaderFusion.signature(stages);
+        this.mStages=stages;
+    }
+
+    @Override
+    protected void onCreate() {
+        createProgram(uRes(mRes,"shader/base_vertex.sh"),ShaderFusion.generateFragment(mStages));
+        mHUniforms=new int[mStages.size()][];
+        for (int i=0;i<mStages.size();i++){
+            ColorStage stage=mStages.get(i);
+            mHUniforms[i]=new int[stage.getUniformCount()];
+            for (int j=0;j<mHUniforms[i].length;j++){
+                mHUniforms[i][j]=GLES20.glGetUniformLocation(mProgram,
+                    ShaderFusion.uniformName(i,stage.getUniformName(j)));
+            }
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height) {
+
+    }
+
+    public String getSignature(){
+        return signature;
+    }
+
+    /**
+     * @param stages 与创建时签名相同的片段
+     */
+    public void setStages(List<ColorStage> stages){
+        this.mStages=stages;
+    }
+
+    @Override
+    protected void onSetExpandData() {
+        super.onSetExpandData();
+        //纹理单元getTextureType()留给输入图像
+        int unit=getTextureType()+1;
+        for (int i=0;i<mStages.size();i++){
+            ColorStage stage=mStages.get(i);
+            for (int j=0;j<stage.getUniformCount();j++){
+                int location=mHUniforms[i][j];
+                switch (stage.getUniformType(j)){
+                    case ColorStage.TYPE_FLOAT:
+                        GLES20.glUniform1fv(location,1,stage.getFloats(j),0);
+                        break;
+                    case ColorStage.TYPE_VEC2:
+                        GLES20.glUniform2fv(location,1,stage.getFloats(j),0);
+                        break;
+                    case ColorStage.TYPE_VEC3:
+                        GLES20.glUniform3fv(location,1,stage.getFloats(j),0);
+                        break;
+                    case ColorStage.TYPE_VEC4:
+                        GLES20.glUniform4fv(location,1,stage.getFloats(j),0);
+                        break;
+                    case ColorStage.TYPE_INT:
+                        GLES20.glUniform1i(location,stage.getInt(j));
+                        break;
+                    case ColorStage.TYPE_SAMPLER:
+                        GLES20.glActiveTexture(GLES20.GL_TEXTURE0+unit);
+                        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,stage.getInt(j));
+                        GLES20.glUniform1i(location,unit);
+                        unit++;
+                        break;
+                }
+            }
+        }
+    }
+
+}
@@ -14,6 +14,8 @@ import android.content.res.Resources;
  */
 public class GrayFilter extends AFilter {
 
+    private ColorStage mStage;
+
     public GrayFilter(Resources mRes) {
         super(mRes);
     }
@@ -24,6 +26,14 @@ public class GrayFilter extends AFilter {
             "shader/color/gray_fragment.frag");
     }
 
+    @Override
+    public ColorStage getColorStage() {
+        if(mStage==null){
+            mStage=new ColorStage("gray",uRes(mRes,"shader/color/gray_stage.frag"));
+        }
+        return mStage;
+    }
+
     @Override
     protected void onSizeChanged(int width, int height) {
 
@@ -8,6 +8,7 @@
 package edu.wuwang.opengl.filter;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -15,10 +16,17 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import android.content.res.Resources;
 import android.opengl.GLES20;
 
+import com.roger.glcommon.timing.FrameTimings;
+
+import edu.wuwang.opengl.utils.EasyGlUtils;
 import edu.wuwang.opengl.utils.MatrixUtils;
 
 /**
- * Description:
+ * Description: 依次执行多个滤镜。每个滤镜绘制到从{@link RenderTargetPool}租用的目标上，
+ * 前一个滤镜的输出作为后一个滤镜的输入，绘制完成后输入目标立即归还，所以任意数量的滤镜
+ * 只需要两个目标来回切换。{@link AFilter#isOverlay()}的滤镜直接叠加在输入所在的目标上，
+ * 不再租用新目标。相邻的提供{@link ColorStage}的滤镜由{@link ShaderFusion}合并为一次绘制。
+ * 最后的输出目标保留到下一帧开始绘制时才归还。
  */
 public class GroupFilter extends AFilter{
 
@@ -27,6 +35,17 @@ public class GroupFilter extends AFilter{
     private int width=0, height=0;
     private int size=0;
 
+    private RenderTargetPool mPool;
+    private boolean isOwnPool=false;
+    private RenderTarget mOutput;
+    private int mPassCount=0;
+
+    private FrameTimings mTimings;
+    private int[] mStepStages=new int[0];
+
+    private boolean isFusionEnabled=true;
+    private HashMap<String,FusedFilter> mFusedFilters=new HashMap<>();
+
     public GroupFilter(Resources res) {
         super(res);
         mFilters=new ArrayList<>();
@@ -38,6 +57,29 @@ public class GroupFilter extends AFilter{
 
     }
 
+    /**
+     * 设置共用的RenderTargetPool，需在GL线程中调用。未设置时在首次绘制时创建自己的Pool
+     */
+    public void setRenderTargetPool(RenderTargetPool pool){
+        if(mPool!=null){
+            mPool.recycle(mOutput);
+            if(isOwnPool){
+                mPool.release();
+            }
+        }
+        mOutput=null;
+        mPool=pool;
+        isOwnPool=false;
+    }
+
+    /**
+     * 记录每一步绘制的耗时，阶段名为"filter"加上步骤序号，合并的滤镜算作一步。需在GL线程中调用
+     */
+    public void setFrameTimings(FrameTimings timings){
+        this.mTimings=timings;
+        this.mStepStages=new int[0];
+    }
+
     public void addFilter(final AFilter filter){
         //绘制到frameBuffer上和绘制到屏幕上的纹理坐标是不一样的
         //Android屏幕相对GL世界的纹理Y轴翻转
@@ -69,26 +111,89 @@ public class GroupFilter extends AFilter{
 
     public void draw(){
         updateFilter();
-        textureIndex=0;
+        if(mPool==null){
+            mPool=new RenderTargetPool();
+            isOwnPool=true;
+        }
+        //上一帧的输出已经被使用过了
+        mPool.recycle(mOutput);
+        mOutput=null;
+        mPassCount=0;
         if(size>0){
-            for (AFilter filter:mFilters){
-                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fFrame[0]);
-                GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-                        GLES20.GL_TEXTURE_2D, fTexture[textureIndex%2], 0);
-                GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
-                        GLES20.GL_RENDERBUFFER, fRender[0]);
-                GLES20.glViewport(0,0,width,height);
-                if(textureIndex==0){
-                    filter.setTextureId(getTextureId());
+            RenderTarget current=null;
+            int input=getTextureId();
+            ColorStage[] stages=isFusionEnabled?ShaderFusion.collectStages(mFilters)
+                :new ColorStage[size];
+            int index=0;
+            int step=0;
+            for (int count:ShaderFusion.plan(stages)){
+                long start=mTimings==null?0:mTimings.start();
+                AFilter filter=mFilters.get(index);
+                if(count>1){
+                    //相邻的逐像素滤镜合并为一次绘制
+                    for (int i=index;i<index+count;i++){
+                        mFilters.get(i).onPrepareColorStage();
+                    }
+                    filter=getFusedFilter(ShaderFusion.subList(stages,index,count),
+                        filter.getMatrix());
+                }
+                index+=count;
+                boolean depth=filter.isDepthRequired();
+                if(current!=null&&filter.isOverlay()&&(current.hasDepth()||!depth)){
+                    //叠加滤镜直接绘制在输入所在的目标上
+                    filter.setDrawInPlace(true);
                 }else{
-                    filter.setTextureId(fTexture[(textureIndex-1)%2]);
+                    RenderTarget target=mPool.obtain(width,height);
+                    target.bind(depth);
+                    GLES20.glViewport(0,0,width,height);
+                    mPool.recycle(current);
+                    current=target;
+                    filter.setDrawInPlace(false);
+                    mPassCount++;
                 }
+                filter.setTextureId(input);
                 filter.draw();
-                unBindFrame();
-                textureIndex++;
+                input=current.getTextureId();
+                if(mTimings!=null){
+                    mTimings.stop(getStepStage(step),start);
+                }
+                step++;
             }
+            EasyGlUtils.unBindFrameBuffer();
+            mOutput=current;
+        }
+        if(isOwnPool){
+            //共用的Pool由持有者在帧结束时调用，自己的Pool在这里推进
+            mPool.nextFrame();
         }
+    }
 
+    private int getStepStage(int step){
+        if(step>=mStepStages.length){
+            int[] stages=new int[step+1];
+            System.arraycopy(mStepStages,0,stages,0,mStepStages.length);
+            for (int i=mStepStages.length;i<stages.length;i++){
+                stages[i]=mTimings.addStage("filter"+i);
+            }
+            mStepStages=stages;
+        }
+        return mStepStages[step];
+    }
+
+    //合并程序按签名缓存，滤镜链不变时每帧复用
+    private FusedFilter getFusedFilter(List<ColorStage> stages,float[] matrix){
+        String signature=ShaderFusion.signature(stages);
+        FusedFilter filter=mFusedFilters.get(signature);
+        if(filter==null){
+            filter=new FusedFilter(mRes,stages);
+            filter.create();
+            filter.setSize(width,height);
+            mFusedFilters.put(signature,filter);
+        }else{
+            filter.setStages(stages);
+        }
+        filter.setMatrix(matrix);
+        return filter;
     }
 
     private void updateFilter(){
@@ -103,12 +208,37 @@ public class GroupFilter extends AFilter{
 
     @Override
     public int getOutputTexture(){
-        return size==0?getTextureId():fTexture[(textureIndex-1)%2];
+        return mOutput==null?getTextureId():mOutput.getTextureId();
+    }
+
+    /**
+     * @return 上一帧实际执行的离屏绘制次数，叠加滤镜不计入，合并的滤镜计为一次
+     */
+    public int getPassCount(){
+        return mPassCount;
     }
 
     @Override
     protected void onCreate() {
+        //GL环境重建后之前的合并程序都已失效
+        for (FusedFilter filter:mFusedFilters.values()){
+            filter.destroy();
+        }
+        mFusedFilters.clear();
+    }
 
+    /**
+     * 是否合并相邻的逐像素滤镜，默认开启，关闭后每个滤镜单独绘制
+     */
+    public void setFusionEnabled(boolean enabled){
+        this.isFusionEnabled=enabled;
+    }
+
+    /**
+     * @return 已创建的合并程序个数
+     */
+    public int getFusedProgramCount(){
+        return mFusedFilters.size();
     }
 
     @Override
@@ -116,63 +246,9 @@ public class GroupFilter extends AFilter{
         this.width=width;
         this.height=height;
         updateFilter();
-        createFrameBuffer();
-    }
-
-    //创建离屏buffer
-    private int fTextureSize = 2;
-    private int[] fFrame = new int[1];
-    private int[] fRender = new int[1];
-    private int[] fTexture = new int[fTextureSize];
-    private int textureIndex=0;
-
-    //创建FrameBuffer
-    private boolean createFrameBuffer() {
-        GLES20.glGenFramebuffers(1, fFrame, 0);
-        GLES20.glGenRenderbuffers(1, fRender, 0);
-
-        genTextures();
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fFrame[0]);
-        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, fRender[0]);
-        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width,
-            height);
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-            GLES20.GL_TEXTURE_2D, fTexture[0], 0);
-        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
-            GLES20.GL_RENDERBUFFER, fRender[0]);
-//        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
-//        if(status==GLES20.GL_FRAMEBUFFER_COMPLETE){
-//            return true;
-//        }
-        unBindFrame();
-        return false;
-    }
-
-    //生成Textures
-    private void genTextures() {
-        GLES20.glGenTextures(fTextureSize, fTexture, 0);
-        for (int i = 0; i < fTextureSize; i++) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, fTexture[i]);
-            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height,
-                0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        for (AFilter filter:mFilters){
+            filter.setSize(width,height);
         }
     }
 
-    //取消绑定Texture
-    private void unBindFrame() {
-        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-    }
-
-
-    private void deleteFrameBuffer() {
-        GLES20.glDeleteRenderbuffers(1, fRender, 0);
-        GLES20.glDeleteFramebuffers(1, fFrame, 0);
-        GLES20.glDeleteTextures(1, fTexture, 0);
-    }
-
 }
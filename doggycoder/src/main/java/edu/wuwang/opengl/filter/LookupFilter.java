@@ -17,6 +17,7 @@ public class LookupFilter extends AFilter {
 
     private int[] mastTextures=new int[1];
     private Bitmap mBitmap;
+    private ColorStage mStage;
 
     public LookupFilter(Resources mRes) {
         super(mRes);
@@ -32,6 +33,9 @@ public class LookupFilter extends AFilter {
 
     public void setIntensity(float value){
         this.intensity=value;
+        if(mStage!=null){
+            mStage.setFloat("intensity",value);
+        }
     }
 
     public void setMaskImage(String mask){
@@ -46,6 +50,24 @@ public class LookupFilter extends AFilter {
         this.mBitmap=bitmap;
     }
 
+    @Override
+    public ColorStage getColorStage() {
+        if(mStage==null){
+            mStage=new ColorStage("lookup",uRes(mRes,"lookup/lookup_stage.frag"))
+                .addUniform(ColorStage.TYPE_FLOAT,"intensity")
+                .addUniform(ColorStage.TYPE_SAMPLER,"maskTexture");
+            mStage.setFloat("intensity",intensity);
+        }
+        return mStage;
+    }
+
+    @Override
+    protected void onPrepareColorStage() {
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,mastTextures[0]);
+        uploadMaskImage();
+        mStage.setInt("maskTexture",mastTextures[0]);
+    }
+
     @Override
     protected void onSizeChanged(int width, int height) {
 
@@ -63,13 +85,18 @@ public class LookupFilter extends AFilter {
         if(mastTextures[0]!=0){
             GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType()+1);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,mastTextures[0]);
-            if(mBitmap!=null&&!mBitmap.isRecycled()){
-                GLUtils.texImage2D(GLES20.GL_TEXTURE_2D,0,mBitmap,0);
-                mBitmap.recycle();
-            }
+            uploadMaskImage();
             GLES20.glUniform1i(mHMaskImage,getTextureType()+1);
         }
 
 
     }
+
+    //把设置的查找表上传到当前绑定的纹理
+    private void uploadMaskImage(){
+        if(mBitmap!=null&&!mBitmap.isRecycled()){
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D,0,mBitmap,0);
+            mBitmap.recycle();
+        }
+    }
 }
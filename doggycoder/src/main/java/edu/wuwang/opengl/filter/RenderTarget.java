@@ -0,0 +1,69 @@
+/*
+ *
+ * RenderTarget.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.filter;
+
+/**
+ * Description: {@link RenderTargetPool}中的一个离屏绘制目标。颜色纹理在创建时就挂载到
+ * 自己的FrameBuffer上，之后每次绘制只需绑定FrameBuffer；深度缓冲只在需要时挂载，
+ * 并由同尺寸的目标共用。
+ */
+public class RenderTarget {
+
+    final RenderTargetPool mPool;
+    final int width;
+    final int height;
+    final int format;
+    final int texture;
+    final int frameBuffer;
+    final int generation;
+    int depthBuffer;            //当前挂载的深度缓冲，0表示没有
+    boolean isLeased;
+    long idleSince;
+
+    RenderTarget(RenderTargetPool pool,int width,int height,int format,int texture,
+                 int frameBuffer,int generation){
+        this.mPool=pool;
+        this.width=width;
+        this.height=height;
+        this.format=format;
+        this.texture=texture;
+        this.frameBuffer=frameBuffer;
+        this.generation=generation;
+    }
+
+    /**
+     * 绑定FrameBuffer并设置好深度缓冲
+     * @param depth 本次绘制是否需要深度缓冲
+     */
+    public void bind(boolean depth){
+        mPool.bind(this,depth);
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public int getFormat(){
+        return format;
+    }
+
+    public int getTextureId(){
+        return texture;
+    }
+
+    public int getFrameBufferId(){
+        return frameBuffer;
+    }
+
+    public boolean hasDepth(){
+        return depthBuffer!=0;
+    }
+}
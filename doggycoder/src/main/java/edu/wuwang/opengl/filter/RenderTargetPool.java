@@ -0,0 +1,294 @@
+/*
+ *
+ * RenderTargetPool.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.filter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.opengl.GLES20;
+
+import edu.wuwang.opengl.utils.EasyGlUtils;
+
+/**
+ * Description: 按尺寸和格式复用的离屏绘制目标池，只能在GL线程中使用。
+ * 每帧绘制时通过{@link #obtain(int, int)}租用{@link RenderTarget}，用完后
+ * {@link #recycle(RenderTarget)}归还，同尺寸的下一次租用直接复用已有的纹理和FrameBuffer。
+ * 尺寸变化后旧尺寸的目标不会立即删除，每帧结束时调用{@link #nextFrame()}，
+ * 闲置超过{@link #setMaxIdleFrames(int)}帧的目标才被删除，切回原尺寸时还能直接复用。
+ * GL环境重建后调用{@link #release()}，之前租出的目标归还时会被忽略。
+ */
+public class RenderTargetPool {
+
+    public static final int DEFAULT_MAX_IDLE_FRAMES=60;
+
+    private final Backend mBackend;
+    private final Map<Long,List<RenderTarget>> mIdle=new HashMap<>();
+    private final Map<Long,int[]> mDepth=new HashMap<>();       //每个尺寸共用的深度缓冲及使用它的目标数
+    private int mMaxIdleFrames=DEFAULT_MAX_IDLE_FRAMES;
+    private long mFrame=0;
+    private int mGeneration=0;
+
+    private int mLiveCount=0;
+    private int mLeasedCount=0;
+    private int mCreatedCount=0;
+    private int mReuseCount=0;
+
+    public RenderTargetPool(){
+        this(new GlesBackend());
+    }
+
+    RenderTargetPool(Backend backend){
+        this.mBackend=backend;
+    }
+
+    public void setMaxIdleFrames(int frames){
+        this.mMaxIdleFrames=frames;
+    }
+
+    /**
+     * 租用一个RGBA格式的绘制目标
+     */
+    public RenderTarget obtain(int width,int height){
+        return obtain(width,height,GLES20.GL_RGBA);
+    }
+
+    /**
+     * 租用一个绘制目标，优先复用最近归还的同尺寸同格式目标。
+     * 目标内容是上一个使用者留下的，需要时自行清除
+     */
+    public RenderTarget obtain(int width,int height,int format){
+        if(width<=0||height<=0){
+            throw new IllegalArgumentException("Invalid size: "+width+"x"+height);
+        }
+        List<RenderTarget> idle=mIdle.get(key(width,height,format));
+        RenderTarget target;
+        if(idle!=null&&idle.size()>0){
+            target=idle.remove(idle.size()-1);
+            mReuseCount++;
+        }else{
+            int texture=mBackend.createTexture(width,height,format);
+            target=new RenderTarget(this,width,height,format,texture,
+                mBackend.createFrameBuffer(texture),mGeneration);
+            mCreatedCount++;
+            mLiveCount++;
+        }
+        target.isLeased=true;
+        mLeasedCount++;
+        return target;
+    }
+
+    /**
+     * 归还租用的目标。重复归还或者归还{@link #release()}之前租用的目标都会被忽略
+     */
+    public void recycle(RenderTarget target){
+        if(target==null||target.mPool!=this||target.generation!=mGeneration||!target.isLeased){
+            return;
+        }
+        target.isLeased=false;
+        target.idleSince=mFrame;
+        mLeasedCount--;
+        long key=key(target.width,target.height,target.format);
+        List<RenderTarget> idle=mIdle.get(key);
+        if(idle==null){
+            idle=new ArrayList<>();
+            mIdle.put(key,idle);
+        }
+        idle.add(target);
+    }
+
+    void bind(RenderTarget target,boolean depth){
+        mBackend.bindFrameBuffer(target.frameBuffer);
+        if(depth&&target.depthBuffer==0){
+            long key=key(target.width,target.height,0);
+            int[] shared=mDepth.get(key);
+            if(shared==null){
+                shared=new int[]{mBackend.createDepthBuffer(target.width,target.height),0};
+                mDepth.put(key,shared);
+            }
+            shared[1]++;
+            target.depthBuffer=shared[0];
+            mBackend.attachDepth(target.frameBuffer,target.depthBuffer);
+        }else if(!depth&&target.depthBuffer!=0){
+            mBackend.attachDepth(target.frameBuffer,0);
+            releaseDepth(target);
+        }
+    }
+
+    /**
+     * 每帧结束时调用，删除闲置过久的目标
+     */
+    public void nextFrame(){
+        mFrame++;
+        for (Iterator<List<RenderTarget>> it=mIdle.values().iterator();it.hasNext();){
+            List<RenderTarget> idle=it.next();
+            //越早归还的越靠前
+            while (idle.size()>0&&mFrame-idle.get(0).idleSince>mMaxIdleFrames){
+                delete(idle.remove(0));
+            }
+            if(idle.isEmpty()){
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 删除所有闲置的目标
+     */
+    public void trim(){
+        for (List<RenderTarget> idle:mIdle.values()){
+            for (RenderTarget target:idle){
+                delete(target);
+            }
+        }
+        mIdle.clear();
+    }
+
+    /**
+     * 删除闲置的目标并放弃租出的目标，GL环境销毁或重建时调用
+     */
+    public void release(){
+        trim();
+        for (int[] shared:mDepth.values()){
+            mBackend.deleteDepthBuffer(shared[0]);
+        }
+        mDepth.clear();
+        mGeneration++;
+        mLiveCount=0;
+        mLeasedCount=0;
+    }
+
+    private void delete(RenderTarget target){
+        if(target.depthBuffer!=0){
+            releaseDepth(target);
+        }
+        mBackend.deleteFrameBuffer(target.frameBuffer);
+        mBackend.deleteTexture(target.texture);
+        mLiveCount--;
+    }
+
+    private void releaseDepth(RenderTarget target){
+        long key=key(target.width,target.height,0);
+        int[] shared=mDepth.get(key);
+        target.depthBuffer=0;
+        if(shared!=null&&--shared[1]==0){
+            mBackend.deleteDepthBuffer(shared[0]);
+            mDepth.remove(key);
+        }
+    }
+
+    private static long key(int width,int height,int format){
+        return ((long)format<<40)|((long)width<<20)|height;
+    }
+
+    /**
+     * @return 当前存在的目标数，包括租出的和闲置的
+     */
+    public int getLiveCount(){
+        return mLiveCount;
+    }
+
+    public int getLeasedCount(){
+        return mLeasedCount;
+    }
+
+    /**
+     * @return 累计创建的目标数
+     */
+    public int getCreatedCount(){
+        return mCreatedCount;
+    }
+
+    /**
+     * @return 累计复用已有目标的次数
+     */
+    public int getReuseCount(){
+        return mReuseCount;
+    }
+
+    /**
+     * @return 当前存在的深度缓冲数
+     */
+    public int getDepthBufferCount(){
+        return mDepth.size();
+    }
+
+    /**
+     * 创建、删除和绑定GL对象，测试时可以替换
+     */
+    interface Backend{
+        int createTexture(int width,int height,int format);
+        int createFrameBuffer(int texture);
+        int createDepthBuffer(int width,int height);
+        /** depthBuffer为0时卸下深度缓冲，调用前FrameBuffer已绑定 */
+        void attachDepth(int frameBuffer,int depthBuffer);
+        void bindFrameBuffer(int frameBuffer);
+        void deleteTexture(int texture);
+        void deleteFrameBuffer(int frameBuffer);
+        void deleteDepthBuffer(int depthBuffer);
+    }
+
+    static class GlesBackend implements Backend{
+
+        private final int[] ids=new int[1];
+
+        @Override
+        public int createTexture(int width, int height, int format) {
+            EasyGlUtils.genTexturesWithParameter(1,ids,0,format,width,height);
+            return ids[0];
+        }
+
+        @Override
+        public int createFrameBuffer(int texture) {
+            GLES20.glGenFramebuffers(1,ids,0);
+            EasyGlUtils.bindFrameTexture(ids[0],texture);
+            EasyGlUtils.unBindFrameBuffer();
+            return ids[0];
+        }
+
+        @Override
+        public int createDepthBuffer(int width, int height) {
+            GLES20.glGenRenderbuffers(1,ids,0);
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,ids[0]);
+            GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER,GLES20.GL_DEPTH_COMPONENT16,
+                width,height);
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER,0);
+            return ids[0];
+        }
+
+        @Override
+        public void attachDepth(int frameBuffer, int depthBuffer) {
+            GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER,GLES20.GL_DEPTH_ATTACHMENT,
+                GLES20.GL_RENDERBUFFER,depthBuffer);
+        }
+
+        @Override
+        public void bindFrameBuffer(int frameBuffer) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER,frameBuffer);
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            ids[0]=texture;
+            GLES20.glDeleteTextures(1,ids,0);
+        }
+
+        @Override
+        public void deleteFrameBuffer(int frameBuffer) {
+            ids[0]=frameBuffer;
+            GLES20.glDeleteFramebuffers(1,ids,0);
+        }
+
+        @Override
+        public void deleteDepthBuffer(int depthBuffer) {
+            ids[0]=depthBuffer;
+            GLES20.glDeleteRenderbuffers(1,ids,0);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ *
+ * ShaderFusion.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Description: 滤镜链的合并编译。相邻的、提供了{@link ColorStage}的滤镜被合并为一次绘制，
+ * 每个片段生成为一个函数，在main中依次调用，各片段的uniform加上"s序号_"前缀避免重名。
+ * 没有ColorStage的滤镜（如需要采样邻域像素的{@link Beauty}）保持单独绘制。
+ * 这里只负责分组和生成源码，不依赖GL，程序的创建和缓存在{@link GroupFilter}中。
+ */
+public class ShaderFusion {
+
+    /**
+     * 一次绘制最多合并的片段数
+     */
+    public static final int MAX_FUSED_STAGES=8;
+    /**
+     * 一次绘制中片段可用的纹理数，ES2.0保证至少8个纹理单元，其中一个留给输入图像
+     */
+    public static final int MAX_FUSED_SAMPLERS=7;
+
+    private ShaderFusion(){
+
+    }
+
+    /**
+     * 对滤镜链分组
+     * @param stages 每个滤镜的ColorStage，不能合并的滤镜为null
+     * @return 每次绘制包含的滤镜个数，依次覆盖整个滤镜链
+     */
+    public static int[] plan(ColorStage[] stages){
+        int[] passes=new int[stages.length];
+        int count=0;
+        int i=0;
+        while (i<stages.length){
+            int size=1;
+            if(stages[i]!=null){
+                int samplers=stages[i].getSamplerCount();
+                while (i+size<stages.length&&stages[i+size]!=null&&size<MAX_FUSED_STAGES
+                    &&samplers+stages[i+size].getSamplerCount()<=MAX_FUSED_SAMPLERS){
+                    samplers+=stages[i+size].getSamplerCount();
+                    size++;
+                }
+            }
+            passes[count++]=size;
+            i+=size;
+        }
+        int[] result=new int[count];
+        System.arraycopy(passes,0,result,0,count);
+        return result;
+    }
+
+    /**
+     * @return 合并程序的缓存key，片段相同、顺序相同的滤镜链共用一个程序
+     */
+    public static String signature(List<ColorStage> stages){
+        StringBuilder sb=new StringBuilder();
+        for (int i=0;i<stages.size();i++){
+            if(i>0){
+                sb.append('|');
+            }
+            sb.append(stages.get(i).getKey());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return 第stage个片段的uniform在合并程序中的名字
+     */
+    public static String uniformName(int stage,String name){
+        return "s"+stage+"_"+name;
+    }
+
+    /**
+     * 生成合并后的片元着色器，顶点着色器与{@link NoFilter}相同
+     */
+    public static String generateFragment(List<ColorStage> stages){
+        StringBuilder sb=new StringBuilder();
+        sb.append("precision mediump float;\n");
+        sb.append("varying vec2 textureCoordinate;\n");
+        sb.append("uniform sampler2D vTexture;\n");
+        for (int i=0;i<stages.size();i++){
+            ColorStage stage=stages.get(i);
+            for (int j=0;j<stage.getUniformCount();j++){
+                sb.append("uniform ").append(stage.getUniformType(j)).append(' ')
+                    .append(uniformName(i,stage.getUniformName(j))).append(";\n");
+            }
+        }
+        for (int i=0;i<stages.size();i++){
+            ColorStage stage=stages.get(i);
+            String body=stage.getBody();
+            for (int j=0;j<stage.getUniformCount();j++){
+                String name=stage.getUniformName(j);
+                body=body.replaceAll("\\b"+Pattern.quote(name)+"\\b",
+                    Matcher.quoteReplacement(uniformName(i,name)));
+            }
+            sb.append("//").append(stage.getKey()).append('\n');
+            sb.append("vec4 stage").append(i).append("(vec4 color){\n");
+            sb.append(body.trim()).append('\n');
+            sb.append("}\n");
+        }
+        sb.append("void main(){\n");
+        sb.append("    vec4 color=texture2D(vTexture,textureCoordinate);\n");
+        for (int i=0;i<stages.size();i++){
+            sb.append("    color=stage").append(i).append("(color);\n");
+        }
+        sb.append("    gl_FragColor=color;\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * 取出滤镜链中可参与合并的片段，叠加滤镜和需要深度的滤镜不参与合并
+     */
+    static ColorStage[] collectStages(List<AFilter> filters){
+        ColorStage[] stages=new ColorStage[filters.size()];
+        for (int i=0;i<stages.length;i++){
+            AFilter filter=filters.get(i);
+            if(!filter.isOverlay()&&!filter.isDepthRequired()){
+                stages[i]=filter.getColorStage();
+            }
+        }
+        return stages;
+    }
+
+    static List<ColorStage> subList(ColorStage[] stages,int start,int count){
+        List<ColorStage> list=new ArrayList<>(count);
+        for (int i=start;i<start+count;i++){
+            list.add(stages[i]);
+        }
+        return list;
+    }
+
+}
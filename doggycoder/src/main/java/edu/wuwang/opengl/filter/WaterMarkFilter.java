@@ -49,7 +49,9 @@ public class WaterMarkFilter extends NoFilter {
 
     @Override
     public void draw() {
-        super.draw();
+        if(!isDrawInPlace()){
+            super.draw();
+        }
         GLES20.glViewport(x,y,w==0?mBitmap.getWidth():w,h==0?mBitmap.getHeight():h);
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
         GLES20.glEnable(GLES20.GL_BLEND);
@@ -59,6 +61,11 @@ public class WaterMarkFilter extends NoFilter {
         GLES20.glViewport(0,0,width,height);
     }
 
+    @Override
+    public boolean isOverlay() {
+        return true;
+    }
+
     @Override
     protected void onSizeChanged(int width, int height) {
         this.width=width;
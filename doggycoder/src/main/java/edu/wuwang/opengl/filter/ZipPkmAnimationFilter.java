@@ -9,11 +9,12 @@ import android.opengl.ETC1;
 import android.opengl.ETC1Util;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.util.Log;
 
 import java.nio.ByteBuffer;
 
-import edu.wuwang.opengl.etc.ZipPkmReader;
+import edu.wuwang.opengl.etc.AnimationClock;
+import edu.wuwang.opengl.etc.PkmAnimation;
+import edu.wuwang.opengl.etc.ZipPkmPrefetcher;
 import edu.wuwang.opengl.utils.Gl2Utils;
 import edu.wuwang.opengl.utils.MatrixUtils;
 
@@ -32,13 +33,22 @@ public class ZipPkmAnimationFilter extends AFilter {
 
     private int[] texture;
 
-    private ZipPkmReader mPkmReader;
+    private int lookahead=4;
+    private volatile ZipPkmPrefetcher mPrefetcher;
+    private boolean hasFrame=false;
+    //空白纹理已上传，没有新帧时不再重复上传
+    private boolean isEmptyBound=false;
     private int mGlHAlpha;
 
+    private final Object mLock=new Object();
+    private PkmAnimation mAnimation;
+    private AnimationClock mClock;
+    private PkmAnimation mBoundAnimation;
+    private int mBoundFrame=-1;
+
     public ZipPkmAnimationFilter(Resources mRes) {
         super(mRes);
         mBaseFilter=new NoFilter(mRes);
-        mPkmReader=new ZipPkmReader(mRes.getAssets());
     }
 
     @Override
@@ -61,6 +71,7 @@ public class ZipPkmAnimationFilter extends AFilter {
         emptyBuffer=ByteBuffer.allocateDirect(ETC1.getEncodedDataSize(width,height));
         this.width=width;
         this.height=height;
+        isEmptyBound=false;
         GLES20.glEnable(GLES20.GL_BLEND);
         GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA,GLES20.GL_ONE_MINUS_SRC_ALPHA);
         mBaseFilter.setSize(width, height);
@@ -73,48 +84,85 @@ public class ZipPkmAnimationFilter extends AFilter {
 
     @Override
     protected void onBindTexture() {
-        ETC1Util.ETC1Texture t=mPkmReader.getNextTexture();
-        ETC1Util.ETC1Texture tAlpha=mPkmReader.getNextTexture();
-        Log.e("wuwang","is ETC null->"+(t==null));
-        if(t!=null&&tAlpha!=null){
-            MatrixUtils.getMatrix(super.getMatrix(),MatrixUtils.TYPE_FITEND,t.getWidth(),t.getHeight(),width,height);
+        PkmAnimation animation;
+        AnimationClock clock;
+        synchronized (mLock){
+            animation=mAnimation;
+            clock=mClock;
+        }
+        if(animation!=null){
+            bindAnimation(animation,clock);
+            return;
+        }
+        ZipPkmPrefetcher prefetcher=mPrefetcher;
+        ZipPkmPrefetcher.Frame frame=prefetcher==null?null:prefetcher.poll();
+        if(frame!=null){
+            MatrixUtils.getMatrix(super.getMatrix(),MatrixUtils.TYPE_FITEND,frame.getWidth(),frame.getHeight(),width,height);
             MatrixUtils.flip(super.getMatrix(),false,true);
             onSetExpandData();
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
-            ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                    .GL_UNSIGNED_SHORT_5_6_5,t);
-            GLES20.glUniform1i(mHTexture,getTextureType());
+            bindTexture(frame.getColorTexture(),frame.getAlphaTexture());
+            //纹理数据已经上传，归还给后台线程继续解码
+            prefetcher.release(frame);
+            hasFrame=true;
+            isEmptyBound=false;
+        }else if(hasFrame&&prefetcher!=null&&!prefetcher.isFinished()){
+            //下一帧还未解码完成，继续使用上一帧的纹理
+            onSetExpandData();
+            bindTexture(null,null);
+        }else if(isEmptyBound){
+            onSetExpandData();
+            bindTexture(null,null);
+        }else{
+            onSetExpandData();
+            ETC1Util.ETC1Texture empty=new ETC1Util.ETC1Texture(width,height,emptyBuffer);
+            bindTexture(empty,empty);
+            hasFrame=false;
+            isPlay=false;
+            isEmptyBound=true;
+            mBoundAnimation=null;
+        }
+    }
 
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE1+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[1]);
-            ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                    .GL_UNSIGNED_SHORT_5_6_5,tAlpha);
-            GLES20.glUniform1i(mGlHAlpha,1+getTextureType());
+    //按时间取帧，与上一次上传的是同一帧时不再上传
+    private void bindAnimation(PkmAnimation animation,AnimationClock clock){
+        int index=clock.getFrame(System.currentTimeMillis());
+        if(animation!=mBoundAnimation||index!=mBoundFrame){
+            ZipPkmPrefetcher.Frame frame=animation.getFrame(index);
+            MatrixUtils.getMatrix(super.getMatrix(),MatrixUtils.TYPE_FITEND,frame.getWidth(),frame.getHeight(),width,height);
+            MatrixUtils.flip(super.getMatrix(),false,true);
+            onSetExpandData();
+            bindTexture(frame.getColorTexture(),frame.getAlphaTexture());
+            isEmptyBound=false;
+            mBoundAnimation=animation;
+            mBoundFrame=index;
         }else{
-            if(mPkmReader!=null){
-                mPkmReader.close();
-                mPkmReader.open();
-            }
             onSetExpandData();
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
+            bindTexture(null,null);
+        }
+    }
+
+    //texture为null时只绑定上一次上传的纹理
+    private void bindTexture(ETC1Util.ETC1Texture t,ETC1Util.ETC1Texture tAlpha){
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0+getTextureType());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
+        if(t!=null){
             ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                    .GL_UNSIGNED_SHORT_5_6_5,new ETC1Util.ETC1Texture(width,height,emptyBuffer));
-            GLES20.glUniform1i(mHTexture,getTextureType());
+                    .GL_UNSIGNED_SHORT_5_6_5,t);
+        }
+        GLES20.glUniform1i(mHTexture,getTextureType());
 
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE1+getTextureType());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[1]);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE1+getTextureType());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[1]);
+        if(tAlpha!=null){
             ETC1Util.loadTexture(GLES20.GL_TEXTURE_2D,0,0,GLES20.GL_RGB,GLES20
-                    .GL_UNSIGNED_SHORT_5_6_5,new ETC1Util.ETC1Texture(width,height,emptyBuffer));
-            GLES20.glUniform1i(mGlHAlpha,1+getTextureType());
-            isPlay=false;
+                    .GL_UNSIGNED_SHORT_5_6_5,tAlpha);
         }
+        GLES20.glUniform1i(mGlHAlpha,1+getTextureType());
     }
 
     @Override
     public void draw() {
-        if(getTextureId()!=0){
+        if(!isDrawInPlace()&&getTextureId()!=0){
             mBaseFilter.setTextureId(getTextureId());
             mBaseFilter.draw();
         }
@@ -123,6 +171,11 @@ public class ZipPkmAnimationFilter extends AFilter {
         GLES20.glViewport(0,0,width,height);
     }
 
+    @Override
+    public boolean isOverlay() {
+        return true;
+    }
+
     @Override
     public void setInt(int type, int... params) {
         if(type==TYPE){
@@ -131,18 +184,65 @@ public class ZipPkmAnimationFilter extends AFilter {
         super.setInt(type, params);
     }
 
+    /**
+     * 使用zip顺序解码播放，需要在GL线程中调用
+     */
     public void setAnimation(String path){
-        mPkmReader.setZipPath(path);
-        mPkmReader.open();
+        synchronized (mLock){
+            mAnimation=null;
+            mClock=null;
+        }
+        if(mPrefetcher!=null){
+            mPrefetcher.stop();
+        }
+        hasFrame=false;
+        mPrefetcher=new ZipPkmPrefetcher(mRes.getAssets(),path,lookahead);
+        mPrefetcher.setLooping(true);
+        mPrefetcher.start();
     }
 
+    /**
+     * 使用可随机访问的动画，按时间播放，渲染跟不上时跳帧，循环播放不需要重新读取
+     * 需要在GL线程中调用
+     * @param fps 动画帧率
+     */
+    public void setAnimation(PkmAnimation animation,float fps){
+        AnimationClock clock=new AnimationClock(animation.getFrameCount(),fps);
+        synchronized (mLock){
+            mAnimation=animation;
+            mClock=clock;
+        }
+        if(mPrefetcher!=null){
+            mPrefetcher.stop();
+            mPrefetcher=null;
+        }
+        hasFrame=false;
+    }
 
-    @Override
-    protected void finalize() throws Throwable {
-        if(mPkmReader!=null){
-            mPkmReader.close();
+    /**
+     * @return 当前动画的时钟，用于跳转、倒放和变速，需要在GL线程中调用
+     */
+    public AnimationClock getClock(){
+        synchronized (mLock){
+            return mClock;
+        }
+    }
+
+    /**
+     * 设置后台预读取的帧数，下一次setAnimation时生效
+     */
+    public void setLookahead(int lookahead){
+        this.lookahead=lookahead;
+    }
+
+    /**
+     * 停止后台解码线程，由持有者在不再绘制时调用，例如Activity销毁时
+     */
+    public void stop(){
+        ZipPkmPrefetcher prefetcher=mPrefetcher;
+        if(prefetcher!=null){
+            prefetcher.stop();
         }
-        super.finalize();
     }
 
     private void createEtcTexture(int[] texture){
@@ -10,13 +10,20 @@ import android.graphics.Bitmap;
 import android.opengl.GLSurfaceView;
 import android.view.View;
 
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.image.filter.AFilter;
 import edu.wuwang.opengl.image.filter.ColorFilter;
 import edu.wuwang.opengl.image.filter.ContrastColorFilter;
+import edu.wuwang.opengl.utils.ProgramRegistry;
+import edu.wuwang.opengl.utils.TextureCache;
 
 /**
  * Description:
@@ -24,18 +31,34 @@ import edu.wuwang.opengl.image.filter.ContrastColorFilter;
 public class SGLRender implements GLSurfaceView.Renderer {
 
     private AFilter mFilter;
+    //被替换下来、等待在GL线程中释放的滤镜
+    private AFilter mOldFilter;
     private Bitmap bitmap;
     private int width,height;
     private boolean refreshFlag=false;
     private EGLConfig config;
+    //所有滤镜共用，图片只上传一次
+    private final TextureCache mTextureCache=new TextureCache(1);
+    //用过的滤镜程序各多保留一个引用，切换回来时不用重新编译
+    private final List<ProgramRegistry.Program> mKeptPrograms=new ArrayList<>();
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mFilterStage=mTimings.addStage("filter");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     public SGLRender(View mView){
         mFilter=new ContrastColorFilter(mView.getContext(), ColorFilter.Filter.NONE);
+        mFilter.setTextureCache(mTextureCache);
     }
 
     public void setFilter(AFilter filter){
         refreshFlag=true;
+        if(mOldFilter==null){
+            mOldFilter=mFilter;
+        }
         mFilter=filter;
+        mFilter.setTextureCache(mTextureCache);
         if(bitmap!=null){
             mFilter.setBitmap(bitmap);
         }
@@ -55,14 +78,32 @@ public class SGLRender implements GLSurfaceView.Renderer {
     }
 
     public void setImage(Bitmap bitmap){
+        if(bitmap==this.bitmap){
+            //同一张图片再次设置，认为像素已经被修改
+            mTextureCache.invalidate(bitmap);
+        }
         this.bitmap=bitmap;
         mFilter.setBitmap(bitmap);
     }
 
+    /**
+     * @return 图片纹理缓存，可用于查看上传次数
+     */
+    public TextureCache getTextureCache(){
+        return mTextureCache;
+    }
+
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         this.config=config;
+        //新的GL环境，之前的纹理和程序都已失效
+        ProgramRegistry.getInstance().onContextCreated();
+        mTextureCache.onContextCreated();
+        mKeptPrograms.clear();
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
         mFilter.onSurfaceCreated(gl, config);
+        keepProgram(mFilter);
     }
 
     @Override
@@ -75,10 +116,40 @@ public class SGLRender implements GLSurfaceView.Renderer {
     @Override
     public void onDrawFrame(GL10 gl) {
         if(refreshFlag&&width!=0&&height!=0){
+            //新滤镜先取得程序，旧滤镜后释放，着色器相同的程序不会被删除重建
             mFilter.onSurfaceCreated(gl, config);
+            keepProgram(mFilter);
             mFilter.onSurfaceChanged(gl,width,height);
+            if(mOldFilter!=null&&mOldFilter!=mFilter){
+                mOldFilter.destroy();
+            }
+            mOldFilter=null;
             refreshFlag=false;
         }
+        mTimings.frame();
+        if(mGpuTimer!=null){
+            mGpuTimer.begin();
+        }
+        long start=mTimings.start();
         mFilter.onDrawFrame(gl);
+        mTimings.stop(mFilterStage,start);
+        if(mGpuTimer!=null){
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 每帧滤镜绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
+    }
+
+    private void keepProgram(AFilter filter){
+        ProgramRegistry.Program program=filter.getProgram();
+        if(program!=null&&!mKeptPrograms.contains(program)
+                &&ProgramRegistry.getInstance().retain(program)){
+            mKeptPrograms.add(program);
+        }
     }
 }
@@ -10,7 +10,6 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
 
 import java.nio.ByteBuffer;
@@ -20,14 +19,24 @@ import java.nio.FloatBuffer;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import edu.wuwang.opengl.utils.ProgramRegistry;
 import edu.wuwang.opengl.utils.ShaderUtils;
+import edu.wuwang.opengl.utils.TextureCache;
 
 /**
  * Description:
  */
 public abstract class AFilter implements GLSurfaceView.Renderer {
 
+    private static final int ID_POSITION=ProgramRegistry.id("vPosition");
+    private static final int ID_COORDINATE=ProgramRegistry.id("vCoordinate");
+    private static final int ID_TEXTURE=ProgramRegistry.id("vTexture");
+    private static final int ID_MATRIX=ProgramRegistry.id("vMatrix");
+    private static final int ID_IS_HALF=ProgramRegistry.id("vIsHalf");
+    private static final int ID_UXY=ProgramRegistry.id("uXY");
+
     private Context mContext;
+    private ProgramRegistry.Program mSharedProgram;
     private int mProgram;
     private int glHPosition;
     private int glHTexture;
@@ -47,6 +56,10 @@ public abstract class AFilter implements GLSurfaceView.Renderer {
 
     private String vertex;
     private String fragment;
+    private String vertexSource;
+    private String fragmentSource;
+    private TextureCache mTextureCache;
+    private boolean isOwnTextureCache;
     private float[] mViewMatrix=new float[16];
     private float[] mProjectMatrix=new float[16];
     private float[] mMVPMatrix=new float[16];
@@ -93,20 +106,65 @@ public abstract class AFilter implements GLSurfaceView.Renderer {
         this.mBitmap=bitmap;
     }
 
+    /**
+     * 设置共用的纹理缓存，不设置时滤镜使用自己的缓存
+     */
+    public void setTextureCache(TextureCache cache){
+        if(isOwnTextureCache&&mTextureCache!=null){
+            mTextureCache.release();
+        }
+        mTextureCache=cache;
+        isOwnTextureCache=false;
+    }
+
+    /**
+     * @return 滤镜当前使用的共享程序，onSurfaceCreated之前为null
+     */
+    public ProgramRegistry.Program getProgram(){
+        return mSharedProgram;
+    }
+
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         GLES20.glClearColor(1.0f,1.0f,1.0f,1.0f);
         GLES20.glEnable(GLES20.GL_TEXTURE_2D);
-        mProgram=ShaderUtils.createProgram(mContext.getResources(),vertex,fragment);
-        glHPosition=GLES20.glGetAttribLocation(mProgram,"vPosition");
-        glHCoordinate=GLES20.glGetAttribLocation(mProgram,"vCoordinate");
-        glHTexture=GLES20.glGetUniformLocation(mProgram,"vTexture");
-        glHMatrix=GLES20.glGetUniformLocation(mProgram,"vMatrix");
-        hIsHalf=GLES20.glGetUniformLocation(mProgram,"vIsHalf");
-        glHUxy=GLES20.glGetUniformLocation(mProgram,"uXY");
+        if(vertexSource==null||fragmentSource==null){
+            vertexSource=ShaderUtils.loadFromAssetsFile(vertex,mContext.getResources());
+            fragmentSource=ShaderUtils.loadFromAssetsFile(fragment,mContext.getResources());
+        }
+        //先取得新的再释放旧的，同一环境中重复调用时程序不会被删除重建
+        ProgramRegistry registry=ProgramRegistry.getInstance();
+        ProgramRegistry.Program program=registry.acquire(vertexSource,fragmentSource);
+        registry.release(mSharedProgram);
+        mSharedProgram=program;
+        if(program==null){
+            mProgram=0;
+            return;
+        }
+        mProgram=program.getHandle();
+        glHPosition=program.getAttribLocation(ID_POSITION);
+        glHCoordinate=program.getAttribLocation(ID_COORDINATE);
+        glHTexture=program.getUniformLocation(ID_TEXTURE);
+        glHMatrix=program.getUniformLocation(ID_MATRIX);
+        hIsHalf=program.getUniformLocation(ID_IS_HALF);
+        glHUxy=program.getUniformLocation(ID_UXY);
         onDrawCreatedSet(mProgram);
     }
 
+    /**
+     * 释放滤镜的程序引用，不再使用滤镜时在GL线程中调用
+     */
+    public void destroy(){
+        ProgramRegistry.getInstance().release(mSharedProgram);
+        mSharedProgram=null;
+        mProgram=0;
+        if(isOwnTextureCache&&mTextureCache!=null){
+            mTextureCache.release();
+            mTextureCache=null;
+            isOwnTextureCache=false;
+        }
+    }
+
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         GLES20.glViewport(0,0,width,height);
@@ -146,7 +204,14 @@ public abstract class AFilter implements GLSurfaceView.Renderer {
         GLES20.glEnableVertexAttribArray(glHPosition);
         GLES20.glEnableVertexAttribArray(glHCoordinate);
         GLES20.glUniform1i(glHTexture, 0);
-        textureId=createTexture();
+        if(mTextureCache==null){
+            mTextureCache=new TextureCache(1);
+            isOwnTextureCache=true;
+        }
+        //图片没有变化时不再重复上传
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        textureId=mTextureCache.obtain(mBitmap);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,textureId);
         GLES20.glVertexAttribPointer(glHPosition,2,GLES20.GL_FLOAT,false,0,bPos);
         GLES20.glVertexAttribPointer(glHCoordinate,2,GLES20.GL_FLOAT,false,0,bCoord);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP,0,4);
@@ -155,27 +220,4 @@ public abstract class AFilter implements GLSurfaceView.Renderer {
     public abstract void onDrawSet();
     public abstract void onDrawCreatedSet(int mProgram);
 
-    private int createTexture(){
-        int[] texture=new int[1];
-        if(mBitmap!=null&&!mBitmap.isRecycled()){
-            //生成纹理
-            GLES20.glGenTextures(1,texture,0);
-            //生成纹理
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture[0]);
-            //设置缩小过滤为使用纹理中坐标最接近的一个像素的颜色作为需要绘制的像素颜色
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,GLES20.GL_NEAREST);
-            //设置放大过滤为使用纹理中坐标最接近的若干个颜色，通过加权平均算法得到需要绘制的像素颜色
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,GLES20.GL_TEXTURE_MAG_FILTER,GLES20.GL_LINEAR);
-            //设置环绕方向S，截取纹理坐标到[1/2n,1-1/2n]。将导致永远不会与border融合
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,GLES20.GL_CLAMP_TO_EDGE);
-            //设置环绕方向T，截取纹理坐标到[1/2n,1-1/2n]。将导致永远不会与border融合
-            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,GLES20.GL_CLAMP_TO_EDGE);
-            //根据以上指定的参数，生成一个2D纹理
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, mBitmap, 0);
-            return texture[0];
-        }
-        return 0;
-    }
-
-
 }
@@ -0,0 +1,87 @@
+package edu.wuwang.opengl.obj;
+
+import java.util.Arrays;
+
+/**
+ * Description: 可增长的float数组，用于替代ArrayList<Float>，避免装箱
+ */
+class FloatList {
+
+    private float[] data;
+    private int size;
+
+    FloatList(){
+        this(64);
+    }
+
+    FloatList(int capacity){
+        data=new float[Math.max(capacity,4)];
+    }
+
+    void add(float v){
+        if(size==data.length){
+            grow(size+1);
+        }
+        data[size++]=v;
+    }
+
+    void add(float x,float y){
+        ensureCapacity(size+2);
+        data[size++]=x;
+        data[size++]=y;
+    }
+
+    void add(float x,float y,float z){
+        ensureCapacity(size+3);
+        data[size++]=x;
+        data[size++]=y;
+        data[size++]=z;
+    }
+
+    float get(int index){
+        return data[index];
+    }
+
+    void set(int index,float v){
+        data[index]=v;
+    }
+
+    void ensureCapacity(int capacity){
+        if(capacity>data.length){
+            grow(capacity);
+        }
+    }
+
+    private void grow(int minCapacity){
+        int capacity=data.length+(data.length>>1);
+        data=Arrays.copyOf(data,Math.max(capacity,minCapacity));
+    }
+
+    /**
+     * 设置大小，新增的部分不做初始化
+     */
+    void resize(int size){
+        ensureCapacity(size);
+        this.size=size;
+    }
+
+    int size(){
+        return size;
+    }
+
+    void clear(){
+        size=0;
+    }
+
+    /**
+     * 返回内部数组，有效数据长度为{@link #size()}
+     */
+    float[] array(){
+        return data;
+    }
+
+    float[] toArray(){
+        return Arrays.copyOf(data,size);
+    }
+
+}
@@ -0,0 +1,176 @@
+package edu.wuwang.opengl.obj;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Description: 基本类型数组表示的索引三角形网格，作为{@link MeshProcessor}的输入输出，
+ * 可以与{@link Obj3D}相互转换。
+ */
+public class IndexedMesh {
+
+    public float[] positions;       //每个顶点3个float
+    public float[] texCoords;       //每个顶点2个float，可为null
+    public float[] normals;         //每个顶点3个float，可为null
+    public float[] tangents;        //每个顶点4个float，w为副切线方向，可为null
+    public int[] indices;           //每个三角形3个顶点索引
+    public int vertexCount;
+    public int indexCount;
+
+    public IndexedMesh(){
+    }
+
+    public IndexedMesh(float[] positions,float[] texCoords,int vertexCount,int[] indices,int indexCount){
+        this.positions=positions;
+        this.texCoords=texCoords;
+        this.vertexCount=vertexCount;
+        this.indices=indices;
+        this.indexCount=indexCount;
+    }
+
+    public int triangleCount(){
+        return indexCount/3;
+    }
+
+    /**
+     * 从索引模式的{@link Obj3D}中拷贝数据，支持交错存放的顶点数据
+     */
+    public static IndexedMesh from(Obj3D obj){
+        if(!obj.isIndexed()){
+            throw new IllegalArgumentException("Obj3D is not indexed");
+        }
+        IndexedMesh mesh=new IndexedMesh();
+        mesh.vertexCount=obj.vertCount;
+        mesh.positions=read(obj.vert,3,obj.vertStride,obj.vertCount);
+        if(obj.vertTexture!=null){
+            mesh.texCoords=read(obj.vertTexture,2,obj.vertStride,obj.vertCount);
+        }
+        if(obj.vertNorl!=null){
+            mesh.normals=read(obj.vertNorl,3,obj.vertStride,obj.vertCount);
+        }
+        mesh.indexCount=obj.indexCount;
+        mesh.indices=new int[obj.indexCount];
+        Buffer indices=obj.indices;
+        if(indices instanceof ShortBuffer){
+            ShortBuffer sb=(ShortBuffer)indices;
+            for (int i=0;i<obj.indexCount;i++){
+                mesh.indices[i]=sb.get(i)&0xffff;
+            }
+        }else{
+            IntBuffer ib=(IntBuffer)indices;
+            for (int i=0;i<obj.indexCount;i++){
+                mesh.indices[i]=ib.get(i);
+            }
+        }
+        return mesh;
+    }
+
+    /**
+     * 将数据写入{@link Obj3D}，写入后顶点数据为紧密排列
+     */
+    public void applyTo(Obj3D obj){
+        obj.vertStride=0;
+        obj.setVert(positions,vertexCount*3);
+        obj.vertTexture=null;
+        if(texCoords!=null){
+            obj.setVertTexture(texCoords,vertexCount*2);
+        }
+        obj.vertNorl=null;
+        if(normals!=null){
+            obj.setVertNorl(normals,vertexCount*3);
+        }
+        obj.vertTangent=null;
+        if(tangents!=null){
+            obj.setVertTangent(tangents,vertexCount*4);
+        }
+        obj.setIndices(indices,indexCount);
+    }
+
+    /**
+     * 按三角形顺序切分成若干顶点数不超过maxVertices的子网格，每个子网格只拷贝自己用到的顶点，
+     * 用于在不支持GL_OES_element_index_uint的设备上以16位索引分批绘制大网格
+     */
+    public List<IndexedMesh> split(int maxVertices){
+        if(maxVertices<3){
+            throw new IllegalArgumentException("maxVertices must be at least 3: "+maxVertices);
+        }
+        List<IndexedMesh> parts=new ArrayList<>();
+        //全局顶点在当前子网格中的索引，-1表示还未用到
+        int[] local=new int[vertexCount];
+        Arrays.fill(local,-1);
+        int[] global=new int[Math.min(vertexCount,maxVertices)];
+        int[] partIndices=new int[indexCount];
+        int partVertexCount=0;
+        int partIndexCount=0;
+        for (int t=0;t+2<indexCount;t+=3){
+            int added=0;
+            for (int k=0;k<3;k++){
+                int v=indices[t+k];
+                if(local[v]<0&&(k==0||v!=indices[t]&&(k==1||v!=indices[t+1]))){
+                    added++;
+                }
+            }
+            if(partVertexCount+added>maxVertices){
+                parts.add(copyPart(global,partVertexCount,partIndices,partIndexCount));
+                for (int i=0;i<partVertexCount;i++){
+                    local[global[i]]=-1;
+                }
+                partVertexCount=0;
+                partIndexCount=0;
+            }
+            for (int k=0;k<3;k++){
+                int v=indices[t+k];
+                if(local[v]<0){
+                    local[v]=partVertexCount;
+                    global[partVertexCount++]=v;
+                }
+                partIndices[partIndexCount++]=local[v];
+            }
+        }
+        if(partIndexCount>0){
+            parts.add(copyPart(global,partVertexCount,partIndices,partIndexCount));
+        }
+        return parts;
+    }
+
+    private IndexedMesh copyPart(int[] global,int count,int[] partIndices,int partIndexCount){
+        IndexedMesh part=new IndexedMesh();
+        part.vertexCount=count;
+        part.positions=gather(positions,3,global,count);
+        part.texCoords=gather(texCoords,2,global,count);
+        part.normals=gather(normals,3,global,count);
+        part.tangents=gather(tangents,4,global,count);
+        part.indices=Arrays.copyOf(partIndices,partIndexCount);
+        part.indexCount=partIndexCount;
+        return part;
+    }
+
+    private static float[] gather(float[] data,int size,int[] global,int count){
+        if(data==null){
+            return null;
+        }
+        float[] result=new float[count*size];
+        for (int i=0;i<count;i++){
+            System.arraycopy(data,global[i]*size,result,i*size,size);
+        }
+        return result;
+    }
+
+    private static float[] read(FloatBuffer buffer,int size,int strideBytes,int count){
+        int stride=strideBytes==0?size:strideBytes/4;
+        int start=buffer.position();
+        float[] data=new float[count*size];
+        for (int i=0;i<count;i++){
+            for (int j=0;j<size;j++){
+                data[i*size+j]=buffer.get(start+i*stride+j);
+            }
+        }
+        return data;
+    }
+
+}
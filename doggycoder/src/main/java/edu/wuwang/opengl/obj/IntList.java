@@ -0,0 +1,87 @@
+package edu.wuwang.opengl.obj;
+
+import java.util.Arrays;
+
+/**
+ * Description: 可增长的int数组，用于替代ArrayList<Integer>，避免装箱
+ */
+class IntList {
+
+    private int[] data;
+    private int size;
+
+    IntList(){
+        this(64);
+    }
+
+    IntList(int capacity){
+        data=new int[Math.max(capacity,4)];
+    }
+
+    void add(int v){
+        if(size==data.length){
+            grow(size+1);
+        }
+        data[size++]=v;
+    }
+
+    void add(int x,int y){
+        ensureCapacity(size+2);
+        data[size++]=x;
+        data[size++]=y;
+    }
+
+    void add(int x,int y,int z){
+        ensureCapacity(size+3);
+        data[size++]=x;
+        data[size++]=y;
+        data[size++]=z;
+    }
+
+    int get(int index){
+        return data[index];
+    }
+
+    void set(int index,int v){
+        data[index]=v;
+    }
+
+    void ensureCapacity(int capacity){
+        if(capacity>data.length){
+            grow(capacity);
+        }
+    }
+
+    private void grow(int minCapacity){
+        int capacity=data.length+(data.length>>1);
+        data=Arrays.copyOf(data,Math.max(capacity,minCapacity));
+    }
+
+    /**
+     * 设置大小，新增的部分不做初始化
+     */
+    void resize(int size){
+        ensureCapacity(size);
+        this.size=size;
+    }
+
+    int size(){
+        return size;
+    }
+
+    void clear(){
+        size=0;
+    }
+
+    /**
+     * 返回内部数组，有效数据长度为{@link #size()}
+     */
+    int[] array(){
+        return data;
+    }
+
+    int[] toArray(){
+        return Arrays.copyOf(data,size);
+    }
+
+}
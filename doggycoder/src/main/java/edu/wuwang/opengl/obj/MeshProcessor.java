@@ -0,0 +1,333 @@
+package edu.wuwang.opengl.obj;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Description: 索引网格的后处理，生成平滑顶点法线和切线。
+ * 法线为相邻面法向量按面积加权的平均值，位置相同的顶点(如贴图接缝两侧)之间也会平滑。
+ * 设置折痕角后，与当前面夹角超过折痕角的相邻面不参与平滑，此时同一顶点可能被拆分为多个顶点。
+ * 切线按MikkTSpace的思路计算：面切线按面积加权累加到顶点，再对顶点法线做Gram-Schmidt正交化，
+ * w分量记录副切线的方向。
+ * 所有计算都基于基本类型数组，按三角形或顶点区间拆分任务，可以在线程池中并行执行。
+ */
+public class MeshProcessor {
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private float creaseCos=-2;
+
+    /**
+     * 在调用线程上串行执行
+     */
+    public MeshProcessor(){
+        this(null,1);
+    }
+
+    /**
+     * @param executor 执行并行任务的线程池，调用线程也会执行其中一段
+     * @param parallelism 任务拆分的段数，通常为CPU核数
+     */
+    public MeshProcessor(ExecutorService executor,int parallelism){
+        this.executor=executor;
+        this.parallelism=executor==null?1:Math.max(parallelism,1);
+    }
+
+    /**
+     * 设置折痕角，相邻面法线夹角大于该角度时不做平滑，默认为180度，即全部平滑
+     */
+    public void setCreaseAngle(float degrees){
+        creaseCos=degrees>=180?-2:(float)Math.cos(Math.toRadians(degrees));
+    }
+
+    /**
+     * 计算平滑法线，结果为新的网格，顶点可能因为折痕被拆分，没有被任何三角形引用的顶点会被移除
+     */
+    public IndexedMesh computeNormals(final IndexedMesh mesh){
+        final int triCount=mesh.triangleCount();
+        final int[] idx=mesh.indices;
+        final float[] pos=mesh.positions;
+
+        //面法向量，未归一化的叉积，长度为面积的2倍
+        final float[] faceN=new float[triCount*3];
+        final float[] faceU=new float[triCount*3];
+        forRange(triCount,new RangeTask() {
+            @Override
+            public void run(int start,int end) {
+                for (int t=start;t<end;t++){
+                    int a=idx[t*3]*3,b=idx[t*3+1]*3,c=idx[t*3+2]*3;
+                    float e1x=pos[b]-pos[a],e1y=pos[b+1]-pos[a+1],e1z=pos[b+2]-pos[a+2];
+                    float e2x=pos[c]-pos[a],e2y=pos[c+1]-pos[a+1],e2z=pos[c+2]-pos[a+2];
+                    float x=e1y*e2z-e1z*e2y;
+                    float y=e1z*e2x-e1x*e2z;
+                    float z=e1x*e2y-e1y*e2x;
+                    faceN[t*3]=x;
+                    faceN[t*3+1]=y;
+                    faceN[t*3+2]=z;
+                    float len=(float)Math.sqrt(x*x+y*y+z*z);
+                    if(len>0){
+                        faceU[t*3]=x/len;
+                        faceU[t*3+1]=y/len;
+                        faceU[t*3+2]=z/len;
+                    }
+                }
+            }
+        });
+
+        //位置相同的顶点合并，使平滑跨越贴图接缝
+        final int[] posId=new int[mesh.vertexCount];
+        VertexWelder welder=new VertexWelder(mesh.vertexCount);
+        for (int v=0;v<mesh.vertexCount;v++){
+            posId[v]=welder.put(Float.floatToIntBits(pos[v*3]+0f),Float.floatToIntBits(pos[v*3+1]+0f),
+                Float.floatToIntBits(pos[v*3+2]+0f));
+        }
+        final int[] posStart=new int[welder.size()+1];
+        final int[] posCorners=groupCorners(idx,mesh.indexCount,posId,posStart);
+
+        //每个角的法线，只累加与所在面夹角不超过折痕角的相邻面
+        final float[] cornerN=new float[mesh.indexCount*3];
+        final float crease=creaseCos;
+        forRange(triCount,new RangeTask() {
+            @Override
+            public void run(int start,int end) {
+                for (int t=start;t<end;t++){
+                    for (int k=0;k<3;k++){
+                        int c=t*3+k;
+                        int p=posId[idx[c]];
+                        float x=0,y=0,z=0;
+                        int last=-1;
+                        for (int i=posStart[p];i<posStart[p+1];i++){
+                            int f=posCorners[i]/3;
+                            //退化三角形的多个角可能在同一位置，只计算一次
+                            if(f==last){
+                                continue;
+                            }
+                            last=f;
+                            if(f!=t&&faceU[t*3]*faceU[f*3]+faceU[t*3+1]*faceU[f*3+1]+faceU[t*3+2]*faceU[f*3+2]<crease){
+                                continue;
+                            }
+                            x+=faceN[f*3];
+                            y+=faceN[f*3+1];
+                            z+=faceN[f*3+2];
+                        }
+                        float len=(float)Math.sqrt(x*x+y*y+z*z);
+                        if(len>0){
+                            x/=len;
+                            y/=len;
+                            z/=len;
+                        }
+                        cornerN[c*3]=x;
+                        cornerN[c*3+1]=y;
+                        cornerN[c*3+2]=z;
+                    }
+                }
+            }
+        });
+
+        //同一顶点的各个角法线不同时拆分顶点，参与平滑的面相同时法线逐位相同
+        int[] vertStart=new int[mesh.vertexCount+1];
+        int[] vertCorners=groupCorners(idx,mesh.indexCount,null,vertStart);
+        IndexedMesh out=new IndexedMesh();
+        out.indexCount=mesh.indexCount;
+        out.indices=new int[mesh.indexCount];
+        FloatList positions=new FloatList(mesh.vertexCount*3);
+        FloatList normals=new FloatList(mesh.vertexCount*3);
+        FloatList texCoords=mesh.texCoords!=null?new FloatList(mesh.vertexCount*2):null;
+        for (int v=0;v<mesh.vertexCount;v++){
+            int first=vertStart[v];
+            for (int i=first;i<vertStart[v+1];i++){
+                int c=vertCorners[i];
+                int id=-1;
+                for (int j=first;j<i;j++){
+                    int o=vertCorners[j];
+                    if(cornerN[o*3]==cornerN[c*3]&&cornerN[o*3+1]==cornerN[c*3+1]&&cornerN[o*3+2]==cornerN[c*3+2]){
+                        id=out.indices[o];
+                        break;
+                    }
+                }
+                if(id<0){
+                    id=positions.size()/3;
+                    positions.add(pos[v*3],pos[v*3+1],pos[v*3+2]);
+                    normals.add(cornerN[c*3],cornerN[c*3+1],cornerN[c*3+2]);
+                    if(texCoords!=null){
+                        texCoords.add(mesh.texCoords[v*2],mesh.texCoords[v*2+1]);
+                    }
+                }
+                out.indices[c]=id;
+            }
+        }
+        out.vertexCount=positions.size()/3;
+        out.positions=positions.toArray();
+        out.normals=normals.toArray();
+        out.texCoords=texCoords!=null?texCoords.toArray():null;
+        return out;
+    }
+
+    /**
+     * 计算切线，结果写入{@link IndexedMesh#tangents}，网格需要有法线和贴图坐标
+     */
+    public void computeTangents(final IndexedMesh mesh){
+        if(mesh.normals==null||mesh.texCoords==null){
+            throw new IllegalArgumentException("tangents need normals and texCoords");
+        }
+        final int triCount=mesh.triangleCount();
+        final int[] idx=mesh.indices;
+        final float[] pos=mesh.positions;
+        final float[] uv=mesh.texCoords;
+        final float[] nor=mesh.normals;
+
+        //面切线和副切线，归一化后乘以面积
+        final float[] faceT=new float[triCount*3];
+        final float[] faceB=new float[triCount*3];
+        forRange(triCount,new RangeTask() {
+            @Override
+            public void run(int start,int end) {
+                for (int t=start;t<end;t++){
+                    int a=idx[t*3],b=idx[t*3+1],c=idx[t*3+2];
+                    float e1x=pos[b*3]-pos[a*3],e1y=pos[b*3+1]-pos[a*3+1],e1z=pos[b*3+2]-pos[a*3+2];
+                    float e2x=pos[c*3]-pos[a*3],e2y=pos[c*3+1]-pos[a*3+1],e2z=pos[c*3+2]-pos[a*3+2];
+                    float du1=uv[b*2]-uv[a*2],dv1=uv[b*2+1]-uv[a*2+1];
+                    float du2=uv[c*2]-uv[a*2],dv2=uv[c*2+1]-uv[a*2+1];
+                    float r=du1*dv2-du2*dv1;
+                    if(r==0){
+                        continue;
+                    }
+                    float nx=e1y*e2z-e1z*e2y,ny=e1z*e2x-e1x*e2z,nz=e1x*e2y-e1y*e2x;
+                    float area=(float)Math.sqrt(nx*nx+ny*ny+nz*nz);
+                    setScaled(faceT,t,(e1x*dv2-e2x*dv1)/r,(e1y*dv2-e2y*dv1)/r,(e1z*dv2-e2z*dv1)/r,area);
+                    setScaled(faceB,t,(e2x*du1-e1x*du2)/r,(e2y*du1-e1y*du2)/r,(e2z*du1-e1z*du2)/r,area);
+                }
+            }
+        });
+
+        final int[] vertStart=new int[mesh.vertexCount+1];
+        final int[] vertCorners=groupCorners(idx,mesh.indexCount,null,vertStart);
+        final float[] tangents=new float[mesh.vertexCount*4];
+        forRange(mesh.vertexCount,new RangeTask() {
+            @Override
+            public void run(int start,int end) {
+                for (int v=start;v<end;v++){
+                    float tx=0,ty=0,tz=0,bx=0,by=0,bz=0;
+                    for (int i=vertStart[v];i<vertStart[v+1];i++){
+                        int f=vertCorners[i]/3;
+                        tx+=faceT[f*3];
+                        ty+=faceT[f*3+1];
+                        tz+=faceT[f*3+2];
+                        bx+=faceB[f*3];
+                        by+=faceB[f*3+1];
+                        bz+=faceB[f*3+2];
+                    }
+                    float nx=nor[v*3],ny=nor[v*3+1],nz=nor[v*3+2];
+                    //Gram-Schmidt正交化
+                    float d=nx*tx+ny*ty+nz*tz;
+                    tx-=nx*d;
+                    ty-=ny*d;
+                    tz-=nz*d;
+                    float len=(float)Math.sqrt(tx*tx+ty*ty+tz*tz);
+                    if(len<1e-12f){
+                        //没有有效的贴图坐标，任取一个与法线垂直的方向
+                        if(Math.abs(nx)<0.9f){
+                            tx=0;
+                            ty=nz;
+                            tz=-ny;
+                        }else{
+                            tx=-nz;
+                            ty=0;
+                            tz=nx;
+                        }
+                        len=(float)Math.sqrt(tx*tx+ty*ty+tz*tz);
+                        if(len==0){
+                            tx=1;
+                            len=1;
+                        }
+                    }
+                    tx/=len;
+                    ty/=len;
+                    tz/=len;
+                    //(n x t)与副切线同向时w为1，贴图镜像时为-1
+                    float cx=ny*tz-nz*ty,cy=nz*tx-nx*tz,cz=nx*ty-ny*tx;
+                    tangents[v*4]=tx;
+                    tangents[v*4+1]=ty;
+                    tangents[v*4+2]=tz;
+                    tangents[v*4+3]=cx*bx+cy*by+cz*bz<0?-1:1;
+                }
+            }
+        });
+        mesh.tangents=tangents;
+    }
+
+    private static void setScaled(float[] out,int t,float x,float y,float z,float scale){
+        float len=(float)Math.sqrt(x*x+y*y+z*z);
+        if(len>0){
+            scale/=len;
+            out[t*3]=x*scale;
+            out[t*3+1]=y*scale;
+            out[t*3+2]=z*scale;
+        }
+    }
+
+    /**
+     * 按key对所有三角形的角分组(计数排序)，第k组的角为list[start[k]]到list[start[k+1]-1]，组内按角的序号升序
+     * @param keys 顶点到key的映射，为null时key即为顶点索引
+     * @param start 长度为key数+1
+     */
+    private static int[] groupCorners(int[] indices,int indexCount,int[] keys,int[] start){
+        for (int c=0;c<indexCount;c++){
+            int k=keys==null?indices[c]:keys[indices[c]];
+            start[k+1]++;
+        }
+        for (int k=1;k<start.length;k++){
+            start[k]+=start[k-1];
+        }
+        int[] fill=new int[start.length-1];
+        System.arraycopy(start,0,fill,0,fill.length);
+        int[] list=new int[indexCount];
+        for (int c=0;c<indexCount;c++){
+            int k=keys==null?indices[c]:keys[indices[c]];
+            list[fill[k]++]=c;
+        }
+        return list;
+    }
+
+    private interface RangeTask{
+        void run(int start,int end);
+    }
+
+    //将[0,count)拆分为parallelism段并行执行，最后一段在调用线程上执行
+    private void forRange(int count,final RangeTask task){
+        if(parallelism==1||count<parallelism*1024){
+            task.run(0,count);
+            return;
+        }
+        int step=(count+parallelism-1)/parallelism;
+        ArrayList<Future<?>> futures=new ArrayList<>(parallelism-1);
+        for (int i=0;i<parallelism-1;i++){
+            final int start=i*step;
+            final int end=Math.min(start+step,count);
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(start,end);
+                }
+            }));
+        }
+        task.run(Math.min((parallelism-1)*step,count),count);
+        try {
+            for (Future<?> f:futures){
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted",e);
+        } catch (ExecutionException e) {
+            Throwable cause=e.getCause();
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+}
@@ -1,11 +1,17 @@
 package edu.wuwang.opengl.obj;
 
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
 import android.util.Log;
 
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by wuwang on 2017/2/22
@@ -16,8 +22,19 @@ public class Obj3D {
     public int vertCount;
     public FloatBuffer vertNorl;
     public FloatBuffer vertTexture;
+    //切线，每个顶点4个float，由MeshProcessor生成，可为null
+    public FloatBuffer vertTangent;
+    //顶点数据的步长(字节)，0表示各属性紧密排列，从ObjCache加载时三者交错存放在同一块内存中
+    public int vertStride;
+
+    //索引模式下vert、vertNorl、vertTexture只存放唯一顶点，按indices绘制
+    public Buffer indices;
+    public int indexCount;
+    public int indexType;
 
     public MtlInfo mtl;
+    //已解码的map_Kd贴图，由ParallelObjLoader异步解码，为null时由Filter自行解码
+    public Bitmap texture;
 
     private ArrayList<Float> tempVert;
     private ArrayList<Float> tempVertNorl;
@@ -102,4 +119,81 @@ public class Obj3D {
         vertTexture.position(0);
     }
 
+    public void setVert(float[] data,int size){
+        vert=createBuffer(data,size);
+        vertCount=size/3;
+    }
+
+    public void setVertNorl(float[] data,int size){
+        vertNorl=createBuffer(data,size);
+    }
+
+    public void setVertTexture(float[] data,int size){
+        vertTexture=createBuffer(data,size);
+    }
+
+    public void setVertTangent(float[] data,int size){
+        vertTangent=createBuffer(data,size);
+    }
+
+    /**
+     * 设置三角形索引，唯一顶点数不超过65536时使用ShortBuffer，否则使用IntBuffer，
+     * 此时需要设备支持GL_OES_element_index_uint扩展，不支持时用{@link #splitForShortIndices()}切分
+     */
+    public void setIndices(int[] data,int size){
+        if(vertCount<=65536){
+            ByteBuffer buffer=ByteBuffer.allocateDirect(size*2);
+            buffer.order(ByteOrder.nativeOrder());
+            ShortBuffer sb=buffer.asShortBuffer();
+            for (int i=0;i<size;i++){
+                sb.put((short)data[i]);
+            }
+            sb.position(0);
+            indices=sb;
+            indexType=GLES20.GL_UNSIGNED_SHORT;
+        }else{
+            ByteBuffer buffer=ByteBuffer.allocateDirect(size*4);
+            buffer.order(ByteOrder.nativeOrder());
+            IntBuffer ib=buffer.asIntBuffer();
+            ib.put(data,0,size);
+            ib.position(0);
+            indices=ib;
+            indexType=GLES20.GL_UNSIGNED_INT;
+        }
+        indexCount=size;
+    }
+
+    public boolean isIndexed(){
+        return indices!=null;
+    }
+
+    /**
+     * 把32位索引的网格切分成若干顶点数不超过65536的子网格，子网格使用16位索引，
+     * 共享材质和贴图，供不支持GL_OES_element_index_uint扩展的设备分批绘制
+     */
+    public Obj3D[] splitForShortIndices(){
+        List<IndexedMesh> parts=IndexedMesh.from(this).split(65536);
+        Obj3D[] result=new Obj3D[parts.size()];
+        for (int i=0;i<result.length;i++){
+            Obj3D part=new Obj3D();
+            parts.get(i).applyTo(part);
+            part.mtl=mtl;
+            part.texture=texture;
+            part.textureSMode=textureSMode;
+            part.textureTMode=textureTMode;
+            result[i]=part;
+        }
+        return result;
+    }
+
+    //一次性拷贝到DirectBuffer中
+    private static FloatBuffer createBuffer(float[] data,int size){
+        ByteBuffer buffer=ByteBuffer.allocateDirect(size*4);
+        buffer.order(ByteOrder.nativeOrder());
+        FloatBuffer fb=buffer.asFloatBuffer();
+        fb.put(data,0,size);
+        fb.position(0);
+        return fb;
+    }
+
 }
@@ -0,0 +1,578 @@
+package edu.wuwang.opengl.obj;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Description: OBJ/MTL的二进制缓存。缓存文件中保存交错排列的顶点数据(位置、法线、贴图坐标)、
+ * 三角形索引、每个材质的子模型范围以及{@link MtlInfo}，加载时直接内存映射，
+ * 顶点和索引Buffer都是映射区域上的视图，不需要任何解析。
+ * 缓存中记录了OBJ和MTL文本的内容哈希，以及生成缓存时两个文件的长度和修改时间，
+ * assets中的文件没有修改时间，用应用的更新时间代替。校验时先比较长度和修改时间：
+ * 长度不同时缓存过期，都相同时缓存有效，都不需要读取源文件；只有修改时间不同时才读取源文件计算哈希，
+ * 哈希不一致时回退到文本解析并重新生成缓存，一致时把这次的长度和修改时间记在cache目录的
+ * {@link #STAMP_SUFFIX}文件中，之后的启动又只需比较长度和修改时间。
+ *
+ * 文件格式(小端序)：
+ * <pre>
+ * int    magic 'OBJC'
+ * int    version
+ * long   OBJ和MTL文本的内容哈希(FNV-1a 64位)
+ * long   OBJ文件长度，long OBJ修改时间
+ * long   MTL文件长度，long MTL修改时间，mtllib为null时都为0
+ * string mtllib
+ * int    子模型数
+ * 子模型 {
+ *     string 材质名
+ *     byte   是否有材质信息，为1时紧跟 Ka Kd Ks Ke Ns illum map_Kd map_Ks map_Ka
+ *     int    是否有贴图坐标
+ *     int    顶点数，int 顶点步长(字节)，int 顶点数据偏移
+ *     int    索引数，int 索引字节数(2或4)，int 索引数据偏移
+ * }
+ * 顶点和索引数据，偏移按4字节对齐
+ * </pre>
+ * 预生成的缓存放在assets中时需要配置aaptOptions.noCompress，否则无法openFd映射。
+ */
+public class ObjCache {
+
+    private static final String TAG="ObjCache";
+
+    public static final String SUFFIX=".mesh";
+    //哈希校验通过后记录源文件的长度和修改时间
+    static final String STAMP_SUFFIX=".stamp";
+
+    private static final int MAGIC=0x434A424F;
+    private static final int VERSION=3;
+
+    private static final long FNV_OFFSET=0xcbf29ce484222325L;
+    private static final long FNV_PRIME=0x100000001b3L;
+
+    private ObjCache(){
+    }
+
+    /**
+     * 读取多材质模型，优先使用缓存，用于替代{@link ObjParser#readMultiObj}。
+     * 缓存的查找顺序为assets中与OBJ同名的{@link #SUFFIX}文件，然后是应用cache目录。
+     * 两者都不可用时解析文本，并将结果写入cache目录，下次启动直接映射。
+     * @param file 以"assets/"开头时从assets中读取，否则作为文件路径读取
+     */
+    public static List<Obj3D> readMultiObj(Context context,String file){
+        boolean isAssets=file.startsWith("assets/");
+        String path=isAssets?file.substring(7):file;
+        String parent=path.substring(0,path.lastIndexOf("/")+1);
+        String name=path.substring(path.lastIndexOf("/")+1);
+        String cacheName=(name.endsWith(".obj")?name.substring(0,name.length()-4):name)+SUFFIX;
+        File cacheFile=new File(context.getCacheDir(),cacheName);
+        File stampFile=new File(context.getCacheDir(),cacheName+STAMP_SUFFIX);
+        Source source=isAssets?assetSource(context,parent):fileSource(parent);
+        try {
+            ByteBuffer cache=null;
+            if(isAssets){
+                cache=mapAsset(context,parent+cacheName);
+            }
+            List<Obj3D> list=load(cache,name,source,stampFile);
+            if(list==null){
+                cache=cacheFile.exists()?ObjParser.map(cacheFile.getPath()):null;
+                list=load(cache,name,source,stampFile);
+            }
+            if(list!=null){
+                return list;
+            }
+
+            Log.d(TAG,"cache missing or stale, parse "+file);
+            //先取长度和修改时间再读内容，读取过程中文件被修改时下次启动会重新校验
+            long[] objStamp=source.stamp(name);
+            ByteBuffer objData=source.read(name);
+            ParallelObjLoader.Model model=ParallelObjLoader.getDefault()
+                .load(objData,ParallelObjLoader.source(context,isAssets,parent));
+            long hash=hash(FNV_OFFSET,objData);
+            long[] mtlStamp=new long[2];
+            if(model.mtlData!=null){
+                hash=hash(hash,model.mtlData);
+                mtlStamp=source.stamp(model.mtlLib);
+            }
+            try {
+                if(objStamp!=null&&mtlStamp!=null){
+                    write(model.objs,model.mtlLib,hash,
+                        new long[]{objStamp[0],objStamp[1],mtlStamp[0],mtlStamp[1]},cacheFile);
+                }
+            } catch (IOException e) {
+                Log.e(TAG,"write cache failed:"+cacheFile,e);
+            }
+            return model.objs;
+        } catch (IOException e) {
+            Log.e(TAG,"read obj failed:"+file,e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * 从文件生成缓存，供离线转换使用
+     * @param objFile OBJ文件，mtllib按相对OBJ所在目录查找
+     */
+    public static void convert(File objFile,File out) throws IOException {
+        convert(objFile,out,null);
+    }
+
+    /**
+     * 从文件生成缓存，供离线转换使用
+     * @param objFile OBJ文件，mtllib按相对OBJ所在目录查找
+     * @param processor 不为null时用其重新生成各子模型的法线
+     */
+    public static void convert(File objFile,File out,MeshProcessor processor) throws IOException {
+        ByteBuffer objData=ObjParser.map(objFile.getPath());
+        ObjParser parser=new ObjParser();
+        parser.setIndexed(true);
+        parser.parse(objData);
+        long hash=hash(FNV_OFFSET,objData);
+        long[] stamps={objFile.length(),objFile.lastModified(),0,0};
+        HashMap<String,MtlInfo> mtls=null;
+        if(parser.getMtlLib()!=null){
+            File mtlFile=new File(objFile.getParentFile(),parser.getMtlLib());
+            stamps[2]=mtlFile.length();
+            stamps[3]=mtlFile.lastModified();
+            ByteBuffer mtlData=ObjParser.readFully(new FileInputStream(mtlFile));
+            hash=hash(hash,mtlData);
+            mtls=ObjReader.readMtl(new ByteArrayInputStream(mtlData.array(),mtlData.position(),mtlData.remaining()));
+        }
+        List<Obj3D> list=parser.buildMulti(mtls);
+        if(processor!=null){
+            for (Obj3D obj:list){
+                processor.computeNormals(IndexedMesh.from(obj)).applyTo(obj);
+            }
+        }
+        write(list,parser.getMtlLib(),hash,stamps,out);
+    }
+
+    /**
+     * 将由{@link ObjParser}生成的索引模型写入缓存文件，顶点数据需要是紧密排列的
+     * @param hash OBJ和MTL文本的内容哈希，见{@link #hash}
+     * @param stamps OBJ长度、OBJ修改时间、MTL长度、MTL修改时间，mtlLib为null时后两个为0
+     */
+    public static void write(List<Obj3D> list,String mtlLib,long hash,long[] stamps,File out) throws IOException {
+        ByteBuffer buffer=ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(hash);
+        for (int i=0;i<4;i++){
+            buffer.putLong(stamps[i]);
+        }
+        buffer=putString(buffer,mtlLib);
+        buffer=ensure(buffer,4);
+        buffer.putInt(list.size());
+        //先写头部，数据偏移占位，写数据时回填
+        int[] offsetPos=new int[list.size()*2];
+        for (int i=0;i<list.size();i++){
+            Obj3D obj=list.get(i);
+            MtlInfo mtl=obj.mtl;
+            buffer=putString(buffer,mtl==null?null:mtl.newmtl);
+            buffer=ensure(buffer,64);
+            buffer.put((byte)(mtl==null?0:1));
+            if(mtl!=null){
+                putFloats(buffer,mtl.Ka);
+                putFloats(buffer,mtl.Kd);
+                putFloats(buffer,mtl.Ks);
+                putFloats(buffer,mtl.Ke);
+                buffer.putFloat(mtl.Ns);
+                buffer.putInt(mtl.illum);
+                buffer=putString(buffer,mtl.map_Kd);
+                buffer=putString(buffer,mtl.map_Ks);
+                buffer=putString(buffer,mtl.map_Ka);
+            }
+            buffer=ensure(buffer,32);
+            buffer.putInt(obj.vertTexture!=null?1:0);
+            buffer.putInt(obj.vertCount);
+            buffer.putInt(obj.vertTexture!=null?32:24);
+            offsetPos[i*2]=buffer.position();
+            buffer.putInt(0);
+            buffer.putInt(obj.indexCount);
+            buffer.putInt(obj.indexType==GLES20.GL_UNSIGNED_INT?4:2);
+            offsetPos[i*2+1]=buffer.position();
+            buffer.putInt(0);
+        }
+        for (int i=0;i<list.size();i++){
+            Obj3D obj=list.get(i);
+            int stride=obj.vertTexture!=null?8:6;
+            buffer=align(ensure(buffer,obj.vertCount*stride*4+obj.indexCount*4+8));
+            buffer.putInt(offsetPos[i*2],buffer.position());
+            for (int j=0;j<obj.vertCount;j++){
+                buffer.putFloat(obj.vert.get(j*3)).putFloat(obj.vert.get(j*3+1)).putFloat(obj.vert.get(j*3+2));
+                if(obj.vertNorl!=null){
+                    buffer.putFloat(obj.vertNorl.get(j*3)).putFloat(obj.vertNorl.get(j*3+1)).putFloat(obj.vertNorl.get(j*3+2));
+                }else{
+                    buffer.putFloat(0).putFloat(0).putFloat(0);
+                }
+                if(obj.vertTexture!=null){
+                    buffer.putFloat(obj.vertTexture.get(j*2)).putFloat(obj.vertTexture.get(j*2+1));
+                }
+            }
+            buffer=align(buffer);
+            buffer.putInt(offsetPos[i*2+1],buffer.position());
+            if(obj.indices instanceof IntBuffer){
+                IntBuffer indices=(IntBuffer)obj.indices;
+                for (int j=0;j<obj.indexCount;j++){
+                    buffer.putInt(indices.get(j));
+                }
+            }else if(obj.indices instanceof ShortBuffer){
+                ShortBuffer indices=(ShortBuffer)obj.indices;
+                for (int j=0;j<obj.indexCount;j++){
+                    buffer.putShort(indices.get(j));
+                }
+            }
+        }
+        buffer.flip();
+        //先写临时文件再重命名，避免写入中断留下不完整的缓存
+        File temp=new File(out.getPath()+".tmp");
+        FileOutputStream fos=new FileOutputStream(temp);
+        try {
+            FileChannel channel=fos.getChannel();
+            while (buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }finally {
+            fos.close();
+        }
+        if(!temp.renameTo(out)){
+            out.delete();
+            if(!temp.renameTo(out)){
+                throw new IOException("rename failed:"+out);
+            }
+        }
+    }
+
+    /**
+     * 从映射的缓存中构建模型，顶点和索引直接引用映射区域
+     * @param objName OBJ文件名，与mtllib一起通过source取得长度、修改时间和内容
+     * @param stampFile 哈希校验通过后记录长度和修改时间的文件，为null时不记录
+     * @return 缓存无效或者源文件已经修改时返回null
+     */
+    static List<Obj3D> load(ByteBuffer cache,String objName,Source source,File stampFile){
+        if(cache==null||ByteOrder.nativeOrder()!=ByteOrder.LITTLE_ENDIAN){
+            return null;
+        }
+        try {
+            ByteBuffer buffer=cache.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(0);
+            if(buffer.getInt()!=MAGIC||buffer.getInt()!=VERSION){
+                return null;
+            }
+            long hash=buffer.getLong();
+            long[] recorded=new long[4];
+            for (int i=0;i<4;i++){
+                recorded[i]=buffer.getLong();
+            }
+            String mtlLib=getString(buffer);
+            if(!isFresh(hash,recorded,objName,mtlLib,source,stampFile)){
+                return null;
+            }
+            int count=buffer.getInt();
+            ArrayList<Obj3D> list=new ArrayList<>(count);
+            for (int i=0;i<count;i++){
+                Obj3D obj=new Obj3D();
+                String name=getString(buffer);
+                if(buffer.get()!=0){
+                    MtlInfo mtl=new MtlInfo();
+                    mtl.newmtl=name;
+                    getFloats(buffer,mtl.Ka);
+                    getFloats(buffer,mtl.Kd);
+                    getFloats(buffer,mtl.Ks);
+                    getFloats(buffer,mtl.Ke);
+                    mtl.Ns=buffer.getFloat();
+                    mtl.illum=buffer.getInt();
+                    mtl.map_Kd=getString(buffer);
+                    mtl.map_Ks=getString(buffer);
+                    mtl.map_Ka=getString(buffer);
+                    obj.mtl=mtl;
+                }
+                boolean hasTexture=buffer.getInt()!=0;
+                int vertCount=buffer.getInt();
+                int stride=buffer.getInt();
+                int vertOffset=buffer.getInt();
+                int indexCount=buffer.getInt();
+                int indexSize=buffer.getInt();
+                int indexOffset=buffer.getInt();
+
+                FloatBuffer vert=slice(cache,vertOffset,vertCount*stride).asFloatBuffer();
+                obj.vert=vert;
+                obj.vertNorl=position(vert.duplicate(),3);
+                if(hasTexture){
+                    obj.vertTexture=position(vert.duplicate(),6);
+                }
+                obj.vertCount=vertCount;
+                obj.vertStride=stride;
+                ByteBuffer indices=slice(cache,indexOffset,indexCount*indexSize);
+                if(indexSize==4){
+                    obj.indices=indices.asIntBuffer();
+                    obj.indexType=GLES20.GL_UNSIGNED_INT;
+                }else{
+                    obj.indices=indices.asShortBuffer();
+                    obj.indexType=GLES20.GL_UNSIGNED_SHORT;
+                }
+                obj.indexCount=indexCount;
+                list.add(obj);
+            }
+            return list;
+        }catch (RuntimeException e){
+            //文件损坏，如越界、长度异常等，按缓存失效处理
+            return null;
+        }
+    }
+
+    //长度不同时一定修改过，长度和修改时间都相同时认为没有修改，只有修改时间不同时才比较内容哈希
+    private static boolean isFresh(long hash,long[] recorded,String objName,String mtlLib,
+                                   Source source,File stampFile){
+        long[] objStamp=source.stamp(objName);
+        long[] mtlStamp=mtlLib==null?new long[2]:source.stamp(mtlLib);
+        if(objStamp==null||mtlStamp==null){
+            return false;
+        }
+        long[] stamps={objStamp[0],objStamp[1],mtlStamp[0],mtlStamp[1]};
+        if(stamps[0]!=recorded[0]||stamps[2]!=recorded[2]){
+            return false;
+        }
+        if(Arrays.equals(stamps,recorded)||Arrays.equals(stamps,readStamp(stampFile,hash))){
+            return true;
+        }
+        try {
+            long current=hash(FNV_OFFSET,source.read(objName));
+            if(mtlLib!=null){
+                current=hash(current,source.read(mtlLib));
+            }
+            if(current!=hash){
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        writeStamp(stampFile,hash,stamps);
+        return true;
+    }
+
+    //读取哈希为hash的源文件上次校验时的长度和修改时间，没有记录时返回null
+    private static long[] readStamp(File stampFile,long hash){
+        if(stampFile==null||stampFile.length()!=40){
+            return null;
+        }
+        try {
+            ByteBuffer buffer=ObjParser.map(stampFile.getPath()).order(ByteOrder.LITTLE_ENDIAN);
+            if(buffer.getLong()!=hash){
+                return null;
+            }
+            long[] stamps=new long[4];
+            for (int i=0;i<4;i++){
+                stamps[i]=buffer.getLong();
+            }
+            return stamps;
+        } catch (IOException|RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeStamp(File stampFile,long hash,long[] stamps){
+        if(stampFile==null){
+            return;
+        }
+        ByteBuffer buffer=ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(hash);
+        for (long stamp:stamps){
+            buffer.putLong(stamp);
+        }
+        try {
+            FileOutputStream fos=new FileOutputStream(stampFile);
+            try {
+                fos.write(buffer.array());
+            }finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            //只影响下次启动是否需要重新计算哈希
+            stampFile.delete();
+        }
+    }
+
+    /**
+     * 计算内容哈希(FNV-1a 64位)，不改变buffer的position
+     * @param hash 初始值，多段内容连续计算时传入上一段的结果
+     */
+    public static long hash(long hash,ByteBuffer data){
+        for (int i=data.position(),limit=data.limit();i<limit;i++){
+            hash^=data.get(i)&0xff;
+            hash*=FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public static long hash(ByteBuffer data){
+        return hash(FNV_OFFSET,data);
+    }
+
+    /**
+     * 缓存校验时读取OBJ和MTL
+     */
+    interface Source{
+        /**
+         * @return 文件的长度和修改时间，文件不存在时返回null
+         */
+        long[] stamp(String name);
+        ByteBuffer read(String name) throws IOException;
+    }
+
+    /**
+     * @param parent 文件所在目录，以"/"结尾或为空
+     */
+    static Source fileSource(final String parent){
+        return new Source() {
+            @Override
+            public long[] stamp(String name) {
+                File file=new File(parent+name);
+                return file.isFile()?new long[]{file.length(),file.lastModified()}:null;
+            }
+
+            @Override
+            public ByteBuffer read(String name) throws IOException {
+                if(!new File(parent+name).isFile()){
+                    throw new FileNotFoundException(parent+name);
+                }
+                return ObjParser.map(parent+name);
+            }
+        };
+    }
+
+    //assets只会随应用更新而改变，用应用的更新时间作为修改时间
+    private static Source assetSource(final Context context,final String parent){
+        long time;
+        try {
+            time=context.getPackageManager().getPackageInfo(context.getPackageName(),0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            //自己的包总能找到
+            time=0;
+        }
+        final long updateTime=time;
+        return new Source() {
+            @Override
+            public long[] stamp(String name) {
+                try {
+                    //AssetInputStream.available()返回整个asset的剩余长度，压缩存放的asset也不需要解压
+                    InputStream stream=context.getAssets().open(parent+name);
+                    try {
+                        return new long[]{stream.available(),updateTime};
+                    }finally {
+                        stream.close();
+                    }
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            public ByteBuffer read(String name) throws IOException {
+                return ObjParser.readFully(context.getAssets().open(parent+name));
+            }
+        };
+    }
+
+    //映射assets中未压缩的文件，文件不存在或被压缩时返回null
+    private static ByteBuffer mapAsset(Context context,String path){
+        try {
+            AssetFileDescriptor afd=context.getAssets().openFd(path);
+            try {
+                FileChannel channel=afd.createInputStream().getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY,afd.getStartOffset(),afd.getLength());
+            }finally {
+                afd.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer,int offset,int length){
+        ByteBuffer b=buffer.duplicate();
+        b.limit(offset+length);
+        b.position(offset);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static FloatBuffer position(FloatBuffer buffer,int position){
+        buffer.position(position);
+        return buffer;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer,int size){
+        if(buffer.remaining()>=size){
+            return buffer;
+        }
+        ByteBuffer b=ByteBuffer.allocate(Math.max(buffer.capacity()*2,buffer.position()+size))
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        b.put(buffer);
+        return b;
+    }
+
+    private static ByteBuffer align(ByteBuffer buffer){
+        buffer=ensure(buffer,4);
+        while ((buffer.position()&3)!=0){
+            buffer.put((byte)0);
+        }
+        return buffer;
+    }
+
+    private static ByteBuffer putString(ByteBuffer buffer,String value){
+        if(value==null){
+            buffer=ensure(buffer,4);
+            buffer.putInt(-1);
+            return buffer;
+        }
+        byte[] bytes=value.getBytes();
+        buffer=ensure(buffer,4+bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer){
+        int length=buffer.getInt();
+        if(length<0){
+            return null;
+        }
+        byte[] bytes=new byte[length];
+        buffer.get(bytes);
+        return new String(bytes);
+    }
+
+    private static void putFloats(ByteBuffer buffer,float[] values){
+        for (float v:values){
+            buffer.putFloat(v);
+        }
+    }
+
+    private static void getFloats(ByteBuffer buffer,float[] values){
+        for (int i=0;i<values.length;i++){
+            values[i]=buffer.getFloat();
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package edu.wuwang.opengl.obj;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Description: 离线将OBJ/MTL转换为{@link ObjCache}格式的二进制缓存，在PC上执行：
+ * <pre>
+ * java -cp build/intermediates/classes/debug:$ANDROID_HOME/platforms/android-24/android.jar \
+ *     edu.wuwang.opengl.obj.ObjCacheConverter src/main/assets/3dres/pikachu.obj
+ * </pre>
+ * 不指定输出文件时，输出到OBJ所在目录下的同名{@link ObjCache#SUFFIX}文件。
+ * 加上"-crease 角度"参数时，用{@link MeshProcessor}按折痕角重新生成平滑法线。
+ */
+public class ObjCacheConverter {
+
+    public static void main(String[] args) throws IOException {
+        MeshProcessor processor=null;
+        if(args.length>=2&&"-crease".equals(args[0])){
+            processor=new MeshProcessor();
+            processor.setCreaseAngle(Float.parseFloat(args[1]));
+            String[] rest=new String[args.length-2];
+            System.arraycopy(args,2,rest,0,rest.length);
+            args=rest;
+        }
+        if(args.length<1){
+            System.out.println("usage: ObjCacheConverter [-crease degrees] <input.obj> [output"+ObjCache.SUFFIX+"]");
+            System.exit(1);
+        }
+        File in=new File(args[0]);
+        File out;
+        if(args.length>1){
+            out=new File(args[1]);
+        }else{
+            String name=in.getName();
+            if(name.endsWith(".obj")){
+                name=name.substring(0,name.length()-4);
+            }
+            out=new File(in.getAbsoluteFile().getParentFile(),name+ObjCache.SUFFIX);
+        }
+        long start=System.currentTimeMillis();
+        ObjCache.convert(in,out,processor);
+        System.out.println(in+" -> "+out+" ("+out.length()+" bytes, "
+            +(System.currentTimeMillis()-start)+"ms)");
+    }
+
+}
@@ -6,6 +6,8 @@ import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 
+import com.roger.glcommon.gl.GlCapabilities;
+
 import java.io.IOException;
 
 import edu.wuwang.opengl.filter.AFilter;
@@ -21,6 +23,8 @@ public class ObjFilter extends AFilter {
 
     private int mHNormal;
     private Obj3D obj;
+    //不支持32位索引时切分出的16位索引子网格，为null时直接绘制obj
+    private Obj3D[] parts;
 
     private int textureId;
 
@@ -40,12 +44,21 @@ public class ObjFilter extends AFilter {
     @Override
     protected void onCreate() {
         createProgramByAssetsFile("3dres/obj.vert","3dres/obj.frag");
+        //ES 2.0的glDrawElements只保证支持16位索引
+        parts=null;
+        if(obj!=null&&obj.isIndexed()&&obj.indexType==GLES20.GL_UNSIGNED_INT
+            &&!GlCapabilities.hasExtension(GlCapabilities.OES_ELEMENT_INDEX_UINT)){
+            parts=obj.splitForShortIndices();
+        }
         mHNormal=GLES20.glGetAttribLocation(mProgram,"vNormal");
         //打开深度检测
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
         if(obj.vertTexture!=null){
             try {
-                textureId=createTexture(BitmapFactory.decodeStream(mRes.getAssets().open("3dres/"+obj.mtl.map_Kd)));
+                //ParallelObjLoader已经异步解码过的贴图直接上传
+                Bitmap bitmap=obj.texture!=null?obj.texture
+                    :BitmapFactory.decodeStream(mRes.getAssets().open("3dres/"+obj.mtl.map_Kd));
+                textureId=createTexture(bitmap);
                 setTextureId(textureId);
             } catch (IOException e) {
                 e.printStackTrace();
@@ -53,6 +66,11 @@ public class ObjFilter extends AFilter {
         }
     }
 
+    @Override
+    public boolean isDepthRequired() {
+        return true;
+    }
+
     @Override
     protected void onClear() {
         super.onClear();
@@ -61,15 +79,29 @@ public class ObjFilter extends AFilter {
     @Override
     protected void onDraw() {
         GLES20.glEnableVertexAttribArray(mHPosition);
-        GLES20.glVertexAttribPointer(mHPosition,3, GLES20.GL_FLOAT, false, 3*4,obj.vert);
         GLES20.glEnableVertexAttribArray(mHNormal);
-        GLES20.glVertexAttribPointer(mHNormal,3, GLES20.GL_FLOAT, false, 3*4,obj.vertNorl);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES,0,obj.vertCount);
+        if(parts!=null){
+            for (Obj3D part:parts){
+                drawMesh(part);
+            }
+        }else{
+            drawMesh(obj);
+        }
         GLES20.glDisableVertexAttribArray(mHPosition);
         GLES20.glDisableVertexAttribArray(mHNormal);
 //        GLES20.glDisableVertexAttribArray(mHCoord);
     }
 
+    private void drawMesh(Obj3D mesh){
+        GLES20.glVertexAttribPointer(mHPosition,3, GLES20.GL_FLOAT, false,mesh.vertStride,mesh.vert);
+        GLES20.glVertexAttribPointer(mHNormal,3, GLES20.GL_FLOAT, false,mesh.vertStride,mesh.vertNorl);
+        if(mesh.isIndexed()){
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES,mesh.indexCount,mesh.indexType,mesh.indices);
+        }else{
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES,0,mesh.vertCount);
+        }
+    }
+
     @Override
     protected void onSizeChanged(int width, int height) {
         GLES20.glViewport(0,0,width,height);
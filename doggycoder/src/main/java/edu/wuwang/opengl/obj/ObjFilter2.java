@@ -7,6 +7,8 @@ import android.opengl.GLES20;
 import android.opengl.GLUtils;
 import android.util.Log;
 
+import com.roger.glcommon.gl.GlCapabilities;
+
 import java.io.IOException;
 
 import edu.wuwang.opengl.filter.AFilter;
@@ -24,6 +26,8 @@ public class ObjFilter2 extends AFilter {
     private int mHKd;
     private int mHKs;
     private Obj3D obj;
+    //不支持32位索引时切分出的16位索引子网格，为null时直接绘制obj
+    private Obj3D[] parts;
 
     private int textureId;
 
@@ -43,6 +47,12 @@ public class ObjFilter2 extends AFilter {
     @Override
     protected void onCreate() {
         createProgramByAssetsFile("3dres/obj2.vert","3dres/obj2.frag");
+        //ES 2.0的glDrawElements只保证支持16位索引
+        parts=null;
+        if(obj!=null&&obj.isIndexed()&&obj.indexType==GLES20.GL_UNSIGNED_INT
+            &&!GlCapabilities.hasExtension(GlCapabilities.OES_ELEMENT_INDEX_UINT)){
+            parts=obj.splitForShortIndices();
+        }
         mHNormal=GLES20.glGetAttribLocation(mProgram,"vNormal");
         mHKa=GLES20.glGetUniformLocation(mProgram,"vKa");
         mHKd=GLES20.glGetUniformLocation(mProgram,"vKd");
@@ -52,7 +62,10 @@ public class ObjFilter2 extends AFilter {
         if(obj!=null&&obj.mtl!=null){
             try {
                 Log.e("obj","texture-->"+"3dres/"+obj.mtl.map_Kd);
-                textureId=createTexture(BitmapFactory.decodeStream(mRes.getAssets().open("3dres/"+obj.mtl.map_Kd)));
+                //ParallelObjLoader已经异步解码过的贴图直接上传
+                Bitmap bitmap=obj.texture!=null?obj.texture
+                    :BitmapFactory.decodeStream(mRes.getAssets().open("3dres/"+obj.mtl.map_Kd));
+                textureId=createTexture(bitmap);
                 setTextureId(textureId);
             } catch (IOException e) {
                 e.printStackTrace();
@@ -60,6 +73,11 @@ public class ObjFilter2 extends AFilter {
         }
     }
 
+    @Override
+    public boolean isDepthRequired() {
+        return true;
+    }
+
     @Override
     protected void onClear() {
 //        super.onClear();
@@ -78,17 +96,31 @@ public class ObjFilter2 extends AFilter {
     @Override
     protected void onDraw() {
         GLES20.glEnableVertexAttribArray(mHPosition);
-        GLES20.glVertexAttribPointer(mHPosition,3, GLES20.GL_FLOAT, false,0,obj.vert);
         GLES20.glEnableVertexAttribArray(mHNormal);
-        GLES20.glVertexAttribPointer(mHNormal,3, GLES20.GL_FLOAT, false, 0,obj.vertNorl);
         GLES20.glEnableVertexAttribArray(mHCoord);
-        GLES20.glVertexAttribPointer(mHCoord,2,GLES20.GL_FLOAT,false,0,obj.vertTexture);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES,0,obj.vertCount);
+        if(parts!=null){
+            for (Obj3D part:parts){
+                drawMesh(part);
+            }
+        }else{
+            drawMesh(obj);
+        }
         GLES20.glDisableVertexAttribArray(mHPosition);
         GLES20.glDisableVertexAttribArray(mHNormal);
         GLES20.glDisableVertexAttribArray(mHCoord);
     }
 
+    private void drawMesh(Obj3D mesh){
+        GLES20.glVertexAttribPointer(mHPosition,3, GLES20.GL_FLOAT, false,mesh.vertStride,mesh.vert);
+        GLES20.glVertexAttribPointer(mHNormal,3, GLES20.GL_FLOAT, false,mesh.vertStride,mesh.vertNorl);
+        GLES20.glVertexAttribPointer(mHCoord,2,GLES20.GL_FLOAT,false,mesh.vertStride,mesh.vertTexture);
+        if(mesh.isIndexed()){
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES,mesh.indexCount,mesh.indexType,mesh.indices);
+        }else{
+            GLES20.glDrawArrays(GLES20.GL_TRIANGLES,0,mesh.vertCount);
+        }
+    }
+
     @Override
     protected void onSizeChanged(int width, int height) {
         GLES20.glViewport(0,0,width,height);
@@ -4,15 +4,20 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.widget.Toast;
 
-import java.io.IOException;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.BaseActivity;
 import edu.wuwang.opengl.R;
 import edu.wuwang.opengl.utils.Gl2Utils;
+import edu.wuwang.opengl.utils.ProgramRegistry;
 
 /**
  * Created by wuwang on 2017/1/7
@@ -23,6 +28,11 @@ public class ObjLoadActivity extends BaseActivity {
     private GLSurfaceView mGLView;
     private ObjFilter mFilter;
     private Obj3D obj;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -30,18 +40,24 @@ public class ObjLoadActivity extends BaseActivity {
         setContentView(R.layout.activity_obj);
         mGLView= (GLSurfaceView) findViewById(R.id.mGLView);
         mGLView.setEGLContextClientVersion(2);
-        mFilter=new ObjFilter(getResources());
-        obj=new Obj3D();
-        try {
-            ObjReader.read(getAssets().open("3dres/hat.obj"),obj);
-            mFilter.setObj3D(obj);
-        } catch (IOException e) {
-            e.printStackTrace();
+        //hat.obj中没有usemtl，只有一个子模型，读取失败时为空
+        List<Obj3D> model=ObjCache.readMultiObj(this,"assets/3dres/hat.obj");
+        if(model.isEmpty()){
+            Toast.makeText(this,"模型加载失败",Toast.LENGTH_SHORT).show();
+            finish();
+            return;
         }
+        obj=model.get(0);
+        mFilter=new ObjFilter(getResources());
+        mFilter.setObj3D(obj);
         mGLView.setRenderer(new GLSurfaceView.Renderer() {
             @Override
             public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+                //新的GL环境，之前共享的程序都已失效
+                ProgramRegistry.getInstance().onContextCreated();
                 mFilter.create();
+                //旧环境的查询已随环境销毁
+                mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
             }
 
             @Override
@@ -54,8 +70,17 @@ public class ObjLoadActivity extends BaseActivity {
 
             @Override
             public void onDrawFrame(GL10 gl) {
+                mTimings.frame();
+                if(mGpuTimer!=null){
+                    mGpuTimer.begin();
+                }
+                long start=mTimings.start();
                 Matrix.rotateM(mFilter.getMatrix(),0,0.3f,0,1,0);
                 mFilter.draw();
+                mTimings.stop(mDrawStage,start);
+                if(mGpuTimer!=null){
+                    mGpuTimer.end();
+                }
             }
         });
         mGLView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -65,12 +90,23 @@ public class ObjLoadActivity extends BaseActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        mGLView.onResume();
+        if(obj!=null){
+            mGLView.onResume();
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        mGLView.onPause();
+        if(obj!=null){
+            mGLView.onPause();
+        }
+    }
+
+    /**
+     * @return 每帧绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 }
@@ -14,8 +14,12 @@ import java.util.List;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.R;
 import edu.wuwang.opengl.utils.Gl2Utils;
+import edu.wuwang.opengl.utils.ProgramRegistry;
 
 /**
  * Created by wuwang on 2017/2/23
@@ -25,6 +29,11 @@ public class ObjLoadActivity2 extends AppCompatActivity {
 
     private GLSurfaceView mGLView;
     private List<ObjFilter2> filters;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
 
     @Override
@@ -33,7 +42,7 @@ public class ObjLoadActivity2 extends AppCompatActivity {
         setContentView(R.layout.activity_obj);
         mGLView= (GLSurfaceView) findViewById(R.id.mGLView);
         mGLView.setEGLContextClientVersion(2);
-        List<Obj3D> model=ObjReader.readMultiObj(this,"assets/3dres/pikachu.obj");
+        List<Obj3D> model=ObjCache.readMultiObj(this,"assets/3dres/pikachu.obj");
         filters=new ArrayList<>();
         for (int i=0;i<model.size();i++){
             ObjFilter2 f=new ObjFilter2(getResources());
@@ -43,9 +52,13 @@ public class ObjLoadActivity2 extends AppCompatActivity {
         mGLView.setRenderer(new GLSurfaceView.Renderer() {
             @Override
             public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+                //新的GL环境，之前共享的程序都已失效
+                ProgramRegistry.getInstance().onContextCreated();
                 for (ObjFilter2 f:filters){
                     f.create();
                 }
+                //旧环境的查询已随环境销毁
+                mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
             }
 
             @Override
@@ -61,12 +74,21 @@ public class ObjLoadActivity2 extends AppCompatActivity {
 
             @Override
             public void onDrawFrame(GL10 gl) {
+                mTimings.frame();
+                if(mGpuTimer!=null){
+                    mGpuTimer.begin();
+                }
                 GLES20.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
                 GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+                long start=mTimings.start();
                 for (ObjFilter2 f:filters){
                     Matrix.rotateM(f.getMatrix(),0,0.3f,0,1,0);
                     f.draw();
                 }
+                mTimings.stop(mDrawStage,start);
+                if(mGpuTimer!=null){
+                    mGpuTimer.end();
+                }
             }
         });
         mGLView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -85,4 +107,11 @@ public class ObjLoadActivity2 extends AppCompatActivity {
         mGLView.onPause();
     }
 
+    /**
+     * @return 每帧绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
+    }
+
 }
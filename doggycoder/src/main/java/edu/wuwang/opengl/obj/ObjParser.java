@@ -0,0 +1,726 @@
+package edu.wuwang.opengl.obj;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Description: 流式OBJ解析器。直接在字节流上分词，顶点数据解析到基本类型数组中，
+ * 最后一次性拷贝到{@link Obj3D}的DirectBuffer，避免{@link ObjReader}中逐行split
+ * 和ArrayList&lt;Float&gt;装箱带来的大量内存分配。
+ * 同一个解析器实例可以重复使用，内部数组不会被释放。
+ * 开启索引模式后，v/vt/vn完全相同的顶点只保留一份，输出唯一顶点表和三角形索引，
+ * 由{@link ObjFilter}等使用glDrawElements绘制。
+ */
+public class ObjParser {
+
+    private static final String TAG="ObjParser";
+
+    static final String DEFAULT_GROUP="default";
+
+    private static final byte[] USEMTL={'u','s','e','m','t','l'};
+    private static final byte[] MTLLIB={'m','t','l','l','i','b'};
+
+    private static final long MAX_MANTISSA=(Long.MAX_VALUE-9)/10;
+    private static final double[] POW10=new double[23];
+
+    static {
+        POW10[0]=1;
+        for (int i=1;i<POW10.length;i++){
+            POW10[i]=POW10[i-1]*10;
+        }
+    }
+
+    private FloatList oVs=new FloatList(3*1024);      //原始顶点坐标
+    private FloatList oVTs=new FloatList(2*1024);     //原始贴图坐标
+    private FloatList oVNs=new FloatList(3*1024);     //原始顶点法线
+    //面索引的有效范围，即读到当前面时已有的v/vt/vn数量
+    private int vCount,tCount,nCount;
+
+    //当前面的各个顶点索引
+    private final IntList faceV=new IntList(8);
+    private final IntList faceT=new IntList(8);
+    private final IntList faceN=new IntList(8);
+
+    private final ArrayList<Group> groups=new ArrayList<>();
+    private final ArrayList<Group> groupPool=new ArrayList<>();
+    private final HashMap<String,Group> groupMap=new HashMap<>();
+    private Group nowGroup;
+    private String mtlLib;
+    private boolean indexed;
+
+    private ByteBuffer data;
+    private int pos;
+    private int limit;
+
+    private final float[] ab=new float[3],bc=new float[3];
+    private final float[] faceNorl=new float[3];
+
+    /**
+     * 设置是否输出索引数据，对之后的{@link #parse}生效
+     */
+    public void setIndexed(boolean indexed){
+        this.indexed=indexed;
+    }
+
+    public boolean isIndexed(){
+        return indexed;
+    }
+
+    /**
+     * 解析一段OBJ数据，解析position到limit之间的内容，不改变buffer的position
+     * @param buffer OBJ文本数据，可以是heap、direct或者内存映射的buffer
+     */
+    public void parse(ByteBuffer buffer){
+        reset();
+        data=buffer;
+        pos=buffer.position();
+        limit=buffer.limit();
+        while (pos<limit){
+            skipSpaces();
+            if(pos>=limit){
+                break;
+            }
+            byte c=data.get(pos);
+            if(c=='v'){
+                byte n=peek(pos+1);
+                if(isSpace(n)){
+                    pos++;
+                    readFloats(oVs,3);
+                }else if(n=='t'&&isSpace(peek(pos+2))){
+                    pos+=2;
+                    readFloats(oVTs,2);
+                }else if(n=='n'&&isSpace(peek(pos+2))){
+                    pos+=2;
+                    readFloats(oVNs,3);
+                }
+            }else if(c=='f'&&isSpace(peek(pos+1))){
+                pos++;
+                vCount=oVs.size()/3;
+                tCount=oVTs.size()/2;
+                nCount=oVNs.size()/3;
+                readFace();
+            }else if(startsWith(USEMTL)){
+                pos+=USEMTL.length;
+                useGroup(readName());
+            }else if(startsWith(MTLLIB)){
+                pos+=MTLLIB.length;
+                mtlLib=readName();
+            }
+            skipLine();
+        }
+        data=null;
+        if(indexed){
+            for (Group g:groups){
+                normalizeWeldedNormals(g);
+            }
+        }
+    }
+
+    /**
+     * 只解析一个分组的面，顶点数据由外部提供，用于{@link ParallelObjLoader}中各分组并行构建。
+     * 解析结果为一个名为name的分组，可以通过{@link #buildMulti}获取
+     * @param runs 连续的面数据段，每5个int一组：起始位置、结束位置、该段之前的v、vt、vn数量
+     */
+    void parseFaces(ByteBuffer buffer,String name,int[] runs,int runCount,FloatList vs,FloatList vts,FloatList vns){
+        reset();
+        FloatList ownV=oVs,ownT=oVTs,ownN=oVNs;
+        oVs=vs;
+        oVTs=vts;
+        oVNs=vns;
+        data=buffer;
+        try {
+            useGroup(name);
+            for (int i=0;i<runCount;i++){
+                int k=i*5;
+                pos=runs[k];
+                limit=runs[k+1];
+                vCount=runs[k+2];
+                tCount=runs[k+3];
+                nCount=runs[k+4];
+                while (pos<limit){
+                    skipSpaces();
+                    if(pos<limit&&data.get(pos)=='f'&&isSpace(peek(pos+1))){
+                        pos++;
+                        readFace();
+                    }
+                    skipLine();
+                }
+            }
+        }finally {
+            oVs=ownV;
+            oVTs=ownT;
+            oVNs=ownN;
+            data=null;
+        }
+        if(indexed){
+            normalizeWeldedNormals(nowGroup);
+        }
+    }
+
+    //最近一次parse得到的原始顶点数据
+    FloatList positions(){
+        return oVs;
+    }
+
+    FloatList texCoords(){
+        return oVTs;
+    }
+
+    FloatList normals(){
+        return oVNs;
+    }
+
+    /**
+     * @return 最近一次解析中mtllib指定的材质文件名，没有则为null
+     */
+    public String getMtlLib(){
+        return mtlLib;
+    }
+
+    /**
+     * @return 最近一次解析得到的分组数，每个usemtl对应一个分组
+     */
+    public int getGroupCount(){
+        return groups.size();
+    }
+
+    /**
+     * 将所有分组合并为一个模型
+     */
+    public void build(Obj3D obj){
+        int vertSize=0,texSize=0,norlSize=0,indexSize=0;
+        for (Group g:groups){
+            vertSize+=g.vert.size();
+            texSize+=g.vertTexture.size();
+            norlSize+=g.vertNorl.size();
+            indexSize+=g.indices.size();
+        }
+        if(groups.size()==1){
+            build(groups.get(0),obj);
+            return;
+        }
+        Group merged=obtainGroup(DEFAULT_GROUP);
+        merged.vert.ensureCapacity(vertSize);
+        merged.vertTexture.ensureCapacity(texSize);
+        merged.vertNorl.ensureCapacity(norlSize);
+        merged.indices.ensureCapacity(indexSize);
+        for (Group g:groups){
+            //合并后的索引需要加上之前分组的顶点数
+            append(merged.indices,g.indices,merged.vert.size()/3);
+            append(merged.vert,g.vert);
+            append(merged.vertTexture,g.vertTexture);
+            append(merged.vertNorl,g.vertNorl);
+            merged.missingTexture+=g.missingTexture;
+        }
+        build(merged,obj);
+        groupPool.add(merged);
+    }
+
+    /**
+     * 按usemtl分组生成模型
+     * @param mtls 材质信息，可为null
+     */
+    public List<Obj3D> buildMulti(HashMap<String,MtlInfo> mtls){
+        ArrayList<Obj3D> list=new ArrayList<>(groups.size());
+        for (Group g:groups){
+            if(g.vert.size()==0){
+                continue;
+            }
+            Obj3D obj=new Obj3D();
+            if(mtls!=null){
+                obj.mtl=mtls.get(g.name);
+            }
+            build(g,obj);
+            list.add(obj);
+        }
+        return list;
+    }
+
+    private void build(Group g,Obj3D obj){
+        obj.setVert(g.vert.array(),g.vert.size());
+        //只有所有顶点都有贴图坐标时才设置贴图坐标
+        if(g.vertTexture.size()>0&&g.missingTexture==0&&g.vertTexture.size()/2==g.vert.size()/3){
+            obj.setVertTexture(g.vertTexture.array(),g.vertTexture.size());
+        }
+        if(g.vertNorl.size()>0){
+            obj.setVertNorl(g.vertNorl.array(),g.vertNorl.size());
+        }
+        if(g.indices.size()>0){
+            obj.setIndices(g.indices.array(),g.indices.size());
+        }
+    }
+
+    private static void append(FloatList dst,FloatList src){
+        int start=dst.size();
+        dst.resize(start+src.size());
+        System.arraycopy(src.array(),0,dst.array(),start,src.size());
+    }
+
+    private static void append(IntList dst,IntList src,int offset){
+        int start=dst.size();
+        dst.resize(start+src.size());
+        int[] s=src.array();
+        int[] d=dst.array();
+        for (int i=0;i<src.size();i++){
+            d[start+i]=s[i]+offset;
+        }
+    }
+
+    private void reset(){
+        oVs.clear();
+        oVTs.clear();
+        oVNs.clear();
+        groupPool.addAll(groups);
+        groups.clear();
+        groupMap.clear();
+        nowGroup=null;
+        mtlLib=null;
+    }
+
+    private Group obtainGroup(String name){
+        Group g;
+        if(groupPool.isEmpty()){
+            g=new Group();
+        }else{
+            g=groupPool.remove(groupPool.size()-1);
+            g.vert.clear();
+            g.vertTexture.clear();
+            g.vertNorl.clear();
+            g.indices.clear();
+            g.welder.clear();
+        }
+        g.missingTexture=0;
+        g.name=name;
+        return g;
+    }
+
+    private void useGroup(String name){
+        Group g=groupMap.get(name);
+        if(g==null){
+            g=obtainGroup(name);
+            groupMap.put(name,g);
+            groups.add(g);
+        }
+        nowGroup=g;
+    }
+
+    private void readFace(){
+        faceV.clear();
+        faceT.clear();
+        faceN.clear();
+        while (true){
+            skipSpaces();
+            if(pos>=limit||!isDigitOrSign(data.get(pos))){
+                break;
+            }
+            int v=resolve(parseInt(),vCount);
+            int t=-1,n=-1;
+            if(peek(pos)=='/'){
+                pos++;
+                if(isDigitOrSign(peek(pos))){
+                    t=resolve(parseInt(),tCount);
+                }
+                if(peek(pos)=='/'){
+                    pos++;
+                    if(isDigitOrSign(peek(pos))){
+                        n=resolve(parseInt(),nCount);
+                    }
+                }
+            }
+            if(v<0||v>=vCount){
+                //索引越界的面直接丢弃，剩余部分由parse跳过
+                return;
+            }
+            faceV.add(v);
+            faceT.add(t<tCount?t:-1);
+            faceN.add(n<nCount?n:-1);
+            skipToken();
+        }
+        if(faceV.size()<3){
+            return;
+        }
+        if(nowGroup==null){
+            useGroup(DEFAULT_GROUP);
+        }
+        //多边形按扇形拆分为三角形，四边形abcd拆分为abc和acd
+        for (int i=1;i<faceV.size()-1;i++){
+            emitTriangle(0,i,i+1);
+        }
+    }
+
+    private void emitTriangle(int i0,int i1,int i2){
+        if(indexed){
+            emitIndexedTriangle(i0,i1,i2);
+            return;
+        }
+        Group g=nowGroup;
+        float[] vs=oVs.array();
+        int a=faceV.get(i0)*3,b=faceV.get(i1)*3,c=faceV.get(i2)*3;
+        g.vert.add(vs[a],vs[a+1],vs[a+2]);
+        g.vert.add(vs[b],vs[b+1],vs[b+2]);
+        g.vert.add(vs[c],vs[c+1],vs[c+2]);
+
+        if(faceT.get(i0)>=0&&faceT.get(i1)>=0&&faceT.get(i2)>=0){
+            float[] ts=oVTs.array();
+            int ta=faceT.get(i0)*2,tb=faceT.get(i1)*2,tc=faceT.get(i2)*2;
+            g.vertTexture.add(ts[ta],ts[ta+1]);
+            g.vertTexture.add(ts[tb],ts[tb+1]);
+            g.vertTexture.add(ts[tc],ts[tc+1]);
+        }
+
+        if(faceN.get(i0)>=0&&faceN.get(i1)>=0&&faceN.get(i2)>=0){
+            float[] ns=oVNs.array();
+            int na=faceN.get(i0)*3,nb=faceN.get(i1)*3,nc=faceN.get(i2)*3;
+            g.vertNorl.add(ns[na],ns[na+1],ns[na+2]);
+            g.vertNorl.add(ns[nb],ns[nb+1],ns[nb+2]);
+            g.vertNorl.add(ns[nc],ns[nc+1],ns[nc+2]);
+        }else{
+            //没有法线信息时，使用面法向量，与ObjReader.read的计算方式保持一致
+            faceNormal(vs,a,b,c);
+            g.vertNorl.add(faceNorl[0],faceNorl[1],faceNorl[2]);
+            g.vertNorl.add(faceNorl[0],faceNorl[1],faceNorl[2]);
+            g.vertNorl.add(faceNorl[0],faceNorl[1],faceNorl[2]);
+        }
+    }
+
+    private void emitIndexedTriangle(int i0,int i1,int i2){
+        Group g=nowGroup;
+        int a=weld(g,i0),b=weld(g,i1),c=weld(g,i2);
+        g.indices.add(a,b,c);
+        if(faceN.get(i0)<0||faceN.get(i1)<0||faceN.get(i2)<0){
+            //没有法线的顶点累加相邻面的法向量，面法向量未归一化，长度即为面积权重，解析完成后统一归一化
+            float[] vs=oVs.array();
+            faceNormal(vs,faceV.get(i0)*3,faceV.get(i1)*3,faceV.get(i2)*3);
+            if(faceN.get(i0)<0) addNormal(g,a);
+            if(faceN.get(i1)<0) addNormal(g,b);
+            if(faceN.get(i2)<0) addNormal(g,c);
+        }
+    }
+
+    //将面中第i个顶点焊接到分组的唯一顶点表中，返回唯一顶点索引
+    private int weld(Group g,int i){
+        int v=faceV.get(i),t=faceT.get(i),n=faceN.get(i);
+        int count=g.welder.size();
+        int index=g.welder.put(v,t,n);
+        if(index==count){
+            float[] vs=oVs.array();
+            g.vert.add(vs[v*3],vs[v*3+1],vs[v*3+2]);
+            if(t>=0){
+                float[] ts=oVTs.array();
+                g.vertTexture.add(ts[t*2],ts[t*2+1]);
+            }else{
+                g.vertTexture.add(0,0);
+                g.missingTexture++;
+            }
+            if(n>=0){
+                float[] ns=oVNs.array();
+                g.vertNorl.add(ns[n*3],ns[n*3+1],ns[n*3+2]);
+            }else{
+                g.vertNorl.add(0,0,0);
+            }
+        }
+        return index;
+    }
+
+    private void addNormal(Group g,int index){
+        float[] ns=g.vertNorl.array();
+        ns[index*3]+=faceNorl[0];
+        ns[index*3+1]+=faceNorl[1];
+        ns[index*3+2]+=faceNorl[2];
+    }
+
+    private static void normalizeWeldedNormals(Group g){
+        float[] ns=g.vertNorl.array();
+        for (int i=0;i<g.welder.size();i++){
+            if(g.welder.normalOf(i)>=0){
+                continue;
+            }
+            int k=i*3;
+            float len=(float)Math.sqrt(ns[k]*ns[k]+ns[k+1]*ns[k+1]+ns[k+2]*ns[k+2]);
+            if(len>0){
+                ns[k]/=len;
+                ns[k+1]/=len;
+                ns[k+2]/=len;
+            }
+        }
+    }
+
+    //计算(a-b)x(b-c)，结果存放在faceNorl中
+    private void faceNormal(float[] vs,int a,int b,int c){
+        for (int i=0;i<3;i++){
+            ab[i]=vs[a+i]-vs[b+i];
+            bc[i]=vs[b+i]-vs[c+i];
+        }
+        faceNorl[0]=ab[1]*bc[2]-ab[2]*bc[1];
+        faceNorl[1]=ab[2]*bc[0]-ab[0]*bc[2];
+        faceNorl[2]=ab[0]*bc[1]-ab[1]*bc[0];
+    }
+
+    //OBJ索引从1开始，负数表示相对当前已读取数据的末尾
+    private static int resolve(int index,int count){
+        return index>0?index-1:count+index;
+    }
+
+    private void readFloats(FloatList list,int count){
+        for (int i=0;i<count;i++){
+            skipSpaces();
+            if(pos>=limit||isEol(data.get(pos))){
+                list.add(0);
+            }else{
+                list.add(parseFloat());
+                skipToken();
+            }
+        }
+    }
+
+    private String readName(){
+        skipSpaces();
+        int start=pos;
+        while (pos<limit){
+            byte c=data.get(pos);
+            if(isEol(c)){
+                break;
+            }
+            pos++;
+        }
+        int end=pos;
+        while (end>start&&isSpace(data.get(end-1))){
+            end--;
+        }
+        byte[] bytes=new byte[end-start];
+        for (int i=0;i<bytes.length;i++){
+            bytes[i]=data.get(start+i);
+        }
+        return new String(bytes);
+    }
+
+    private int parseInt(){
+        boolean neg=false;
+        byte c=peek(pos);
+        if(c=='-'){
+            neg=true;
+            pos++;
+        }else if(c=='+'){
+            pos++;
+        }
+        int value=0;
+        while (pos<limit){
+            c=data.get(pos);
+            if(c<'0'||c>'9'){
+                break;
+            }
+            value=value*10+(c-'0');
+            pos++;
+        }
+        return neg?-value:value;
+    }
+
+    private float parseFloat(){
+        boolean neg=false;
+        byte c=peek(pos);
+        if(c=='-'){
+            neg=true;
+            pos++;
+        }else if(c=='+'){
+            pos++;
+        }
+        long mantissa=0;
+        int exp=0;
+        while (pos<limit&&(c=data.get(pos))>='0'&&c<='9'){
+            if(mantissa<MAX_MANTISSA){
+                mantissa=mantissa*10+(c-'0');
+            }else{
+                exp++;
+            }
+            pos++;
+        }
+        if(peek(pos)=='.'){
+            pos++;
+            while (pos<limit&&(c=data.get(pos))>='0'&&c<='9'){
+                if(mantissa<MAX_MANTISSA){
+                    mantissa=mantissa*10+(c-'0');
+                    exp--;
+                }
+                pos++;
+            }
+        }
+        c=peek(pos);
+        if(c=='e'||c=='E'){
+            pos++;
+            exp+=parseInt();
+        }
+        double value=mantissa;
+        if(exp<0){
+            value=-exp<POW10.length?value/POW10[-exp]:value/Math.pow(10,-exp);
+        }else if(exp>0){
+            value=exp<POW10.length?value*POW10[exp]:value*Math.pow(10,exp);
+        }
+        return (float)(neg?-value:value);
+    }
+
+    private boolean startsWith(byte[] key){
+        if(pos+key.length>=limit){
+            return false;
+        }
+        for (int i=0;i<key.length;i++){
+            if(data.get(pos+i)!=key[i]){
+                return false;
+            }
+        }
+        return isSpace(data.get(pos+key.length));
+    }
+
+    private byte peek(int index){
+        return index<limit?data.get(index):0;
+    }
+
+    private void skipSpaces(){
+        while (pos<limit&&isSpace(data.get(pos))){
+            pos++;
+        }
+    }
+
+    //跳过当前token剩余的部分，如"1.0e-3abc"中无法解析的内容
+    private void skipToken(){
+        while (pos<limit){
+            byte c=data.get(pos);
+            if(isSpace(c)||isEol(c)){
+                break;
+            }
+            pos++;
+        }
+    }
+
+    private void skipLine(){
+        while (pos<limit&&data.get(pos)!='\n'){
+            pos++;
+        }
+        pos++;
+    }
+
+    private static boolean isSpace(byte c){
+        return c==' '||c=='\t';
+    }
+
+    private static boolean isEol(byte c){
+        return c=='\n'||c=='\r'||c=='#';
+    }
+
+    private static boolean isDigitOrSign(byte c){
+        return (c>='0'&&c<='9')||c=='-'||c=='+';
+    }
+
+    private static class Group{
+        String name;
+        final FloatList vert=new FloatList(3*1024);
+        final FloatList vertTexture=new FloatList(2*1024);
+        final FloatList vertNorl=new FloatList(3*1024);
+        //以下仅在索引模式下使用
+        final IntList indices=new IntList(3*1024);
+        final VertexWelder welder=new VertexWelder();
+        int missingTexture;
+    }
+
+    /**
+     * 读取单个模型，所有面合并到一个{@link Obj3D}中，用于替代{@link ObjReader#read}
+     */
+    public static void read(InputStream stream,Obj3D obj3D){
+        read(stream,obj3D,false);
+    }
+
+    /**
+     * @param indexed 是否输出焊接后的唯一顶点和三角形索引
+     */
+    public static void read(InputStream stream,Obj3D obj3D,boolean indexed){
+        try {
+            ObjParser parser=new ObjParser();
+            parser.setIndexed(indexed);
+            parser.parse(readFully(stream));
+            parser.build(obj3D);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取多材质模型，用于替代{@link ObjReader#readMultiObj}
+     * @param file 以"assets/"开头时从assets中读取，否则作为文件路径读取
+     */
+    public static List<Obj3D> readMultiObj(Context context,String file){
+        return readMultiObj(context,file,false);
+    }
+
+    /**
+     * @param indexed 是否输出焊接后的唯一顶点和三角形索引
+     */
+    public static List<Obj3D> readMultiObj(Context context,String file,boolean indexed){
+        ObjParser parser=new ObjParser();
+        parser.setIndexed(indexed);
+        HashMap<String,MtlInfo> mtls=null;
+        try {
+            String parent;
+            boolean isAssets=file.startsWith("assets/");
+            if(isAssets){
+                String path=file.substring(7);
+                parent=path.substring(0,path.lastIndexOf("/")+1);
+                parser.parse(readFully(context.getAssets().open(path)));
+            }else{
+                parent=file.substring(0,file.lastIndexOf("/")+1);
+                parser.parse(map(file));
+            }
+            if(parser.getMtlLib()!=null){
+                InputStream stream=isAssets?context.getAssets().open(parent+parser.getMtlLib())
+                    :new FileInputStream(parent+parser.getMtlLib());
+                mtls=ObjReader.readMtl(stream);
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG,"read obj failed:"+file,e);
+        }
+        return parser.buildMulti(mtls);
+    }
+
+    /**
+     * 以只读方式将文件映射到内存
+     */
+    static ByteBuffer map(String file) throws IOException {
+        FileInputStream fis=new FileInputStream(file);
+        try {
+            FileChannel channel=fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+        }finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * 读取整个流的内容，读取完成后关闭流
+     */
+    static ByteBuffer readFully(InputStream stream) throws IOException {
+        try {
+            byte[] buffer=new byte[Math.max(stream.available(),8192)];
+            int size=0;
+            int len;
+            while ((len=stream.read(buffer,size,buffer.length-size))!=-1){
+                size+=len;
+                if(size==buffer.length){
+                    buffer=Arrays.copyOf(buffer,buffer.length*2);
+                }
+            }
+            return ByteBuffer.wrap(buffer,0,size);
+        }finally {
+            stream.close();
+        }
+    }
+
+}
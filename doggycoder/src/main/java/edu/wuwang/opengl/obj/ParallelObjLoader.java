@@ -0,0 +1,474 @@
+package edu.wuwang.opengl.obj;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description: 多线程OBJ加载，分为三个阶段：
+ * 1. 在调用线程上快速扫描一遍，只记录每行的类型，得到顶点数据分块和每个usemtl分组的面数据段；
+ * 2. 各顶点分块在线程池中并行解析，写入共享数组中各自的区间；同时异步读取MTL并解码贴图；
+ * 3. 顶点数据就绪后，每个分组在线程池中并行构建{@link Obj3D}。
+ * 结果与{@link ObjParser#buildMulti}一致，材质分组较多的模型(如pikachu.obj、patrick.obj)加载时间随核数下降。
+ */
+public class ParallelObjLoader {
+
+    private static final int DEFAULT_CHUNK_SIZE=128*1024;
+
+    private static final byte[] USEMTL={'u','s','e','m','t','l'};
+    private static final byte[] MTLLIB={'m','t','l','l','i','b'};
+
+    private static ParallelObjLoader sDefault;
+
+    private static final TextureDecoder BITMAP_DECODER=new TextureDecoder() {
+        @Override
+        public Bitmap decode(InputStream stream) {
+            return BitmapFactory.decodeStream(stream);
+        }
+    };
+
+    private final ExecutorService executor;
+    private boolean indexed=true;
+    private boolean decodeTextures=true;
+    private int chunkSize=DEFAULT_CHUNK_SIZE;
+    private TextureDecoder textureDecoder=BITMAP_DECODER;
+
+    /**
+     * 使用默认的线程池，线程数为CPU核数
+     */
+    public ParallelObjLoader(){
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),new ThreadFactory() {
+
+            private final AtomicInteger count=new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread=new Thread(r,"ObjLoader-"+count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * @param executor 执行解析任务的线程池，加载过程中协调线程会等待其中的任务，
+     *                 所以不要在该线程池的任务中同步调用{@link #load}
+     */
+    public ParallelObjLoader(ExecutorService executor){
+        this.executor=executor;
+    }
+
+    public static synchronized ParallelObjLoader getDefault(){
+        if(sDefault==null){
+            sDefault=new ParallelObjLoader();
+        }
+        return sDefault;
+    }
+
+    /**
+     * 是否输出焊接后的索引数据，见{@link ObjParser#setIndexed}，默认为true
+     */
+    public void setIndexed(boolean indexed){
+        this.indexed=indexed;
+    }
+
+    /**
+     * 是否在线程池中解码map_Kd贴图到{@link Obj3D#texture}，默认为true
+     */
+    public void setDecodeTextures(boolean decode){
+        this.decodeTextures=decode;
+    }
+
+    //顶点数据分块的大小，仅测试使用
+    void setChunkSize(int size){
+        this.chunkSize=size;
+    }
+
+    //贴图解码方式，仅测试使用，JVM上没有BitmapFactory
+    void setTextureDecoder(TextureDecoder decoder){
+        this.textureDecoder=decoder;
+    }
+
+    /**
+     * 异步加载模型，在单独的线程中协调各个阶段，返回的Future在所有分组、材质和贴图都就绪后完成
+     * @param file 以"assets/"开头时从assets中读取，否则作为文件路径读取
+     */
+    public Future<List<Obj3D>> loadAsync(final Context context,final String file){
+        FutureTask<List<Obj3D>> task=new FutureTask<>(new Callable<List<Obj3D>>() {
+            @Override
+            public List<Obj3D> call() throws Exception {
+                return load(context,file).objs;
+            }
+        });
+        new Thread(task,"ObjLoader-"+file.substring(file.lastIndexOf("/")+1)).start();
+        return task;
+    }
+
+    /**
+     * 同步加载模型，解析工作在线程池中并行执行
+     * @param file 以"assets/"开头时从assets中读取，否则作为文件路径读取
+     */
+    public Model load(Context context,String file) throws IOException, InterruptedException {
+        boolean isAssets=file.startsWith("assets/");
+        String path=isAssets?file.substring(7):file;
+        String parent=path.substring(0,path.lastIndexOf("/")+1);
+        ByteBuffer data=isAssets?ObjParser.readFully(context.getAssets().open(path)):ObjParser.map(file);
+        return load(data,source(context,isAssets,parent));
+    }
+
+    /**
+     * @return 从assets或文件系统中parent目录下打开文件的Source
+     */
+    static Source source(final Context context,final boolean isAssets,final String parent){
+        return new Source() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                return isAssets?context.getAssets().open(parent+name):new FileInputStream(parent+name);
+            }
+        };
+    }
+
+    /**
+     * 同步加载模型，解析工作在线程池中并行执行
+     * @param data OBJ文本数据，不改变其position
+     * @param source 用于打开mtllib和贴图文件
+     */
+    public Model load(final ByteBuffer data,final Source source) throws IOException, InterruptedException {
+        final ObjIndex index=new ObjIndex(data,chunkSize);
+
+        //材质和贴图与顶点解析同时进行
+        Future<MtlResult> mtlFuture=null;
+        if(index.mtlLib!=null){
+            mtlFuture=executor.submit(new Callable<MtlResult>() {
+                @Override
+                public MtlResult call() throws Exception {
+                    MtlResult result=new MtlResult();
+                    result.data=ObjParser.readFully(source.open(index.mtlLib));
+                    result.mtls=ObjReader.readMtl(new ByteArrayInputStream(result.data.array(),
+                        result.data.position(),result.data.remaining()));
+                    return result;
+                }
+            });
+        }
+
+        final FloatList vs=new FloatList(index.vCount*3);
+        final FloatList vts=new FloatList(index.tCount*2);
+        final FloatList vns=new FloatList(index.nCount*3);
+        vs.resize(index.vCount*3);
+        vts.resize(index.tCount*2);
+        vns.resize(index.nCount*3);
+        ArrayList<Future<?>> chunks=new ArrayList<>(index.chunks.size()/5);
+        for (int i=0;i<index.chunks.size();i+=5){
+            final int start=index.chunks.get(i),end=index.chunks.get(i+1);
+            final int vBase=index.chunks.get(i+2),tBase=index.chunks.get(i+3),nBase=index.chunks.get(i+4);
+            chunks.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer chunk=data.duplicate();
+                    chunk.limit(end);
+                    chunk.position(start);
+                    ObjParser parser=new ObjParser();
+                    parser.parse(chunk);
+                    copy(parser.positions(),vs,vBase*3);
+                    copy(parser.texCoords(),vts,tBase*2);
+                    copy(parser.normals(),vns,nBase*3);
+                }
+            }));
+        }
+
+        HashMap<String,MtlInfo> mtls=null;
+        ByteBuffer mtlData=null;
+        Map<String,Future<Bitmap>> textures=new HashMap<>();
+        if(mtlFuture!=null){
+            MtlResult result=get(mtlFuture);
+            mtlData=result.data;
+            mtls=result.mtls;
+            if(decodeTextures){
+                for (String name:index.groups.keySet()){
+                    MtlInfo mtl=mtls.get(name);
+                    if(mtl!=null&&mtl.map_Kd!=null&&!textures.containsKey(mtl.map_Kd)){
+                        textures.put(mtl.map_Kd,executor.submit(new TextureTask(source,mtl.map_Kd,textureDecoder)));
+                    }
+                }
+            }
+        }
+
+        for (Future<?> f:chunks){
+            get(f);
+        }
+
+        ArrayList<Future<Obj3D>> groups=new ArrayList<>(index.groups.size());
+        for (Map.Entry<String,IntList> entry:index.groups.entrySet()){
+            final String name=entry.getKey();
+            final IntList runs=entry.getValue();
+            groups.add(executor.submit(new Callable<Obj3D>() {
+                @Override
+                public Obj3D call() throws Exception {
+                    ObjParser parser=new ObjParser();
+                    parser.setIndexed(indexed);
+                    parser.parseFaces(data,name,runs.array(),runs.size()/5,vs,vts,vns);
+                    List<Obj3D> list=parser.buildMulti(null);
+                    return list.isEmpty()?null:list.get(0);
+                }
+            }));
+        }
+
+        ArrayList<Obj3D> objs=new ArrayList<>(groups.size());
+        int i=0;
+        for (String name:index.groups.keySet()){
+            Obj3D obj=get(groups.get(i++));
+            if(obj==null){
+                continue;
+            }
+            if(mtls!=null){
+                obj.mtl=mtls.get(name);
+                if(obj.mtl!=null&&obj.mtl.map_Kd!=null&&textures.containsKey(obj.mtl.map_Kd)){
+                    obj.texture=get(textures.get(obj.mtl.map_Kd));
+                }
+            }
+            objs.add(obj);
+        }
+        return new Model(objs,index.mtlLib,mtlData);
+    }
+
+    private static void copy(FloatList src,FloatList dst,int offset){
+        System.arraycopy(src.array(),0,dst.array(),offset,src.size());
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause=e.getCause();
+            if(cause instanceof IOException){
+                throw (IOException)cause;
+            }else if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }else if(cause instanceof Error){
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 用于打开OBJ引用的mtllib和贴图文件
+     */
+    public interface Source{
+        InputStream open(String name) throws IOException;
+    }
+
+    /**
+     * 加载结果
+     */
+    public static class Model{
+        public final List<Obj3D> objs;
+        public final String mtlLib;
+        //mtllib的原始内容，用于计算缓存哈希
+        final ByteBuffer mtlData;
+
+        Model(List<Obj3D> objs,String mtlLib,ByteBuffer mtlData){
+            this.objs=objs;
+            this.mtlLib=mtlLib;
+            this.mtlData=mtlData;
+        }
+    }
+
+    interface TextureDecoder{
+        Bitmap decode(InputStream stream) throws IOException;
+    }
+
+    private static class MtlResult{
+        ByteBuffer data;
+        HashMap<String,MtlInfo> mtls;
+    }
+
+    private static class TextureTask implements Callable<Bitmap>{
+
+        private final Source source;
+        private final String name;
+        private final TextureDecoder decoder;
+
+        TextureTask(Source source,String name,TextureDecoder decoder){
+            this.source=source;
+            this.name=name;
+            this.decoder=decoder;
+        }
+
+        @Override
+        public Bitmap call() throws Exception {
+            InputStream stream=source.open(name);
+            try {
+                return decoder.decode(stream);
+            }finally {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * 第一阶段的行索引，只识别行首的关键字，不解析数值
+     */
+    static class ObjIndex{
+
+        int vCount,tCount,nCount;
+        String mtlLib;
+        //顶点数据分块，每5个int一组：起始位置、结束位置、块之前的v、vt、vn数量
+        final IntList chunks=new IntList(64);
+        //每个分组的面数据段，格式同chunks，按分组第一次出现的顺序排列
+        final LinkedHashMap<String,IntList> groups=new LinkedHashMap<>();
+
+        private final ByteBuffer data;
+        private final int chunkSize;
+        private int pos;
+        private final int limit;
+
+        ObjIndex(ByteBuffer data,int chunkSize){
+            this.data=data;
+            this.chunkSize=chunkSize;
+            pos=data.position();
+            limit=data.limit();
+            scan();
+        }
+
+        private void scan(){
+            IntList faces=null;
+            int chunkStart=-1,faceStart=-1;
+            int cv=0,ct=0,cn=0;
+            while (pos<limit){
+                int lineStart=pos;
+                while (pos<limit&&isSpace(data.get(pos))){
+                    pos++;
+                }
+                byte c=pos<limit?data.get(pos):0;
+                byte n=peek(pos+1);
+                boolean face=c=='f'&&isSpace(n);
+                boolean vertex=c=='v'&&(isSpace(n)||((n=='t'||n=='n')&&isSpace(peek(pos+2))));
+                if(face){
+                    if(chunkStart>=0){
+                        chunks.add(chunkStart,lineStart);
+                        chunks.add(cv,ct,cn);
+                        chunkStart=-1;
+                    }
+                    if(faceStart<0){
+                        if(faces==null){
+                            faces=group(ObjParser.DEFAULT_GROUP);
+                        }
+                        faceStart=lineStart;
+                    }
+                }else if(faceStart>=0){
+                    faces.add(faceStart,lineStart);
+                    faces.add(vCount,tCount,nCount);
+                    faceStart=-1;
+                }
+                if(vertex){
+                    if(chunkStart<0){
+                        chunkStart=lineStart;
+                        cv=vCount;
+                        ct=tCount;
+                        cn=nCount;
+                    }
+                    if(isSpace(n)){
+                        vCount++;
+                    }else if(n=='t'){
+                        tCount++;
+                    }else{
+                        nCount++;
+                    }
+                }else if(startsWith(USEMTL)){
+                    pos+=USEMTL.length;
+                    faces=group(readName());
+                }else if(startsWith(MTLLIB)){
+                    pos+=MTLLIB.length;
+                    mtlLib=readName();
+                }
+                while (pos<limit&&data.get(pos)!='\n'){
+                    pos++;
+                }
+                pos++;
+                //顶点分块在遇到面数据或达到分块大小时结束，保证每块都以完整的行结束
+                if(chunkStart>=0&&(pos-chunkStart>=chunkSize||pos>=limit)){
+                    chunks.add(chunkStart,Math.min(pos,limit));
+                    chunks.add(cv,ct,cn);
+                    chunkStart=-1;
+                }
+            }
+            if(faceStart>=0){
+                faces.add(faceStart,limit);
+                faces.add(vCount,tCount,nCount);
+            }
+        }
+
+        private IntList group(String name){
+            IntList runs=groups.get(name);
+            if(runs==null){
+                runs=new IntList(20);
+                groups.put(name,runs);
+            }
+            return runs;
+        }
+
+        private String readName(){
+            while (pos<limit&&isSpace(data.get(pos))){
+                pos++;
+            }
+            int start=pos;
+            while (pos<limit){
+                byte c=data.get(pos);
+                if(c=='\n'||c=='\r'||c=='#'){
+                    break;
+                }
+                pos++;
+            }
+            int end=pos;
+            while (end>start&&isSpace(data.get(end-1))){
+                end--;
+            }
+            byte[] bytes=new byte[end-start];
+            for (int i=0;i<bytes.length;i++){
+                bytes[i]=data.get(start+i);
+            }
+            return new String(bytes);
+        }
+
+        private boolean startsWith(byte[] key){
+            if(pos+key.length>=limit){
+                return false;
+            }
+            for (int i=0;i<key.length;i++){
+                if(data.get(pos+i)!=key[i]){
+                    return false;
+                }
+            }
+            return isSpace(data.get(pos+key.length));
+        }
+
+        private byte peek(int index){
+            return index<limit?data.get(index):0;
+        }
+
+        private static boolean isSpace(byte c){
+            return c==' '||c=='\t';
+        }
+    }
+
+}
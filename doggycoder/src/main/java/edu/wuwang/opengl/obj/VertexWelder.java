@@ -0,0 +1,118 @@
+package edu.wuwang.opengl.obj;
+
+import java.util.Arrays;
+
+/**
+ * Description: 顶点焊接表，以OBJ面中的v/vt/vn索引三元组为key，
+ * 相同三元组的顶点只保留一份，返回其在唯一顶点表中的索引。
+ * 使用开放寻址法，key直接存在int数组中，查找过程不产生对象分配。
+ */
+class VertexWelder {
+
+    private static final int EMPTY=-1;
+
+    private int[] table;            //存放唯一顶点的索引，EMPTY表示空位
+    private int[] keys;             //每个唯一顶点对应的v/vt/vn，每3个一组
+    private int mask;
+    private int size;
+
+    VertexWelder(){
+        this(1024);
+    }
+
+    VertexWelder(int expected){
+        int capacity=Integer.highestOneBit(Math.max(expected,16)*2-1)<<1;
+        table=new int[capacity];
+        Arrays.fill(table,EMPTY);
+        keys=new int[Math.max(expected,16)*3];
+        mask=capacity-1;
+    }
+
+    /**
+     * 查找三元组对应的唯一顶点索引
+     * @return 已存在时返回其索引，不存在时返回-1
+     */
+    int find(int v,int t,int n){
+        int slot=hash(v,t,n)&mask;
+        while (true){
+            int index=table[slot];
+            if(index==EMPTY){
+                return -1;
+            }
+            int k=index*3;
+            if(keys[k]==v&&keys[k+1]==t&&keys[k+2]==n){
+                return index;
+            }
+            slot=(slot+1)&mask;
+        }
+    }
+
+    /**
+     * 查找三元组对应的唯一顶点索引，不存在时新增一个，新增的索引等于新增前的{@link #size()}
+     */
+    int put(int v,int t,int n){
+        int slot=hash(v,t,n)&mask;
+        while (true){
+            int index=table[slot];
+            if(index==EMPTY){
+                break;
+            }
+            int k=index*3;
+            if(keys[k]==v&&keys[k+1]==t&&keys[k+2]==n){
+                return index;
+            }
+            slot=(slot+1)&mask;
+        }
+        int index=size++;
+        if(index*3+3>keys.length){
+            keys=Arrays.copyOf(keys,keys.length*2);
+        }
+        keys[index*3]=v;
+        keys[index*3+1]=t;
+        keys[index*3+2]=n;
+        table[slot]=index;
+        //负载超过0.5时扩容
+        if(size*2>table.length){
+            rehash(table.length*2);
+        }
+        return index;
+    }
+
+    /**
+     * @return 唯一顶点index对应的法线索引，-1表示原始数据中没有法线
+     */
+    int normalOf(int index){
+        return keys[index*3+2];
+    }
+
+    int size(){
+        return size;
+    }
+
+    void clear(){
+        Arrays.fill(table,EMPTY);
+        size=0;
+    }
+
+    private void rehash(int capacity){
+        table=new int[capacity];
+        Arrays.fill(table,EMPTY);
+        mask=capacity-1;
+        for (int i=0;i<size;i++){
+            int k=i*3;
+            int slot=hash(keys[k],keys[k+1],keys[k+2])&mask;
+            while (table[slot]!=EMPTY){
+                slot=(slot+1)&mask;
+            }
+            table[slot]=i;
+        }
+    }
+
+    private static int hash(int v,int t,int n){
+        int h=v*0x9E3779B1;
+        h^=t*0x85EBCA77;
+        h^=n*0xC2B2AE3D;
+        return h^(h>>>16);
+    }
+
+}
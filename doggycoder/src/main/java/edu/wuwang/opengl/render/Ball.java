@@ -2,7 +2,6 @@ package edu.wuwang.opengl.render;
 
 import android.opengl.GLES20;
 import android.opengl.Matrix;
-import android.util.Log;
 import android.view.View;
 
 import java.nio.ByteBuffer;
@@ -13,6 +12,7 @@ import java.util.ArrayList;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import edu.wuwang.opengl.utils.ProgramRegistry;
 import edu.wuwang.opengl.utils.ShaderUtils;
 
 /**
@@ -20,11 +20,16 @@ import edu.wuwang.opengl.utils.ShaderUtils;
  */
 public class Ball extends Shape {
 
+    private static final int ID_MATRIX=ProgramRegistry.id("vMatrix");
+    private static final int ID_POSITION=ProgramRegistry.id("vPosition");
+
     private float step=2f;
     private FloatBuffer vertexBuffer;
     private int vSize;
 
     private int mProgram;
+    private int mMatrixHandle;
+    private int mPositionHandle;
     private float[] mViewMatrix=new float[16];
     private float[] mProjectMatrix=new float[16];
     private float[] mMVPMatrix=new float[16];
@@ -77,7 +82,19 @@ public class Ball extends Shape {
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-        mProgram= ShaderUtils.createProgram(mView.getResources(),"vshader/Ball.sh","fshader/Cone.sh");
+        ProgramRegistry registry=ProgramRegistry.getInstance();
+        registry.onContextCreated();
+        ProgramRegistry.Program program=registry.acquire(
+            ShaderUtils.loadFromAssetsFile("vshader/Ball.sh",mView.getResources()),
+            ShaderUtils.loadFromAssetsFile("fshader/Cone.sh",mView.getResources()));
+        if(program==null){
+            mProgram=0;
+            return;
+        }
+        //句柄在程序创建后取一次，不在每帧查询
+        mProgram=program.getHandle();
+        mMatrixHandle=program.getUniformLocation(ID_MATRIX);
+        mPositionHandle=program.getAttribLocation(ID_POSITION);
     }
 
     @Override
@@ -95,11 +112,7 @@ public class Ball extends Shape {
     @Override
     public void onDrawFrame(GL10 gl) {
         GLES20.glUseProgram(mProgram);
-        Log.e("wuwang","mProgram:"+mProgram);
-        int mMatrix=GLES20.glGetUniformLocation(mProgram,"vMatrix");
-        GLES20.glUniformMatrix4fv(mMatrix,1,false,mMVPMatrix,0);
-        int mPositionHandle=GLES20.glGetAttribLocation(mProgram,"vPosition");
-        Log.e("wuwang","Get Position:"+mPositionHandle);
+        GLES20.glUniformMatrix4fv(mMatrixHandle,1,false,mMVPMatrix,0);
         GLES20.glEnableVertexAttribArray(mPositionHandle);
         GLES20.glVertexAttribPointer(mPositionHandle,3,GLES20.GL_FLOAT,false,0,vertexBuffer);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN,0,vSize);
@@ -11,6 +11,9 @@ import android.opengl.GLSurfaceView;
 import android.util.Log;
 import android.view.View;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import java.lang.reflect.Constructor;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -23,6 +26,11 @@ public class FGLRender extends Shape {
 
     private Shape shape;
     private Class<? extends Shape> clazz=Cube.class;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("shape");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     public FGLRender(View mView) {
         super(mView);
@@ -45,6 +53,8 @@ public class FGLRender extends Shape {
             shape=new Cube(mView);
         }
         shape.onSurfaceCreated(gl,config);
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
     }
 
     @Override
@@ -58,8 +68,24 @@ public class FGLRender extends Shape {
     @Override
     public void onDrawFrame(GL10 gl) {
         Log.e("wuwang","onDrawFrame");
+        mTimings.frame();
+        if(mGpuTimer!=null){
+            mGpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT|GLES20.GL_DEPTH_BUFFER_BIT);
+        long start=mTimings.start();
         shape.onDrawFrame(gl);
+        mTimings.stop(mDrawStage,start);
+        if(mGpuTimer!=null){
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 每帧绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 
 }
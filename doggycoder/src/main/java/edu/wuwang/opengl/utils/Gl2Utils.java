@@ -154,8 +154,12 @@ public class Gl2Utils {
         return createGlProgram(uRes(res,vert),uRes(res,frag));
     }
 
-    //创建GL程序
+    //创建GL程序，启用了ProgramBinaryCache时优先加载缓存的二进制
     public static int createGlProgram(String vertexSource, String fragmentSource){
+        ProgramBinaryCache cache=ProgramBinaryCache.getInstance();
+        if(cache!=null){
+            return cache.createProgram(vertexSource,fragmentSource);
+        }
         int vertex=loadShader(GLES20.GL_VERTEX_SHADER,vertexSource);
         if(vertex==0)return 0;
         int fragment=loadShader(GLES20.GL_FRAGMENT_SHADER,fragmentSource);
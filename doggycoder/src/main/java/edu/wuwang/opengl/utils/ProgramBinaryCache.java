@@ -0,0 +1,456 @@
+/*
+ *
+ * ProgramBinaryCache.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import com.roger.glcommon.gl.GlCapabilities;
+
+/**
+ * Description: 把链接好的GL程序二进制保存在磁盘上，下次创建同样的程序时直接加载，省去编译和链接。
+ * 文件以驱动信息和着色器源码的SHA-1命名，文件头中再记录驱动信息和源码摘要，
+ * 驱动升级、文件损坏或驱动拒绝加载时删除文件重新编译。缓存目录超过上限时删除最久未使用的文件。
+ * 需要OpenGL ES 3.0，不支持时直接编译。可以在多个GL线程中同时使用。
+ * <p>
+ * 文件格式：int MAGIC、int VERSION、UTF 驱动信息、UTF 源码摘要、int 二进制格式、
+ * int 长度、二进制数据、long 二进制数据的CRC32
+ */
+public class ProgramBinaryCache {
+
+    private static final String TAG="ProgramBinaryCache";
+
+    static final int MAGIC=0x47504243;      //"GPBC"
+    static final int VERSION=1;
+    static final String SUFFIX=".bin";
+
+    public static final long DEFAULT_MAX_BYTES=4*1024*1024;
+
+    private static ProgramBinaryCache sInstance;
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final Backend mBackend;
+
+    private int mHitCount=0;
+    private int mMissCount=0;
+    private int mInvalidCount=0;
+
+    /**
+     * 在应用的缓存目录中启用全局缓存，之后{@link ProgramRegistry}和{@link Gl2Utils}创建程序时都会使用它
+     */
+    public static synchronized void install(Context context){
+        if(sInstance==null){
+            sInstance=new ProgramBinaryCache(new File(context.getCacheDir(),"programs"),
+                DEFAULT_MAX_BYTES);
+        }
+    }
+
+    /**
+     * @return 没有调用{@link #install(Context)}时返回null
+     */
+    public static synchronized ProgramBinaryCache getInstance(){
+        return sInstance;
+    }
+
+    /**
+     * 根据缓存情况创建程序，没有安装全局缓存时直接编译
+     */
+    public static int create(String vertex,String fragment){
+        ProgramBinaryCache cache=getInstance();
+        return cache==null?ShaderUtils.createProgram(vertex,fragment):
+            cache.createProgram(vertex,fragment);
+    }
+
+    public ProgramBinaryCache(File dir,long maxBytes){
+        this(dir,maxBytes,new GlesBackend());
+    }
+
+    ProgramBinaryCache(File dir,long maxBytes,Backend backend){
+        this.mDir=dir;
+        this.mMaxBytes=maxBytes;
+        this.mBackend=backend;
+    }
+
+    /**
+     * 在当前GL环境中创建程序，优先加载缓存的二进制
+     * @return 编译或链接失败时返回0
+     */
+    public int createProgram(String vertex,String fragment){
+        if(vertex==null||fragment==null){
+            return 0;
+        }
+        if(!mBackend.isBinarySupported()){
+            return mBackend.compileProgram(vertex,fragment,false);
+        }
+        String driver=mBackend.getDriver();
+        String key=key(driver,vertex,fragment);
+        File file=new File(mDir,key+SUFFIX);
+        Binary binary=read(file,driver,key);
+        if(binary!=null){
+            int program=mBackend.loadProgram(binary.format,binary.data);
+            if(program!=0){
+                onHit(file);
+                return program;
+            }
+            //驱动升级后没有改变版本字符串时可能拒绝旧的二进制
+            invalidate(file);
+        }
+        int program=mBackend.compileProgram(vertex,fragment,true);
+        synchronized (this){
+            mMissCount++;
+        }
+        if(program!=0){
+            binary=mBackend.getProgramBinary(program);
+            if(binary!=null){
+                write(file,driver,key,binary);
+            }
+        }
+        return program;
+    }
+
+    /**
+     * 删除所有缓存文件
+     */
+    public synchronized void clear(){
+        for (File file:listFiles()){
+            if(!file.delete()){
+                Log.w(TAG,"Could not delete "+file);
+            }
+        }
+    }
+
+    public synchronized int getHitCount(){
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount(){
+        return mMissCount;
+    }
+
+    /**
+     * @return 因驱动不匹配、文件损坏或加载失败而删除的文件数
+     */
+    public synchronized int getInvalidCount(){
+        return mInvalidCount;
+    }
+
+    /**
+     * @return 缓存文件的总字节数
+     */
+    public synchronized long getSize(){
+        long size=0;
+        for (File file:listFiles()){
+            size+=file.length();
+        }
+        return size;
+    }
+
+    static String key(String driver,String vertex,String fragment){
+        try {
+            MessageDigest digest=MessageDigest.getInstance("SHA-1");
+            digest.update(driver.getBytes("UTF-8"));
+            digest.update((byte)0);
+            digest.update(vertex.getBytes("UTF-8"));
+            digest.update((byte)0);
+            digest.update(fragment.getBytes("UTF-8"));
+            byte[] hash=digest.digest();
+            StringBuilder sb=new StringBuilder(hash.length*2);
+            for (byte b:hash){
+                sb.append(Character.forDigit((b>>4)&0xF,16)).append(Character.forDigit(b&0xF,16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException|IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private synchronized Binary read(File file,String driver,String key){
+        if(!file.exists()){
+            return null;
+        }
+        DataInputStream in=null;
+        try {
+            in=new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if(in.readInt()!=MAGIC||in.readInt()!=VERSION||!driver.equals(in.readUTF())
+                ||!key.equals(in.readUTF())){
+                invalidate(file);
+                return null;
+            }
+            int format=in.readInt();
+            int length=in.readInt();
+            if(length<=0||length>file.length()){
+                invalidate(file);
+                return null;
+            }
+            byte[] data=new byte[length];
+            in.readFully(data);
+            CRC32 crc=new CRC32();
+            crc.update(data);
+            if(in.readLong()!=crc.getValue()){
+                invalidate(file);
+                return null;
+            }
+            return new Binary(format,data);
+        } catch (IOException e) {
+            invalidate(file);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    private synchronized void write(File file,String driver,String key,Binary binary){
+        if(!mDir.exists()&&!mDir.mkdirs()){
+            Log.w(TAG,"Could not create "+mDir);
+            return;
+        }
+        //先写临时文件再改名，进程中途退出时不会留下写了一半的缓存
+        File temp=new File(mDir,key+".tmp");
+        DataOutputStream out=null;
+        boolean written=false;
+        try {
+            out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(driver);
+            out.writeUTF(key);
+            out.writeInt(binary.format);
+            out.writeInt(binary.data.length);
+            out.write(binary.data);
+            CRC32 crc=new CRC32();
+            crc.update(binary.data);
+            out.writeLong(crc.getValue());
+            out.close();
+            out=null;
+            written=temp.renameTo(file);
+        } catch (IOException e) {
+            Log.w(TAG,"Could not write "+file,e);
+        } finally {
+            close(out);
+            if(!written){
+                temp.delete();
+            }
+        }
+        if(written){
+            trim();
+        }
+    }
+
+    //总大小超过上限时按最后使用时间删除最旧的文件
+    private void trim(){
+        File[] files=listFiles();
+        long size=0;
+        for (File file:files){
+            size+=file.length();
+        }
+        if(size<=mMaxBytes){
+            return;
+        }
+        final long[] modified=new long[files.length];
+        Integer[] order=new Integer[files.length];
+        for (int i=0;i<files.length;i++){
+            modified[i]=files[i].lastModified();
+            order[i]=i;
+        }
+        Arrays.sort(order,new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return modified[a]<modified[b]?-1:(modified[a]==modified[b]?0:1);
+            }
+        });
+        for (int i=0;i<order.length&&size>mMaxBytes;i++){
+            File file=files[order[i]];
+            long length=file.length();
+            if(file.delete()){
+                size-=length;
+            }
+        }
+    }
+
+    private synchronized void onHit(File file){
+        mHitCount++;
+        file.setLastModified(System.currentTimeMillis());
+    }
+
+    private synchronized void invalidate(File file){
+        mInvalidCount++;
+        if(file.exists()&&!file.delete()){
+            Log.w(TAG,"Could not delete "+file);
+        }
+    }
+
+    private File[] listFiles(){
+        File[] files=mDir.listFiles();
+        if(files==null){
+            return new File[0];
+        }
+        int count=0;
+        for (File file:files){
+            if(file.getName().endsWith(SUFFIX)){
+                files[count++]=file;
+            }
+        }
+        return Arrays.copyOf(files,count);
+    }
+
+    private static void close(java.io.Closeable closeable){
+        if(closeable!=null){
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+
+    /**
+     * 程序二进制及其格式
+     */
+    static class Binary{
+
+        final int format;
+        final byte[] data;
+
+        Binary(int format,byte[] data){
+            this.format=format;
+            this.data=data;
+        }
+    }
+
+    /**
+     * 编译、读取和加载程序二进制，测试时可以替换
+     */
+    interface Backend{
+        boolean isBinarySupported();
+        /** 厂商、渲染器和版本，驱动变化后缓存失效 */
+        String getDriver();
+        /** @param retrievable 是否需要之后读取二进制；失败时返回0 */
+        int compileProgram(String vertex,String fragment,boolean retrievable);
+        /** 不能读取时返回null */
+        Binary getProgramBinary(int program);
+        /** 驱动拒绝加载时返回0 */
+        int loadProgram(int format,byte[] binary);
+    }
+
+    //单例被多个GL线程同时使用，不能保存状态，查询结果都放在局部数组中
+    static class GlesBackend implements Backend{
+
+        @Override
+        public boolean isBinarySupported() {
+            if(Build.VERSION.SDK_INT<Build.VERSION_CODES.JELLY_BEAN_MR2){
+                return false;
+            }
+            //GL_VERSION是驱动实际提供的版本，以ES2.0创建的上下文不能调用ES3.0的函数
+            if(GlCapabilities.getClientVersion()<3){
+                return false;
+            }
+            int[] values=new int[1];
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS,values,0);
+            return values[0]>0;
+        }
+
+        @Override
+        public String getDriver() {
+            return GLES20.glGetString(GLES20.GL_VENDOR)+"|"+GLES20.glGetString(GLES20.GL_RENDERER)
+                +"|"+GLES20.glGetString(GLES20.GL_VERSION);
+        }
+
+        @Override
+        public int compileProgram(String vertex, String fragment, boolean retrievable) {
+            int vertexShader=ShaderUtils.loadShader(GLES20.GL_VERTEX_SHADER,vertex);
+            if(vertexShader==0)return 0;
+            int fragmentShader=ShaderUtils.loadShader(GLES20.GL_FRAGMENT_SHADER,fragment);
+            if(fragmentShader==0){
+                GLES20.glDeleteShader(vertexShader);
+                return 0;
+            }
+            int program=GLES20.glCreateProgram();
+            if(program!=0){
+                GLES20.glAttachShader(program,vertexShader);
+                GLES20.glAttachShader(program,fragmentShader);
+                if(retrievable){
+                    GLES30.glProgramParameteri(program,GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                        GLES20.GL_TRUE);
+                }
+                GLES20.glLinkProgram(program);
+                if(!isLinked(program)){
+                    Log.e(TAG,"Could not link program:"+GLES20.glGetProgramInfoLog(program));
+                    GLES20.glDeleteProgram(program);
+                    program=0;
+                }
+            }
+            //链接后着色器对象不再需要，程序删除时一起释放
+            GLES20.glDeleteShader(vertexShader);
+            GLES20.glDeleteShader(fragmentShader);
+            return program;
+        }
+
+        @Override
+        public Binary getProgramBinary(int program) {
+            int[] values=new int[1];
+            int[] formats=new int[1];
+            GLES20.glGetProgramiv(program,GLES30.GL_PROGRAM_BINARY_LENGTH,values,0);
+            int length=values[0];
+            if(length<=0){
+                return null;
+            }
+            ByteBuffer buffer=ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            values[0]=0;
+            GLES30.glGetProgramBinary(program,length,values,0,formats,0,buffer);
+            //失败时不写入长度，不用glGetError判断，以免把之前遗留的错误当作这次的
+            if(values[0]<=0||values[0]>length){
+                return null;
+            }
+            byte[] data=new byte[values[0]];
+            buffer.get(data);
+            return new Binary(formats[0],data);
+        }
+
+        @Override
+        public int loadProgram(int format, byte[] binary) {
+            int program=GLES20.glCreateProgram();
+            if(program==0){
+                return 0;
+            }
+            ByteBuffer buffer=ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+            buffer.put(binary).position(0);
+            GLES30.glProgramBinary(program,format,buffer,binary.length);
+            //格式不对或驱动拒绝时链接状态为false，不需要glGetError
+            if(!isLinked(program)){
+                GLES20.glDeleteProgram(program);
+                return 0;
+            }
+            return program;
+        }
+
+        private static boolean isLinked(int program){
+            int[] values=new int[1];
+            GLES20.glGetProgramiv(program,GLES20.GL_LINK_STATUS,values,0);
+            return values[0]==GLES20.GL_TRUE;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ *
+ * ProgramRegistry.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+import android.opengl.GLES20;
+
+/**
+ * Description: 共享的GL程序表。同一个GL环境中着色器源码相同的程序只编译链接一次，
+ * 多个滤镜或渲染器通过{@link #acquire(String, String)}取得同一个{@link Program}，
+ * 引用计数归零时才删除。attribute和uniform的名字通过{@link #id(String)}换成整数id，
+ * 可以提前存为常量，{@link Program}把查到的位置存在以id为下标的数组中，每个名字只查询一次GL。
+ * 程序按GL环境的句柄区分，环境重建后驱动可能复用同一个句柄，所以使用共享程序的渲染器
+ * 都要在onSurfaceCreated中、创建滤镜之前调用{@link #onContextCreated()}。
+ * 只能在GL线程中使用。
+ */
+public class ProgramRegistry {
+
+    private static final int UNRESOLVED=Integer.MIN_VALUE;
+
+    private static final Map<String,Integer> sIds=new HashMap<>();
+    private static final List<String> sNames=new ArrayList<>();
+    private static ProgramRegistry sInstance;
+
+    private final Backend mBackend;
+    //GL环境 -> 该环境中的程序
+    private final Map<Object,Map<Key,Program>> mPrograms=new HashMap<>();
+    private int mCompileCount=0;
+
+    public static synchronized ProgramRegistry getInstance(){
+        if(sInstance==null){
+            sInstance=new ProgramRegistry(new GlesBackend());
+        }
+        return sInstance;
+    }
+
+    ProgramRegistry(Backend backend){
+        this.mBackend=backend;
+    }
+
+    /**
+     * 把attribute或uniform的名字换成进程内唯一的整数id，同名返回同一个id
+     */
+    public static int id(String name){
+        synchronized (sIds){
+            Integer id=sIds.get(name);
+            if(id==null){
+                id=sNames.size();
+                sIds.put(name,id);
+                sNames.add(name);
+            }
+            return id;
+        }
+    }
+
+    static String name(int id){
+        synchronized (sIds){
+            return sNames.get(id);
+        }
+    }
+
+    /**
+     * 取得当前GL环境中由这两段源码链接成的程序，没有时编译链接，引用计数加一
+     * @return 编译或链接失败时返回null
+     */
+    public synchronized Program acquire(String vertex,String fragment){
+        if(vertex==null||fragment==null){
+            return null;
+        }
+        Object context=mBackend.currentContext();
+        Map<Key,Program> programs=mPrograms.get(context);
+        if(programs==null){
+            programs=new HashMap<>();
+            mPrograms.put(context,programs);
+        }
+        Key key=new Key(vertex,fragment);
+        Program program=programs.get(key);
+        if(program==null){
+            int handle=mBackend.createProgram(vertex,fragment);
+            mCompileCount++;
+            if(handle==0){
+                return null;
+            }
+            program=new Program(mBackend,context,key,handle);
+            programs.put(key,program);
+        }
+        program.refCount++;
+        return program;
+    }
+
+    /**
+     * 为已经取得的程序再增加一个引用，比如在滤镜切换时让程序继续保留
+     * @return 程序已经被删除或者它的GL环境已经重建时返回false
+     */
+    public synchronized boolean retain(Program program){
+        if(program==null||program.refCount<=0){
+            return false;
+        }
+        program.refCount++;
+        return true;
+    }
+
+    /**
+     * 登记在共享环境中为context创建好的程序，引用计数为0，直到有人{@link #acquire(String, String)}
+     * @return context中已经有同样源码的程序时返回false，调用者需要自行删除handle
+     */
+    synchronized boolean offer(Object context,String vertex,String fragment,int handle){
+        Map<Key,Program> programs=mPrograms.get(context);
+        if(programs==null){
+            programs=new HashMap<>();
+            mPrograms.put(context,programs);
+        }
+        Key key=new Key(vertex,fragment);
+        if(programs.containsKey(key)){
+            return false;
+        }
+        programs.put(key,new Program(mBackend,context,key,handle));
+        return true;
+    }
+
+    synchronized boolean contains(Object context,String vertex,String fragment){
+        Map<Key,Program> programs=mPrograms.get(context);
+        return programs!=null&&programs.containsKey(new Key(vertex,fragment));
+    }
+
+    Object getCurrentContext(){
+        return mBackend.currentContext();
+    }
+
+    /**
+     * 引用计数减一，归零时删除程序。程序所在的GL环境已经重建或者不是当前环境时不调用GL
+     */
+    public synchronized void release(Program program){
+        if(program==null||program.refCount<=0){
+            return;
+        }
+        if(--program.refCount>0){
+            return;
+        }
+        Map<Key,Program> programs=mPrograms.get(program.context);
+        if(programs!=null&&programs.get(program.key)==program){
+            programs.remove(program.key);
+            if(programs.isEmpty()){
+                mPrograms.remove(program.context);
+            }
+            Object current=mBackend.currentContext();
+            if(program.context==null?current==null:program.context.equals(current)){
+                mBackend.deleteProgram(program.handle);
+            }
+        }
+    }
+
+    /**
+     * 当前GL环境是新建的时候调用，比如在onSurfaceCreated中。
+     * 新环境可能与已销毁的环境有相同的句柄，以前记录在它上面的程序已随环境失效，直接丢弃。
+     * 新环境中程序的句柄从头分配，不调用时可能把旧记录当作新环境中同号的另一个程序返回
+     */
+    public synchronized void onContextCreated(){
+        Map<Key,Program> programs=mPrograms.remove(mBackend.currentContext());
+        if(programs!=null){
+            for (Program program:programs.values()){
+                program.refCount=0;
+            }
+        }
+    }
+
+    /**
+     * @return 当前GL环境中存在的程序数
+     */
+    public synchronized int getProgramCount(){
+        Map<Key,Program> programs=mPrograms.get(mBackend.currentContext());
+        return programs==null?0:programs.size();
+    }
+
+    /**
+     * @return 累计编译链接程序的次数
+     */
+    public synchronized int getCompileCount(){
+        return mCompileCount;
+    }
+
+    /**
+     * 共享的GL程序。attribute和uniform的位置第一次用到时查询，之后直接从数组中读取
+     */
+    public static final class Program{
+
+        private final Backend backend;
+        private final Object context;
+        private final Key key;
+        private final int handle;
+        private int refCount;
+        private int[] mAttribs=new int[0];
+        private int[] mUniforms=new int[0];
+
+        private Program(Backend backend,Object context,Key key,int handle){
+            this.backend=backend;
+            this.context=context;
+            this.key=key;
+            this.handle=handle;
+        }
+
+        public int getHandle(){
+            return handle;
+        }
+
+        /**
+         * @param id {@link ProgramRegistry#id(String)}返回的id
+         * @return 着色器中没有这个attribute时返回-1
+         */
+        public int getAttribLocation(int id){
+            if(id>=mAttribs.length){
+                mAttribs=grow(mAttribs,id);
+            }
+            int location=mAttribs[id];
+            if(location==UNRESOLVED){
+                location=backend.getAttribLocation(handle,name(id));
+                mAttribs[id]=location;
+            }
+            return location;
+        }
+
+        /**
+         * @param id {@link ProgramRegistry#id(String)}返回的id
+         * @return 着色器中没有这个uniform或者它被优化掉时返回-1
+         */
+        public int getUniformLocation(int id){
+            if(id>=mUniforms.length){
+                mUniforms=grow(mUniforms,id);
+            }
+            int location=mUniforms[id];
+            if(location==UNRESOLVED){
+                location=backend.getUniformLocation(handle,name(id));
+                mUniforms[id]=location;
+            }
+            return location;
+        }
+
+        private static int[] grow(int[] table,int id){
+            int[] grown=Arrays.copyOf(table,Math.max(id+1,table.length*2));
+            Arrays.fill(grown,table.length,grown.length,UNRESOLVED);
+            return grown;
+        }
+    }
+
+    private static final class Key{
+
+        private final String vertex;
+        private final String fragment;
+        private final int hash;
+
+        Key(String vertex,String fragment){
+            this.vertex=vertex;
+            this.fragment=fragment;
+            this.hash=31*vertex.hashCode()+fragment.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key k=(Key)o;
+            return hash==k.hash&&vertex.equals(k.vertex)&&fragment.equals(k.fragment);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 编译链接和查询GL程序，测试时可以替换
+     */
+    interface Backend{
+        /** 当前线程上的GL环境，用于区分不同环境中的程序 */
+        Object currentContext();
+        /** 失败时返回0 */
+        int createProgram(String vertex,String fragment);
+        void deleteProgram(int program);
+        int getAttribLocation(int program,String name);
+        int getUniformLocation(int program,String name);
+    }
+
+    static class GlesBackend implements Backend{
+
+        @Override
+        public Object currentContext() {
+            //EGLContext对象每次获取都是新的包装，但equals和hashCode比较的是底层句柄
+            return ((EGL10)EGLContext.getEGL()).eglGetCurrentContext();
+        }
+
+        @Override
+        public int createProgram(String vertex, String fragment) {
+            return ProgramBinaryCache.create(vertex,fragment);
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            GLES20.glDeleteProgram(program);
+        }
+
+        @Override
+        public int getAttribLocation(int program, String name) {
+            return GLES20.glGetAttribLocation(program,name);
+        }
+
+        @Override
+        public int getUniformLocation(int program, String name) {
+            return GLES20.glGetUniformLocation(program,name);
+        }
+    }
+}
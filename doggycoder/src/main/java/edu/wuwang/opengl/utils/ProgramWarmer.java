@@ -0,0 +1,144 @@
+/*
+ *
+ * ProgramWarmer.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import android.content.res.Resources;
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Description: 在后台线程中提前创建一个界面稍后会用到的GL程序。
+ * 后台线程创建与当前环境共享的GL环境，读取着色器、加载缓存的二进制或编译链接，
+ * 完成的程序登记到{@link ProgramRegistry}中，GL线程之后acquire同样的源码时直接使用，
+ * 同时{@link ProgramBinaryCache}中留下二进制，下次启动也不需要编译。
+ */
+public class ProgramWarmer {
+
+    private static final String TAG="ProgramWarmer";
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION=0x3098;
+    private static final int EGL_OPENGL_ES2_BIT=4;
+
+    private static Executor sExecutor;
+
+    private ProgramWarmer(){
+    }
+
+    /**
+     * 必须在GL线程中调用，立即返回
+     * @param assets 依次为每个程序的顶点着色器和片元着色器在assets中的路径
+     */
+    public static void warmUp(final Resources res,final String ... assets){
+        if(assets.length%2!=0){
+            throw new IllegalArgumentException("Shader paths must come in vertex/fragment pairs");
+        }
+        final EGL10 egl=(EGL10)EGLContext.getEGL();
+        final EGLContext shared=egl.eglGetCurrentContext();
+        if(shared==null||shared.equals(EGL10.EGL_NO_CONTEXT)){
+            Log.w(TAG,"warmUp must be called on a GL thread");
+            return;
+        }
+        final EGLDisplay display=egl.eglGetCurrentDisplay();
+        int[] version=new int[1];
+        egl.eglQueryContext(display,shared,EGL_CONTEXT_CLIENT_VERSION,version);
+        final int clientVersion=Math.max(version[0],2);
+        final Object target=ProgramRegistry.getInstance().getCurrentContext();
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUp(egl,display,shared,clientVersion,target,res,assets);
+            }
+        });
+    }
+
+    private static void warmUp(EGL10 egl,EGLDisplay display,EGLContext shared,int clientVersion,
+                               Object target,Resources res,String[] assets){
+        int[] attributes={
+            EGL10.EGL_RED_SIZE,8,
+            EGL10.EGL_GREEN_SIZE,8,
+            EGL10.EGL_BLUE_SIZE,8,
+            EGL10.EGL_RENDERABLE_TYPE,EGL_OPENGL_ES2_BIT,
+            EGL10.EGL_SURFACE_TYPE,EGL10.EGL_PBUFFER_BIT,
+            EGL10.EGL_NONE
+        };
+        EGLConfig[] configs=new EGLConfig[1];
+        int[] count=new int[1];
+        if(!egl.eglChooseConfig(display,attributes,configs,1,count)||count[0]==0){
+            Log.w(TAG,"No pbuffer config for warm-up");
+            return;
+        }
+        EGLContext context=egl.eglCreateContext(display,configs[0],shared,
+            new int[]{EGL_CONTEXT_CLIENT_VERSION,clientVersion,EGL10.EGL_NONE});
+        if(context==null||context.equals(EGL10.EGL_NO_CONTEXT)){
+            Log.w(TAG,"Could not create shared context:"+egl.eglGetError());
+            return;
+        }
+        //只需要一个1x1的pbuffer让环境可以成为当前环境
+        EGLSurface surface=egl.eglCreatePbufferSurface(display,configs[0],
+            new int[]{EGL10.EGL_WIDTH,1,EGL10.EGL_HEIGHT,1,EGL10.EGL_NONE});
+        try {
+            if(surface==null||surface.equals(EGL10.EGL_NO_SURFACE)
+                ||!egl.eglMakeCurrent(display,surface,surface,context)){
+                Log.w(TAG,"Could not make shared context current:"+egl.eglGetError());
+                return;
+            }
+            ProgramRegistry registry=ProgramRegistry.getInstance();
+            for (int i=0;i<assets.length;i+=2){
+                String vertex=ShaderUtils.loadFromAssetsFile(assets[i],res);
+                String fragment=ShaderUtils.loadFromAssetsFile(assets[i+1],res);
+                if(vertex==null||fragment==null){
+                    Log.w(TAG,"Could not read "+assets[i]+" or "+assets[i+1]);
+                    continue;
+                }
+                if(registry.contains(target,vertex,fragment)){
+                    continue;
+                }
+                int program=ProgramBinaryCache.create(vertex,fragment);
+                if(program==0){
+                    continue;
+                }
+                //等链接真正完成，GL线程才能安全地使用这个程序
+                GLES20.glFinish();
+                if(!registry.offer(target,vertex,fragment,program)){
+                    GLES20.glDeleteProgram(program);
+                }
+            }
+        } finally {
+            egl.eglMakeCurrent(display,EGL10.EGL_NO_SURFACE,EGL10.EGL_NO_SURFACE,
+                EGL10.EGL_NO_CONTEXT);
+            if(surface!=null&&!surface.equals(EGL10.EGL_NO_SURFACE)){
+                egl.eglDestroySurface(display,surface);
+            }
+            egl.eglDestroyContext(display,context);
+        }
+    }
+
+    private static synchronized Executor getExecutor(){
+        if(sExecutor==null){
+            sExecutor=Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread=new Thread(r,"ProgramWarmer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+}
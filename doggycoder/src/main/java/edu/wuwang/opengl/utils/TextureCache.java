@@ -0,0 +1,247 @@
+/*
+ *
+ * TextureCache.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+import android.os.Build;
+
+/**
+ * Description: 图片纹理缓存。以图片对象本身（而不是equals）和图片的generation为键，
+ * 同一张图片内容没有变化时每帧都直接返回已上传的纹理，不再重复上传。
+ * 图片内容变化时，尺寸和格式不变就用texSubImage2D覆盖到原来的纹理中，否则重新分配存储。
+ * 缓存满时淘汰最久没用的图片，新图片与它尺寸和格式相同时沿用它的纹理名，否则删除它的纹理。
+ * 缓存会持有图片的引用，直到图片被淘汰或{@link #remove(Object)}。
+ * 只能在GL线程中使用，上传时绑定到当前激活的纹理单元。
+ */
+public class TextureCache {
+
+    private final Backend mBackend;
+    private final int mCapacity;
+    //按使用先后排序，最后一个是最近用过的
+    private final List<Entry> mEntries=new ArrayList<>();
+    private int mUploadCount=0;
+    private int mSubUploadCount=0;
+
+    /**
+     * @param capacity 最多同时缓存的图片数，只显示一张图片时为1
+     */
+    public TextureCache(int capacity){
+        this(new GlesBackend(),capacity);
+    }
+
+    TextureCache(Backend backend,int capacity){
+        if(capacity<1){
+            throw new IllegalArgumentException("capacity must be positive: "+capacity);
+        }
+        this.mBackend=backend;
+        this.mCapacity=capacity;
+    }
+
+    /**
+     * 取得图片对应的纹理，需要时上传
+     * @return 图片为null或已回收时返回0
+     */
+    public int obtain(Bitmap bitmap){
+        if(bitmap==null){
+            return 0;
+        }
+        if(bitmap.isRecycled()){
+            remove(bitmap);
+            return 0;
+        }
+        //getGenerationId在API 12才有，之前只能靠调用者invalidate
+        int generation=Build.VERSION.SDK_INT>=Build.VERSION_CODES.HONEYCOMB_MR1?bitmap.getGenerationId():0;
+        int format=(GLUtils.getInternalFormat(bitmap)<<16)|GLUtils.getType(bitmap);
+        return obtain(bitmap,generation,bitmap.getWidth(),bitmap.getHeight(),format);
+    }
+
+    /**
+     * @param generation 图片内容的版本，与上次不同时重新上传
+     * @param format 格式不同的图片不能用texSubImage2D互相覆盖
+     */
+    int obtain(Object image,int generation,int width,int height,int format){
+        Entry entry=find(image);
+        if(entry!=null){
+            //移到末尾，标记为最近用过
+            mEntries.remove(entry);
+            mEntries.add(entry);
+            if(entry.dirty||entry.generation!=generation){
+                upload(entry,generation,width,height,format);
+            }
+            return entry.texture;
+        }
+        Entry victim=mEntries.size()>=mCapacity?mEntries.remove(0):null;
+        entry=new Entry(image);
+        if(victim!=null&&victim.width==width&&victim.height==height&&victim.format==format){
+            entry.texture=victim.texture;
+            entry.width=width;
+            entry.height=height;
+            entry.format=format;
+        }else{
+            if(victim!=null){
+                mBackend.deleteTexture(victim.texture);
+            }
+            entry.texture=mBackend.createTexture();
+        }
+        upload(entry,generation,width,height,format);
+        mEntries.add(entry);
+        return entry.texture;
+    }
+
+    private void upload(Entry entry,int generation,int width,int height,int format){
+        if(entry.width==width&&entry.height==height&&entry.format==format){
+            mBackend.texSubImage2D(entry.texture,entry.image);
+            mSubUploadCount++;
+        }else{
+            mBackend.texImage2D(entry.texture,entry.image);
+            mUploadCount++;
+            entry.width=width;
+            entry.height=height;
+            entry.format=format;
+        }
+        entry.generation=generation;
+        entry.dirty=false;
+    }
+
+    private Entry find(Object image){
+        for (int i=mEntries.size()-1;i>=0;i--){
+            Entry entry=mEntries.get(i);
+            if(entry.image==image){
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 图片的像素在原处被修改过，下次{@link #obtain(Bitmap)}时重新上传。
+     * API 12以上Bitmap的修改会自动发现，不需要调用
+     */
+    public void invalidate(Object image){
+        Entry entry=find(image);
+        if(entry!=null){
+            entry.dirty=true;
+        }
+    }
+
+    /**
+     * 删除图片的纹理并释放对图片的引用
+     */
+    public void remove(Object image){
+        Entry entry=find(image);
+        if(entry!=null){
+            mEntries.remove(entry);
+            mBackend.deleteTexture(entry.texture);
+        }
+    }
+
+    /**
+     * 删除所有纹理
+     */
+    public void release(){
+        for (Entry entry:mEntries){
+            mBackend.deleteTexture(entry.texture);
+        }
+        mEntries.clear();
+    }
+
+    /**
+     * GL环境重建时调用，比如在onSurfaceCreated中。旧纹理已随旧环境失效，直接丢弃，下次使用时重新上传
+     */
+    public void onContextCreated(){
+        mEntries.clear();
+    }
+
+    /**
+     * @return 当前持有的纹理数
+     */
+    public int getTextureCount(){
+        return mEntries.size();
+    }
+
+    /**
+     * @return 累计用texImage2D分配存储并上传的次数
+     */
+    public int getUploadCount(){
+        return mUploadCount;
+    }
+
+    /**
+     * @return 累计用texSubImage2D覆盖上传的次数
+     */
+    public int getSubUploadCount(){
+        return mSubUploadCount;
+    }
+
+    private static final class Entry{
+
+        private final Object image;
+        private int texture;
+        private int generation;
+        private boolean dirty;
+        //未分配存储时尺寸为-1，保证第一次上传走texImage2D
+        private int width=-1;
+        private int height=-1;
+        private int format;
+
+        Entry(Object image){
+            this.image=image;
+        }
+    }
+
+    /**
+     * 创建和上传纹理，测试时可以替换
+     */
+    interface Backend{
+        /** 生成一个纹理并设置好过滤和环绕方式 */
+        int createTexture();
+        void deleteTexture(int texture);
+        /** 绑定纹理，分配存储并上传图片 */
+        void texImage2D(int texture,Object image);
+        /** 绑定纹理，在已有存储上覆盖上传尺寸和格式相同的图片 */
+        void texSubImage2D(int texture,Object image);
+    }
+
+    static class GlesBackend implements Backend{
+
+        private final int[] mTexture=new int[1];
+
+        @Override
+        public int createTexture() {
+            GLES20.glGenTextures(1,mTexture,0);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,mTexture[0]);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,GLES20.GL_TEXTURE_MIN_FILTER,GLES20.GL_NEAREST);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,GLES20.GL_TEXTURE_MAG_FILTER,GLES20.GL_LINEAR);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,GLES20.GL_TEXTURE_WRAP_S,GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,GLES20.GL_TEXTURE_WRAP_T,GLES20.GL_CLAMP_TO_EDGE);
+            return mTexture[0];
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            mTexture[0]=texture;
+            GLES20.glDeleteTextures(1,mTexture,0);
+        }
+
+        @Override
+        public void texImage2D(int texture, Object image) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture);
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D,0,(Bitmap)image,0);
+        }
+
+        @Override
+        public void texSubImage2D(int texture, Object image) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,texture);
+            GLUtils.texSubImage2D(GLES20.GL_TEXTURE_2D,0,0,0,(Bitmap)image);
+        }
+    }
+}
@@ -7,6 +7,9 @@ import android.opengl.GLSurfaceView;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
+
 import edu.wuwang.opengl.utils.VaryTools;
 
 /**
@@ -17,6 +20,11 @@ public class VaryRender implements GLSurfaceView.Renderer {
 
     private VaryTools tools;
     private Cube cube;
+    //各阶段耗时
+    private final FrameTimings mTimings=new FrameTimings();
+    private final int mDrawStage=mTimings.addStage("draw");
+    private final int mGpuStage=mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
 
     public VaryRender(Resources res){
         tools=new VaryTools();
@@ -29,6 +37,8 @@ public class VaryRender implements GLSurfaceView.Renderer {
         //开启深度测试
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
         cube.create();
+        //旧环境的查询已随环境销毁
+        mGpuTimer=GpuTimer.create(mTimings,mGpuStage);
     }
 
     @Override
@@ -41,7 +51,12 @@ public class VaryRender implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        mTimings.frame();
+        if(mGpuTimer!=null){
+            mGpuTimer.begin();
+        }
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT| GLES20.GL_DEPTH_BUFFER_BIT);
+        long start=mTimings.start();
         cube.setMatrix(tools.getFinalMatrix());
         cube.drawSelf();
 
@@ -79,6 +94,17 @@ public class VaryRender implements GLSurfaceView.Renderer {
         cube.setMatrix(tools.getFinalMatrix());
         cube.drawSelf();
         tools.popMatrix();
+        mTimings.stop(mDrawStage,start);
+        if(mGpuTimer!=null){
+            mGpuTimer.end();
+        }
+    }
+
+    /**
+     * @return 每帧绘制的耗时，驱动支持计时查询时还有gpu
+     */
+    public FrameTimings getFrameTimings(){
+        return mTimings;
     }
 
 }
@@ -0,0 +1,316 @@
+/*
+ *
+ * YuvConverter.java
+ *
+ * Copyright © 2017年 深圳哎吖科技. All rights reserved.
+ */
+package edu.wuwang.opengl.yuv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Description: RGBA与YUV420(I420、NV12、NV21)之间的转换，BT.601 limited range，
+ * 与Android相机和MediaCodec的默认格式一致。
+ * 计算使用8位定点整数，RGBA转YUV的结果天然落在合法范围内不需要截断，YUV转RGBA的截断用移位完成，
+ * 内层循环没有分支。图像按行对拆分为多段，可以在线程池中并行转换，每段的任务对象在创建时分配好，
+ * 转换时不分配内存。宽高必须为偶数，RGBA数据按行从上到下排列，行间没有填充。
+ * 一个YuvConverter同一时间只执行一个转换，多个线程同时调用时会依次执行。
+ */
+public class YuvConverter {
+
+    /**
+     * Y平面后依次是U平面和V平面
+     */
+    public static final int I420=0;
+    /**
+     * Y平面后是UV交错的平面
+     */
+    public static final int NV12=1;
+    /**
+     * Y平面后是VU交错的平面，Android相机预览的默认格式
+     */
+    public static final int NV21=2;
+
+    private static final int TO_YUV=0;
+    private static final int TO_RGBA=1;
+
+    //每段至少包含的行对数，太小的图像拆分得不偿失
+    private static final int MIN_PAIRS_PER_STRIPE=16;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final Stripe[] mStripes;
+
+    private final Object mLock=new Object();
+    private int mPending;
+    private Throwable mError;
+
+    //当前转换的参数，由调用线程写入后才提交各段任务
+    private int mMode;
+    private ByteBuffer mSrc;
+    private ByteBuffer mDst;
+    private int mWidth;
+    private int mHeight;
+    private int mFormat;
+
+    /**
+     * 在调用线程上串行执行
+     */
+    public YuvConverter(){
+        this(null,1);
+    }
+
+    /**
+     * @param executor 执行并行任务的线程池，调用线程也会执行其中一段
+     * @param parallelism 任务拆分的段数，通常为CPU核数
+     */
+    public YuvConverter(ExecutorService executor,int parallelism){
+        this.executor=executor;
+        this.parallelism=executor==null?1:Math.max(parallelism,1);
+        mStripes=new Stripe[this.parallelism-1];
+        for (int i=0;i<mStripes.length;i++){
+            mStripes[i]=new Stripe();
+        }
+    }
+
+    /**
+     * @return width*height的YUV420数据的字节数
+     */
+    public static int getYuvSize(int width,int height){
+        return width*height*3/2;
+    }
+
+    /**
+     * RGBA转YUV420，alpha被忽略。两个buffer都从下标0开始读写，不改变position
+     * @param format {@link #I420}、{@link #NV12}或{@link #NV21}
+     */
+    public void rgbaToYuv(ByteBuffer rgba,int width,int height,ByteBuffer yuv,int format){
+        if(format!=I420&&format!=NV12&&format!=NV21){
+            throw new IllegalArgumentException("Unknown format: "+format);
+        }
+        checkSize(width,height);
+        checkCapacity(rgba,width*height*4);
+        checkCapacity(yuv,getYuvSize(width,height));
+        synchronized (this){
+            run(TO_YUV,rgba,yuv,width,height,format);
+        }
+    }
+
+    /**
+     * NV21转RGBA，alpha为255。两个buffer都从下标0开始读写，不改变position
+     */
+    public void nv21ToRgba(ByteBuffer nv21,int width,int height,ByteBuffer rgba){
+        checkSize(width,height);
+        checkCapacity(nv21,getYuvSize(width,height));
+        checkCapacity(rgba,width*height*4);
+        synchronized (this){
+            run(TO_RGBA,nv21,rgba,width,height,NV21);
+        }
+    }
+
+    private void run(int mode,ByteBuffer src,ByteBuffer dst,int width,int height,int format){
+        mMode=mode;
+        mSrc=src;
+        mDst=dst;
+        mWidth=width;
+        mHeight=height;
+        mFormat=format;
+        int pairs=height/2;
+        int stripes=Math.min(parallelism,Math.max(pairs/MIN_PAIRS_PER_STRIPE,1));
+        try {
+            if(stripes==1){
+                convert(0,pairs);
+                return;
+            }
+            int step=(pairs+stripes-1)/stripes;
+            synchronized (mLock){
+                mPending=stripes-1;
+                mError=null;
+            }
+            for (int i=0;i<stripes-1;i++){
+                Stripe stripe=mStripes[i];
+                stripe.start=i*step;
+                stripe.end=Math.min(stripe.start+step,pairs);
+                executor.execute(stripe);
+            }
+            Throwable error=null;
+            try {
+                convert(Math.min((stripes-1)*step,pairs),pairs);
+            } catch (RuntimeException|Error e) {
+                error=e;
+            }
+            synchronized (mLock){
+                boolean interrupted=false;
+                while (mPending>0){
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        //各段还在使用buffer，必须等它们结束
+                        interrupted=true;
+                    }
+                }
+                if(interrupted){
+                    Thread.currentThread().interrupt();
+                }
+                if(error==null){
+                    error=mError;
+                }
+            }
+            if(error instanceof RuntimeException){
+                throw (RuntimeException)error;
+            }else if(error!=null){
+                throw (Error)error;
+            }
+        } finally {
+            mSrc=null;
+            mDst=null;
+        }
+    }
+
+    private void convert(int pairStart,int pairEnd){
+        if(mMode==TO_YUV){
+            rgbaToYuv(mSrc,mDst,mWidth,mHeight,mFormat,pairStart,pairEnd);
+        }else{
+            nv21ToRgba(mSrc,mDst,mWidth,mHeight,pairStart,pairEnd);
+        }
+    }
+
+    //转换第pairStart到pairEnd个行对
+    private static void rgbaToYuv(ByteBuffer rgba,ByteBuffer yuv,int width,int height,int format,
+                                  int pairStart,int pairEnd){
+        //按字节序取出RGB所在的位，循环中不需要判断
+        boolean little=rgba.order()==ByteOrder.LITTLE_ENDIAN;
+        int rs=little?0:24;
+        int gs=little?8:16;
+        int bs=little?16:8;
+        int frame=width*height;
+        //I420的U、V平面，NV12/NV21的交错平面中U、V的偏移
+        int uBase,vBase,uvStep,uvStride;
+        if(format==I420){
+            uBase=frame;
+            vBase=frame+frame/4;
+            uvStep=1;
+            uvStride=width/2;
+        }else{
+            uBase=format==NV12?frame:frame+1;
+            vBase=format==NV12?frame+1:frame;
+            uvStep=2;
+            uvStride=width;
+        }
+        int stride=width*4;
+        for (int p=pairStart;p<pairEnd;p++){
+            int src0=p*2*stride;
+            int src1=src0+stride;
+            int y0=p*2*width;
+            int y1=y0+width;
+            int u=uBase+p*uvStride;
+            int v=vBase+p*uvStride;
+            for (int x=0;x<width;x+=2){
+                int c00=rgba.getInt(src0);
+                int c01=rgba.getInt(src0+4);
+                int c10=rgba.getInt(src1);
+                int c11=rgba.getInt(src1+4);
+                int r00=(c00>>>rs)&0xFF,g00=(c00>>>gs)&0xFF,b00=(c00>>>bs)&0xFF;
+                int r01=(c01>>>rs)&0xFF,g01=(c01>>>gs)&0xFF,b01=(c01>>>bs)&0xFF;
+                int r10=(c10>>>rs)&0xFF,g10=(c10>>>gs)&0xFF,b10=(c10>>>bs)&0xFF;
+                int r11=(c11>>>rs)&0xFF,g11=(c11>>>gs)&0xFF,b11=(c11>>>bs)&0xFF;
+                yuv.put(y0+x,(byte)(((66*r00+129*g00+25*b00+128)>>8)+16));
+                yuv.put(y0+x+1,(byte)(((66*r01+129*g01+25*b01+128)>>8)+16));
+                yuv.put(y1+x,(byte)(((66*r10+129*g10+25*b10+128)>>8)+16));
+                yuv.put(y1+x+1,(byte)(((66*r11+129*g11+25*b11+128)>>8)+16));
+                //2x2像素取平均后计算色度
+                int r=(r00+r01+r10+r11+2)>>2;
+                int g=(g00+g01+g10+g11+2)>>2;
+                int b=(b00+b01+b10+b11+2)>>2;
+                yuv.put(u,(byte)(((-38*r-74*g+112*b+128)>>8)+128));
+                yuv.put(v,(byte)(((112*r-94*g-18*b+128)>>8)+128));
+                src0+=8;
+                src1+=8;
+                u+=uvStep;
+                v+=uvStep;
+            }
+        }
+    }
+
+    private static void nv21ToRgba(ByteBuffer nv21,ByteBuffer rgba,int width,int height,
+                                   int pairStart,int pairEnd){
+        boolean little=rgba.order()==ByteOrder.LITTLE_ENDIAN;
+        int rs=little?0:24;
+        int gs=little?8:16;
+        int bs=little?16:8;
+        int alpha=0xFF<<(little?24:0);
+        int frame=width*height;
+        int stride=width*4;
+        for (int p=pairStart;p<pairEnd;p++){
+            int y0=p*2*width;
+            int y1=y0+width;
+            int vu=frame+p*width;
+            int dst0=p*2*stride;
+            int dst1=dst0+stride;
+            for (int x=0;x<width;x+=2){
+                int e=(nv21.get(vu+x)&0xFF)-128;
+                int d=(nv21.get(vu+x+1)&0xFF)-128;
+                int rc=409*e+128;
+                int gc=-100*d-208*e+128;
+                int bc=516*d+128;
+                rgba.putInt(dst0,pixel(nv21.get(y0+x),rc,gc,bc,rs,gs,bs,alpha));
+                rgba.putInt(dst0+4,pixel(nv21.get(y0+x+1),rc,gc,bc,rs,gs,bs,alpha));
+                rgba.putInt(dst1,pixel(nv21.get(y1+x),rc,gc,bc,rs,gs,bs,alpha));
+                rgba.putInt(dst1+4,pixel(nv21.get(y1+x+1),rc,gc,bc,rs,gs,bs,alpha));
+                dst0+=8;
+                dst1+=8;
+            }
+        }
+    }
+
+    private static int pixel(byte y,int rc,int gc,int bc,int rs,int gs,int bs,int alpha){
+        int c=298*((y&0xFF)-16);
+        return clamp((c+rc)>>8)<<rs|clamp((c+gc)>>8)<<gs|clamp((c+bc)>>8)<<bs|alpha;
+    }
+
+    //无分支地截断到[0,255]：负数与上符号位取反后为0，大于255时或上全1
+    private static int clamp(int x){
+        x&=~(x>>31);
+        return (x|((255-x)>>31))&0xFF;
+    }
+
+    private static void checkSize(int width,int height){
+        if(width<=0||height<=0||(width&1)!=0||(height&1)!=0){
+            throw new IllegalArgumentException("Width and height must be positive and even: "
+                +width+"x"+height);
+        }
+    }
+
+    private static void checkCapacity(ByteBuffer buffer,int bytes){
+        if(buffer.capacity()<bytes){
+            throw new IllegalArgumentException("Buffer holds "+buffer.capacity()+" bytes, need "
+                +bytes);
+        }
+    }
+
+    private class Stripe implements Runnable{
+
+        int start;
+        int end;
+
+        @Override
+        public void run() {
+            Throwable error=null;
+            try {
+                convert(start,end);
+            } catch (RuntimeException|Error e) {
+                error=e;
+            }
+            synchronized (mLock){
+                if(error!=null&&mError==null){
+                    mError=error;
+                }
+                mPending--;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package edu.wuwang.opengl.camera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class FrameExporterTest {
+
+    //编码结果为帧内容的第一个字节
+    private static class FakeEncoder implements FrameExporter.Encoder{
+
+        private final long sleep;
+        final List<Integer> threads=Collections.synchronizedList(new ArrayList<Integer>());
+
+        FakeEncoder(long sleep){
+            this.sleep=sleep;
+        }
+
+        @Override
+        public void encode(ByteBuffer rgba, int width, int height, OutputStream out) throws IOException {
+            assertEquals(width*height*4,rgba.remaining());
+            if(sleep>0){
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if(rgba.get(0)<0){
+                throw new IOException("bad frame");
+            }
+            out.write(rgba.get(0));
+        }
+    }
+
+    private static class FakeOutput implements FrameExporter.Output{
+
+        final List<Integer> batches=Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> written=Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void write(List<FrameExporter.Frame> frames) throws IOException {
+            batches.add(frames.size());
+            for (FrameExporter.Frame frame:frames){
+                written.add((int)frame.getData()[0]);
+            }
+        }
+    }
+
+    private static class ManualExecutor implements Executor{
+
+        private final List<Runnable> tasks=new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll(){
+            while (!tasks.isEmpty()){
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static ByteBuffer frame(int value){
+        ByteBuffer buffer=ByteBuffer.allocateDirect(4*2*4);
+        while (buffer.hasRemaining()){
+            buffer.put((byte)value);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    @Test
+    public void encodedFramesAreWrittenInBatches(){
+        ManualExecutor workers=new ManualExecutor();
+        ManualExecutor writer=new ManualExecutor();
+        FakeOutput output=new FakeOutput();
+        FrameExporter exporter=new FrameExporter(new FakeEncoder(0),output,workers,writer,false,1,8);
+        ByteBuffer source=frame(0);
+        for (int i=0;i<5;i++){
+            source=frame(i);
+            assertTrue(exporter.submit(source,4,2,i));
+        }
+        assertEquals(5,exporter.getQueueDepth());
+        workers.runAll();
+        assertEquals(0,exporter.getQueueDepth());
+        writer.runAll();
+        assertEquals(Collections.singletonList(5),output.batches);
+        assertEquals(list(0,1,2,3,4),output.written);
+        assertEquals(5,exporter.getWrittenCount());
+        assertEquals(5,exporter.getMaxQueueDepth());
+        //submit拷贝了数据，源buffer的position不变
+        assertEquals(0,source.position());
+    }
+
+    @Test
+    public void pixelBuffersAreReused(){
+        ManualExecutor workers=new ManualExecutor();
+        ManualExecutor writer=new ManualExecutor();
+        FrameExporter exporter=new FrameExporter(new FakeEncoder(0),new FakeOutput(),workers,writer,
+            false,2,4);
+        for (int round=0;round<10;round++){
+            for (int i=0;i<4;i++){
+                exporter.submit(frame(i),4,2,i);
+            }
+            workers.runAll();
+            writer.runAll();
+        }
+        assertEquals(4,exporter.getPixelBufferPool().getAllocationCount());
+        assertEquals(36,exporter.getPixelBufferPool().getReuseCount());
+    }
+
+    @Test
+    public void dropOldestKeepsLatestFrames(){
+        ManualExecutor workers=new ManualExecutor();
+        ManualExecutor writer=new ManualExecutor();
+        FakeOutput output=new FakeOutput();
+        FrameExporter exporter=new FrameExporter(new FakeEncoder(0),output,workers,writer,false,1,2);
+        for (int i=0;i<6;i++){
+            assertTrue(exporter.submit(frame(i),4,2,i));
+        }
+        assertEquals(2,exporter.getQueueDepth());
+        assertEquals(4,exporter.getDroppedCount());
+        workers.runAll();
+        writer.runAll();
+        assertEquals(list(4,5),output.written);
+    }
+
+    @Test
+    public void blockKeepsEveryFrame() throws InterruptedException{
+        FakeOutput output=new FakeOutput();
+        FrameExporter exporter=new FrameExporter(new FakeEncoder(3),output,2,1);
+        exporter.setDropPolicy(FrameExporter.BLOCK);
+        for (int i=0;i<20;i++){
+            assertTrue(exporter.submit(frame(i),4,2,i));
+            assertTrue(exporter.getQueueDepth()<=1);
+        }
+        assertTrue(exporter.awaitIdle(5000));
+        assertEquals(0,exporter.getDroppedCount());
+        assertEquals(20,exporter.getWrittenCount());
+        List<Integer> sorted=new ArrayList<>(output.written);
+        Collections.sort(sorted);
+        assertEquals(20,sorted.size());
+        assertEquals(19,(int)sorted.get(19));
+        assertTrue(exporter.getAverageEncodeNanos()>=2000000);
+        assertTrue(exporter.getAverageLatencyNanos()>=exporter.getAverageEncodeNanos());
+        exporter.shutdown();
+        assertFalse(exporter.submit(frame(0),4,2,0));
+    }
+
+    @Test
+    public void errorsAreReportedAndCounted() throws InterruptedException{
+        ExecutorService workers=Executors.newSingleThreadExecutor();
+        ExecutorService writer=Executors.newSingleThreadExecutor();
+        FakeOutput output=new FakeOutput();
+        final List<Exception> errors=Collections.synchronizedList(new ArrayList<Exception>());
+        FrameExporter exporter=new FrameExporter(new FakeEncoder(0),output,workers,writer,true,1,4);
+        exporter.setDropPolicy(FrameExporter.BLOCK);
+        exporter.setListener(new FrameExporter.Listener() {
+            @Override
+            public void onWritten(List<FrameExporter.Frame> frames) {
+
+            }
+
+            @Override
+            public void onError(Exception e) {
+                errors.add(e);
+            }
+        });
+        exporter.submit(frame(1),4,2,0);
+        exporter.submit(frame(-1),4,2,1);
+        exporter.submit(frame(2),4,2,2);
+        assertTrue(exporter.awaitIdle(5000));
+        assertEquals(1,errors.size());
+        assertEquals(1,exporter.getFailedCount());
+        assertEquals(list(1,2),output.written);
+        exporter.shutdown();
+        assertTrue(workers.awaitTermination(5,java.util.concurrent.TimeUnit.SECONDS));
+    }
+
+    private static List<Integer> list(int ... values){
+        List<Integer> list=new ArrayList<>();
+        for (int v:values){
+            list.add(v);
+        }
+        return list;
+    }
+
+}
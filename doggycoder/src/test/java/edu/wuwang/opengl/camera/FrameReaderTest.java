@@ -0,0 +1,263 @@
+package edu.wuwang.opengl.camera;
+
+import com.roger.glcommon.timing.FrameTimings;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class FrameReaderTest {
+
+    private static final Executor DIRECT=new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void asyncDeliversFrameNMinusTwo(){
+        FakeBackend backend=new FakeBackend(true);
+        Recorder recorder=new Recorder();
+        FrameReader reader=new FrameReader(backend,4,2,3,recorder,DIRECT);
+        assertTrue(reader.isAsync());
+        for (int i=0;i<5;i++){
+            backend.content=(byte)i;
+            reader.read(100+i);
+        }
+        assertEquals(list(100,101,102),recorder.timestamps);
+        assertEquals(list(0,1,2),recorder.contents);
+        assertEquals(2,reader.getPendingCount());
+        assertEquals(0,backend.syncReads);
+
+        reader.flush();
+        assertEquals(list(100,101,102,103,104),recorder.timestamps);
+        assertEquals(list(0,1,2,3,4),recorder.contents);
+        assertEquals(0,reader.getPendingCount());
+        assertEquals(3,backend.created);
+
+        reader.release();
+        assertEquals(3,backend.deleted);
+        assertEquals(5,reader.getDeliveredCount());
+    }
+
+    @Test
+    public void failedMapDropsFrame(){
+        FakeBackend backend=new FakeBackend(true);
+        Recorder recorder=new Recorder();
+        FrameReader reader=new FrameReader(backend,4,2,3,recorder,DIRECT);
+        for (int i=0;i<4;i++){
+            backend.content=(byte)i;
+            backend.mapFails=i==2;
+            reader.read(100+i);
+        }
+        //第2次读取时映射第0帧失败，第3次映射成功
+        assertEquals(list(101),recorder.timestamps);
+        assertEquals(1,reader.getDroppedCount());
+        backend.mapFails=false;
+        reader.flush();
+        assertEquals(list(101,102,103),recorder.timestamps);
+        assertEquals(3,reader.getDeliveredCount());
+    }
+
+    @Test
+    public void syncFallbackDeliversImmediately(){
+        FakeBackend backend=new FakeBackend(false);
+        Recorder recorder=new Recorder();
+        FrameReader reader=new FrameReader(backend,4,2,3,recorder,DIRECT);
+        assertFalse(reader.isAsync());
+        for (int i=0;i<3;i++){
+            backend.content=(byte)i;
+            reader.read(i);
+        }
+        assertEquals(list(0,1,2),recorder.contents);
+        assertEquals(3,backend.syncReads);
+        assertEquals(0,backend.created);
+    }
+
+    @Test
+    public void callbackTimeIsRecorded(){
+        FrameTimings timings=new FrameTimings();
+        int stage=timings.addStage("callback");
+        FrameReader reader=new FrameReader(new FakeBackend(false),4,2,3,new Recorder(),DIRECT);
+        reader.setFrameTimings(timings,stage);
+        reader.read(0);
+        reader.read(1);
+        assertEquals(2,timings.getHistogram(stage).getCount());
+        reader.setFrameTimings(null,stage);
+        reader.read(2);
+        assertEquals(2,timings.getHistogram(stage).getCount());
+    }
+
+    @Test
+    public void dropOldestReplacesQueuedFrame(){
+        ManualExecutor executor=new ManualExecutor();
+        Recorder recorder=new Recorder();
+        FakeBackend backend=new FakeBackend(false);
+        FrameReader reader=new FrameReader(backend,4,2,2,recorder,executor);
+        reader.setDropPolicy(FrameReader.DROP_OLDEST);
+        for (int i=0;i<4;i++){
+            backend.content=(byte)i;
+            reader.read(i);
+        }
+        executor.runAll();
+        assertEquals(list(2,3),recorder.contents);
+        assertEquals(2,reader.getDroppedCount());
+        assertEquals(2,reader.getDeliveredCount());
+    }
+
+    @Test
+    public void dropNewestKeepsQueuedFrames(){
+        ManualExecutor executor=new ManualExecutor();
+        Recorder recorder=new Recorder();
+        FakeBackend backend=new FakeBackend(true);
+        FrameReader reader=new FrameReader(backend,4,2,2,recorder,executor);
+        reader.setDropPolicy(FrameReader.DROP_NEWEST);
+        for (int i=0;i<6;i++){
+            backend.content=(byte)i;
+            reader.read(i);
+        }
+        //第0、1帧占用了两个ByteBuffer，第2、3帧被丢弃
+        executor.runAll();
+        assertEquals(list(0,1),recorder.contents);
+        assertEquals(2,reader.getDroppedCount());
+        //flush不丢帧
+        reader.flush();
+        executor.runAll();
+        assertEquals(list(0,1,4,5),recorder.contents);
+    }
+
+    @Test
+    public void blockWaitsForSlowCallback() throws InterruptedException{
+        ExecutorService executor=Executors.newSingleThreadExecutor();
+        final Recorder recorder=new Recorder(){
+            @Override
+            public void onFrame(ByteBuffer buffer, int width, int height, long timestamp) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onFrame(buffer, width, height, timestamp);
+            }
+        };
+        FakeBackend backend=new FakeBackend(true);
+        FrameReader reader=new FrameReader(backend,4,2,1,recorder,executor);
+        reader.setDropPolicy(FrameReader.BLOCK);
+        for (int i=0;i<8;i++){
+            backend.content=(byte)i;
+            reader.read(i);
+        }
+        reader.flush();
+        executor.shutdown();
+        executor.awaitTermination(5,java.util.concurrent.TimeUnit.SECONDS);
+        assertEquals(list(0,1,2,3,4,5,6,7),recorder.contents);
+        assertEquals(0,reader.getDroppedCount());
+    }
+
+    private static List<Long> list(long ... values){
+        List<Long> list=new ArrayList<>();
+        for (long v:values){
+            list.add(v);
+        }
+        return list;
+    }
+
+    private static class Recorder implements FrameBufferCallback{
+
+        final List<Long> timestamps=Collections.synchronizedList(new ArrayList<Long>());
+        final List<Long> contents=Collections.synchronizedList(new ArrayList<Long>());
+
+        @Override
+        public void onFrame(ByteBuffer buffer, int width, int height, long timestamp) {
+            assertTrue(buffer.isDirect());
+            assertEquals(width*height*4,buffer.remaining());
+            byte first=buffer.get(0);
+            assertEquals(first,buffer.get(buffer.limit()-1));
+            timestamps.add(timestamp);
+            contents.add((long)first);
+        }
+    }
+
+    private static class ManualExecutor implements Executor{
+
+        private final List<Runnable> tasks=new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll(){
+            while (!tasks.isEmpty()){
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class FakeBackend implements FrameReader.Backend{
+
+        private final boolean async;
+        private final List<Byte> packContents=new ArrayList<>();
+        byte content;
+        boolean mapFails;
+        int created;
+        int deleted;
+        int syncReads;
+
+        FakeBackend(boolean async){
+            this.async=async;
+        }
+
+        @Override
+        public boolean isAsyncSupported() {
+            return async;
+        }
+
+        @Override
+        public int createPackBuffer(int size) {
+            packContents.add((byte)0);
+            return ++created;
+        }
+
+        @Override
+        public void readToPackBuffer(int buffer, int width, int height) {
+            packContents.set(buffer-1,content);
+        }
+
+        @Override
+        public boolean copyPackBuffer(int buffer, int size, ByteBuffer out) {
+            if(mapFails){
+                return false;
+            }
+            fill(out,packContents.get(buffer-1));
+            return true;
+        }
+
+        @Override
+        public void readPixels(int width, int height, ByteBuffer out) {
+            syncReads++;
+            fill(out,content);
+        }
+
+        @Override
+        public void deleteBuffer(int buffer) {
+            deleted++;
+        }
+
+        private static void fill(ByteBuffer out,byte value){
+            while (out.hasRemaining()){
+                out.put(value);
+            }
+        }
+    }
+
+}
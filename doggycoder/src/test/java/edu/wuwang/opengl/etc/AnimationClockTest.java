@@ -0,0 +1,84 @@
+package edu.wuwang.opengl.etc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AnimationClockTest {
+
+    @Test
+    public void followsTime(){
+        AnimationClock clock=new AnimationClock(10,20);
+        assertEquals(0,clock.getFrame(1000));
+        assertEquals(0,clock.getFrame(1049));
+        assertEquals(1,clock.getFrame(1050));
+        assertEquals(9,clock.getFrame(1450));
+        //循环
+        assertEquals(0,clock.getFrame(1500));
+        assertEquals(3,clock.getFrame(1650));
+        assertFalse(clock.isFinished());
+    }
+
+    @Test
+    public void skipsFramesWhenBehind(){
+        AnimationClock clock=new AnimationClock(10,20);
+        assertEquals(0,clock.getFrame(0));
+        assertEquals(1,clock.getFrame(50));
+        assertEquals(0,clock.getSkippedFrames());
+        assertEquals(5,clock.getFrame(250));
+        assertEquals(3,clock.getSkippedFrames());
+        //跨过循环点
+        assertEquals(2,clock.getFrame(600));
+        assertEquals(9,clock.getSkippedFrames());
+        //渲染比动画快时重复同一帧
+        assertEquals(2,clock.getFrame(610));
+        assertEquals(9,clock.getSkippedFrames());
+    }
+
+    @Test
+    public void stopsWhenNotLooping(){
+        AnimationClock clock=new AnimationClock(10,20);
+        clock.setLooping(false);
+        clock.start(0);
+        assertEquals(9,clock.getFrame(499));
+        assertFalse(clock.isFinished());
+        assertEquals(9,clock.getFrame(500));
+        assertTrue(clock.isFinished());
+        clock.start(1000);
+        assertFalse(clock.isFinished());
+        assertEquals(0,clock.getFrame(1000));
+    }
+
+    @Test
+    public void seekAndReverse(){
+        AnimationClock clock=new AnimationClock(10,20);
+        clock.seek(6,0);
+        assertEquals(6,clock.getFrame(0));
+        assertEquals(7,clock.getFrame(50));
+        clock.setRate(-1,60);
+        assertEquals(7,clock.getFrame(60));
+        assertEquals(6,clock.getFrame(110));
+        assertEquals(0,clock.getFrame(400));
+        assertEquals(9,clock.getFrame(450));
+        assertEquals(5,clock.getSkippedFrames());
+
+        clock.setLooping(false);
+        clock.start(1000);
+        assertEquals(9,clock.getFrame(1000));
+        assertEquals(0,clock.getFrame(1500));
+        assertTrue(clock.isFinished());
+    }
+
+    @Test
+    public void changesRate(){
+        AnimationClock clock=new AnimationClock(100,10);
+        clock.start(0);
+        assertEquals(5,clock.getFrame(500));
+        clock.setRate(2,500);
+        assertEquals(7,clock.getFrame(600));
+        clock.setFps(20,600);
+        assertEquals(11,clock.getFrame(700));
+        assertEquals(2,clock.getRate(),0);
+    }
+
+}
@@ -0,0 +1,164 @@
+package edu.wuwang.opengl.etc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class PkmAnimationTest {
+
+    private File dir;
+    private File zip;
+    private File pack;
+    private long fingerprint;
+
+    @Before
+    public void setUp() throws IOException {
+        dir=File.createTempFile("pkma","");
+        dir.delete();
+        dir.mkdirs();
+        zip=new File(dir,"ani.zip");
+        pack=new File(dir,"ani"+PkmAnimation.SUFFIX);
+        byte[] data=ZipPkmPrefetcherTest.createZip(7,30,18);
+        write(zip,data);
+        fingerprint=PkmAnimation.fingerprint(ByteBuffer.wrap(data));
+        PkmAnimation.convert(zip,pack);
+    }
+
+    @After
+    public void tearDown(){
+        for (File f:dir.listFiles()){
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void framesMatchPrefetcher() throws Exception {
+        PkmAnimation animation=PkmAnimation.load(PkmAnimation.map(pack),fingerprint);
+        assertNotNull(animation);
+        assertEquals(7,animation.getFrameCount());
+        ZipPkmPrefetcher prefetcher=new ZipPkmPrefetcher(ZipPkmPrefetcherTest.source(read(zip)),2);
+        prefetcher.start();
+        try {
+            //倒序访问，不需要按顺序读取
+            ZipPkmPrefetcher.Frame[] expect=new ZipPkmPrefetcher.Frame[7];
+            for (int i=0;i<7;i++){
+                ZipPkmPrefetcher.Frame e=prefetcher.take();
+                expect[i]=new ZipPkmPrefetcher.Frame();
+                expect[i].width=e.getWidth();
+                expect[i].height=e.getHeight();
+                expect[i].color=copy(e.getColorData());
+                expect[i].alpha=copy(e.getAlphaData());
+                prefetcher.release(e);
+            }
+            for (int i=6;i>=0;i--){
+                ZipPkmPrefetcher.Frame a=animation.getFrame(i);
+                assertEquals(i,a.getIndex());
+                assertEquals(expect[i].getWidth(),a.getWidth());
+                assertEquals(expect[i].getHeight(),a.getHeight());
+                assertEquals(expect[i].getColorData(),a.getColorData());
+                assertEquals(expect[i].getAlphaData(),a.getAlphaData());
+                assertTrue(a.getColorData().isDirect());
+            }
+        }finally {
+            prefetcher.stop();
+        }
+    }
+
+    @Test
+    public void staleSourceIsRejected() throws IOException {
+        assertNotNull(PkmAnimation.load(PkmAnimation.map(pack),fingerprint));
+        assertNull(PkmAnimation.load(PkmAnimation.map(pack),fingerprint+1));
+    }
+
+    @Test
+    public void fingerprintFollowsEntries() throws IOException {
+        //映射的文件与内存中的数据结果相同
+        assertEquals(fingerprint,PkmAnimation.fingerprint(PkmAnimation.map(zip)));
+        byte[] other=ZipPkmPrefetcherTest.createZip(6,30,18);
+        assertNotEquals(fingerprint,PkmAnimation.fingerprint(ByteBuffer.wrap(other)));
+        try {
+            PkmAnimation.fingerprint(ByteBuffer.wrap("not a zip".getBytes()));
+            fail();
+        } catch (IOException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void corruptedPackIsRejected() throws IOException {
+        RandomAccessFile raf=new RandomAccessFile(pack,"rw");
+        raf.setLength(raf.length()/2);
+        raf.close();
+        assertNull(PkmAnimation.load(PkmAnimation.map(pack),fingerprint));
+        write(pack,"not a pack".getBytes());
+        assertNull(PkmAnimation.load(PkmAnimation.map(pack),fingerprint));
+    }
+
+    @Test
+    public void oddEntryIsDropped() throws IOException {
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        ZipOutputStream zos=new ZipOutputStream(out);
+        byte[] data=ZipPkmPrefetcherTest.createZip(1,8,8);
+        ZipInputStream zis=new ZipInputStream(new ByteArrayInputStream(data));
+        byte[] entry=new byte[ZipPkmPrefetcher.PKM_HEADER_SIZE+ZipPkmPrefetcher.getEncodedDataSize(8,8)];
+        for (int i=0;i<3;i++){
+            zis.getNextEntry();
+            if(i<2){
+                readEntry(zis,entry);
+            }
+            zos.putNextEntry(new ZipEntry(i+".pkm"));
+            zos.write(entry);
+            zos.closeEntry();
+        }
+        zos.close();
+        PkmAnimation.convert(new ByteArrayInputStream(out.toByteArray()),1,pack);
+        PkmAnimation animation=PkmAnimation.load(PkmAnimation.map(pack),1);
+        assertEquals(1,animation.getFrameCount());
+    }
+
+    private static void readEntry(InputStream in,byte[] entry) throws IOException {
+        int read=0;
+        int len;
+        while (read<entry.length&&(len=in.read(entry,read,entry.length-read))!=-1){
+            read+=len;
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer){
+        ByteBuffer b=ByteBuffer.allocate(buffer.remaining());
+        b.put(buffer.duplicate()).flip();
+        return b;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        ByteBuffer buffer=PkmAnimation.map(file);
+        byte[] data=new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static void write(File file,byte[] data) throws IOException {
+        FileOutputStream fos=new FileOutputStream(file);
+        try {
+            fos.write(data);
+        }finally {
+            fos.close();
+        }
+    }
+
+}
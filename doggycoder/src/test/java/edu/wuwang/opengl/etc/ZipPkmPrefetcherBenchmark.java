@@ -0,0 +1,113 @@
+package edu.wuwang.opengl.etc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 每帧(颜色+透明度)的读取耗时和内存分配，对比{@link ZipPkmReader}的读取方式与{@link ZipPkmPrefetcher}。
+ * 内存分配需要看GCProfiler输出的gc.alloc.rate.norm。
+ * ZipPkmReader依赖ETC1的native方法，JVM上无法直接运行，legacyReader按其相同的方式读取数据。
+ * 运行：直接执行main方法，或在IDE中运行JMH插件。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ZipPkmPrefetcherBenchmark {
+
+    private static final int FRAMES=30;
+
+    private byte[] zip;
+    private ZipPkmPrefetcher prefetcher;
+
+    @Setup
+    public void setup() throws IOException {
+        //512*512的ETC1帧，每帧128KB
+        zip=ZipPkmPrefetcherTest.createZip(FRAMES,512,512);
+        prefetcher=new ZipPkmPrefetcher(ZipPkmPrefetcherTest.source(zip),4);
+        prefetcher.setLooping(true);
+        prefetcher.start();
+    }
+
+    @TearDown
+    public void tearDown(){
+        prefetcher.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void legacyReader(Blackhole bh) throws IOException {
+        ZipInputStream input=new ZipInputStream(new ByteArrayInputStream(zip));
+        ByteBuffer headerBuffer=null;
+        while (input.getNextEntry()!=null){
+            //与ZipPkmReader.createTexture相同：每个条目新建ioBuffer和DirectBuffer
+            byte[] ioBuffer=new byte[4096];
+            if(input.read(ioBuffer,0,ZipPkmPrefetcher.PKM_HEADER_SIZE)!=ZipPkmPrefetcher.PKM_HEADER_SIZE){
+                throw new IOException("Unable to read PKM file header.");
+            }
+            if(headerBuffer==null){
+                headerBuffer=ByteBuffer.allocateDirect(ZipPkmPrefetcher.PKM_HEADER_SIZE)
+                    .order(ByteOrder.nativeOrder());
+            }
+            headerBuffer.put(ioBuffer,0,ZipPkmPrefetcher.PKM_HEADER_SIZE).position(0);
+            if(!ZipPkmPrefetcher.isValid(ioBuffer)){
+                throw new IOException("Not a PKM file.");
+            }
+            int width=ZipPkmPrefetcher.getWidth(ioBuffer);
+            int height=ZipPkmPrefetcher.getHeight(ioBuffer);
+            ByteBuffer dataBuffer=ByteBuffer.allocateDirect(ZipPkmPrefetcher.getEncodedDataSize(width,height))
+                .order(ByteOrder.nativeOrder());
+            int len;
+            while ((len=input.read(ioBuffer))!=-1){
+                dataBuffer.put(ioBuffer,0,len);
+            }
+            dataBuffer.position(0);
+            bh.consume(dataBuffer);
+        }
+        input.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void prefetcher(Blackhole bh) throws InterruptedException {
+        for (int i=0;i<FRAMES;i++){
+            ZipPkmPrefetcher.Frame frame=prefetcher.take();
+            bh.consume(frame.getColorData());
+            bh.consume(frame.getAlphaData());
+            prefetcher.release(frame);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ZipPkmPrefetcherBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
@@ -0,0 +1,222 @@
+package edu.wuwang.opengl.etc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ZipPkmPrefetcherTest {
+
+    private ZipPkmPrefetcher prefetcher;
+
+    @After
+    public void tearDown(){
+        if(prefetcher!=null){
+            prefetcher.stop();
+        }
+    }
+
+    @Test
+    public void readsFramesInOrder() throws Exception {
+        prefetcher=new ZipPkmPrefetcher(source(createZip(5,30,18)),2);
+        prefetcher.start();
+        for (int i=0;i<5;i++){
+            ZipPkmPrefetcher.Frame frame=prefetcher.take();
+            assertNotNull(frame);
+            assertEquals(i,frame.getIndex());
+            assertEquals(30,frame.getWidth());
+            assertEquals(18,frame.getHeight());
+            assertEquals(ZipPkmPrefetcher.getEncodedDataSize(30,18),frame.getColorData().remaining());
+            assertData(frame.getColorData(),i*2);
+            assertData(frame.getAlphaData(),i*2+1);
+            prefetcher.release(frame);
+        }
+        assertNull(prefetcher.take());
+        assertTrue(prefetcher.isFinished());
+    }
+
+    @Test
+    public void loopsFromStart() throws Exception {
+        prefetcher=new ZipPkmPrefetcher(source(createZip(5,8,8)),3);
+        prefetcher.setLooping(true);
+        prefetcher.start();
+        for (int i=0;i<12;i++){
+            ZipPkmPrefetcher.Frame frame=prefetcher.take();
+            assertEquals(i%5,frame.getIndex());
+            assertData(frame.getColorData(),(i%5)*2);
+            prefetcher.release(frame);
+        }
+        assertFalse(prefetcher.isFinished());
+    }
+
+    @Test
+    public void reusesRingBuffers() throws Exception {
+        prefetcher=new ZipPkmPrefetcher(source(createZip(20,64,64)),3);
+        prefetcher.start();
+        IdentityHashMap<ByteBuffer,Boolean> buffers=new IdentityHashMap<>();
+        ZipPkmPrefetcher.Frame frame;
+        int count=0;
+        while ((frame=prefetcher.take())!=null){
+            assertEquals(count++,frame.getIndex());
+            buffers.put(frame.getColorData(),true);
+            buffers.put(frame.getAlphaData(),true);
+            prefetcher.release(frame);
+        }
+        assertEquals(20,count);
+        assertEquals(6,buffers.size());
+    }
+
+    @Test
+    public void stopsAtLookahead() throws Exception {
+        prefetcher=new ZipPkmPrefetcher(source(createZip(20,16,16)),3);
+        prefetcher.start();
+        long end=System.currentTimeMillis()+2000;
+        while (prefetcher.readyCount()<3&&System.currentTimeMillis()<end){
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        assertEquals(3,prefetcher.readyCount());
+        //没有归还时只能取出lookahead帧
+        for (int i=0;i<3;i++){
+            assertEquals(i,prefetcher.take().getIndex());
+        }
+        Thread.sleep(50);
+        assertNull(prefetcher.poll());
+        assertFalse(prefetcher.isFinished());
+    }
+
+    @Test
+    public void invalidDataFinishes() throws Exception {
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        ZipOutputStream zip=new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry("0.pkm"));
+        zip.write(new byte[64]);
+        zip.closeEntry();
+        zip.close();
+        prefetcher=new ZipPkmPrefetcher(source(out.toByteArray()),2);
+        prefetcher.setLooping(true);
+        prefetcher.start();
+        assertNull(prefetcher.take());
+        assertTrue(prefetcher.isFinished());
+    }
+
+    @Test
+    public void truncatedEntryFinishes() throws Exception {
+        byte[] data=new byte[ZipPkmPrefetcher.PKM_HEADER_SIZE+ZipPkmPrefetcher.getEncodedDataSize(16,16)-1];
+        writeHeader(data,16,16);
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        ZipOutputStream zip=new ZipOutputStream(out);
+        for (int i=0;i<2;i++){
+            zip.putNextEntry(new ZipEntry(i+".pkm"));
+            zip.write(data);
+            zip.closeEntry();
+        }
+        zip.close();
+        prefetcher=new ZipPkmPrefetcher(source(out.toByteArray()),2);
+        prefetcher.start();
+        //数据不完整的帧不会被交给GL线程上传
+        assertNull(prefetcher.take());
+        assertTrue(prefetcher.isFinished());
+    }
+
+    @Test
+    public void releaseAfterStopIsIgnored() throws Exception {
+        prefetcher=new ZipPkmPrefetcher(source(createZip(6,8,8)),2);
+        prefetcher.start();
+        ZipPkmPrefetcher.Frame held=prefetcher.take();
+        prefetcher.stop();
+        prefetcher.start();
+        long end=System.currentTimeMillis()+2000;
+        while (prefetcher.readyCount()<2&&System.currentTimeMillis()<end){
+            Thread.sleep(5);
+        }
+        //stop之前取出的帧已经在队列中，再归还会被后台线程覆盖
+        prefetcher.release(held);
+        Thread.sleep(50);
+        for (int i=0;i<6;i++){
+            ZipPkmPrefetcher.Frame frame=prefetcher.take();
+            assertEquals(i,frame.getIndex());
+            assertData(frame.getColorData(),i*2);
+            prefetcher.release(frame);
+            prefetcher.release(frame);
+        }
+        assertNull(prefetcher.take());
+    }
+
+    @Test
+    public void restartsFromFirstFrame() throws Exception {
+        prefetcher=new ZipPkmPrefetcher(source(createZip(6,8,8)),2);
+        prefetcher.start();
+        prefetcher.release(prefetcher.take());
+        prefetcher.take();
+        prefetcher.stop();
+        prefetcher.start();
+        for (int i=0;i<6;i++){
+            ZipPkmPrefetcher.Frame frame=prefetcher.take();
+            assertEquals(i,frame.getIndex());
+            prefetcher.release(frame);
+        }
+        assertNull(prefetcher.take());
+    }
+
+    static ZipPkmPrefetcher.Source source(final byte[] data){
+        return new ZipPkmPrefetcher.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return new ByteArrayInputStream(data);
+            }
+        };
+    }
+
+    /**
+     * 生成颜色帧和透明度帧交替存放的zip，第i个条目的数据由i决定
+     */
+    static byte[] createZip(int frames,int width,int height) throws IOException {
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        ZipOutputStream zip=new ZipOutputStream(out);
+        int size=ZipPkmPrefetcher.getEncodedDataSize(width,height);
+        byte[] data=new byte[ZipPkmPrefetcher.PKM_HEADER_SIZE+size];
+        writeHeader(data,width,height);
+        for (int i=0;i<frames*2;i++){
+            for (int j=0;j<size;j++){
+                data[ZipPkmPrefetcher.PKM_HEADER_SIZE+j]=(byte)(i*31+j/7);
+            }
+            zip.putNextEntry(new ZipEntry(String.format("ani_%03d%s.pkm",i/2,i%2==0?"":"_alpha")));
+            zip.write(data);
+            zip.closeEntry();
+        }
+        zip.close();
+        return out.toByteArray();
+    }
+
+    private static void writeHeader(byte[] data,int width,int height){
+        data[0]='P';data[1]='K';data[2]='M';data[3]=' ';data[4]='1';data[5]='0';
+        data[6]=0;data[7]=0;
+        putShort(data,8,(width+3)&~3);
+        putShort(data,10,(height+3)&~3);
+        putShort(data,12,width);
+        putShort(data,14,height);
+    }
+
+    private static void putShort(byte[] data,int offset,int value){
+        data[offset]=(byte)(value>>8);
+        data[offset+1]=(byte)value;
+    }
+
+    private static void assertData(ByteBuffer buffer,int entry){
+        assertEquals(0,buffer.position());
+        for (int j=0;j<buffer.limit();j++){
+            assertEquals((byte)(entry*31+j/7),buffer.get(j));
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package edu.wuwang.opengl.filter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RenderTargetPoolTest {
+
+    private FakeBackend backend;
+    private RenderTargetPool pool;
+
+    @Before
+    public void setUp(){
+        backend=new FakeBackend();
+        pool=new RenderTargetPool(backend);
+    }
+
+    @Test
+    public void pingPongUsesTwoTargets(){
+        for (int frame=0;frame<3;frame++){
+            RenderTarget current=null;
+            //6个滤镜依次绘制
+            for (int i=0;i<6;i++){
+                RenderTarget target=pool.obtain(1080,1920);
+                assertNotSame(current,target);
+                target.bind(false);
+                pool.recycle(current);
+                current=target;
+            }
+            pool.recycle(current);
+            pool.nextFrame();
+        }
+        assertEquals(2,pool.getCreatedCount());
+        assertEquals(2,pool.getLiveCount());
+        assertEquals(0,pool.getLeasedCount());
+        assertEquals(0,backend.attaches);
+    }
+
+    @Test
+    public void sizesAndFormatsAreKeptApart(){
+        RenderTarget a=pool.obtain(720,1280);
+        pool.recycle(a);
+        RenderTarget b=pool.obtain(1280,720);
+        assertNotSame(a,b);
+        RenderTarget c=pool.obtain(720,1280,0x1907);
+        assertNotSame(a,c);
+        assertSame(a,pool.obtain(720,1280));
+        assertEquals(1,pool.getReuseCount());
+    }
+
+    @Test
+    public void depthIsSharedAndOnlyAttachedOnDemand(){
+        RenderTarget a=pool.obtain(64,64);
+        RenderTarget b=pool.obtain(64,64);
+        a.bind(true);
+        b.bind(true);
+        assertEquals(1,backend.depthCreated);
+        assertEquals(a.depthBuffer,b.depthBuffer);
+        //再次绑定不重复挂载
+        a.bind(true);
+        assertEquals(2,backend.attaches);
+        a.bind(false);
+        assertFalse(a.hasDepth());
+        assertEquals(1,pool.getDepthBufferCount());
+        b.bind(false);
+        assertEquals(0,pool.getDepthBufferCount());
+        assertEquals(1,backend.depthDeleted);
+    }
+
+    @Test
+    public void idleTargetsSurviveResizeUntilTrimmed(){
+        pool.setMaxIdleFrames(2);
+        pool.recycle(pool.obtain(720,1280));
+        //尺寸变化后只使用新尺寸
+        pool.recycle(pool.obtain(1280,720));
+        pool.nextFrame();
+        pool.recycle(pool.obtain(1280,720));
+        pool.nextFrame();
+        //切回原尺寸时仍可复用
+        RenderTarget old=pool.obtain(720,1280);
+        assertEquals(2,pool.getCreatedCount());
+        pool.recycle(old);
+        for (int i=0;i<3;i++){
+            pool.recycle(pool.obtain(1280,720));
+            pool.nextFrame();
+        }
+        assertEquals(1,pool.getLiveCount());
+        assertEquals(1,backend.texturesDeleted);
+        assertEquals(1,backend.frameBuffersDeleted);
+    }
+
+    @Test
+    public void releaseForgetsLeasedTargets(){
+        RenderTarget leased=pool.obtain(32,32);
+        leased.bind(true);
+        pool.recycle(pool.obtain(16,16));
+        pool.release();
+        assertEquals(0,pool.getLiveCount());
+        assertEquals(1,backend.depthDeleted);
+        //GL环境重建后归还旧目标被忽略
+        pool.recycle(leased);
+        assertNotSame(leased,pool.obtain(32,32));
+        assertEquals(0,pool.getReuseCount());
+    }
+
+    static class FakeBackend implements RenderTargetPool.Backend{
+        int next=1;
+        int attaches;
+        int depthCreated;
+        int depthDeleted;
+        int texturesDeleted;
+        int frameBuffersDeleted;
+        int bound;
+        Set<Integer> live=new HashSet<>();
+
+        @Override
+        public int createTexture(int width, int height, int format) {
+            live.add(next);
+            return next++;
+        }
+
+        @Override
+        public int createFrameBuffer(int texture) {
+            assertTrue(live.contains(texture));
+            live.add(next);
+            return next++;
+        }
+
+        @Override
+        public int createDepthBuffer(int width, int height) {
+            depthCreated++;
+            live.add(next);
+            return next++;
+        }
+
+        @Override
+        public void attachDepth(int frameBuffer, int depthBuffer) {
+            assertEquals(frameBuffer,bound);
+            assertTrue(depthBuffer==0||live.contains(depthBuffer));
+            if(depthBuffer!=0){
+                attaches++;
+            }
+        }
+
+        @Override
+        public void bindFrameBuffer(int frameBuffer) {
+            assertTrue(live.contains(frameBuffer));
+            bound=frameBuffer;
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            assertTrue(live.remove(texture));
+            texturesDeleted++;
+        }
+
+        @Override
+        public void deleteFrameBuffer(int frameBuffer) {
+            assertTrue(live.remove(frameBuffer));
+            frameBuffersDeleted++;
+        }
+
+        @Override
+        public void deleteDepthBuffer(int depthBuffer) {
+            assertTrue(live.remove(depthBuffer));
+            depthDeleted++;
+        }
+    }
+}
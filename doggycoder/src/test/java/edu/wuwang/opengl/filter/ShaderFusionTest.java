@@ -0,0 +1,104 @@
+package edu.wuwang.opengl.filter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShaderFusionTest {
+
+    private static ColorStage gray(){
+        return new ColorStage("gray","float rgb=color.g;\nreturn vec4(rgb,rgb,rgb,color.a);");
+    }
+
+    private static ColorStage lookup(){
+        return new ColorStage("lookup",
+            "vec4 c=texture2D(maskTexture,color.rg);\nreturn mix(color,c,intensity);")
+            .addUniform(ColorStage.TYPE_FLOAT,"intensity")
+            .addUniform(ColorStage.TYPE_SAMPLER,"maskTexture");
+    }
+
+    @Test
+    public void adjacentStagesShareOnePass(){
+        //gray,lookup,Beauty,gray,gray,WaterMark
+        ColorStage[] stages={gray(),lookup(),null,gray(),gray(),null};
+        assertArrayEquals(new int[]{2,1,2,1},ShaderFusion.plan(stages));
+        assertArrayEquals(new int[]{1,1,1},ShaderFusion.plan(new ColorStage[3]));
+        assertArrayEquals(new int[0],ShaderFusion.plan(new ColorStage[0]));
+    }
+
+    @Test
+    public void passesAreSplitAtLimits(){
+        ColorStage[] stages=new ColorStage[ShaderFusion.MAX_FUSED_STAGES+3];
+        for (int i=0;i<stages.length;i++){
+            stages[i]=gray();
+        }
+        assertArrayEquals(new int[]{ShaderFusion.MAX_FUSED_STAGES,3},ShaderFusion.plan(stages));
+
+        ColorStage[] samplers=new ColorStage[ShaderFusion.MAX_FUSED_SAMPLERS+1];
+        for (int i=0;i<samplers.length;i++){
+            samplers[i]=lookup();
+        }
+        assertArrayEquals(new int[]{ShaderFusion.MAX_FUSED_SAMPLERS,1},ShaderFusion.plan(samplers));
+    }
+
+    @Test
+    public void signatureFollowsKeysAndOrder(){
+        assertEquals("gray|lookup",ShaderFusion.signature(Arrays.asList(gray(),lookup())));
+        assertEquals("lookup|gray",ShaderFusion.signature(Arrays.asList(lookup(),gray())));
+        assertEquals(ShaderFusion.signature(Arrays.asList(lookup(),lookup())),
+            ShaderFusion.signature(Arrays.asList(lookup(),lookup())));
+    }
+
+    @Test
+    public void generatedSourceRenamesUniforms(){
+        List<ColorStage> stages=Arrays.asList(lookup(),gray(),lookup());
+        String source=ShaderFusion.generateFragment(stages);
+        assertTrue(source.contains("uniform float s0_intensity;"));
+        assertTrue(source.contains("uniform sampler2D s0_maskTexture;"));
+        assertTrue(source.contains("uniform float s2_intensity;"));
+        assertTrue(source.contains("uniform sampler2D s2_maskTexture;"));
+        assertTrue(source.contains("texture2D(s2_maskTexture,color.rg)"));
+        assertTrue(source.contains("mix(color,c,s0_intensity)"));
+        assertFalse(source.contains(" intensity"));
+        assertFalse(source.contains("(maskTexture"));
+        int first=source.indexOf("color=stage0(color);");
+        int second=source.indexOf("color=stage1(color);");
+        int third=source.indexOf("color=stage2(color);");
+        assertTrue(first>0&&second>first&&third>second);
+        assertEquals(1,count(source,"texture2D(vTexture"));
+    }
+
+    @Test
+    public void uniformValuesAreChecked(){
+        ColorStage stage=lookup();
+        stage.setFloat("intensity",0.5f);
+        stage.setInt("maskTexture",7);
+        assertEquals(0.5f,stage.getFloats(0)[0],0);
+        assertEquals(7,stage.getInt(1));
+        assertEquals(1,stage.getSamplerCount());
+        try{
+            stage.setFloat("intensity",1,2);
+            fail();
+        }catch (IllegalArgumentException e){
+            //期望的异常
+        }
+        try{
+            stage.setInt("strength",1);
+            fail();
+        }catch (IllegalArgumentException e){
+            //期望的异常
+        }
+    }
+
+    private static int count(String s,String sub){
+        int n=0;
+        for (int i=s.indexOf(sub);i>=0;i=s.indexOf(sub,i+1)){
+            n++;
+        }
+        return n;
+    }
+
+}
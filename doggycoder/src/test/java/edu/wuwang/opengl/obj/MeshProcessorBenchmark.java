@@ -0,0 +1,87 @@
+package edu.wuwang.opengl.obj;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MeshProcessor在约100万个三角形的网格上生成法线和切线的耗时，对比串行与多线程。
+ * 运行：直接执行main方法，或在IDE中运行JMH插件。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MeshProcessorBenchmark {
+
+    /**
+     * 并行的段数，1为在调用线程上串行执行
+     */
+    @Param({"1","4"})
+    public int threads;
+
+    private IndexedMesh grid;
+    private IndexedMesh smoothed;
+    private ExecutorService executor;
+    private MeshProcessor processor;
+
+    @Setup
+    public void setup(){
+        //708*708的网格约为100万个三角形
+        grid=MeshProcessorTest.createGrid(708,false);
+        Random random=new Random(708);
+        for (int v=0;v<grid.vertexCount;v++){
+            grid.positions[v*3+1]=random.nextFloat()*0.5f;
+        }
+        executor=threads>1?Executors.newFixedThreadPool(threads-1):null;
+        processor=new MeshProcessor(executor,threads);
+        processor.setCreaseAngle(60);
+        smoothed=processor.computeNormals(grid);
+    }
+
+    @TearDown
+    public void tearDown(){
+        if(executor!=null){
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public IndexedMesh smoothNormals(){
+        return processor.computeNormals(grid);
+    }
+
+    @Benchmark
+    public float[] tangents(){
+        processor.computeTangents(smoothed);
+        return smoothed.tangents;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(MeshProcessorBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
@@ -0,0 +1,246 @@
+package edu.wuwang.opengl.obj;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class MeshProcessorTest {
+
+    @Test
+    public void flatGridHasUpNormals(){
+        IndexedMesh mesh=new MeshProcessor().computeNormals(createGrid(10,false));
+        assertEquals(100,mesh.vertexCount);
+        for (int v=0;v<mesh.vertexCount;v++){
+            assertArrayEquals(new float[]{0,1,0},normal(mesh,v),1e-6f);
+        }
+    }
+
+    @Test
+    public void smoothCubeKeepsVerticesAndPointsOutwards(){
+        IndexedMesh mesh=new MeshProcessor().computeNormals(createCube());
+        assertEquals(8,mesh.vertexCount);
+        for (int v=0;v<mesh.vertexCount;v++){
+            float[] n=normal(mesh,v);
+            for (int i=0;i<3;i++){
+                //立方体中心在原点，法线各分量与顶点坐标同号
+                assertTrue(n[i]*mesh.positions[v*3+i]>0);
+            }
+            assertEquals(1,length(n),1e-6f);
+        }
+    }
+
+    @Test
+    public void creaseAngleSplitsCubeCorners(){
+        MeshProcessor processor=new MeshProcessor();
+        processor.setCreaseAngle(60);
+        IndexedMesh mesh=processor.computeNormals(createCube());
+        assertEquals(24,mesh.vertexCount);
+        assertEquals(36,mesh.indexCount);
+        for (int t=0;t<12;t++){
+            float[] n=normal(mesh,mesh.indices[t*3]);
+            //每个面的三个角法线相同，且为坐标轴方向
+            assertArrayEquals(n,normal(mesh,mesh.indices[t*3+1]),0);
+            assertArrayEquals(n,normal(mesh,mesh.indices[t*3+2]),0);
+            assertEquals(1,Math.abs(n[0])+Math.abs(n[1])+Math.abs(n[2]),0);
+        }
+    }
+
+    @Test
+    public void sphereNormalsMatchPositionsAcrossSeam(){
+        IndexedMesh sphere=createSphere(32,16);
+        IndexedMesh mesh=new MeshProcessor().computeNormals(sphere);
+        //接缝处的重复顶点不会被合并，但法线是连续的
+        assertEquals(sphere.vertexCount,mesh.vertexCount);
+        for (int v=0;v<mesh.vertexCount;v++){
+            float[] n=normal(mesh,v);
+            float cos=n[0]*mesh.positions[v*3]+n[1]*mesh.positions[v*3+1]+n[2]*mesh.positions[v*3+2];
+            //面积加权在三角化不对称的极点附近会有少量偏差
+            assertTrue(cos>0.995f);
+        }
+        for (int j=0;j<=16;j++){
+            int first=j*33;
+            assertArrayEquals(normal(mesh,first),normal(mesh,first+32),0);
+        }
+    }
+
+    @Test
+    public void tangentsFollowTextureDirection(){
+        MeshProcessor processor=new MeshProcessor();
+        IndexedMesh mesh=processor.computeNormals(createGrid(8,false));
+        processor.computeTangents(mesh);
+        for (int v=0;v<mesh.vertexCount;v++){
+            assertArrayEquals(new float[]{1,0,0,-1},tangent(mesh,v),1e-6f);
+        }
+        //u方向镜像后切线反向，副切线方向不变，w取反
+        mesh=processor.computeNormals(createGrid(8,true));
+        processor.computeTangents(mesh);
+        for (int v=0;v<mesh.vertexCount;v++){
+            assertArrayEquals(new float[]{-1,0,0,1},tangent(mesh,v),1e-6f);
+        }
+    }
+
+    @Test
+    public void tangentsAreOrthogonalToNormals(){
+        MeshProcessor processor=new MeshProcessor();
+        IndexedMesh mesh=processor.computeNormals(createSphere(24,12));
+        processor.computeTangents(mesh);
+        for (int v=0;v<mesh.vertexCount;v++){
+            float[] n=normal(mesh,v);
+            float[] t=tangent(mesh,v);
+            assertEquals(0,n[0]*t[0]+n[1]*t[1]+n[2]*t[2],1e-5f);
+            assertEquals(1,length(t),1e-5f);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial(){
+        IndexedMesh grid=createGrid(120,false);
+        //高度随机起伏，让法线各不相同
+        java.util.Random random=new java.util.Random(3);
+        for (int v=0;v<grid.vertexCount;v++){
+            grid.positions[v*3+1]=random.nextFloat()*0.1f;
+        }
+        MeshProcessor serial=new MeshProcessor();
+        serial.setCreaseAngle(30);
+        IndexedMesh expect=serial.computeNormals(grid);
+        serial.computeTangents(expect);
+
+        ExecutorService executor=Executors.newFixedThreadPool(3);
+        try {
+            MeshProcessor parallel=new MeshProcessor(executor,4);
+            parallel.setCreaseAngle(30);
+            IndexedMesh actual=parallel.computeNormals(grid);
+            parallel.computeTangents(actual);
+            assertEquals(expect.vertexCount,actual.vertexCount);
+            assertArrayEquals(expect.indices,actual.indices);
+            assertArrayEquals(expect.normals,actual.normals,0);
+            assertArrayEquals(expect.tangents,actual.tangents,0);
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void splitKeepsEveryTriangleWithinTheVertexLimit(){
+        IndexedMesh grid=createGrid(40,false);
+        java.util.List<IndexedMesh> parts=grid.split(300);
+        assertTrue(parts.size()>1);
+        int triangle=0;
+        for (IndexedMesh part:parts){
+            assertTrue(part.vertexCount<=300);
+            assertNull(part.normals);
+            for (int i=0;i<part.indexCount;i++){
+                int v=part.indices[i];
+                int expect=grid.indices[triangle*3+i];
+                assertEquals(grid.positions[expect*3],part.positions[v*3],0);
+                assertEquals(grid.positions[expect*3+2],part.positions[v*3+2],0);
+                assertEquals(grid.texCoords[expect*2+1],part.texCoords[v*2+1],0);
+            }
+            triangle+=part.triangleCount();
+        }
+        assertEquals(grid.triangleCount(),triangle);
+    }
+
+    /**
+     * XZ平面上size*size个顶点的网格，法线朝+Y，u沿+X，v沿+Z
+     */
+    static IndexedMesh createGrid(int size,boolean mirrorU){
+        float[] pos=new float[size*size*3];
+        float[] uv=new float[size*size*2];
+        for (int z=0;z<size;z++){
+            for (int x=0;x<size;x++){
+                int v=z*size+x;
+                pos[v*3]=x;
+                pos[v*3+2]=z;
+                uv[v*2]=(float)(mirrorU?size-1-x:x)/size;
+                uv[v*2+1]=(float)z/size;
+            }
+        }
+        int[] indices=new int[(size-1)*(size-1)*6];
+        int i=0;
+        for (int z=0;z<size-1;z++){
+            for (int x=0;x<size-1;x++){
+                int a=z*size+x;
+                int b=a+size;
+                indices[i++]=a;
+                indices[i++]=b;
+                indices[i++]=a+1;
+                indices[i++]=a+1;
+                indices[i++]=b;
+                indices[i++]=b+1;
+            }
+        }
+        return new IndexedMesh(pos,uv,size*size,indices,indices.length);
+    }
+
+    private static IndexedMesh createCube(){
+        float[] pos=new float[24];
+        for (int v=0;v<8;v++){
+            pos[v*3]=(v&1)==0?-1:1;
+            pos[v*3+1]=(v&2)==0?-1:1;
+            pos[v*3+2]=(v&4)==0?-1:1;
+        }
+        //逆时针为正面，法线朝外
+        int[] indices={
+            0,2,3, 0,3,1,   //-z
+            4,5,7, 4,7,6,   //+z
+            0,4,6, 0,6,2,   //-x
+            1,3,7, 1,7,5,   //+x
+            0,1,5, 0,5,4,   //-y
+            2,6,7, 2,7,3    //+y
+        };
+        return new IndexedMesh(pos,null,8,indices,indices.length);
+    }
+
+    /**
+     * 单位球，经线方向的接缝处有位置相同、贴图坐标不同的重复顶点
+     */
+    private static IndexedMesh createSphere(int slices,int stacks){
+        int count=(slices+1)*(stacks+1);
+        float[] pos=new float[count*3];
+        float[] uv=new float[count*2];
+        for (int j=0;j<=stacks;j++){
+            double phi=Math.PI*j/stacks;
+            for (int i=0;i<=slices;i++){
+                double theta=2*Math.PI*(i%slices)/slices;
+                int v=j*(slices+1)+i;
+                pos[v*3]=(float)(Math.sin(phi)*Math.cos(theta));
+                pos[v*3+1]=(float)Math.cos(phi);
+                pos[v*3+2]=(float)(Math.sin(phi)*Math.sin(theta));
+                uv[v*2]=(float)i/slices;
+                uv[v*2+1]=(float)j/stacks;
+            }
+        }
+        int[] indices=new int[slices*stacks*6];
+        int n=0;
+        for (int j=0;j<stacks;j++){
+            for (int i=0;i<slices;i++){
+                int a=j*(slices+1)+i;
+                int b=a+slices+1;
+                indices[n++]=a;
+                indices[n++]=a+1;
+                indices[n++]=b;
+                indices[n++]=a+1;
+                indices[n++]=b+1;
+                indices[n++]=b;
+            }
+        }
+        return new IndexedMesh(pos,uv,count,indices,n);
+    }
+
+    private static float[] normal(IndexedMesh mesh,int v){
+        return new float[]{mesh.normals[v*3],mesh.normals[v*3+1],mesh.normals[v*3+2]};
+    }
+
+    private static float[] tangent(IndexedMesh mesh,int v){
+        return new float[]{mesh.tangents[v*4],mesh.tangents[v*4+1],mesh.tangents[v*4+2],mesh.tangents[v*4+3]};
+    }
+
+    private static float length(float[] v){
+        return (float)Math.sqrt(v[0]*v[0]+v[1]*v[1]+v[2]*v[2]);
+    }
+
+}
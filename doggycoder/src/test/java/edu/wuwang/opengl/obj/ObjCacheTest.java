@@ -0,0 +1,188 @@
+package edu.wuwang.opengl.obj;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ObjCacheTest {
+
+    private static final String OBJ=
+        "mtllib test.mtl\n"+
+        "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"+
+        "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n"+
+        "vn 0 0 1\n"+
+        "usemtl red\n"+
+        "f 1/1/1 2/2/1 3/3/1 4/4/1\n"+
+        "usemtl blue\n"+
+        "f 1//1 3//1 4//1\n";
+
+    private static final String MTL=
+        "newmtl red\n"+
+        "\tNs 10\n"+
+        "\tKd 1 0 0\n"+
+        "\tmap_Kd red.png\n"+
+        "newmtl blue\n"+
+        "\tKd 0 0 1\n"+
+        "\tillum 2\n";
+
+    private File dir;
+    private File obj;
+    private File cache;
+    private File stamp;
+
+    @Before
+    public void setUp() throws IOException {
+        dir=File.createTempFile("objcache","");
+        dir.delete();
+        dir.mkdirs();
+        obj=new File(dir,"test.obj");
+        write(obj,OBJ);
+        write(new File(dir,"test.mtl"),MTL);
+        cache=new File(dir,"test"+ObjCache.SUFFIX);
+        stamp=new File(dir,"test"+ObjCache.SUFFIX+ObjCache.STAMP_SUFFIX);
+        ObjCache.convert(obj,cache);
+    }
+
+    @After
+    public void tearDown(){
+        for (File f:dir.listFiles()){
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void loadMatchesParser() throws IOException {
+        List<Obj3D> expect=ObjParser.readMultiObj(null,obj.getPath(),true);
+        List<Obj3D> actual=load();
+        assertNotNull(actual);
+        assertEquals(2,actual.size());
+        for (int i=0;i<expect.size();i++){
+            Obj3D e=expect.get(i);
+            Obj3D a=actual.get(i);
+            assertEquals(e.vertCount,a.vertCount);
+            assertEquals(e.indexCount,a.indexCount);
+            assertEquals(e.indexType,a.indexType);
+            assertArrayEquals(toArray(e.vert,3,0),toArray(a.vert,3,a.vertStride/4),0);
+            assertArrayEquals(toArray(e.vertNorl,3,0),toArray(a.vertNorl,3,a.vertStride/4),0);
+            assertEquals(e.vertTexture==null,a.vertTexture==null);
+            if(e.vertTexture!=null){
+                assertArrayEquals(toArray(e.vertTexture,2,0),toArray(a.vertTexture,2,a.vertStride/4),0);
+            }
+            for (int j=0;j<e.indexCount;j++){
+                assertEquals(((ShortBuffer)e.indices).get(j),((ShortBuffer)a.indices).get(j));
+            }
+            assertEquals(e.mtl.newmtl,a.mtl.newmtl);
+            assertArrayEquals(e.mtl.Kd,a.mtl.Kd,0);
+            assertEquals(e.mtl.Ns,a.mtl.Ns,0);
+            assertEquals(e.mtl.illum,a.mtl.illum);
+            assertEquals(e.mtl.map_Kd,a.mtl.map_Kd);
+        }
+        //交错存放，position/normal/texcoord共用一块内存
+        assertEquals(32,actual.get(0).vertStride);
+        assertEquals(24,actual.get(1).vertStride);
+        assertEquals(3,actual.get(0).vertNorl.position());
+        assertTrue(actual.get(0).vert.isDirect());
+    }
+
+    @Test
+    public void staleSourceIsRejected() throws IOException {
+        assertNotNull(load());
+        //长度不变只改内容，修改时间变化后需要比较哈希
+        File mtl=new File(dir,"test.mtl");
+        long time=mtl.lastModified();
+        write(mtl,MTL.replace("Kd 1 0 0","Kd 0 1 0"));
+        mtl.setLastModified(time+10000);
+        assertNull(load());
+        assertFalse(stamp.exists());
+        write(mtl,MTL);
+        write(obj,OBJ+"v 0 0 0\n");
+        assertNull(load());
+        write(obj,OBJ);
+        mtl.delete();
+        assertNull(load());
+    }
+
+    @Test
+    public void touchedSourceIsHashedOnce() throws IOException {
+        File mtl=new File(dir,"test.mtl");
+        mtl.setLastModified(mtl.lastModified()+10000);
+        AtomicInteger reads=new AtomicInteger();
+        assertNotNull(load(reads));
+        assertEquals(2,reads.get());
+        assertTrue(stamp.exists());
+        reads.set(0);
+        assertNotNull(load(reads));
+        assertEquals(0,reads.get());
+        //之后内容再被修改，记录的长度和修改时间不会放过它
+        write(mtl,MTL.replace("Kd 1 0 0","Kd 0 1 0"));
+        mtl.setLastModified(mtl.lastModified()+20000);
+        assertNull(load(reads));
+    }
+
+    @Test
+    public void corruptedCacheIsRejected() throws IOException {
+        RandomAccessFile raf=new RandomAccessFile(cache,"rw");
+        raf.setLength(raf.length()/2);
+        raf.close();
+        assertNull(load());
+        write(cache,"not a cache");
+        assertNull(load());
+    }
+
+    private List<Obj3D> load() throws IOException {
+        return load(new AtomicInteger());
+    }
+
+    //reads记录读取源文件内容的次数
+    private List<Obj3D> load(final AtomicInteger reads) throws IOException {
+        final ObjCache.Source files=ObjCache.fileSource(dir.getPath()+"/");
+        return ObjCache.load(ObjParser.map(cache.getPath()),"test.obj",new ObjCache.Source() {
+            @Override
+            public long[] stamp(String name) {
+                return files.stamp(name);
+            }
+
+            @Override
+            public ByteBuffer read(String name) throws IOException {
+                reads.incrementAndGet();
+                return files.read(name);
+            }
+        },stamp);
+    }
+
+    //按步长读取属性，stride为0时表示紧密排列
+    private static float[] toArray(FloatBuffer buffer,int size,int stride){
+        if(stride==0){
+            stride=size;
+        }
+        int start=buffer.position();
+        int count=(buffer.limit()-start+stride-size)/stride;
+        float[] data=new float[count*size];
+        for (int i=0;i<count;i++){
+            for (int j=0;j<size;j++){
+                data[i*size+j]=buffer.get(start+i*stride+j);
+            }
+        }
+        return data;
+    }
+
+    private static void write(File file,String content) throws IOException {
+        FileOutputStream fos=new FileOutputStream(file);
+        fos.write(content.getBytes());
+        fos.close();
+    }
+
+}
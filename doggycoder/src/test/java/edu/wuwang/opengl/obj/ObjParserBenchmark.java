@@ -0,0 +1,137 @@
+package edu.wuwang.opengl.obj;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ObjReader与ObjParser解析大模型的对比，使用GCProfiler观察内存分配速率。
+ * 运行：直接执行main方法，或在IDE中运行JMH插件。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ObjParserBenchmark {
+
+    /**
+     * 网格边长，三角形数为2*(size-1)^2，708约为100万个三角形
+     */
+    @Param({"100","708"})
+    public int gridSize;
+
+    private byte[] quadObj;
+    private byte[] indexedObj;
+    private ObjParser parser;
+    private ObjParser weldParser;
+
+    @Setup
+    public void setup(){
+        quadObj=createGrid(gridSize,false);
+        indexedObj=createGrid(gridSize,true);
+        parser=new ObjParser();
+        weldParser=new ObjParser();
+        weldParser.setIndexed(true);
+    }
+
+    @Benchmark
+    public Obj3D objReaderQuad(){
+        Obj3D obj=new Obj3D();
+        ObjReader.read(new ByteArrayInputStream(quadObj),obj);
+        return obj;
+    }
+
+    @Benchmark
+    public Obj3D objParserQuad(){
+        Obj3D obj=new Obj3D();
+        ObjParser.read(new ByteArrayInputStream(quadObj),obj);
+        return obj;
+    }
+
+    @Benchmark
+    public Obj3D objParserReuseIndexed(){
+        Obj3D obj=new Obj3D();
+        parser.parse(ByteBuffer.wrap(indexedObj));
+        parser.build(obj);
+        return obj;
+    }
+
+    /**
+     * 焊接重复顶点后输出索引，对比objParserReuseIndexed观察焊接的额外开销
+     */
+    @Benchmark
+    public Obj3D objParserReuseWelded(){
+        Obj3D obj=new Obj3D();
+        weldParser.parse(ByteBuffer.wrap(indexedObj));
+        weldParser.build(obj);
+        return obj;
+    }
+
+    /**
+     * 生成size*size个顶点的网格，indexed为true时使用v/vt/vn格式的三角形，
+     * 否则使用ObjReader.read支持的四边形格式
+     */
+    static byte[] createGrid(int size,boolean indexed){
+        Random random=new Random(size);
+        StringBuilder sb=new StringBuilder(size*size*(indexed?120:60));
+        for (int z=0;z<size;z++){
+            for (int x=0;x<size;x++){
+                sb.append("v ").append(x*0.01f).append(' ').append(random.nextFloat())
+                    .append(' ').append(z*0.01f).append('\n');
+                if(indexed){
+                    sb.append("vt ").append((float)x/size).append(' ').append((float)z/size).append('\n');
+                    sb.append("vn 0 1 0\n");
+                }
+            }
+        }
+        for (int z=0;z<size-1;z++){
+            for (int x=0;x<size-1;x++){
+                int a=z*size+x+1;
+                int b=a+1;
+                int c=a+size+1;
+                int d=a+size;
+                if(indexed){
+                    appendTriangle(sb,a,b,c);
+                    appendTriangle(sb,a,c,d);
+                }else{
+                    sb.append("f ").append(a).append(' ').append(b).append(' ').append(c)
+                        .append(' ').append(d).append('\n');
+                }
+            }
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static void appendTriangle(StringBuilder sb,int a,int b,int c){
+        sb.append("f ").append(a).append('/').append(a).append('/').append(a)
+            .append(' ').append(b).append('/').append(b).append('/').append(b)
+            .append(' ').append(c).append('/').append(c).append('/').append(c).append('\n');
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ObjParserBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
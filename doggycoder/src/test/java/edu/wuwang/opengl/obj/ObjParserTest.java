@@ -0,0 +1,214 @@
+package edu.wuwang.opengl.obj;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ObjParserTest {
+
+    private static final String CUBE_FACE=
+        "# comment\n"+
+        "mtllib test.mtl\n"+
+        "v 0 0 0\n"+
+        "v 1.0 0 0\r\n"+
+        "v 1 1 0\n"+
+        "v 0 1.5e0 -0.0\n"+
+        "vt 0 0\n"+
+        "vt 1 0\n"+
+        "vt 1 1\n"+
+        "vt 0 1 0\n"+
+        "vn 0 0 1\n"+
+        "usemtl red\n"+
+        "f 1/1/1 2/2/1 3/3/1\n"+
+        "usemtl blue\n"+
+        "f -4//-1 -2//-1 -1//-1\n"+
+        "usemtl red\n"+
+        "f 1/1 3/3 4/4\n";
+
+    @Test
+    public void parseFloatMatchesJdk() throws Exception {
+        String[] values={"0","-1","3.1415926","-0.000125","1e-3","2.5E+2","34.493484","-51.378834",
+            "123456789.123","0.1234567890123456789"};
+        StringBuilder sb=new StringBuilder();
+        for (int i=0;i<values.length;i+=3){
+            sb.append("v");
+            for (int j=i;j<i+3;j++){
+                sb.append(' ').append(j<values.length?values[j]:"0");
+            }
+            sb.append('\n');
+        }
+        sb.append("f 1 2 3\n");
+        ObjParser parser=new ObjParser();
+        parser.parse(ByteBuffer.wrap(sb.toString().getBytes()));
+        Obj3D obj=new Obj3D();
+        parser.build(obj);
+        float[] expect=new float[9];
+        for (int i=0;i<9;i++){
+            expect[i]=Float.parseFloat(values[i]);
+        }
+        float[] actual=new float[9];
+        obj.vert.get(actual);
+        for (int i=0;i<9;i++){
+            assertEquals(expect[i],actual[i],Math.ulp(expect[i]));
+        }
+    }
+
+    @Test
+    public void groupsByMaterialWithAllFaceFormats(){
+        ObjParser parser=new ObjParser();
+        parser.parse(ByteBuffer.wrap(CUBE_FACE.getBytes()));
+        assertEquals("test.mtl",parser.getMtlLib());
+        assertEquals(2,parser.getGroupCount());
+        List<Obj3D> list=parser.buildMulti(null);
+        assertEquals(2,list.size());
+
+        Obj3D red=list.get(0);
+        assertEquals(6,red.vertCount);
+        assertNotNull(red.vertTexture);
+        assertEquals(12,red.vertTexture.capacity());
+        float[] tex=new float[12];
+        red.vertTexture.get(tex);
+        assertArrayEquals(new float[]{0,0,1,0,1,1, 0,0,1,1,0,1},tex,0);
+        //第二个面没有法线，使用面法向量
+        float[] norl=new float[18];
+        red.vertNorl.get(norl);
+        assertEquals(1,norl[2],0);
+        assertTrue(norl[11]!=0);
+
+        Obj3D blue=list.get(1);
+        assertEquals(3,blue.vertCount);
+        assertNull(blue.vertTexture);
+        float[] vert=new float[9];
+        blue.vert.get(vert);
+        assertArrayEquals(new float[]{0,0,0, 1,1,0, 0,1.5f,0},vert,0);
+    }
+
+    @Test
+    public void quadsAreSplitLikeObjReader(){
+        String quad="v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nf 1 2 3 4\n";
+        Obj3D expect=new Obj3D();
+        ObjReader.read(new ByteArrayInputStream(quad.getBytes()),expect);
+        Obj3D actual=new Obj3D();
+        ObjParser.read(new ByteArrayInputStream(quad.getBytes()),actual);
+        assertEquals(expect.vertCount,actual.vertCount);
+        assertArrayEquals(toArray(expect.vert),toArray(actual.vert),0);
+        assertArrayEquals(toArray(expect.vertNorl),toArray(actual.vertNorl),0);
+    }
+
+    @Test
+    public void parserIsReusable(){
+        ObjParser parser=new ObjParser();
+        parser.parse(ByteBuffer.wrap(CUBE_FACE.getBytes()));
+        parser.parse(ByteBuffer.wrap("v 0 0 0\nv 1 0 0\nv 1 1 0\nf 1 2 3 # tail\n".getBytes()));
+        assertNull(parser.getMtlLib());
+        assertEquals(1,parser.getGroupCount());
+        Obj3D obj=new Obj3D();
+        parser.build(obj);
+        assertEquals(3,obj.vertCount);
+    }
+
+    @Test
+    public void indexedWeldsSharedCorners(){
+        String quad="v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nvt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvn 0 0 1\n"+
+            "f 1/1/1 2/2/1 3/3/1 4/4/1\n";
+        Obj3D obj=new Obj3D();
+        ObjParser.read(new ByteArrayInputStream(quad.getBytes()),obj,true);
+        assertTrue(obj.isIndexed());
+        assertEquals(4,obj.vertCount);
+        assertEquals(6,obj.indexCount);
+        assertTrue(obj.indices instanceof ShortBuffer);
+        short[] indices=new short[6];
+        ((ShortBuffer)obj.indices).get(indices);
+        assertArrayEquals(new short[]{0,1,2,0,2,3},indices);
+        assertEquals(8,obj.vertTexture.capacity());
+        assertEquals(12,obj.vertNorl.capacity());
+    }
+
+    @Test
+    public void indexedExpandsToSameTriangles(){
+        ObjParser parser=new ObjParser();
+        parser.parse(ByteBuffer.wrap(CUBE_FACE.getBytes()));
+        List<Obj3D> flat=parser.buildMulti(null);
+        parser.setIndexed(true);
+        parser.parse(ByteBuffer.wrap(CUBE_FACE.getBytes()));
+        List<Obj3D> indexed=parser.buildMulti(null);
+        assertEquals(flat.size(),indexed.size());
+        for (int i=0;i<flat.size();i++){
+            Obj3D f=flat.get(i);
+            Obj3D obj=indexed.get(i);
+            assertEquals(f.vertCount,obj.indexCount);
+            assertArrayEquals(toArray(f.vert),expand(obj,obj.vert,3),0);
+            if(f.vertTexture!=null){
+                assertArrayEquals(toArray(f.vertTexture),expand(obj,obj.vertTexture,2),0);
+            }
+        }
+        //red中1/1/1与1/1是不同的顶点，3/3/1与3/3同理
+        assertEquals(6,indexed.get(0).vertCount);
+    }
+
+    @Test
+    public void indexedSmoothsMissingNormals(){
+        //两个三角形组成的折面，公共边上的顶点法线取两个面的平均
+        String fold="v 0 0 0\nv 1 0 0\nv 0 1 0\nv 0 0 1\nf 1 2 3\nf 1 4 2\n";
+        Obj3D obj=new Obj3D();
+        ObjParser.read(new ByteArrayInputStream(fold.getBytes()),obj,true);
+        assertEquals(4,obj.vertCount);
+        float[] norl=toArray(obj.vertNorl);
+        float s=(float)Math.sqrt(0.5);
+        assertArrayEquals(new float[]{0,s,s, 0,s,s, 0,0,1, 0,1,0},norl,1e-6f);
+    }
+
+    @Test
+    public void indexedUsesIntIndicesForLargeMesh(){
+        ObjParser parser=new ObjParser();
+        parser.setIndexed(true);
+        parser.parse(ByteBuffer.wrap(ObjParserBenchmark.createGrid(300,true)));
+        Obj3D obj=new Obj3D();
+        parser.build(obj);
+        assertEquals(300*300,obj.vertCount);
+        assertEquals(6*299*299,obj.indexCount);
+        assertTrue(obj.indices instanceof IntBuffer);
+        IntBuffer indices=(IntBuffer)obj.indices;
+        assertEquals(300*300-1,indices.get(obj.indexCount-2));
+    }
+
+    @Test
+    public void indexedMergeOffsetsGroups(){
+        ObjParser parser=new ObjParser();
+        parser.setIndexed(true);
+        parser.parse(ByteBuffer.wrap(CUBE_FACE.getBytes()));
+        Obj3D obj=new Obj3D();
+        parser.build(obj);
+        assertEquals(9,obj.vertCount);
+        assertEquals(9,obj.indexCount);
+        short[] indices=new short[9];
+        ((ShortBuffer)obj.indices).get(indices);
+        assertArrayEquals(new short[]{0,1,2,3,4,5,6,7,8},indices);
+    }
+
+    private static float[] expand(Obj3D obj,FloatBuffer buffer,int stride){
+        float[] data=toArray(buffer);
+        float[] result=new float[obj.indexCount*stride];
+        ShortBuffer indices=(ShortBuffer)obj.indices;
+        for (int i=0;i<obj.indexCount;i++){
+            System.arraycopy(data,indices.get(i)*stride,result,i*stride,stride);
+        }
+        return result;
+    }
+
+    private static float[] toArray(FloatBuffer buffer){
+        float[] data=new float[buffer.capacity()];
+        buffer.position(0);
+        buffer.get(data);
+        buffer.position(0);
+        return data;
+    }
+
+}
@@ -0,0 +1,206 @@
+package edu.wuwang.opengl.obj;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ParallelObjLoaderTest {
+
+    private static final String MTL=
+        "newmtl m0\n\tKd 1 0 0\n\tmap_Kd m0.png\n"+
+        "newmtl m1\n\tKd 0 1 0\n"+
+        "newmtl m2\n\tKd 0 0 1\n\tmap_Kd m0.png\n";
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp(){
+        executor=Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown(){
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void matchesSequentialParser() throws Exception {
+        byte[] obj=createModel(new Random(1),12);
+        for (int chunkSize:new int[]{1,64,1<<20}){
+            for (boolean indexed:new boolean[]{false,true}){
+                ObjParser parser=new ObjParser();
+                parser.setIndexed(indexed);
+                parser.parse(ByteBuffer.wrap(obj));
+                List<Obj3D> expect=parser.buildMulti(null);
+
+                ParallelObjLoader loader=new ParallelObjLoader(executor);
+                loader.setIndexed(indexed);
+                loader.setChunkSize(chunkSize);
+                loader.setDecodeTextures(false);
+                List<Obj3D> actual=loader.load(ByteBuffer.wrap(obj),source()).objs;
+                assertEquals(expect.size(),actual.size());
+                for (int i=0;i<expect.size();i++){
+                    assertObjEquals(expect.get(i),actual.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void attachesMaterialsAndSharedTextures() throws Exception {
+        final AtomicInteger decoded=new AtomicInteger();
+        ParallelObjLoader loader=new ParallelObjLoader(executor);
+        loader.setTextureDecoder(new ParallelObjLoader.TextureDecoder() {
+            @Override
+            public Bitmap decode(InputStream stream) throws IOException {
+                assertEquals(-1,stream.read());
+                decoded.incrementAndGet();
+                return null;
+            }
+        });
+        ParallelObjLoader.Model model=loader.load(ByteBuffer.wrap(createModel(new Random(2),6)),source());
+        assertEquals("test.mtl",model.mtlLib);
+        assertEquals(ByteBuffer.wrap(MTL.getBytes()),model.mtlData);
+        assertEquals(3,model.objs.size());
+        for (int i=0;i<3;i++){
+            Obj3D obj=model.objs.get(i);
+            assertEquals("m"+i,obj.mtl.newmtl);
+            assertEquals(1,obj.mtl.Kd[i],0);
+        }
+        assertEquals("m0.png",model.objs.get(0).mtl.map_Kd);
+        assertNull(model.objs.get(1).mtl.map_Kd);
+        assertEquals("m0.png",model.objs.get(2).mtl.map_Kd);
+        //相同的贴图只解码一次
+        assertEquals(1,decoded.get());
+    }
+
+    @Test(expected=FileNotFoundException.class)
+    public void missingMtlFails() throws Exception {
+        String obj="mtllib missing.mtl\nv 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n";
+        new ParallelObjLoader(executor).load(ByteBuffer.wrap(obj.getBytes()),source());
+    }
+
+    @Test
+    public void facesWithoutMaterialUseDefaultGroup() throws Exception {
+        String obj="v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\nv 1 1 0\nf -3 -1 -2\n";
+        ParallelObjLoader loader=new ParallelObjLoader(executor);
+        loader.setIndexed(false);
+        List<Obj3D> list=loader.load(ByteBuffer.wrap(obj.getBytes()),source()).objs;
+        assertEquals(1,list.size());
+        assertEquals(6,list.get(0).vertCount);
+        float[] vert=new float[18];
+        list.get(0).vert.get(vert);
+        assertArrayEquals(new float[]{0,0,0, 1,0,0, 0,1,0, 1,0,0, 1,1,0, 0,1,0},vert,0);
+    }
+
+    private static ParallelObjLoader.Source source(){
+        return new ParallelObjLoader.Source() {
+            @Override
+            public InputStream open(String name) throws IOException {
+                if("test.mtl".equals(name)){
+                    return new ByteArrayInputStream(MTL.getBytes());
+                }else if("m0.png".equals(name)){
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+                throw new FileNotFoundException(name);
+            }
+        };
+    }
+
+    /**
+     * 生成多个材质交替出现的模型，顶点数据穿插在面之间，面中混用正负索引和各种格式
+     */
+    private static byte[] createModel(Random random,int sections){
+        StringBuilder sb=new StringBuilder("# test\nmtllib test.mtl\n");
+        int vCount=0;
+        for (int s=0;s<sections;s++){
+            int count=3+random.nextInt(20);
+            for (int i=0;i<count;i++){
+                sb.append("v ").append(random.nextFloat()).append(' ').append(random.nextFloat())
+                    .append(' ').append(random.nextFloat()).append('\n');
+                sb.append("vt ").append(random.nextFloat()).append(' ').append(random.nextFloat()).append('\n');
+                sb.append("vn 0 ").append(random.nextFloat()).append(" 1\n");
+            }
+            vCount+=count;
+            sb.append("usemtl m").append(s%3).append('\n');
+            int faces=1+random.nextInt(30);
+            for (int i=0;i<faces;i++){
+                sb.append('f');
+                int corners=3+random.nextInt(2);
+                for (int j=0;j<corners;j++){
+                    int index=1+random.nextInt(vCount);
+                    String v=random.nextBoolean()?String.valueOf(index):String.valueOf(index-vCount-1);
+                    switch (random.nextInt(4)){
+                        case 0:
+                            sb.append(' ').append(v);
+                            break;
+                        case 1:
+                            sb.append(' ').append(v).append('/').append(v);
+                            break;
+                        case 2:
+                            sb.append(' ').append(v).append("//").append(v);
+                            break;
+                        default:
+                            sb.append(' ').append(v).append('/').append(v).append('/').append(v);
+                            break;
+                    }
+                }
+                sb.append(random.nextInt(5)==0?"\r\n":"\n");
+                if(random.nextInt(10)==0){
+                    sb.append("# comment\n\n");
+                }
+            }
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static void assertObjEquals(Obj3D expect,Obj3D actual){
+        assertEquals(expect.vertCount,actual.vertCount);
+        assertArrayEquals(toArray(expect.vert),toArray(actual.vert),0);
+        assertArrayEquals(toArray(expect.vertNorl),toArray(actual.vertNorl),0);
+        assertArrayEquals(toArray(expect.vertTexture),toArray(actual.vertTexture),0);
+        assertEquals(expect.indexCount,actual.indexCount);
+        assertEquals(expect.indexType,actual.indexType);
+        assertArrayEquals(toArray(expect.indices),toArray(actual.indices));
+    }
+
+    private static float[] toArray(FloatBuffer buffer){
+        if(buffer==null){
+            return null;
+        }
+        float[] data=new float[buffer.capacity()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+
+    private static int[] toArray(Buffer buffer){
+        if(buffer==null){
+            return null;
+        }
+        int[] data=new int[buffer.capacity()];
+        for (int i=0;i<data.length;i++){
+            data[i]=buffer instanceof ShortBuffer?((ShortBuffer)buffer).get(i):((IntBuffer)buffer).get(i);
+        }
+        return data;
+    }
+
+}
@@ -0,0 +1,210 @@
+package edu.wuwang.opengl.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgramBinaryCacheTest {
+
+    //二进制内容为"驱动:片元着色器"，加载时检查驱动一致
+    private static class FakeBackend implements ProgramBinaryCache.Backend{
+
+        boolean supported=true;
+        boolean rejectLoads=false;
+        String driver="vendor|renderer|OpenGL ES 3.2";
+        int nextProgram=1;
+        final List<String> compiled=new ArrayList<>();
+        final List<String> loaded=new ArrayList<>();
+
+        @Override
+        public boolean isBinarySupported() {
+            return supported;
+        }
+
+        @Override
+        public String getDriver() {
+            return driver;
+        }
+
+        @Override
+        public int compileProgram(String vertex, String fragment, boolean retrievable) {
+            assertEquals(supported,retrievable);
+            compiled.add(fragment);
+            return fragment.contains("error")?0:nextProgram++;
+        }
+
+        @Override
+        public ProgramBinaryCache.Binary getProgramBinary(int program) {
+            return new ProgramBinaryCache.Binary(7,(driver+":"+compiled.get(compiled.size()-1))
+                .getBytes());
+        }
+
+        @Override
+        public int loadProgram(int format, byte[] binary) {
+            String data=new String(binary);
+            if(rejectLoads||format!=7||!data.startsWith(driver+":")){
+                return 0;
+            }
+            loaded.add(data.substring(driver.length()+1));
+            return nextProgram++;
+        }
+    }
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException{
+        dir=File.createTempFile("programs",null);
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void tearDown(){
+        File[] files=dir.listFiles();
+        if(files!=null){
+            for (File file:files){
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private File fileOf(String driver,String vertex,String fragment){
+        return new File(dir,ProgramBinaryCache.key(driver,vertex,fragment)+ProgramBinaryCache.SUFFIX);
+    }
+
+    @Test
+    public void secondCreateLoadsBinary(){
+        FakeBackend backend=new FakeBackend();
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,1024*1024,backend);
+        assertTrue(cache.createProgram("v","f1")!=0);
+        assertTrue(fileOf(backend.driver,"v","f1").exists());
+        assertTrue(cache.createProgram("v","f1")!=0);
+        assertEquals(1,backend.compiled.size());
+        assertEquals(1,backend.loaded.size());
+        assertEquals("f1",backend.loaded.get(0));
+        assertEquals(1,cache.getHitCount());
+        assertEquals(1,cache.getMissCount());
+        //新的实例读取同一个目录
+        FakeBackend restarted=new FakeBackend();
+        assertTrue(new ProgramBinaryCache(dir,1024*1024,restarted).createProgram("v","f1")!=0);
+        assertTrue(restarted.compiled.isEmpty());
+    }
+
+    @Test
+    public void keyDependsOnDriverAndSources(){
+        String key=ProgramBinaryCache.key("d","v","f");
+        assertEquals(40,key.length());
+        assertEquals(key,ProgramBinaryCache.key("d","v","f"));
+        assertNotEquals(key,ProgramBinaryCache.key("d2","v","f"));
+        assertNotEquals(key,ProgramBinaryCache.key("d","v2","f"));
+        //分隔符保证拼接位置不同的源码不会得到同一个键
+        assertNotEquals(ProgramBinaryCache.key("d","ab","c"),ProgramBinaryCache.key("d","a","bc"));
+    }
+
+    @Test
+    public void driverUpdateRecompiles(){
+        FakeBackend backend=new FakeBackend();
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,1024*1024,backend);
+        cache.createProgram("v","f");
+        backend.driver="vendor|renderer|OpenGL ES 3.2 V2";
+        cache.createProgram("v","f");
+        assertEquals(2,backend.compiled.size());
+        assertTrue(backend.loaded.isEmpty());
+    }
+
+    @Test
+    public void mismatchedHeaderIsInvalidated() throws IOException{
+        FakeBackend backend=new FakeBackend();
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,1024*1024,backend);
+        cache.createProgram("v","f1");
+        //把f1的文件放到f2的位置上，文件头中的摘要与f2不一致
+        File f1=fileOf(backend.driver,"v","f1");
+        File f2=fileOf(backend.driver,"v","f2");
+        assertTrue(f1.renameTo(f2));
+        assertTrue(cache.createProgram("v","f2")!=0);
+        assertEquals(1,cache.getInvalidCount());
+        assertTrue(backend.loaded.isEmpty());
+        assertEquals(2,backend.compiled.size());
+        //重新编译后写入了正确的文件
+        assertTrue(cache.createProgram("v","f2")!=0);
+        assertEquals("f2",backend.loaded.get(0));
+    }
+
+    @Test
+    public void corruptedBinaryIsInvalidated() throws IOException{
+        FakeBackend backend=new FakeBackend();
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,1024*1024,backend);
+        cache.createProgram("v","f");
+        File file=fileOf(backend.driver,"v","f");
+        RandomAccessFile raf=new RandomAccessFile(file,"rw");
+        try {
+            raf.seek(raf.length()-10);
+            int b=raf.read();
+            raf.seek(raf.length()-10);
+            raf.write(b^0xFF);
+        } finally {
+            raf.close();
+        }
+        assertTrue(cache.createProgram("v","f")!=0);
+        assertEquals(1,cache.getInvalidCount());
+        assertEquals(2,backend.compiled.size());
+    }
+
+    @Test
+    public void rejectedBinaryIsInvalidated(){
+        FakeBackend backend=new FakeBackend();
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,1024*1024,backend);
+        cache.createProgram("v","f");
+        backend.rejectLoads=true;
+        assertTrue(cache.createProgram("v","f")!=0);
+        assertEquals(1,cache.getInvalidCount());
+        assertEquals(2,backend.compiled.size());
+        //重新编译后写入了新的文件
+        assertTrue(fileOf(backend.driver,"v","f").exists());
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreEvicted(){
+        FakeBackend backend=new FakeBackend();
+        ProgramBinaryCache probe=new ProgramBinaryCache(dir,Long.MAX_VALUE,backend);
+        probe.createProgram("v","f0");
+        long fileSize=probe.getSize();
+        probe.clear();
+        //最多容纳两个文件
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,fileSize*2+fileSize/2,backend);
+        cache.createProgram("v","f0");
+        cache.createProgram("v","f1");
+        fileOf(backend.driver,"v","f0").setLastModified(1000000000L);
+        fileOf(backend.driver,"v","f1").setLastModified(2000000000L);
+        //f0刚被使用过，f1成为最旧的文件
+        cache.createProgram("v","f0");
+        cache.createProgram("v","f2");
+        assertTrue(fileOf(backend.driver,"v","f0").exists());
+        assertFalse(fileOf(backend.driver,"v","f1").exists());
+        assertTrue(fileOf(backend.driver,"v","f2").exists());
+        assertTrue(cache.getSize()<=fileSize*2+fileSize/2);
+    }
+
+    @Test
+    public void unsupportedDriverCompilesDirectly(){
+        FakeBackend backend=new FakeBackend();
+        backend.supported=false;
+        ProgramBinaryCache cache=new ProgramBinaryCache(dir,1024*1024,backend);
+        assertTrue(cache.createProgram("v","f")!=0);
+        assertTrue(cache.createProgram("v","f")!=0);
+        assertEquals(2,backend.compiled.size());
+        assertEquals(0,cache.getSize());
+        assertEquals(0,cache.createProgram("v","error"));
+    }
+
+}
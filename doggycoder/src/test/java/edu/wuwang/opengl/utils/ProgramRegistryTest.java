@@ -0,0 +1,141 @@
+package edu.wuwang.opengl.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgramRegistryTest {
+
+    private static class FakeBackend implements ProgramRegistry.Backend{
+
+        Object context="context-1";
+        int nextProgram=1;
+        int lookups=0;
+        final List<Integer> deleted=new ArrayList<>();
+
+        @Override
+        public Object currentContext() {
+            return context;
+        }
+
+        @Override
+        public int createProgram(String vertex, String fragment) {
+            return fragment.contains("error")?0:nextProgram++;
+        }
+
+        @Override
+        public void deleteProgram(int program) {
+            deleted.add(program);
+        }
+
+        @Override
+        public int getAttribLocation(int program, String name) {
+            lookups++;
+            return name.equals("missing")?-1:name.length();
+        }
+
+        @Override
+        public int getUniformLocation(int program, String name) {
+            lookups++;
+            return 100+name.length();
+        }
+    }
+
+    @Test
+    public void sameSourceIsCompiledOnce(){
+        FakeBackend backend=new FakeBackend();
+        ProgramRegistry registry=new ProgramRegistry(backend);
+        ProgramRegistry.Program a=registry.acquire("vertex","fragment");
+        ProgramRegistry.Program b=registry.acquire("vertex","fragment");
+        ProgramRegistry.Program c=registry.acquire("vertex","other");
+        assertSame(a,b);
+        assertNotSame(a,c);
+        assertEquals(2,registry.getCompileCount());
+        assertEquals(2,registry.getProgramCount());
+        registry.release(a);
+        assertTrue(backend.deleted.isEmpty());
+        registry.release(b);
+        assertEquals(1,(int)backend.deleted.get(0));
+        assertEquals(1,registry.getProgramCount());
+        //引用已经归零，多余的释放被忽略
+        registry.release(b);
+        assertEquals(1,backend.deleted.size());
+    }
+
+    @Test
+    public void locationsAreCachedById(){
+        FakeBackend backend=new FakeBackend();
+        ProgramRegistry registry=new ProgramRegistry(backend);
+        int position=ProgramRegistry.id("vPosition");
+        int matrix=ProgramRegistry.id("vMatrix");
+        int missing=ProgramRegistry.id("missing");
+        assertEquals(position,ProgramRegistry.id("vPosition"));
+        ProgramRegistry.Program program=registry.acquire("vertex","fragment");
+        for (int i=0;i<10;i++){
+            assertEquals(9,program.getAttribLocation(position));
+            assertEquals(107,program.getUniformLocation(matrix));
+            assertEquals(-1,program.getAttribLocation(missing));
+        }
+        assertEquals(3,backend.lookups);
+    }
+
+    @Test
+    public void contextsDoNotSharePrograms(){
+        FakeBackend backend=new FakeBackend();
+        ProgramRegistry registry=new ProgramRegistry(backend);
+        ProgramRegistry.Program first=registry.acquire("vertex","fragment");
+        backend.context="context-2";
+        ProgramRegistry.Program second=registry.acquire("vertex","fragment");
+        assertNotSame(first,second);
+        assertEquals(2,registry.getCompileCount());
+        //不在程序所在的环境中释放时不调用GL
+        registry.release(first);
+        assertTrue(backend.deleted.isEmpty());
+        registry.release(second);
+        assertEquals(1,backend.deleted.size());
+    }
+
+    @Test
+    public void recreatedContextDropsStalePrograms(){
+        FakeBackend backend=new FakeBackend();
+        ProgramRegistry registry=new ProgramRegistry(backend);
+        ProgramRegistry.Program old=registry.acquire("vertex","fragment");
+        registry.onContextCreated();
+        assertEquals(0,registry.getProgramCount());
+        ProgramRegistry.Program fresh=registry.acquire("vertex","fragment");
+        assertNotSame(old,fresh);
+        //旧程序随环境失效，释放时不能删除新环境中同号的程序
+        registry.release(old);
+        assertTrue(backend.deleted.isEmpty());
+        assertEquals(1,registry.getProgramCount());
+    }
+
+    @Test
+    public void retainedProgramSurvivesSwitch(){
+        FakeBackend backend=new FakeBackend();
+        ProgramRegistry registry=new ProgramRegistry(backend);
+        ProgramRegistry.Program program=registry.acquire("vertex","fragment");
+        assertTrue(registry.retain(program));
+        registry.release(program);
+        //切换回来时不用重新编译
+        assertSame(program,registry.acquire("vertex","fragment"));
+        assertEquals(1,registry.getCompileCount());
+        registry.onContextCreated();
+        assertFalse(registry.retain(program));
+        assertFalse(registry.retain(null));
+    }
+
+    @Test
+    public void failedProgramIsNotCached(){
+        ProgramRegistry registry=new ProgramRegistry(new FakeBackend());
+        assertNull(registry.acquire("vertex","error"));
+        assertNull(registry.acquire("vertex","error"));
+        assertNull(registry.acquire(null,"fragment"));
+        assertEquals(2,registry.getCompileCount());
+        assertEquals(0,registry.getProgramCount());
+    }
+
+}
@@ -0,0 +1,136 @@
+package edu.wuwang.opengl.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TextureCacheTest {
+
+    private static class FakeBackend implements TextureCache.Backend{
+
+        int nextTexture=1;
+        int images=0;
+        int subImages=0;
+        final List<Integer> deleted=new ArrayList<>();
+
+        @Override
+        public int createTexture() {
+            return nextTexture++;
+        }
+
+        @Override
+        public void deleteTexture(int texture) {
+            deleted.add(texture);
+        }
+
+        @Override
+        public void texImage2D(int texture, Object image) {
+            images++;
+        }
+
+        @Override
+        public void texSubImage2D(int texture, Object image) {
+            subImages++;
+        }
+    }
+
+    @Test
+    public void unchangedImageIsUploadedOnce(){
+        FakeBackend backend=new FakeBackend();
+        TextureCache cache=new TextureCache(backend,1);
+        Object image=new Object();
+        int texture=cache.obtain(image,0,640,480,1);
+        for (int i=0;i<100;i++){
+            assertEquals(texture,cache.obtain(image,0,640,480,1));
+        }
+        assertEquals(1,backend.images);
+        assertEquals(0,backend.subImages);
+        assertEquals(1,cache.getUploadCount());
+        assertEquals(1,cache.getTextureCount());
+        assertTrue(backend.deleted.isEmpty());
+    }
+
+    @Test
+    public void changedContentUsesSubImage(){
+        FakeBackend backend=new FakeBackend();
+        TextureCache cache=new TextureCache(backend,1);
+        Object image=new Object();
+        int texture=cache.obtain(image,0,640,480,1);
+        //generation变化
+        assertEquals(texture,cache.obtain(image,1,640,480,1));
+        assertEquals(1,backend.subImages);
+        //手动标记
+        cache.invalidate(image);
+        assertEquals(texture,cache.obtain(image,1,640,480,1));
+        assertEquals(2,backend.subImages);
+        assertEquals(texture,cache.obtain(image,1,640,480,1));
+        assertEquals(2,backend.subImages);
+        //尺寸变化只能重新分配，纹理名不变
+        assertEquals(texture,cache.obtain(image,2,320,240,1));
+        assertEquals(2,backend.images);
+        assertEquals(2,cache.getUploadCount());
+        assertEquals(2,cache.getSubUploadCount());
+    }
+
+    @Test
+    public void replacedImageReusesOrReleasesTexture(){
+        FakeBackend backend=new FakeBackend();
+        TextureCache cache=new TextureCache(backend,1);
+        Object first=new Object();
+        Object second=new Object();
+        Object third=new Object();
+        int texture=cache.obtain(first,0,640,480,1);
+        //尺寸格式相同，沿用旧纹理名覆盖上传
+        assertEquals(texture,cache.obtain(second,0,640,480,1));
+        assertEquals(1,backend.images);
+        assertEquals(1,backend.subImages);
+        assertTrue(backend.deleted.isEmpty());
+        //格式不同，删除旧纹理
+        int other=cache.obtain(third,0,640,480,2);
+        assertNotEquals(texture,other);
+        assertEquals(texture,(int)backend.deleted.get(0));
+        assertEquals(1,cache.getTextureCount());
+        //被淘汰的图片再次使用时重新上传
+        cache.obtain(first,0,640,480,1);
+        assertEquals(other,(int)backend.deleted.get(1));
+        assertEquals(3,backend.images);
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted(){
+        FakeBackend backend=new FakeBackend();
+        TextureCache cache=new TextureCache(backend,2);
+        Object a=new Object();
+        Object b=new Object();
+        Object c=new Object();
+        int ta=cache.obtain(a,0,16,16,1);
+        int tb=cache.obtain(b,0,32,32,1);
+        cache.obtain(a,0,16,16,1);
+        cache.obtain(c,0,64,64,1);
+        assertEquals(tb,(int)backend.deleted.get(0));
+        assertEquals(ta,cache.obtain(a,0,16,16,1));
+        assertEquals(3,backend.images);
+        cache.remove(a);
+        assertEquals(ta,(int)backend.deleted.get(1));
+        assertEquals(1,cache.getTextureCount());
+        cache.release();
+        assertEquals(3,backend.deleted.size());
+        assertEquals(0,cache.getTextureCount());
+    }
+
+    @Test
+    public void newContextDropsTexturesWithoutDeleting(){
+        FakeBackend backend=new FakeBackend();
+        TextureCache cache=new TextureCache(backend,1);
+        Object image=new Object();
+        cache.obtain(image,0,640,480,1);
+        cache.onContextCreated();
+        assertEquals(0,cache.getTextureCount());
+        cache.obtain(image,0,640,480,1);
+        assertEquals(2,backend.images);
+        assertTrue(backend.deleted.isEmpty());
+    }
+}
@@ -0,0 +1,102 @@
+package edu.wuwang.opengl.yuv;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YuvConverter在720p和1080p帧上的转换耗时，对比串行与多线程，GC分析器中每次操作的分配应接近0。
+ * 运行：直接执行main方法，或在IDE中运行JMH插件。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class YuvConverterBenchmark {
+
+    /**
+     * 帧高度，宽度按16:9计算
+     */
+    @Param({"720","1080"})
+    public int height;
+
+    /**
+     * 并行的段数，1为在调用线程上串行执行
+     */
+    @Param({"1","4"})
+    public int threads;
+
+    private int width;
+    private ByteBuffer rgba;
+    private ByteBuffer yuv;
+    private ExecutorService executor;
+    private YuvConverter converter;
+
+    @Setup
+    public void setup(){
+        width=height*16/9;
+        byte[] data=new byte[width*height*4];
+        new Random(height).nextBytes(data);
+        rgba=ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+        rgba.put(data).clear();
+        yuv=ByteBuffer.allocateDirect(YuvConverter.getYuvSize(width,height));
+        executor=threads>1?Executors.newFixedThreadPool(threads-1):null;
+        converter=new YuvConverter(executor,threads);
+        converter.rgbaToYuv(rgba,width,height,yuv,YuvConverter.NV21);
+    }
+
+    @TearDown
+    public void tearDown(){
+        if(executor!=null){
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer rgbaToI420(){
+        converter.rgbaToYuv(rgba,width,height,yuv,YuvConverter.I420);
+        return yuv;
+    }
+
+    @Benchmark
+    public ByteBuffer rgbaToNV21(){
+        converter.rgbaToYuv(rgba,width,height,yuv,YuvConverter.NV21);
+        return yuv;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToRgba(){
+        converter.nv21ToRgba(yuv,width,height,rgba);
+        return rgba;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(YuvConverterBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+}
@@ -0,0 +1,153 @@
+package edu.wuwang.opengl.yuv;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    //逐像素的朴素实现，作为逐字节比较的参照
+    private static byte[] referenceYuv(byte[] rgba,int w,int h,int format){
+        byte[] yuv=new byte[w*h*3/2];
+        for (int y=0;y<h;y++){
+            for (int x=0;x<w;x++){
+                int i=(y*w+x)*4;
+                int r=rgba[i]&0xFF,g=rgba[i+1]&0xFF,b=rgba[i+2]&0xFF;
+                yuv[y*w+x]=(byte)(((66*r+129*g+25*b+128)>>8)+16);
+            }
+        }
+        for (int y=0;y<h/2;y++){
+            for (int x=0;x<w/2;x++){
+                int r=0,g=0,b=0;
+                for (int dy=0;dy<2;dy++){
+                    for (int dx=0;dx<2;dx++){
+                        int i=((y*2+dy)*w+x*2+dx)*4;
+                        r+=rgba[i]&0xFF;
+                        g+=rgba[i+1]&0xFF;
+                        b+=rgba[i+2]&0xFF;
+                    }
+                }
+                r=(r+2)/4;
+                g=(g+2)/4;
+                b=(b+2)/4;
+                byte u=(byte)(((-38*r-74*g+112*b+128)>>8)+128);
+                byte v=(byte)(((112*r-94*g-18*b+128)>>8)+128);
+                int frame=w*h;
+                if(format==YuvConverter.I420){
+                    yuv[frame+y*w/2+x]=u;
+                    yuv[frame+frame/4+y*w/2+x]=v;
+                }else if(format==YuvConverter.NV12){
+                    yuv[frame+y*w+x*2]=u;
+                    yuv[frame+y*w+x*2+1]=v;
+                }else{
+                    yuv[frame+y*w+x*2]=v;
+                    yuv[frame+y*w+x*2+1]=u;
+                }
+            }
+        }
+        return yuv;
+    }
+
+    private static byte[] referenceRgba(byte[] nv21,int w,int h){
+        byte[] rgba=new byte[w*h*4];
+        for (int y=0;y<h;y++){
+            for (int x=0;x<w;x++){
+                int vu=w*h+(y/2)*w+(x/2)*2;
+                int c=(nv21[y*w+x]&0xFF)-16;
+                int e=(nv21[vu]&0xFF)-128;
+                int d=(nv21[vu+1]&0xFF)-128;
+                int i=(y*w+x)*4;
+                rgba[i]=(byte)Math.max(0,Math.min(255,(298*c+409*e+128)>>8));
+                rgba[i+1]=(byte)Math.max(0,Math.min(255,(298*c-100*d-208*e+128)>>8));
+                rgba[i+2]=(byte)Math.max(0,Math.min(255,(298*c+516*d+128)>>8));
+                rgba[i+3]=(byte)255;
+            }
+        }
+        return rgba;
+    }
+
+    private static ByteBuffer direct(byte[] data,ByteOrder order){
+        ByteBuffer buffer=ByteBuffer.allocateDirect(data.length).order(order);
+        buffer.put(data);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer){
+        byte[] data=new byte[buffer.capacity()];
+        for (int i=0;i<data.length;i++){
+            data[i]=buffer.get(i);
+        }
+        return data;
+    }
+
+    private static void checkAll(YuvConverter converter){
+        Random random=new Random(15);
+        ByteOrder[] orders={ByteOrder.LITTLE_ENDIAN,ByteOrder.BIG_ENDIAN};
+        int[][] sizes={{2,2},{16,10},{64,96},{130,74}};
+        for (int[] size:sizes){
+            int w=size[0],h=size[1];
+            byte[] rgba=new byte[w*h*4];
+            random.nextBytes(rgba);
+            byte[] nv21=new byte[w*h*3/2];
+            random.nextBytes(nv21);
+            for (ByteOrder order:orders){
+                for (int format=YuvConverter.I420;format<=YuvConverter.NV21;format++){
+                    ByteBuffer yuv=ByteBuffer.allocateDirect(YuvConverter.getYuvSize(w,h)).order(order);
+                    converter.rgbaToYuv(direct(rgba,order),w,h,yuv,format);
+                    assertArrayEquals(w+"x"+h+" "+order+" "+format,referenceYuv(rgba,w,h,format),
+                        bytes(yuv));
+                }
+                ByteBuffer out=ByteBuffer.allocateDirect(w*h*4).order(order);
+                converter.nv21ToRgba(direct(nv21,order),w,h,out);
+                assertArrayEquals(w+"x"+h+" "+order,referenceRgba(nv21,w,h),bytes(out));
+            }
+        }
+    }
+
+    @Test
+    public void serialMatchesReference(){
+        checkAll(new YuvConverter());
+    }
+
+    @Test
+    public void parallelMatchesReference(){
+        ExecutorService executor=Executors.newFixedThreadPool(3);
+        try {
+            checkAll(new YuvConverter(executor,4));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void knownColors(){
+        byte[] rgba=new byte[4*4*4];
+        for (int i=0;i<rgba.length;i+=4){
+            byte c=(byte)(i<rgba.length/2?255:0);
+            rgba[i]=rgba[i+1]=rgba[i+2]=c;
+        }
+        ByteBuffer yuv=ByteBuffer.allocateDirect(YuvConverter.getYuvSize(4,4));
+        new YuvConverter().rgbaToYuv(direct(rgba,ByteOrder.nativeOrder()),4,4,yuv,YuvConverter.I420);
+        //上两行白色，下两行黑色
+        assertEquals(235,yuv.get(0)&0xFF);
+        assertEquals(16,yuv.get(15)&0xFF);
+        for (int i=16;i<24;i++){
+            assertEquals(128,yuv.get(i)&0xFF);
+        }
+        assertEquals(0,yuv.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oddSizeIsRejected(){
+        new YuvConverter().rgbaToYuv(ByteBuffer.allocateDirect(3*2*4),3,2,
+            ByteBuffer.allocateDirect(9),YuvConverter.NV21);
+    }
+
+}
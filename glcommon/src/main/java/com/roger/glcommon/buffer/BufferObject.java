@@ -0,0 +1,137 @@
+package com.roger.glcommon.buffer;
+
+import com.roger.glcommon.gl.GlApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A GL buffer object plus the bookkeeping shared by {@link VertexBuffer} and
+ * {@link IndexBuffer}. Data is staged through a {@link DirectBufferPool} and the staging
+ * memory goes straight back to the pool once GL has copied it.
+ * <p>
+ * The usage hint decides how a full replacement is uploaded:
+ * <ul>
+ * <li>{@link GlApi#GL_STATIC_DRAW} / {@link GlApi#GL_DYNAMIC_DRAW}: the storage is kept and
+ * overwritten with glBufferSubData, and only reallocated when the data grows.</li>
+ * <li>{@link GlApi#GL_STREAM_DRAW}: the storage is orphaned with glBufferData(null) before
+ * writing, so the driver does not have to wait for draws still reading the old contents.</li>
+ * </ul>
+ */
+public class BufferObject {
+    protected final GlApi gl;
+    protected final DirectBufferPool pool;
+    private final int target;
+    private final int usage;
+    private final int[] bufferId = new int[1];
+    private int capacity;
+
+    protected BufferObject(GlApi gl, DirectBufferPool pool, int target, int usage) {
+        if (usage != GlApi.GL_STATIC_DRAW && usage != GlApi.GL_DYNAMIC_DRAW
+                && usage != GlApi.GL_STREAM_DRAW) {
+            throw new IllegalArgumentException("Unknown usage: 0x" + Integer.toHexString(usage));
+        }
+        this.gl = gl;
+        this.pool = pool;
+        this.target = target;
+        this.usage = usage;
+        gl.glGenBuffers(1, bufferId, 0);
+        if (bufferId[0] == 0) {
+            throw new RuntimeException("Could not create a new buffer object.");
+        }
+    }
+
+    public int getBufferId() {
+        return bufferId[0];
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    public int getUsage() {
+        return usage;
+    }
+
+    /**
+     * @return size in bytes of the GPU-side storage
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void bind() {
+        gl.glBindBuffer(target, bufferId[0]);
+    }
+
+    public void unbind() {
+        gl.glBindBuffer(target, 0);
+    }
+
+    /**
+     * Deletes the GL buffer. The object must not be used afterwards.
+     */
+    public void release() {
+        if (bufferId[0] != 0) {
+            gl.glDeleteBuffers(1, bufferId, 0);
+            bufferId[0] = 0;
+            capacity = 0;
+        }
+    }
+
+    /**
+     * Allocates {@code bytes} bytes of uninitialised storage, e.g. for a buffer that is then
+     * filled piecewise with {@link #uploadRange}.
+     */
+    protected void reserve(int bytes) {
+        checkAlive();
+        gl.glBindBuffer(target, bufferId[0]);
+        gl.glBufferData(target, bytes, null, usage);
+        gl.glBindBuffer(target, 0);
+        capacity = bytes;
+    }
+
+    /**
+     * Replaces the contents with the first {@code bytes} bytes of {@code staging} and
+     * releases {@code staging} to the pool.
+     */
+    protected void upload(ByteBuffer staging, int bytes) {
+        checkAlive();
+        gl.glBindBuffer(target, bufferId[0]);
+        if (bytes > capacity) {
+            gl.glBufferData(target, bytes, staging, usage);
+            capacity = bytes;
+        } else {
+            if (usage == GlApi.GL_STREAM_DRAW) {
+                gl.glBufferData(target, capacity, null, usage);
+            }
+            if (bytes > 0) {
+                gl.glBufferSubData(target, 0, bytes, staging);
+            }
+        }
+        gl.glBindBuffer(target, 0);
+        pool.release(staging);
+    }
+
+    /**
+     * Overwrites {@code bytes} bytes starting at {@code byteOffset} and releases
+     * {@code staging} to the pool.
+     */
+    protected void uploadRange(int byteOffset, ByteBuffer staging, int bytes) {
+        checkAlive();
+        if (byteOffset < 0 || bytes < 0 || byteOffset > capacity - bytes) {
+            pool.release(staging);
+            throw new IndexOutOfBoundsException("Range " + byteOffset + "+" + bytes
+                    + " outside buffer of " + capacity + " bytes");
+        }
+        gl.glBindBuffer(target, bufferId[0]);
+        gl.glBufferSubData(target, byteOffset, bytes, staging);
+        gl.glBindBuffer(target, 0);
+        pool.release(staging);
+    }
+
+    private void checkAlive() {
+        if (bufferId[0] == 0) {
+            throw new IllegalStateException("Buffer object has been released.");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.roger.glcommon.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of native-order direct buffers, bucketed into power-of-two size classes.
+ * <p>
+ * Direct memory is only returned to the system when the owning ByteBuffer is garbage
+ * collected, which may be long after the last upload. Staging buffers for GL uploads are
+ * acquired here and explicitly released back, so steady-state uploads allocate nothing.
+ * <p>
+ * Requests larger than the biggest size class are allocated exactly and never retained.
+ * Released buffers are dropped once the pool holds more than its retention limit.
+ * A buffer must not be used after it has been released, nor released twice.
+ */
+public class DirectBufferPool {
+    public static final int MIN_CLASS_SIZE = 1 << 8;
+    public static final int MAX_CLASS_SIZE = 1 << 24;
+
+    private static final int MIN_SHIFT = 8;
+    private static final int CLASS_COUNT = 24 - MIN_SHIFT + 1;
+
+    private static DirectBufferPool defaultPool;
+
+    private final ArrayDeque<ByteBuffer>[] freeLists;
+    private final int maxRetainedBytes;
+    private int retainedBytes;
+
+    private int allocationCount;
+    private long allocatedBytes;
+    private int reuseCount;
+
+    public static synchronized DirectBufferPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new DirectBufferPool(8 << 20);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @param maxRetainedBytes upper bound for the capacity of all buffers held by the pool
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DirectBufferPool(int maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        freeLists = new ArrayDeque[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            freeLists[i] = new ArrayDeque<ByteBuffer>();
+        }
+    }
+
+    /**
+     * Returns a cleared native-order buffer with position 0 and limit {@code bytes}.
+     * Its capacity may be larger than requested.
+     */
+    public synchronized ByteBuffer acquire(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Negative size: " + bytes);
+        }
+        ByteBuffer buffer;
+        if (bytes > MAX_CLASS_SIZE) {
+            buffer = allocate(bytes);
+        } else {
+            int sizeClass = sizeClass(bytes);
+            buffer = freeLists[sizeClass].pollLast();
+            if (buffer == null) {
+                buffer = allocate(MIN_CLASS_SIZE << sizeClass);
+            } else {
+                retainedBytes -= buffer.capacity();
+                reuseCount++;
+            }
+        }
+        buffer.clear();
+        buffer.limit(bytes);
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #acquire(int)} back to the pool. Buffers that do not
+     * belong to a size class, or that would exceed the retention limit, are left to the GC.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (capacity < MIN_CLASS_SIZE || capacity > MAX_CLASS_SIZE
+                || (capacity & (capacity - 1)) != 0
+                || retainedBytes + capacity > maxRetainedBytes) {
+            return;
+        }
+        freeLists[Integer.numberOfTrailingZeros(capacity) - MIN_SHIFT].addLast(buffer);
+        retainedBytes += capacity;
+    }
+
+    /**
+     * Drops every retained buffer, e.g. when the GL context is torn down.
+     */
+    public synchronized void trim() {
+        for (ArrayDeque<ByteBuffer> list : freeLists) {
+            list.clear();
+        }
+        retainedBytes = 0;
+    }
+
+    /**
+     * @return number of direct buffers created by this pool
+     */
+    public synchronized int getAllocationCount() {
+        return allocationCount;
+    }
+
+    /**
+     * @return total capacity of the direct buffers created by this pool
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return number of acquires served from a released buffer
+     */
+    public synchronized int getReuseCount() {
+        return reuseCount;
+    }
+
+    public synchronized int getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    static int sizeClass(int bytes) {
+        if (bytes <= MIN_CLASS_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(bytes - 1) - MIN_SHIFT;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        allocationCount++;
+        allocatedBytes += capacity;
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+}
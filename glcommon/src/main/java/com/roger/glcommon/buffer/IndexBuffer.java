@@ -0,0 +1,92 @@
+package com.roger.glcommon.buffer;
+
+import com.roger.glcommon.gl.Gles20Api;
+import com.roger.glcommon.gl.GlApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An element array buffer holding unsigned short or unsigned int indices. 32-bit indices
+ * need the OES_element_index_uint extension on OpenGL ES 2.0.
+ */
+public class IndexBuffer extends BufferObject {
+    public static final int BYTES_PER_SHORT = 2;
+    public static final int BYTES_PER_INT = 4;
+
+    private int type = GlApi.GL_UNSIGNED_SHORT;
+    private int count;
+
+    /**
+     * Creates a {@link GlApi#GL_STATIC_DRAW} buffer filled with {@code indexData}.
+     */
+    public IndexBuffer(short[] indexData) {
+        this(Gles20Api.get(), DirectBufferPool.getDefault(), GlApi.GL_STATIC_DRAW);
+        setData(indexData, 0, indexData.length);
+    }
+
+    public IndexBuffer(int[] indexData) {
+        this(Gles20Api.get(), DirectBufferPool.getDefault(), GlApi.GL_STATIC_DRAW);
+        setData(indexData, 0, indexData.length);
+    }
+
+    /**
+     * Creates an empty buffer; storage is allocated by the first {@code setData}.
+     */
+    public IndexBuffer(GlApi gl, DirectBufferPool pool, int usage) {
+        super(gl, pool, GlApi.GL_ELEMENT_ARRAY_BUFFER, usage);
+    }
+
+    /**
+     * @return {@link GlApi#GL_UNSIGNED_SHORT} or {@link GlApi#GL_UNSIGNED_INT}, for glDrawElements
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return number of indices set by the last {@code setData}
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public void setData(short[] indexData, int offset, int count) {
+        ByteBuffer staging = pool.acquire(count * BYTES_PER_SHORT);
+        staging.asShortBuffer().put(indexData, offset, count);
+        upload(staging, count * BYTES_PER_SHORT);
+        this.type = GlApi.GL_UNSIGNED_SHORT;
+        this.count = count;
+    }
+
+    public void setData(int[] indexData, int offset, int count) {
+        ByteBuffer staging = pool.acquire(count * BYTES_PER_INT);
+        staging.asIntBuffer().put(indexData, offset, count);
+        upload(staging, count * BYTES_PER_INT);
+        this.type = GlApi.GL_UNSIGNED_INT;
+        this.count = count;
+    }
+
+    /**
+     * Overwrites {@code count} indices starting at index {@code start}; the buffer must
+     * currently hold unsigned shorts.
+     */
+    public void update(int start, short[] indexData, int offset, int count) {
+        checkType(GlApi.GL_UNSIGNED_SHORT);
+        ByteBuffer staging = pool.acquire(count * BYTES_PER_SHORT);
+        staging.asShortBuffer().put(indexData, offset, count);
+        uploadRange(start * BYTES_PER_SHORT, staging, count * BYTES_PER_SHORT);
+    }
+
+    public void update(int start, int[] indexData, int offset, int count) {
+        checkType(GlApi.GL_UNSIGNED_INT);
+        ByteBuffer staging = pool.acquire(count * BYTES_PER_INT);
+        staging.asIntBuffer().put(indexData, offset, count);
+        uploadRange(start * BYTES_PER_INT, staging, count * BYTES_PER_INT);
+    }
+
+    private void checkType(int expected) {
+        if (type != expected) {
+            throw new IllegalStateException("Index buffer holds type 0x" + Integer.toHexString(type));
+        }
+    }
+}
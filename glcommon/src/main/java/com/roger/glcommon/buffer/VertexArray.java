@@ -0,0 +1,70 @@
+package com.roger.glcommon.buffer;
+
+import com.roger.glcommon.gl.Gles20Api;
+import com.roger.glcommon.gl.GlApi;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Client-side vertex data in direct memory taken from a {@link DirectBufferPool}.
+ * Call {@link #release()} when the array is no longer drawn to hand the memory back.
+ */
+public class VertexArray {
+    private final GlApi gl;
+    private final DirectBufferPool pool;
+    private ByteBuffer byteBuffer;
+    private FloatBuffer floatBuffer;
+
+    public VertexArray(float[] vertexData) {
+        this(Gles20Api.get(), DirectBufferPool.getDefault(), vertexData);
+    }
+
+    public VertexArray(GlApi gl, DirectBufferPool pool, float[] vertexData) {
+        this.gl = gl;
+        this.pool = pool;
+        byteBuffer = pool.acquire(vertexData.length * VertexBuffer.BYTES_PER_FLOAT);
+        floatBuffer = byteBuffer.asFloatBuffer();
+        floatBuffer.put(vertexData);
+        floatBuffer.position(0);
+    }
+
+    /**
+     * @param dataOffset float offset of the attribute within the array
+     * @param stride     byte stride between vertices
+     */
+    public void setVertexAttribPointer(int dataOffset, int attributeLocation, int componentCount,
+                                       int stride) {
+        floatBuffer.position(dataOffset);
+        gl.glVertexAttribPointer(attributeLocation, componentCount, GlApi.GL_FLOAT, false, stride,
+                floatBuffer);
+        gl.glEnableVertexAttribArray(attributeLocation);
+        floatBuffer.position(0);
+    }
+
+    /**
+     * Copies {@code count} floats starting at {@code start} of {@code vertexData} to the same
+     * position in the array.
+     */
+    public void updateBuffer(float[] vertexData, int start, int count) {
+        floatBuffer.position(start);
+        floatBuffer.put(vertexData, start, count);
+        floatBuffer.position(0);
+    }
+
+    public FloatBuffer getFloatBuffer() {
+        return floatBuffer;
+    }
+
+    /**
+     * Hands the memory back to the pool. The array must not be used afterwards: the pool may
+     * give the memory to someone else, so the float view is dropped as well.
+     */
+    public void release() {
+        if (byteBuffer != null) {
+            pool.release(byteBuffer);
+            byteBuffer = null;
+            floatBuffer = null;
+        }
+    }
+}
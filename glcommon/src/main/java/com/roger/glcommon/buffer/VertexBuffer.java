@@ -0,0 +1,74 @@
+package com.roger.glcommon.buffer;
+
+import com.roger.glcommon.gl.Gles20Api;
+import com.roger.glcommon.gl.GlApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A vertex buffer object holding float attributes.
+ */
+public class VertexBuffer extends BufferObject {
+    public static final int BYTES_PER_FLOAT = 4;
+
+    /**
+     * Creates a {@link GlApi#GL_STATIC_DRAW} buffer filled with {@code vertexData}.
+     */
+    public VertexBuffer(float[] vertexData) {
+        this(vertexData, GlApi.GL_STATIC_DRAW);
+    }
+
+    public VertexBuffer(float[] vertexData, int usage) {
+        this(Gles20Api.get(), DirectBufferPool.getDefault(), usage);
+        setData(vertexData, 0, vertexData.length);
+    }
+
+    /**
+     * Creates an empty buffer; storage is allocated by the first {@link #setData}.
+     */
+    public VertexBuffer(GlApi gl, DirectBufferPool pool, int usage) {
+        super(gl, pool, GlApi.GL_ARRAY_BUFFER, usage);
+    }
+
+    /**
+     * Allocates room for {@code count} floats without uploading anything; the contents are
+     * undefined until written with {@link #update}.
+     */
+    public void allocate(int count) {
+        reserve(count * BYTES_PER_FLOAT);
+    }
+
+    /**
+     * Replaces the whole contents with {@code count} floats from {@code vertexData}.
+     */
+    public void setData(float[] vertexData, int offset, int count) {
+        upload(stage(vertexData, offset, count), count * BYTES_PER_FLOAT);
+    }
+
+    /**
+     * Overwrites {@code count} floats starting at float index {@code start} of the buffer.
+     */
+    public void update(int start, float[] vertexData, int offset, int count) {
+        uploadRange(start * BYTES_PER_FLOAT, stage(vertexData, offset, count),
+                count * BYTES_PER_FLOAT);
+    }
+
+    /**
+     * @param dataOffset byte offset of the attribute within the buffer
+     * @param stride     byte stride between vertices
+     */
+    public void setVertexAttribPointer(int dataOffset, int attributeLocation, int componentCount,
+                                       int stride) {
+        bind();
+        gl.glVertexAttribPointer(attributeLocation, componentCount, GlApi.GL_FLOAT, false, stride,
+                dataOffset);
+        gl.glEnableVertexAttribArray(attributeLocation);
+        unbind();
+    }
+
+    private ByteBuffer stage(float[] vertexData, int offset, int count) {
+        ByteBuffer staging = pool.acquire(count * BYTES_PER_FLOAT);
+        staging.asFloatBuffer().put(vertexData, offset, count);
+        return staging;
+    }
+}
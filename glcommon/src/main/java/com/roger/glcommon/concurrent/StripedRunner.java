@@ -0,0 +1,132 @@
+package com.roger.glcommon.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the stripes of a data-parallel step, one range of the work each, on a pool and the
+ * calling thread, and returns once all of them are done. The last stripe runs on the calling
+ * thread, the others on the executor.
+ * <p>
+ * The runnables handed to the executor are made once, so a run allocates nothing. The task
+ * reads the arguments of the step from fields of its owner: they are written before
+ * {@link #run(int)}, and {@link Executor#execute} publishes them to the pool threads.
+ * <p>
+ * One thread at a time may call {@link #run(int)}.
+ */
+public final class StripedRunner {
+    /**
+     * The work of one step, split in stripes.
+     */
+    public interface Task {
+        /**
+         * @param stripe from 0 to the number of stripes of the run, exclusive
+         */
+        void runStripe(int stripe);
+    }
+
+    private final Executor executor;
+    private final Task task;
+    private final Helper[] helpers;
+    private final Object lock = new Object();
+    private int pending;
+    private Throwable error;
+
+    /**
+     * @param executor    runs all stripes but the last, or null to run everything on the
+     *                    calling thread
+     * @param parallelism the most stripes a run may have, usually the number of cores
+     */
+    public StripedRunner(Executor executor, int parallelism, Task task) {
+        this.executor = executor;
+        this.task = task;
+        helpers = new Helper[executor == null ? 0 : Math.max(parallelism, 1) - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            helpers[i] = new Helper(i);
+        }
+    }
+
+    /**
+     * @return the most stripes a run may have: 1 without an executor
+     */
+    public int getParallelism() {
+        return helpers.length + 1;
+    }
+
+    /**
+     * Runs stripes 0 to {@code stripes - 1} of the task. When a stripe throws, the others are
+     * still waited for, since they may be writing the same arrays, and then the first
+     * exception is rethrown. An interrupt does not stop the wait either; it is kept for the
+     * caller.
+     */
+    public void run(int stripes) {
+        if (stripes < 1 || stripes > helpers.length + 1) {
+            throw new IllegalArgumentException("Cannot run " + stripes + " stripes on "
+                    + (helpers.length + 1) + " threads");
+        }
+        int helperCount = stripes - 1;
+        if (helperCount == 0) {
+            task.runStripe(0);
+            return;
+        }
+        synchronized (lock) {
+            pending = helperCount;
+            error = null;
+        }
+        for (int i = 0; i < helperCount; i++) {
+            executor.execute(helpers[i]);
+        }
+        Throwable failure = null;
+        try {
+            task.runStripe(helperCount);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        synchronized (lock) {
+            boolean interrupted = false;
+            while (pending > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure == null) {
+                failure = error;
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    private final class Helper implements Runnable {
+        private final int stripe;
+
+        Helper(int stripe) {
+            this.stripe = stripe;
+        }
+
+        @Override
+        public void run() {
+            Throwable failure = null;
+            try {
+                task.runStripe(stripe);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            synchronized (lock) {
+                if (failure != null && error == null) {
+                    error = failure;
+                }
+                pending--;
+                lock.notifyAll();
+            }
+        }
+    }
+}
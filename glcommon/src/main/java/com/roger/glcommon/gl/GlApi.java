@@ -0,0 +1,85 @@
+package com.roger.glcommon.gl;
+
+import java.nio.Buffer;
+
+/**
+ * The subset of OpenGL ES 2.0 used by glcommon. Code goes through this interface instead of
+ * calling GLES20 statically so it can run against a recording implementation in JVM tests.
+ * Method names and arguments mirror {@link android.opengl.GLES20}.
+ */
+public interface GlApi {
+    int GL_POINTS = 0x0000;
+    int GL_TRIANGLES = 0x0004;
+    int GL_TRIANGLE_STRIP = 0x0005;
+    int GL_TRIANGLE_FAN = 0x0006;
+
+    int GL_ARRAY_BUFFER = 0x8892;
+    int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+    int GL_STREAM_DRAW = 0x88E0;
+    int GL_STATIC_DRAW = 0x88E4;
+    int GL_DYNAMIC_DRAW = 0x88E8;
+
+    int GL_UNSIGNED_BYTE = 0x1401;
+    int GL_UNSIGNED_SHORT = 0x1403;
+    int GL_UNSIGNED_INT = 0x1405;
+    int GL_FLOAT = 0x1406;
+
+    int GL_TEXTURE0 = 0x84C0;
+    int GL_TEXTURE_2D = 0x0DE1;
+    int GL_TEXTURE_CUBE_MAP = 0x8513;
+
+    int GL_BLEND = 0x0BE2;
+    int GL_CULL_FACE = 0x0B44;
+    int GL_DEPTH_TEST = 0x0B71;
+
+    int GL_ZERO = 0;
+    int GL_ONE = 1;
+    int GL_SRC_ALPHA = 0x0302;
+    int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+
+    int GL_LESS = 0x0201;
+    int GL_LEQUAL = 0x0203;
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                               int offset);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                               Buffer ptr);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    void glUseProgram(int program);
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glEnable(int cap);
+
+    void glDisable(int cap);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    void glDepthFunc(int func);
+
+    void glDepthMask(boolean flag);
+}
@@ -0,0 +1,73 @@
+package com.roger.glcommon.gl;
+
+import android.opengl.GLES20;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+/**
+ * What the current OpenGL ES context supports. The queries need a current context and are not
+ * free, so callers check once per context, e.g. in onSurfaceCreated, and keep the answer.
+ */
+public final class GlCapabilities {
+    /** Lets glDrawElements take {@link GlApi#GL_UNSIGNED_INT} indices on OpenGL ES 2.0. */
+    public static final String OES_ELEMENT_INDEX_UINT = "GL_OES_element_index_uint";
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    private GlCapabilities() {
+    }
+
+    /**
+     * @return whether the current context lists the extension {@code name}
+     */
+    public static boolean hasExtension(String name) {
+        return hasExtension(GLES20.glGetString(GLES20.GL_EXTENSIONS), name);
+    }
+
+    /**
+     * @param extensions the space separated names of GL_EXTENSIONS, or null
+     * @return whether {@code extensions} holds {@code name} as a whole word, so that
+     * GL_EXT_foo does not match GL_EXT_foo_bar
+     */
+    public static boolean hasExtension(String extensions, String name) {
+        if (extensions == null || name.isEmpty()) {
+            return false;
+        }
+        int from = 0;
+        while (true) {
+            int start = extensions.indexOf(name, from);
+            if (start < 0) {
+                return false;
+            }
+            int end = start + name.length();
+            if ((start == 0 || extensions.charAt(start - 1) == ' ')
+                    && (end == extensions.length() || extensions.charAt(end) == ' ')) {
+                return true;
+            }
+            from = start + 1;
+        }
+    }
+
+    /**
+     * The OpenGL ES version the current context was created for, such as 2 after
+     * {@code GLSurfaceView.setEGLContextClientVersion(2)}. Drivers often return a newer context
+     * than asked for and report it in GL_VERSION, but only the version asked for may be used:
+     * its entry points are the only ones the driver has to honour.
+     *
+     * @return the client version, or 0 without a current context
+     */
+    public static int getClientVersion() {
+        EGL10 egl = (EGL10) EGLContext.getEGL();
+        EGLContext context = egl.eglGetCurrentContext();
+        if (context == null || context.equals(EGL10.EGL_NO_CONTEXT)) {
+            return 0;
+        }
+        int[] version = new int[1];
+        if (!egl.eglQueryContext(egl.eglGetCurrentDisplay(), context,
+                EGL_CONTEXT_CLIENT_VERSION, version)) {
+            return 0;
+        }
+        return version[0];
+    }
+}
@@ -0,0 +1,369 @@
+package com.roger.glcommon.gl;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * A {@link GlApi} that shadows the bound program, texture bindings, buffer bindings, capabilities,
+ * blend function, depth function, depth mask and enabled vertex attribute arrays, and drops calls
+ * that would not change any of them.
+ * <p>
+ * Buffer binds are deferred: {@link #glBindBuffer} only records the requested binding, which is
+ * issued right before a call that depends on it. A bind/unbind pair around every upload or
+ * attribute setup therefore costs nothing when the next user binds the same buffer again.
+ * <p>
+ * Until a piece of state has been set through this object it is unknown and the first call is
+ * always issued. Code that still calls GLES20 directly can be mixed in: call {@link #flush()}
+ * before it so deferred binds reach GL, and {@link #invalidate()} after it (and whenever the
+ * context is recreated) so the shadow copy is not trusted.
+ * <p>
+ * Only use an instance from the thread that owns its context.
+ */
+public class StateTrackingGl implements GlApi {
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 32;
+    private static final int MAX_CAPS = 8;
+
+    private static final int CAP_UNKNOWN = 0;
+    private static final int CAP_DISABLED = 1;
+    private static final int CAP_ENABLED = 2;
+
+    private final GlApi gl;
+
+    private int program = UNKNOWN;
+    private int activeUnit = UNKNOWN;
+    private final int[] texture2d = new int[MAX_TEXTURE_UNITS];
+    private final int[] textureCube = new int[MAX_TEXTURE_UNITS];
+
+    // What GL has bound and what the caller asked for; they differ only while a bind is deferred.
+    private int arrayBuffer = UNKNOWN;
+    private int elementBuffer = UNKNOWN;
+    private int pendingArrayBuffer = UNKNOWN;
+    private int pendingElementBuffer = UNKNOWN;
+
+    private final int[] capNames = new int[MAX_CAPS];
+    private final int[] capStates = new int[MAX_CAPS];
+    private int capCount;
+
+    private int blendSrc = UNKNOWN;
+    private int blendDst = UNKNOWN;
+    private int depthFunc = UNKNOWN;
+    private int depthMask = UNKNOWN;
+
+    // Bit i set in knownAttribs means the enabled state of attribute i is in enabledAttribs.
+    private int knownAttribs;
+    private int enabledAttribs;
+
+    private int requested;
+    private int issued;
+    private long totalRequested;
+    private long totalIssued;
+
+    public StateTrackingGl(GlApi gl) {
+        this.gl = gl;
+        invalidate();
+    }
+
+    /**
+     * Forgets all shadowed state so the next call of every kind is issued. Deferred buffer binds
+     * are kept and still issued by the next call that needs them.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        activeUnit = UNKNOWN;
+        Arrays.fill(texture2d, UNKNOWN);
+        Arrays.fill(textureCube, UNKNOWN);
+        arrayBuffer = UNKNOWN;
+        elementBuffer = UNKNOWN;
+        capCount = 0;
+        blendSrc = UNKNOWN;
+        blendDst = UNKNOWN;
+        depthFunc = UNKNOWN;
+        depthMask = UNKNOWN;
+        knownAttribs = 0;
+        enabledAttribs = 0;
+    }
+
+    /**
+     * Issues deferred buffer binds. Call before handing control to code that uses GL directly.
+     */
+    public void flush() {
+        flushArrayBuffer();
+        flushElementBuffer();
+    }
+
+    /**
+     * Starts a new frame for {@link #getIssuedCount()} and {@link #getSkippedCount()}.
+     */
+    public void beginFrame() {
+        requested = 0;
+        issued = 0;
+    }
+
+    /**
+     * @return state-changing calls passed on to GL since {@link #beginFrame()}
+     */
+    public int getIssuedCount() {
+        return issued;
+    }
+
+    /**
+     * @return state-changing calls dropped since {@link #beginFrame()}
+     */
+    public int getSkippedCount() {
+        return requested - issued;
+    }
+
+    public long getTotalIssuedCount() {
+        return totalIssued;
+    }
+
+    public long getTotalSkippedCount() {
+        return totalRequested - totalIssued;
+    }
+
+    private void request() {
+        requested++;
+        totalRequested++;
+    }
+
+    private void issue() {
+        issued++;
+        totalIssued++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        request();
+        if (program != this.program) {
+            issue();
+            gl.glUseProgram(program);
+            this.program = program;
+        }
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        request();
+        int unit = texture - GL_TEXTURE0;
+        if (unit != activeUnit || unit < 0 || unit >= MAX_TEXTURE_UNITS) {
+            issue();
+            gl.glActiveTexture(texture);
+            activeUnit = unit >= 0 && unit < MAX_TEXTURE_UNITS ? unit : UNKNOWN;
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        request();
+        int[] bindings = target == GL_TEXTURE_2D ? texture2d
+                : target == GL_TEXTURE_CUBE_MAP ? textureCube : null;
+        if (bindings == null || activeUnit == UNKNOWN) {
+            issue();
+            gl.glBindTexture(target, texture);
+        } else if (bindings[activeUnit] != texture) {
+            issue();
+            gl.glBindTexture(target, texture);
+            bindings[activeUnit] = texture;
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        request();
+        if (target == GL_ARRAY_BUFFER) {
+            pendingArrayBuffer = buffer;
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            pendingElementBuffer = buffer;
+        } else {
+            issue();
+            gl.glBindBuffer(target, buffer);
+        }
+    }
+
+    private void flushArrayBuffer() {
+        if (pendingArrayBuffer != UNKNOWN && pendingArrayBuffer != arrayBuffer) {
+            issue();
+            gl.glBindBuffer(GL_ARRAY_BUFFER, pendingArrayBuffer);
+            arrayBuffer = pendingArrayBuffer;
+        }
+    }
+
+    private void flushElementBuffer() {
+        if (pendingElementBuffer != UNKNOWN && pendingElementBuffer != elementBuffer) {
+            issue();
+            gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, pendingElementBuffer);
+            elementBuffer = pendingElementBuffer;
+        }
+    }
+
+    private void flushBuffer(int target) {
+        if (target == GL_ARRAY_BUFFER) {
+            flushArrayBuffer();
+        } else if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            flushElementBuffer();
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        setCap(cap, CAP_ENABLED);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        setCap(cap, CAP_DISABLED);
+    }
+
+    private void setCap(int cap, int state) {
+        request();
+        int slot = 0;
+        while (slot < capCount && capNames[slot] != cap) {
+            slot++;
+        }
+        if (slot < capCount && capStates[slot] == state) {
+            return;
+        }
+        issue();
+        if (state == CAP_ENABLED) {
+            gl.glEnable(cap);
+        } else {
+            gl.glDisable(cap);
+        }
+        if (slot == capCount && capCount < MAX_CAPS) {
+            capNames[slot] = cap;
+            capCount++;
+        }
+        if (slot < capCount) {
+            capStates[slot] = state;
+        }
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        request();
+        if (sfactor != blendSrc || dfactor != blendDst) {
+            issue();
+            gl.glBlendFunc(sfactor, dfactor);
+            blendSrc = sfactor;
+            blendDst = dfactor;
+        }
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        request();
+        if (func != depthFunc) {
+            issue();
+            gl.glDepthFunc(func);
+            depthFunc = func;
+        }
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        request();
+        int mask = flag ? 1 : 0;
+        if (mask != depthMask) {
+            issue();
+            gl.glDepthMask(flag);
+            depthMask = mask;
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        request();
+        int bit = index >= 0 && index < 32 ? 1 << index : 0;
+        if (bit == 0 || (knownAttribs & enabledAttribs & bit) == 0) {
+            issue();
+            gl.glEnableVertexAttribArray(index);
+            knownAttribs |= bit;
+            enabledAttribs |= bit;
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        request();
+        int bit = index >= 0 && index < 32 ? 1 << index : 0;
+        if (bit == 0 || (knownAttribs & bit) == 0 || (enabledAttribs & bit) != 0) {
+            issue();
+            gl.glDisableVertexAttribArray(index);
+            knownAttribs |= bit;
+            enabledAttribs &= ~bit;
+        }
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        gl.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        gl.glDeleteBuffers(n, buffers, offset);
+        // GL unbinds deleted buffers; a deferred bind of one would now be an error.
+        for (int i = offset; i < offset + n; i++) {
+            int buffer = buffers[i];
+            if (buffer == 0) {
+                continue;
+            }
+            if (arrayBuffer == buffer) {
+                arrayBuffer = 0;
+            }
+            if (pendingArrayBuffer == buffer) {
+                pendingArrayBuffer = 0;
+            }
+            if (elementBuffer == buffer) {
+                elementBuffer = 0;
+            }
+            if (pendingElementBuffer == buffer) {
+                pendingElementBuffer = 0;
+            }
+        }
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        flushBuffer(target);
+        gl.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        flushBuffer(target);
+        gl.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, int offset) {
+        flushArrayBuffer();
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer ptr) {
+        flushArrayBuffer();
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        gl.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        flushElementBuffer();
+        gl.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        flushElementBuffer();
+        gl.glDrawElements(mode, count, type, indices);
+    }
+}
@@ -0,0 +1,19 @@
+package com.roger.glcommon.particles;
+
+/**
+ * A position dependent force applied by {@link ParticleSimulation} on every time step, such
+ * as a gust of wind or a vortex.
+ * <p>
+ * The simulation calls {@link #apply} from several threads at once, each with a disjoint
+ * range of particles, so implementations must not keep per-call state in fields.
+ */
+public interface ForceField {
+    /**
+     * Adds the velocity change over {@code dt} seconds to {@code vx}, {@code vy} and
+     * {@code vz} for particles {@code from} (inclusive) to {@code to} (exclusive).
+     *
+     * @param time simulated time at the start of the step, in seconds
+     */
+    void apply(float[] x, float[] y, float[] z, float[] vx, float[] vy, float[] vz, int from,
+               int to, float time, float dt);
+}
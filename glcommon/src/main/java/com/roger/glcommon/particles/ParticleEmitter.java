@@ -0,0 +1,185 @@
+package com.roger.glcommon.particles;
+
+/**
+ * Shoots particles from a point along a direction, jittered within a cone, straight into a
+ * {@link ParticleStore}.
+ * <p>
+ * The cone is sampled ahead of time: the constructor rotates the direction by random Euler
+ * angles within the variance, the same way a per-particle rotation matrix would, and keeps the
+ * results as three parallel arrays. Emitting then picks a table entry and a speed with a
+ * xorshift generator and writes the floats in place, so {@link #emit} allocates nothing and
+ * does no trigonometry however many particles it writes. The color is decoded once.
+ * <p>
+ * Particles use the layout of the book's particle systems: position (3), color (3),
+ * direction (3) and start time (1), {@link #FLOATS_PER_PARTICLE} floats in all.
+ */
+public class ParticleEmitter {
+    public static final int POSITION_OFFSET = 0;
+    public static final int COLOR_OFFSET = 3;
+    public static final int DIRECTION_OFFSET = 6;
+    public static final int START_TIME_OFFSET = 9;
+    public static final int FLOATS_PER_PARTICLE = 10;
+
+    /** Default number of precomputed directions; a power of two. */
+    public static final int DEFAULT_TABLE_SIZE = 1024;
+
+    private final float x, y, z;
+    private final float red, green, blue;
+    private final float speedVariance;
+    private final float[] tableX;
+    private final float[] tableY;
+    private final float[] tableZ;
+    private final int tableMask;
+    private int seed;
+
+    public ParticleEmitter(float x, float y, float z, float directionX, float directionY,
+                           float directionZ, int color, float angleVarianceInDegrees,
+                           float speedVariance) {
+        this(x, y, z, directionX, directionY, directionZ, color, angleVarianceInDegrees,
+                speedVariance, DEFAULT_TABLE_SIZE, (int) System.nanoTime());
+    }
+
+    /**
+     * @param color     an ARGB color as built by {@code android.graphics.Color}; alpha is ignored
+     * @param tableSize number of precomputed directions, a power of two
+     * @param seed      seeds both the table and emission, so emitters with the same seed
+     *                  produce the same particles
+     */
+    public ParticleEmitter(float x, float y, float z, float directionX, float directionY,
+                           float directionZ, int color, float angleVarianceInDegrees,
+                           float speedVariance, int tableSize, int seed) {
+        if (tableSize <= 0 || (tableSize & (tableSize - 1)) != 0) {
+            throw new IllegalArgumentException("Table size must be a power of two: " + tableSize);
+        }
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        red = ((color >> 16) & 0xFF) / 255f;
+        green = ((color >> 8) & 0xFF) / 255f;
+        blue = (color & 0xFF) / 255f;
+        this.speedVariance = speedVariance;
+        // xorshift gets stuck at 0
+        this.seed = seed == 0 ? 0x9E3779B9 : seed;
+
+        tableX = new float[tableSize];
+        tableY = new float[tableSize];
+        tableZ = new float[tableSize];
+        tableMask = tableSize - 1;
+        for (int i = 0; i < tableSize; i++) {
+            rotate(i, directionX, directionY, directionZ,
+                    (nextFloat() - 0.5f) * angleVarianceInDegrees,
+                    (nextFloat() - 0.5f) * angleVarianceInDegrees,
+                    (nextFloat() - 0.5f) * angleVarianceInDegrees);
+        }
+    }
+
+    /**
+     * Stores the direction rotated like {@code Matrix.setRotateEulerM} followed by
+     * {@code Matrix.multiplyMV} would.
+     */
+    private void rotate(int index, float vx, float vy, float vz, float degreesX, float degreesY,
+                        float degreesZ) {
+        double rx = Math.toRadians(degreesX);
+        double ry = Math.toRadians(degreesY);
+        double rz = Math.toRadians(degreesZ);
+        double cx = Math.cos(rx), sx = Math.sin(rx);
+        double cy = Math.cos(ry), sy = Math.sin(ry);
+        double cz = Math.cos(rz), sz = Math.sin(rz);
+        double cxsy = cx * sy;
+        double sxsy = sx * sy;
+        tableX[index] = (float) (cy * cz * vx + (cxsy * cz + cx * sz) * vy
+                + (-sxsy * cz + sx * sz) * vz);
+        tableY[index] = (float) (-cy * sz * vx + (-cxsy * sz + cx * cz) * vy
+                + (sxsy * sz + sx * cz) * vz);
+        tableZ[index] = (float) (sy * vx - sx * cy * vy + cx * cy * vz);
+    }
+
+    /**
+     * Writes {@code count} particles born at {@code startTime} into the next slots of
+     * {@code store}. When {@code count} exceeds the store's capacity only the last ones would
+     * survive, so only as many as fit are written.
+     */
+    public void emit(ParticleStore store, float startTime, int count) {
+        if (store.getFloatsPerParticle() < FLOATS_PER_PARTICLE) {
+            throw new IllegalArgumentException("Store holds " + store.getFloatsPerParticle()
+                    + " floats per particle, need " + FLOATS_PER_PARTICLE);
+        }
+        int maxParticles = store.getMaxParticles();
+        int n = Math.min(count, maxParticles);
+        if (n <= 0) {
+            return;
+        }
+        int stride = store.getFloatsPerParticle();
+        float[] data = store.getData();
+        int slot = store.add(n);
+        int s = seed;
+        for (int i = 0; i < n; i++) {
+            // Inlined xorshift32, one step for the table index and one for the speed.
+            s ^= s << 13;
+            s ^= s >>> 17;
+            s ^= s << 5;
+            int sample = s & tableMask;
+            s ^= s << 13;
+            s ^= s >>> 17;
+            s ^= s << 5;
+            float speed = 1f + (s >>> 8) * (1f / (1 << 24)) * speedVariance;
+
+            int offset = slot * stride;
+            data[offset + POSITION_OFFSET] = x;
+            data[offset + POSITION_OFFSET + 1] = y;
+            data[offset + POSITION_OFFSET + 2] = z;
+            data[offset + COLOR_OFFSET] = red;
+            data[offset + COLOR_OFFSET + 1] = green;
+            data[offset + COLOR_OFFSET + 2] = blue;
+            data[offset + DIRECTION_OFFSET] = tableX[sample] * speed;
+            data[offset + DIRECTION_OFFSET + 1] = tableY[sample] * speed;
+            data[offset + DIRECTION_OFFSET + 2] = tableZ[sample] * speed;
+            data[offset + START_TIME_OFFSET] = startTime;
+
+            slot++;
+            if (slot == maxParticles) {
+                slot = 0;
+            }
+        }
+        seed = s;
+    }
+
+    /**
+     * Adds {@code count} particles born at {@code startTime} to {@code simulation}, with the
+     * direction as their initial velocity. Particles that do not fit are dropped.
+     */
+    public void emit(ParticleSimulation simulation, float startTime, int count) {
+        int first = simulation.allocate(count);
+        int end = simulation.getCount();
+        int s = seed;
+        for (int i = first; i < end; i++) {
+            s ^= s << 13;
+            s ^= s >>> 17;
+            s ^= s << 5;
+            int sample = s & tableMask;
+            s ^= s << 13;
+            s ^= s >>> 17;
+            s ^= s << 5;
+            float speed = 1f + (s >>> 8) * (1f / (1 << 24)) * speedVariance;
+            simulation.set(i, x, y, z, tableX[sample] * speed, tableY[sample] * speed,
+                    tableZ[sample] * speed, red, green, blue, startTime);
+        }
+        seed = s;
+    }
+
+    public int getTableSize() {
+        return tableMask + 1;
+    }
+
+    /**
+     * @return a float in [0, 1) from the emitter's generator
+     */
+    private float nextFloat() {
+        int s = seed;
+        s ^= s << 13;
+        s ^= s >>> 17;
+        s ^= s << 5;
+        seed = s;
+        return (s >>> 8) * (1f / (1 << 24));
+    }
+}
@@ -0,0 +1,579 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.concurrent.StripedRunner;
+import com.roger.glcommon.spatial.SpatialHash;
+import com.roger.glcommon.terrain.HeightField;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves particles on the CPU instead of in the vertex shader, so they can respond to forces,
+ * collide with terrain and die early.
+ * <p>
+ * Particle state is kept as parallel arrays (position, velocity, color and birth time) and
+ * integrated with a fixed time step: each {@link #update(float)} runs as many whole steps as
+ * fit in the time since the previous one, at most {@link #MAX_STEPS_PER_UPDATE}. The forces
+ * are gravity, drag towards the wind velocity, repulsion between nearby particles and an
+ * optional {@link ForceField}; particles falling below a {@link HeightField} bounce off it or
+ * die.
+ * <p>
+ * The particles are processed in chunks of {@link #CHUNK_SIZE} that the calling thread and
+ * up to {@code parallelism - 1} pool threads take in turn, each chunk running all its steps
+ * while it is in cache. Dead particles are then removed without changing the order of the
+ * others: every chunk packs its survivors, then the chunks are moved together. Live
+ * particles therefore always occupy indices [0, {@link #getCount()}), and
+ * {@link #writeTo(ParticleStore)} marks exactly that range for upload.
+ * <p>
+ * Use from one thread, normally the GL thread; settings must not change during an update.
+ */
+public class ParticleSimulation {
+    public static final float DEFAULT_TIME_STEP = 1f / 60f;
+    public static final float DEFAULT_LIFETIME = 10f;
+    /**
+     * Steps beyond this many per update are dropped, so one long stall does not make the
+     * following frames slower still.
+     */
+    public static final int MAX_STEPS_PER_UPDATE = 8;
+    static final int CHUNK_SIZE = 4096;
+
+    private static final int PASS_STEP = 0;
+    private static final int PASS_WRITE = 1;
+
+    private static ExecutorService defaultExecutor;
+
+    private final int maxParticles;
+    private final float[] x, y, z;
+    private final float[] vx, vy, vz;
+    private final float[] red, green, blue;
+    private final float[] birth;
+    private final boolean[] killed;
+    private final int[] chunkLive;
+    private int count;
+    private long droppedCount;
+
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final StripedRunner runner;
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    private float timeStep = DEFAULT_TIME_STEP;
+    // Matches the shader's fall of elapsedTime^2 / 8.
+    private float gravityX, gravityY = -0.25f, gravityZ;
+    private float drag;
+    private float windX, windY, windZ;
+    private float lifetime = DEFAULT_LIFETIME;
+    private ForceField forceField;
+    private SpatialHash neighbours;
+    private float repulsionRadius;
+    private float repulsionStrength;
+    private HeightField terrain;
+    private float restitution = 0.5f;
+    private float friction = 0.8f;
+    private boolean killOnCollision;
+
+    private boolean started;
+    private float simulatedTime;
+
+    // Arguments of the pass being run, read by every thread of the pass.
+    private int passMode;
+    private int passChunks;
+    private int passSteps;
+    private float passStartTime;
+    private float passEndTime;
+    private float[] passData;
+    private int passStride;
+
+    /**
+     * Simulates on the calling thread and one pool thread per additional core.
+     */
+    public ParticleSimulation(int maxParticles) {
+        this(maxParticles, getDefaultExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor    runs the chunks not taken by the calling thread; null to simulate on
+     *                    the calling thread only
+     * @param parallelism number of threads working on an update, usually the number of cores
+     */
+    public ParticleSimulation(int maxParticles, ExecutorService executor, int parallelism) {
+        if (maxParticles <= 0) {
+            throw new IllegalArgumentException("Need room for at least one particle: "
+                    + maxParticles);
+        }
+        this.maxParticles = maxParticles;
+        this.executor = executor;
+        this.parallelism = executor == null ? 1 : Math.max(parallelism, 1);
+        // Every thread takes chunks until none are left, whichever stripe it runs.
+        runner = new StripedRunner(executor, this.parallelism, new StripedRunner.Task() {
+            @Override
+            public void runStripe(int stripe) {
+                runChunks();
+            }
+        });
+        x = new float[maxParticles];
+        y = new float[maxParticles];
+        z = new float[maxParticles];
+        vx = new float[maxParticles];
+        vy = new float[maxParticles];
+        vz = new float[maxParticles];
+        red = new float[maxParticles];
+        green = new float[maxParticles];
+        blue = new float[maxParticles];
+        birth = new float[maxParticles];
+        killed = new boolean[maxParticles];
+        chunkLive = new int[(maxParticles + CHUNK_SIZE - 1) / CHUNK_SIZE];
+    }
+
+    /**
+     * A pool with one daemon thread per core, shared by every simulation created without an
+     * executor of its own.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            final AtomicInteger threads = new AtomicInteger();
+            defaultExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "ParticleSimulation-" + threads.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return defaultExecutor;
+    }
+
+    public void setTimeStep(float seconds) {
+        if (!(seconds > 0f)) {
+            throw new IllegalArgumentException("Time step must be positive: " + seconds);
+        }
+        timeStep = seconds;
+    }
+
+    /**
+     * Sets the acceleration of gravity; the default matches the particle vertex shader.
+     */
+    public void setGravity(float x, float y, float z) {
+        gravityX = x;
+        gravityY = y;
+        gravityZ = z;
+    }
+
+    /**
+     * @param drag fraction of the difference between a particle's velocity and the wind
+     *             velocity removed per second; 0 disables both drag and wind
+     */
+    public void setDrag(float drag) {
+        this.drag = drag;
+    }
+
+    /**
+     * Sets the velocity of the air, which drag pulls particles towards.
+     */
+    public void setWind(float x, float y, float z) {
+        windX = x;
+        windY = y;
+        windZ = z;
+    }
+
+    public void setForceField(ForceField forceField) {
+        this.forceField = forceField;
+    }
+
+    /**
+     * Pushes apart particles closer than {@code radius}, with a speed change of up to
+     * {@code strength} per second that falls to zero at the radius. The neighbours are found
+     * with a {@link SpatialHash} of the positions at the start of each update, so their
+     * movement during the update's steps is not seen. A strength of 0 disables repulsion.
+     */
+    public void setRepulsion(float radius, float strength) {
+        if (strength == 0f) {
+            neighbours = null;
+            return;
+        }
+        if (!(radius > 0f)) {
+            throw new IllegalArgumentException("Repulsion radius must be positive: " + radius);
+        }
+        if (neighbours == null || neighbours.getCellSize() != radius) {
+            int tableSize = Integer.highestOneBit(Math.max(maxParticles, 16) - 1) << 1;
+            neighbours = new SpatialHash(radius, tableSize, executor, parallelism);
+        }
+        repulsionRadius = radius;
+        repulsionStrength = strength;
+    }
+
+    /**
+     * @param seconds age at which particles are removed
+     */
+    public void setLifetime(float seconds) {
+        lifetime = seconds;
+    }
+
+    /**
+     * Makes particles collide with {@code terrain}, or with nothing when null.
+     *
+     * @param restitution     fraction of the vertical speed kept when bouncing
+     * @param friction        fraction of the horizontal speed kept when bouncing
+     * @param killOnCollision whether particles die on contact instead of bouncing
+     */
+    public void setTerrain(HeightField terrain, float restitution, float friction,
+                           boolean killOnCollision) {
+        this.terrain = terrain;
+        this.restitution = restitution;
+        this.friction = friction;
+        this.killOnCollision = killOnCollision;
+    }
+
+    /**
+     * Makes room for up to {@code count} new particles after the live ones. Particles that do
+     * not fit are dropped and counted by {@link #getDroppedCount()}.
+     *
+     * @return the index of the first new particle; {@link #getCount()} minus this index is the
+     * number of particles to {@link #set}
+     */
+    public int allocate(int count) {
+        int n = Math.max(0, Math.min(count, maxParticles - this.count));
+        droppedCount += Math.max(0, count - n);
+        int first = this.count;
+        this.count += n;
+        return first;
+    }
+
+    /**
+     * Sets every property of particle {@code index}, which must have been allocated.
+     */
+    public void set(int index, float x, float y, float z, float vx, float vy, float vz, float red,
+                    float green, float blue, float birthTime) {
+        this.x[index] = x;
+        this.y[index] = y;
+        this.z[index] = z;
+        this.vx[index] = vx;
+        this.vy[index] = vy;
+        this.vz[index] = vz;
+        this.red[index] = red;
+        this.green[index] = green;
+        this.blue[index] = blue;
+        this.birth[index] = birthTime;
+        killed[index] = false;
+    }
+
+    /**
+     * Advances the simulation to {@code currentTime} in whole time steps and removes the
+     * particles that died. The first call only starts the clock.
+     *
+     * @return the number of steps run
+     */
+    public int update(float currentTime) {
+        if (!started) {
+            started = true;
+            simulatedTime = currentTime;
+            return 0;
+        }
+        int steps = (int) ((currentTime - simulatedTime) / timeStep);
+        if (steps <= 0) {
+            return 0;
+        }
+        float startTime = simulatedTime;
+        if (steps > MAX_STEPS_PER_UPDATE) {
+            steps = MAX_STEPS_PER_UPDATE;
+            simulatedTime = currentTime;
+        } else {
+            simulatedTime += steps * timeStep;
+        }
+        if (count == 0) {
+            return steps;
+        }
+        if (neighbours != null) {
+            neighbours.build(x, y, z, count);
+        }
+        passSteps = steps;
+        passStartTime = startTime;
+        passEndTime = simulatedTime;
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        runPass(PASS_STEP, chunks);
+
+        // Move the packed chunks together, keeping their order.
+        int live = 0;
+        for (int c = 0; c < chunks; c++) {
+            int n = chunkLive[c];
+            int from = c * CHUNK_SIZE;
+            if (n > 0 && from != live) {
+                move(from, live, n);
+            }
+            live += n;
+        }
+        count = live;
+        return steps;
+    }
+
+    /**
+     * Writes the live particles into slots [0, {@link #getCount()}) of {@code store} in the
+     * {@link ParticleEmitter} layout, with the direction zeroed so the shader does not move
+     * them again, and marks them for upload.
+     */
+    public void writeTo(ParticleStore store) {
+        if (store.getFloatsPerParticle() < ParticleEmitter.FLOATS_PER_PARTICLE
+                || store.getMaxParticles() < maxParticles) {
+            throw new IllegalArgumentException("Store of " + store.getMaxParticles() + "x"
+                    + store.getFloatsPerParticle() + " floats cannot hold " + maxParticles
+                    + " particles");
+        }
+        passData = store.getData();
+        passStride = store.getFloatsPerParticle();
+        try {
+            runPass(PASS_WRITE, (count + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        } finally {
+            passData = null;
+        }
+        store.setParticleCount(count);
+        store.markDirty(0, count);
+    }
+
+    /**
+     * Removes every particle.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMaxParticles() {
+        return maxParticles;
+    }
+
+    /**
+     * @return the number of particles that did not fit since the simulation was created
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the time the particles have been simulated up to
+     */
+    public float getSimulatedTime() {
+        return simulatedTime;
+    }
+
+    public float getX(int index) {
+        return x[index];
+    }
+
+    public float getY(int index) {
+        return y[index];
+    }
+
+    public float getZ(int index) {
+        return z[index];
+    }
+
+    public float getVelocityX(int index) {
+        return vx[index];
+    }
+
+    public float getVelocityY(int index) {
+        return vy[index];
+    }
+
+    public float getVelocityZ(int index) {
+        return vz[index];
+    }
+
+    public float getBirthTime(int index) {
+        return birth[index];
+    }
+
+    private void runPass(int mode, int chunks) {
+        if (chunks == 0) {
+            return;
+        }
+        passMode = mode;
+        passChunks = chunks;
+        nextChunk.set(0);
+        runner.run(Math.min(parallelism, chunks));
+    }
+
+    private void runChunks() {
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) < passChunks) {
+            int from = chunk * CHUNK_SIZE;
+            int to = Math.min(from + CHUNK_SIZE, count);
+            if (passMode == PASS_STEP) {
+                step(from, to);
+                chunkLive[chunk] = pack(from, to) - from;
+            } else {
+                write(from, to);
+            }
+        }
+    }
+
+    private void step(int from, int to) {
+        final float dt = timeStep;
+        final float gx = gravityX * dt, gy = gravityY * dt, gz = gravityZ * dt;
+        final float k = drag * dt;
+        final float wx = windX, wy = windY, wz = windZ;
+        final ForceField field = forceField;
+        final HeightField ground = terrain;
+        final float bounce = restitution;
+        final float slide = friction;
+        final boolean kill = killOnCollision;
+        final SpatialHash hash = neighbours;
+        final float impulse = repulsionStrength * dt;
+        for (int s = 0; s < passSteps; s++) {
+            float time = passStartTime + s * dt;
+            if (field != null) {
+                field.apply(x, y, z, vx, vy, vz, from, to, time, dt);
+            }
+            for (int i = from; i < to; i++) {
+                // Particles born during this update start moving at their birth step.
+                if (birth[i] > time) {
+                    continue;
+                }
+                if (hash != null) {
+                    repel(hash, i, impulse);
+                }
+                float velocityX = vx[i] + gx + k * (wx - vx[i]);
+                float velocityY = vy[i] + gy + k * (wy - vy[i]);
+                float velocityZ = vz[i] + gz + k * (wz - vz[i]);
+                float px = x[i] + velocityX * dt;
+                float py = y[i] + velocityY * dt;
+                float pz = z[i] + velocityZ * dt;
+                if (ground != null) {
+                    float h = ground.getHeight(px, pz);
+                    if (py < h) {
+                        if (kill) {
+                            killed[i] = true;
+                        } else {
+                            py = h;
+                            if (velocityY < 0f) {
+                                velocityY = -velocityY * bounce;
+                            }
+                            velocityX *= slide;
+                            velocityZ *= slide;
+                        }
+                    }
+                }
+                vx[i] = velocityX;
+                vy[i] = velocityY;
+                vz[i] = velocityZ;
+                x[i] = px;
+                y[i] = py;
+                z[i] = pz;
+            }
+        }
+    }
+
+    /**
+     * Adds the push of the particles indexed in {@code hash} within the repulsion radius of
+     * particle {@code i} to its velocity.
+     */
+    private void repel(SpatialHash hash, int i, float impulse) {
+        final float radius = repulsionRadius;
+        final float radiusSquared = radius * radius;
+        final int[] index = hash.getSortedIndex();
+        final float[] sortedX = hash.getSortedX();
+        final float[] sortedY = hash.getSortedY();
+        final float[] sortedZ = hash.getSortedZ();
+        float px = x[i], py = y[i], pz = z[i];
+        int cellX = hash.cell(px), cellY = hash.cell(py), cellZ = hash.cell(pz);
+        float pushX = 0f, pushY = 0f, pushZ = 0f;
+        for (int cz = cellZ - 1; cz <= cellZ + 1; cz++) {
+            for (int cy = cellY - 1; cy <= cellY + 1; cy++) {
+                for (int cx = cellX - 1; cx <= cellX + 1; cx++) {
+                    int bucket = hash.bucket(cx, cy, cz);
+                    int end = hash.getBucketEnd(bucket);
+                    for (int j = hash.getBucketStart(bucket); j < end; j++) {
+                        if (index[j] == i) {
+                            continue;
+                        }
+                        float dx = px - sortedX[j], dy = py - sortedY[j], dz = pz - sortedZ[j];
+                        float distanceSquared = dx * dx + dy * dy + dz * dz;
+                        // Other cells sharing the bucket would count their points twice.
+                        if (distanceSquared >= radiusSquared || distanceSquared == 0f
+                                || hash.cell(sortedX[j]) != cx || hash.cell(sortedY[j]) != cy
+                                || hash.cell(sortedZ[j]) != cz) {
+                            continue;
+                        }
+                        float distance = (float) Math.sqrt(distanceSquared);
+                        float push = (1f - distance / radius) / distance;
+                        pushX += dx * push;
+                        pushY += dy * push;
+                        pushZ += dz * push;
+                    }
+                }
+            }
+        }
+        vx[i] += pushX * impulse;
+        vy[i] += pushY * impulse;
+        vz[i] += pushZ * impulse;
+    }
+
+    /**
+     * Moves the survivors of [from, to) to its start, in order.
+     *
+     * @return the end of the survivors
+     */
+    private int pack(int from, int to) {
+        final float oldest = passEndTime - lifetime;
+        int write = from;
+        for (int i = from; i < to; i++) {
+            if (killed[i] || birth[i] < oldest) {
+                killed[i] = false;
+                continue;
+            }
+            if (write != i) {
+                x[write] = x[i];
+                y[write] = y[i];
+                z[write] = z[i];
+                vx[write] = vx[i];
+                vy[write] = vy[i];
+                vz[write] = vz[i];
+                red[write] = red[i];
+                green[write] = green[i];
+                blue[write] = blue[i];
+                birth[write] = birth[i];
+            }
+            write++;
+        }
+        return write;
+    }
+
+    private void move(int from, int to, int n) {
+        System.arraycopy(x, from, x, to, n);
+        System.arraycopy(y, from, y, to, n);
+        System.arraycopy(z, from, z, to, n);
+        System.arraycopy(vx, from, vx, to, n);
+        System.arraycopy(vy, from, vy, to, n);
+        System.arraycopy(vz, from, vz, to, n);
+        System.arraycopy(red, from, red, to, n);
+        System.arraycopy(green, from, green, to, n);
+        System.arraycopy(blue, from, blue, to, n);
+        System.arraycopy(birth, from, birth, to, n);
+    }
+
+    private void write(int from, int to) {
+        final float[] data = passData;
+        final int stride = passStride;
+        for (int i = from; i < to; i++) {
+            int offset = i * stride;
+            data[offset + ParticleEmitter.POSITION_OFFSET] = x[i];
+            data[offset + ParticleEmitter.POSITION_OFFSET + 1] = y[i];
+            data[offset + ParticleEmitter.POSITION_OFFSET + 2] = z[i];
+            data[offset + ParticleEmitter.COLOR_OFFSET] = red[i];
+            data[offset + ParticleEmitter.COLOR_OFFSET + 1] = green[i];
+            data[offset + ParticleEmitter.COLOR_OFFSET + 2] = blue[i];
+            data[offset + ParticleEmitter.DIRECTION_OFFSET] = 0f;
+            data[offset + ParticleEmitter.DIRECTION_OFFSET + 1] = 0f;
+            data[offset + ParticleEmitter.DIRECTION_OFFSET + 2] = 0f;
+            data[offset + ParticleEmitter.START_TIME_OFFSET] = birth[i];
+        }
+    }
+}
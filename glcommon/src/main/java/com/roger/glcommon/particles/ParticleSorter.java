@@ -0,0 +1,435 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.concurrent.StripedRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Orders particles back to front for alpha blending, as indices to draw them with.
+ * <p>
+ * Each {@link #sort} computes the view space depth of every particle and sorts the indices by
+ * it with an LSD radix sort: the depths are mapped to integers that compare like the floats,
+ * then placed by one byte at a time in four stable passes. Passes in which every key has the
+ * same byte, typically the top one, are skipped.
+ * <p>
+ * The order of the previous sort is reused when a sample of it shows it still nearly sorted,
+ * as it is when particles and camera move little between frames: an insertion sort that gives
+ * up after {@link #COHERENT_MOVES_PER_PARTICLE} moves per particle finishes it, and only a
+ * failed attempt falls back to the radix sort. When the order has not changed the indices
+ * need no upload. Otherwise the radix sort starts from the stored order, which reads the
+ * particles sequentially.
+ * <p>
+ * With an executor, sorts of at least {@link #PARALLEL_THRESHOLD} particles compute depths and
+ * run the radix passes in stripes: each stripe counts the bytes of its keys, the counts are
+ * turned into offsets per stripe and byte value, and each stripe places its keys. The order is
+ * the same as a serial sort's.
+ * <p>
+ * Use from one thread, normally the GL thread.
+ */
+public class ParticleSorter {
+    /** Sorts of fewer particles are not worth splitting across threads. */
+    public static final int PARALLEL_THRESHOLD = 65536;
+    /**
+     * Work allowed for finishing the previous order with an insertion sort before sorting
+     * from scratch.
+     */
+    public static final int COHERENT_MOVES_PER_PARTICLE = 8;
+    /** Neighbours of the previous order checked before following it. */
+    private static final int SAMPLES = 256;
+    private static final int MAX_SAMPLED_DESCENTS = 4;
+    /** Most particles unsigned short indices can address. */
+    public static final int MAX_SHORT_INDICES = 65536;
+
+    private static final int RADIX = 256;
+    private static final int PASSES = 4;
+
+    private static final int PHASE_KEYS = 0;
+    private static final int PHASE_GATHER = 1;
+    private static final int PHASE_COUNT = 2;
+    private static final int PHASE_SCATTER = 3;
+
+    private final int maxParticles;
+    // Keys by particle, read in the stored order so the particle data streams through.
+    private final int[] particleKeys;
+    // Keys by position in the order.
+    private int[] order;
+    private int[] keys;
+    private int[] scratchOrder;
+    private int[] scratchKeys;
+    private short[] shortIndices;
+    private int count;
+
+    private long radixSorts;
+    private long coherentSorts;
+
+    private final int parallelism;
+    private final int[][] stripeCounts;
+    private final StripedRunner runner;
+
+    // Arguments of the sort being run, read by the stripes.
+    private int phase;
+    private int stripeCount;
+    private int shift;
+    private float[] passData;
+    private int passStride;
+    private float depthX, depthY, depthZ, depthW;
+    private boolean passMoving;
+    private boolean passIdentity;
+    private float passTime;
+    private float passFall;
+
+    public ParticleSorter(int maxParticles) {
+        this(maxParticles, null, 1);
+    }
+
+    /**
+     * @param executor    runs all stripes but the last of a parallel sort, or null to always
+     *                    sort on the calling thread
+     * @param parallelism number of stripes of a parallel sort, usually the number of cores
+     */
+    public ParticleSorter(int maxParticles, ExecutorService executor, int parallelism) {
+        if (maxParticles <= 0) {
+            throw new IllegalArgumentException("Need room for at least one particle: "
+                    + maxParticles);
+        }
+        this.maxParticles = maxParticles;
+        particleKeys = new int[maxParticles];
+        order = new int[maxParticles];
+        keys = new int[maxParticles];
+        scratchOrder = new int[maxParticles];
+        scratchKeys = new int[maxParticles];
+        this.parallelism = executor == null ? 1 : Math.max(parallelism, 1);
+        stripeCounts = new int[this.parallelism][RADIX];
+        runner = new StripedRunner(executor, this.parallelism, new StripedRunner.Task() {
+            @Override
+            public void runStripe(int stripe) {
+                ParticleSorter.this.runStripe(stripe);
+            }
+        });
+    }
+
+    /**
+     * Sorts particles 0 to {@code count - 1} of {@code data}, laid out as
+     * {@link ParticleEmitter} writes them, by the depth of their stored position, e.g. after
+     * {@link ParticleSimulation#writeTo(ParticleStore)}.
+     *
+     * @param viewMatrix the matrix from the particles' space to view space, column-major
+     * @return whether the order changed since the previous sort
+     */
+    public boolean sort(float[] data, int stride, int count, float[] viewMatrix) {
+        passMoving = false;
+        return sortByDepth(data, stride, count, viewMatrix, 0f, 0f);
+    }
+
+    /**
+     * Sorts particles that the vertex shader moves from their start position along their
+     * direction and down by {@code fall} times their age squared, by their depth at
+     * {@code time}.
+     *
+     * @param fall gravity term of the shader: 1/8 for the particle shaders of the book
+     * @return whether the order changed since the previous sort
+     */
+    public boolean sortMoving(float[] data, int stride, int count, float[] viewMatrix,
+                              float time, float fall) {
+        passMoving = true;
+        return sortByDepth(data, stride, count, viewMatrix, time, fall);
+    }
+
+    private boolean sortByDepth(float[] data, int stride, int count, float[] viewMatrix,
+                                float time, float fall) {
+        if (count < 0 || count > maxParticles || (long) count * stride > data.length) {
+            throw new IllegalArgumentException("Cannot sort " + count + " particles");
+        }
+        // Without a previous order there is nothing to be coherent with.
+        boolean hadOrder = this.count > 0;
+        boolean changed = resize(count);
+        if (count == 0) {
+            return changed;
+        }
+        passData = data;
+        passStride = stride;
+        passTime = time;
+        passFall = fall;
+        // View space z, which grows towards the viewer.
+        depthX = viewMatrix[2];
+        depthY = viewMatrix[6];
+        depthZ = viewMatrix[10];
+        depthW = viewMatrix[14];
+        stripeCount = count >= PARALLEL_THRESHOLD ? parallelism : 1;
+        try {
+            runPhase(PHASE_KEYS);
+        } finally {
+            passData = null;
+        }
+
+        // Following a disordered previous order costs a random read per particle and helps
+        // nothing, so a sample of it decides whether to start from the stored order instead.
+        passIdentity = !hadOrder || !isSampleNearlySorted();
+        runPhase(PHASE_GATHER);
+        int moves = passIdentity ? -1 : insertionSort(count * COHERENT_MOVES_PER_PARTICLE);
+        if (moves < 0) {
+            radixSort();
+            radixSorts++;
+            return true;
+        }
+        coherentSorts++;
+        return changed || moves > 0;
+    }
+
+    /**
+     * @return whether at most {@link #MAX_SAMPLED_DESCENTS} of {@link #SAMPLES} evenly spread
+     * neighbours of the previous order are out of order
+     */
+    private boolean isSampleNearlySorted() {
+        int step = Math.max(1, (count - 1) / SAMPLES);
+        int descents = 0;
+        for (int j = 1; j < count; j += step) {
+            int previous = particleKeys[order[j - 1]] ^ Integer.MIN_VALUE;
+            if (previous > (particleKeys[order[j]] ^ Integer.MIN_VALUE)
+                    && ++descents > MAX_SAMPLED_DESCENTS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adapts the previous order to a new particle count: indices of particles that no longer
+     * exist are removed and those of new particles appended.
+     *
+     * @return whether the order changed
+     */
+    private boolean resize(int newCount) {
+        if (newCount == count) {
+            return false;
+        }
+        if (newCount > count) {
+            for (int i = count; i < newCount; i++) {
+                order[i] = i;
+            }
+        } else {
+            int write = 0;
+            for (int j = 0; j < count; j++) {
+                if (order[j] < newCount) {
+                    order[write++] = order[j];
+                }
+            }
+        }
+        count = newCount;
+        return true;
+    }
+
+    /**
+     * Sorts the keys and order by insertion, unless that takes more than {@code budget} moves.
+     *
+     * @return the number of moves made, or -1 when the budget ran out
+     */
+    private int insertionSort(int budget) {
+        final int[] keys = this.keys;
+        final int[] order = this.order;
+        int moves = 0;
+        for (int j = 1; j < count; j++) {
+            int key = keys[j];
+            // The keys compare unsigned.
+            if ((keys[j - 1] ^ Integer.MIN_VALUE) <= (key ^ Integer.MIN_VALUE)) {
+                continue;
+            }
+            int index = order[j];
+            int k = j;
+            do {
+                keys[k] = keys[k - 1];
+                order[k] = order[k - 1];
+                k--;
+                if (++moves > budget) {
+                    keys[k] = key;
+                    order[k] = index;
+                    return -1;
+                }
+            } while (k > 0 && (keys[k - 1] ^ Integer.MIN_VALUE) > (key ^ Integer.MIN_VALUE));
+            keys[k] = key;
+            order[k] = index;
+        }
+        return moves;
+    }
+
+    private void radixSort() {
+        for (int pass = 0; pass < PASSES; pass++) {
+            shift = pass * 8;
+            runPhase(PHASE_COUNT);
+            // Offsets by byte value, then by stripe, so that the passes stay stable.
+            int start = 0;
+            boolean trivial = false;
+            for (int b = 0; b < RADIX; b++) {
+                int total = 0;
+                for (int s = 0; s < stripeCount; s++) {
+                    int n = stripeCounts[s][b];
+                    stripeCounts[s][b] = start + total;
+                    total += n;
+                }
+                if (total == count) {
+                    trivial = true;
+                    break;
+                }
+                start += total;
+            }
+            if (trivial) {
+                // Every key has the same byte: the pass would not move anything.
+                continue;
+            }
+            runPhase(PHASE_SCATTER);
+            int[] swap = keys;
+            keys = scratchKeys;
+            scratchKeys = swap;
+            swap = order;
+            order = scratchOrder;
+            scratchOrder = swap;
+        }
+    }
+
+    /**
+     * Forgets the previous order, e.g. after replacing all particles, so the next sort starts
+     * from the order of the particles in the store.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Uploads the order to {@code indices} as unsigned shorts when all particles fit, and as
+     * unsigned ints otherwise. Unsigned ints need the OES_element_index_uint extension on
+     * OpenGL ES 2.0; without it, draw more than {@link #MAX_SHORT_INDICES} particles from a
+     * {@link #gather} copy instead.
+     */
+    public void writeTo(IndexBuffer indices) {
+        if (count <= MAX_SHORT_INDICES) {
+            if (shortIndices == null) {
+                shortIndices = new short[Math.min(maxParticles, MAX_SHORT_INDICES)];
+            }
+            for (int j = 0; j < count; j++) {
+                shortIndices[j] = (short) order[j];
+            }
+            indices.setData(shortIndices, 0, count);
+        } else {
+            indices.setData(order, 0, count);
+        }
+    }
+
+    /**
+     * Copies the particles of {@code data} into {@code out} from the farthest to the nearest,
+     * so they can be drawn in order without indices.
+     */
+    public void gather(float[] data, int stride, float[] out) {
+        if ((long) count * stride > data.length || (long) count * stride > out.length) {
+            throw new IllegalArgumentException("Cannot gather " + count + " particles");
+        }
+        for (int j = 0; j < count; j++) {
+            System.arraycopy(data, order[j] * stride, out, j * stride, stride);
+        }
+    }
+
+    /**
+     * @return the particle indices from the farthest to the nearest; valid up to
+     * {@link #getCount()}
+     */
+    public int[] getOrder() {
+        return order;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of sorts that had to sort from scratch
+     */
+    public long getRadixSortCount() {
+        return radixSorts;
+    }
+
+    /**
+     * @return the number of sorts finished from the previous order
+     */
+    public long getCoherentSortCount() {
+        return coherentSorts;
+    }
+
+    private void runPhase(int phase) {
+        this.phase = phase;
+        runner.run(stripeCount);
+    }
+
+    private void runStripe(int stripe) {
+        int from = (int) ((long) count * stripe / stripeCount);
+        int to = (int) ((long) count * (stripe + 1) / stripeCount);
+        switch (phase) {
+            case PHASE_KEYS:
+                computeKeys(from, to);
+                break;
+            case PHASE_GATHER:
+                if (passIdentity) {
+                    for (int j = from; j < to; j++) {
+                        order[j] = j;
+                    }
+                    System.arraycopy(particleKeys, from, keys, from, to - from);
+                } else {
+                    for (int j = from; j < to; j++) {
+                        keys[j] = particleKeys[order[j]];
+                    }
+                }
+                break;
+            case PHASE_COUNT:
+                countBytes(stripeCounts[stripe], from, to);
+                break;
+            default:
+                scatter(stripeCounts[stripe], from, to);
+                break;
+        }
+    }
+
+    private void computeKeys(int from, int to) {
+        final float[] data = passData;
+        final int stride = passStride;
+        final float mx = depthX, my = depthY, mz = depthZ, mw = depthW;
+        for (int i = from; i < to; i++) {
+            int offset = i * stride;
+            float x = data[offset + ParticleEmitter.POSITION_OFFSET];
+            float y = data[offset + ParticleEmitter.POSITION_OFFSET + 1];
+            float z = data[offset + ParticleEmitter.POSITION_OFFSET + 2];
+            if (passMoving) {
+                float age = passTime - data[offset + ParticleEmitter.START_TIME_OFFSET];
+                x += data[offset + ParticleEmitter.DIRECTION_OFFSET] * age;
+                y += data[offset + ParticleEmitter.DIRECTION_OFFSET + 1] * age
+                        - passFall * age * age;
+                z += data[offset + ParticleEmitter.DIRECTION_OFFSET + 2] * age;
+            }
+            float depth = mx * x + my * y + mz * z + mw;
+            // Flip all bits of negative floats and the sign of positive ones, so the keys
+            // compare unsigned like the floats: farthest, most negative z first.
+            int bits = Float.floatToRawIntBits(depth + 0f);
+            particleKeys[i] = bits ^ ((bits >> 31) | Integer.MIN_VALUE);
+        }
+    }
+
+    private void countBytes(int[] counts, int from, int to) {
+        Arrays.fill(counts, 0);
+        final int[] keys = this.keys;
+        final int shift = this.shift;
+        for (int j = from; j < to; j++) {
+            counts[(keys[j] >>> shift) & 0xFF]++;
+        }
+    }
+
+    private void scatter(int[] offsets, int from, int to) {
+        final int[] keys = this.keys, order = this.order;
+        final int[] toKeys = scratchKeys, toOrder = scratchOrder;
+        final int shift = this.shift;
+        for (int j = from; j < to; j++) {
+            int key = keys[j];
+            int target = offsets[(key >>> shift) & 0xFF]++;
+            toKeys[target] = key;
+            toOrder[target] = order[j];
+        }
+    }
+}
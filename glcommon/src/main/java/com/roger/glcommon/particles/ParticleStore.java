@@ -0,0 +1,241 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.VertexBuffer;
+import com.roger.glcommon.gl.Gles20Api;
+import com.roger.glcommon.gl.GlApi;
+
+/**
+ * Interleaved vertex data of a particle system, kept in a ring of fixed-size slots on the CPU
+ * and mirrored in a {@link GlApi#GL_STREAM_DRAW} vertex buffer.
+ * <p>
+ * Writing a particle only touches the float array. The slots written since the last
+ * {@link #flush()} form one span of the ring, so a flush uploads them with at most two
+ * glBufferSubData calls: two when the span wraps past the end. Call {@link #flush()} once per
+ * frame before drawing; the buffer object is never re-specified, so drawing does not copy
+ * client memory.
+ * <p>
+ * Use on the GL thread.
+ */
+public class ParticleStore {
+    private final VertexBuffer buffer;
+    private final float[] data;
+    private final int floatsPerParticle;
+    private final int maxParticles;
+
+    private int particleCount;
+    private int nextParticle;
+    // Slots [dirtyStart, dirtyStart + dirtyCount) modulo maxParticles differ from the buffer.
+    private int dirtyStart;
+    private int dirtyCount;
+
+    private long flushCount;
+    private long uploadCount;
+    private long uploadedBytes;
+
+    public ParticleStore(int maxParticles, int floatsPerParticle) {
+        this(Gles20Api.get(), DirectBufferPool.getDefault(), maxParticles, floatsPerParticle);
+    }
+
+    public ParticleStore(GlApi gl, DirectBufferPool pool, int maxParticles,
+                         int floatsPerParticle) {
+        if (maxParticles <= 0 || floatsPerParticle <= 0) {
+            throw new IllegalArgumentException("Need at least one particle of one float: "
+                    + maxParticles + "x" + floatsPerParticle);
+        }
+        this.maxParticles = maxParticles;
+        this.floatsPerParticle = floatsPerParticle;
+        data = new float[maxParticles * floatsPerParticle];
+        buffer = new VertexBuffer(gl, pool, GlApi.GL_STREAM_DRAW);
+        buffer.allocate(data.length);
+    }
+
+    /**
+     * Claims the next slot of the ring, overwriting the oldest particle once the ring is full,
+     * and marks it for upload.
+     *
+     * @return offset of the slot's first float in {@link #getData()}
+     */
+    public int add() {
+        int slot = nextParticle;
+        nextParticle++;
+        if (nextParticle == maxParticles) {
+            nextParticle = 0;
+        }
+        if (particleCount < maxParticles) {
+            particleCount++;
+        }
+        markDirty(slot, 1);
+        return slot * floatsPerParticle;
+    }
+
+    /**
+     * Claims {@code count} consecutive slots of the ring at once and marks them for upload.
+     * The slots may wrap past the end of the ring; the caller writes slot
+     * {@code (first + i) % getMaxParticles()} for each i. Claiming more slots than the ring
+     * holds is not allowed.
+     *
+     * @return the first claimed slot
+     */
+    public int add(int count) {
+        if (count < 0 || count > maxParticles) {
+            throw new IllegalArgumentException("Cannot add " + count + " particles to a ring of "
+                    + maxParticles);
+        }
+        int first = nextParticle;
+        nextParticle += count;
+        if (nextParticle >= maxParticles) {
+            nextParticle -= maxParticles;
+        }
+        particleCount = Math.min(maxParticles, particleCount + count);
+        markDirty(first, count);
+        return first;
+    }
+
+    /**
+     * Marks {@code count} slots starting at {@code first} for upload after writing them
+     * directly in {@link #getData()}. The range may wrap past the end of the ring.
+     * <p>
+     * The pending span only grows forward from its start, so marking slots that lie just
+     * before it uploads nearly the whole ring. Appending after the span is always exact.
+     */
+    public void markDirty(int first, int count) {
+        if (first < 0 || first >= maxParticles || count < 0) {
+            throw new IndexOutOfBoundsException("Slots " + first + "+" + count
+                    + " outside ring of " + maxParticles);
+        }
+        if (count == 0) {
+            return;
+        }
+        if (dirtyCount == 0) {
+            dirtyStart = first;
+            dirtyCount = Math.min(count, maxParticles);
+            return;
+        }
+        int distance = first - dirtyStart;
+        if (distance < 0) {
+            distance += maxParticles;
+        }
+        dirtyCount = (int) Math.min(maxParticles, Math.max(dirtyCount, (long) distance + count));
+    }
+
+    /**
+     * Marks every slot for upload, e.g. after moving all particles on the CPU.
+     */
+    public void markAllDirty() {
+        dirtyStart = 0;
+        dirtyCount = maxParticles;
+    }
+
+    /**
+     * Makes slots [0, {@code count}) the live particles, for a caller that keeps them packed at
+     * the start of the ring itself, such as {@link ParticleSimulation}. Adding continues after
+     * the last of them.
+     */
+    public void setParticleCount(int count) {
+        if (count < 0 || count > maxParticles) {
+            throw new IllegalArgumentException("Cannot hold " + count + " particles in a ring of "
+                    + maxParticles);
+        }
+        particleCount = count;
+        nextParticle = count == maxParticles ? 0 : count;
+    }
+
+    /**
+     * Uploads the slots changed since the last flush.
+     *
+     * @return the number of glBufferSubData calls made: 0, 1 or 2
+     */
+    public int flush() {
+        flushCount++;
+        if (dirtyCount == 0) {
+            return 0;
+        }
+        int calls = 1;
+        int end = dirtyStart + dirtyCount;
+        if (end <= maxParticles) {
+            upload(dirtyStart, dirtyCount);
+        } else {
+            upload(dirtyStart, maxParticles - dirtyStart);
+            upload(0, end - maxParticles);
+            calls = 2;
+        }
+        dirtyCount = 0;
+        return calls;
+    }
+
+    private void upload(int first, int count) {
+        int start = first * floatsPerParticle;
+        int floats = count * floatsPerParticle;
+        buffer.update(start, data, start, floats);
+        uploadCount++;
+        uploadedBytes += (long) floats * VertexBuffer.BYTES_PER_FLOAT;
+    }
+
+    /**
+     * Points an attribute at this store's buffer.
+     *
+     * @param floatOffset offset of the attribute within a particle, in floats
+     */
+    public void setVertexAttribPointer(int floatOffset, int attributeLocation,
+                                       int componentCount) {
+        buffer.setVertexAttribPointer(floatOffset * VertexBuffer.BYTES_PER_FLOAT,
+                attributeLocation, componentCount,
+                floatsPerParticle * VertexBuffer.BYTES_PER_FLOAT);
+    }
+
+    /**
+     * @return the CPU copy, {@link #getFloatsPerParticle()} floats per slot
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    public int getFloatsPerParticle() {
+        return floatsPerParticle;
+    }
+
+    public int getMaxParticles() {
+        return maxParticles;
+    }
+
+    /**
+     * @return the number of live slots, which grows up to {@link #getMaxParticles()}
+     */
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * @return the slot the next {@link #add()} writes
+     */
+    public int getNextParticle() {
+        return nextParticle;
+    }
+
+    /**
+     * @return the number of slots waiting for the next {@link #flush()}
+     */
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return the number of glBufferSubData calls made by all flushes
+     */
+    public long getUploadCount() {
+        return uploadCount;
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    public void release() {
+        buffer.release();
+    }
+}
@@ -0,0 +1,362 @@
+package com.roger.glcommon.spatial;
+
+import com.roger.glcommon.concurrent.StripedRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Index of points on a uniform grid of cubic cells, for finding the points near a position
+ * without testing all of them.
+ * <p>
+ * The grid is unbounded: cell coordinates are hashed into a table of buckets, a power of two
+ * in size, and each {@link #build} sorts the points by bucket with a counting sort, which
+ * takes time linear in the number of points. The points of a bucket are then contiguous in
+ * {@link #getSortedIndex()} and the sorted position arrays, between
+ * {@link #getBucketStart(int)} and {@link #getBucketEnd(int)}. Different cells may share a
+ * bucket; the queries check each candidate's cell so they never report a point twice.
+ * <p>
+ * With an executor, builds of at least {@link #PARALLEL_THRESHOLD} points are split in
+ * stripes: each stripe counts its points per bucket, the counts are turned into offsets per
+ * stripe and bucket, and each stripe places its points. The result is the same as a serial
+ * build.
+ * <p>
+ * Build on one thread. Between builds the index does not change, so any number of threads may
+ * query it.
+ */
+public class SpatialHash {
+    /** Builds with fewer points are not worth splitting across threads. */
+    public static final int PARALLEL_THRESHOLD = 32768;
+
+    private static final int PHASE_COUNT = 0;
+    private static final int PHASE_SUM = 1;
+    private static final int PHASE_OFFSET = 2;
+    private static final int PHASE_SCATTER = 3;
+
+    private final float cellSize;
+    private final float inverseCellSize;
+    private final int tableMask;
+    private final int[] bucketStart;
+
+    private int count;
+    private int[] buckets = new int[0];
+    private int[] sortedIndex = new int[0];
+    private float[] sortedX = new float[0];
+    private float[] sortedY = new float[0];
+    private float[] sortedZ = new float[0];
+
+    private final int parallelism;
+    private final int[][] stripeCounts;
+    private final int[] stripeTotals;
+    private final StripedRunner runner;
+
+    // Arguments of the build, read by the stripes.
+    private int phase;
+    private int stripeCount;
+    private float[] inputX, inputY, inputZ;
+
+    public SpatialHash(float cellSize, int tableSize) {
+        this(cellSize, tableSize, null, 1);
+    }
+
+    /**
+     * @param cellSize    edge of a cell; queries are fastest when it is about the query radius
+     * @param tableSize   number of buckets, a power of two around the number of points
+     * @param executor    runs all stripes but the last of a parallel build, or null to always
+     *                    build on the calling thread
+     * @param parallelism number of stripes of a parallel build, usually the number of cores
+     */
+    public SpatialHash(float cellSize, int tableSize, ExecutorService executor,
+                       int parallelism) {
+        if (!(cellSize > 0f)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        if (tableSize <= 0 || (tableSize & (tableSize - 1)) != 0) {
+            throw new IllegalArgumentException("Table size must be a power of two: "
+                    + tableSize);
+        }
+        this.cellSize = cellSize;
+        inverseCellSize = 1f / cellSize;
+        tableMask = tableSize - 1;
+        bucketStart = new int[tableSize + 1];
+        this.parallelism = executor == null ? 1 : Math.max(parallelism, 1);
+        stripeCounts = new int[this.parallelism][];
+        stripeTotals = new int[this.parallelism];
+        runner = new StripedRunner(executor, this.parallelism, new StripedRunner.Task() {
+            @Override
+            public void runStripe(int stripe) {
+                SpatialHash.this.runStripe(stripe);
+            }
+        });
+    }
+
+    /**
+     * Indexes points 0 to {@code count - 1} of the position arrays. For points on a plane pass
+     * the same array, e.g. of zeros, for the unused axis. The arrays are only read during the
+     * build.
+     */
+    public void build(float[] x, float[] y, float[] z, int count) {
+        if (count < 0 || count > x.length || count > y.length || count > z.length) {
+            throw new IllegalArgumentException("Cannot index " + count + " points");
+        }
+        if (buckets.length < count) {
+            // Grows with headroom, so a slowly growing set does not reallocate every frame.
+            int capacity = Math.max(count, buckets.length + (buckets.length >> 1));
+            buckets = new int[capacity];
+            sortedIndex = new int[capacity];
+            sortedX = new float[capacity];
+            sortedY = new float[capacity];
+            sortedZ = new float[capacity];
+        }
+        this.count = count;
+        inputX = x;
+        inputY = y;
+        inputZ = z;
+        stripeCount = count >= PARALLEL_THRESHOLD ? parallelism : 1;
+        for (int s = 0; s < stripeCount; s++) {
+            if (stripeCounts[s] == null) {
+                stripeCounts[s] = new int[tableMask + 1];
+            }
+        }
+        try {
+            runPhase(PHASE_COUNT);
+            runPhase(PHASE_SUM);
+            // Turn the totals of the bucket ranges into their first sorted positions.
+            int start = 0;
+            for (int s = 0; s < stripeCount; s++) {
+                int total = stripeTotals[s];
+                stripeTotals[s] = start;
+                start += total;
+            }
+            runPhase(PHASE_OFFSET);
+            bucketStart[tableMask + 1] = count;
+            runPhase(PHASE_SCATTER);
+        } finally {
+            inputX = inputY = inputZ = null;
+        }
+    }
+
+    /**
+     * Finds the points within {@code radius} of a position.
+     *
+     * @param out receives the indices of the points found, as many as fit
+     * @return the number of points found, which may exceed the length of {@code out}
+     */
+    public int queryRadius(float x, float y, float z, float radius, int[] out) {
+        return query(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius,
+                x, y, z, radius * radius, out);
+    }
+
+    /**
+     * Finds the points inside a box, bounds included.
+     *
+     * @param out receives the indices of the points found, as many as fit
+     * @return the number of points found, which may exceed the length of {@code out}
+     */
+    public int queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                        int[] out) {
+        return query(minX, minY, minZ, maxX, maxY, maxZ, 0f, 0f, 0f, -1f, out);
+    }
+
+    /**
+     * @param radiusSquared distance limit from (x, y, z), or negative for the box alone
+     */
+    private int query(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+                      float x, float y, float z, float radiusSquared, int[] out) {
+        int x0 = cell(minX), x1 = cell(maxX);
+        int y0 = cell(minY), y1 = cell(maxY);
+        int z0 = cell(minZ), z1 = cell(maxZ);
+        long cells = (long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+        int found = 0;
+        if (cells > tableMask + 1) {
+            // Wider than the table: every bucket would be visited anyway.
+            for (int j = 0; j < count; j++) {
+                found = test(j, minX, minY, minZ, maxX, maxY, maxZ, x, y, z, radiusSquared,
+                        out, found);
+            }
+            return found;
+        }
+        for (int cz = z0; cz <= z1; cz++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                for (int cx = x0; cx <= x1; cx++) {
+                    int bucket = bucket(cx, cy, cz);
+                    int end = bucketStart[bucket + 1];
+                    for (int j = bucketStart[bucket]; j < end; j++) {
+                        // Skip points of other cells that share the bucket.
+                        if (cell(sortedX[j]) != cx || cell(sortedY[j]) != cy
+                                || cell(sortedZ[j]) != cz) {
+                            continue;
+                        }
+                        found = test(j, minX, minY, minZ, maxX, maxY, maxZ, x, y, z,
+                                radiusSquared, out, found);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int test(int j, float minX, float minY, float minZ, float maxX, float maxY,
+                     float maxZ, float x, float y, float z, float radiusSquared, int[] out,
+                     int found) {
+        float px = sortedX[j], py = sortedY[j], pz = sortedZ[j];
+        if (px < minX || px > maxX || py < minY || py > maxY || pz < minZ || pz > maxZ) {
+            return found;
+        }
+        if (radiusSquared >= 0f) {
+            float dx = px - x, dy = py - y, dz = pz - z;
+            if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                return found;
+            }
+        }
+        if (found < out.length) {
+            out[found] = sortedIndex[j];
+        }
+        return found + 1;
+    }
+
+    /**
+     * @return the coordinate of the cell containing {@code position} along any axis
+     */
+    public int cell(float position) {
+        float f = position * inverseCellSize;
+        int c = (int) f;
+        return f < c ? c - 1 : c;
+    }
+
+    /**
+     * @return the bucket of the cell with the given coordinates
+     */
+    public int bucket(int cellX, int cellY, int cellZ) {
+        return ((cellX * 73856093) ^ (cellY * 19349663) ^ (cellZ * 83492791)) & tableMask;
+    }
+
+    /**
+     * @return the position in the sorted arrays of the first point of {@code bucket}
+     */
+    public int getBucketStart(int bucket) {
+        return bucketStart[bucket];
+    }
+
+    /**
+     * @return the position in the sorted arrays after the last point of {@code bucket}
+     */
+    public int getBucketEnd(int bucket) {
+        return bucketStart[bucket + 1];
+    }
+
+    /**
+     * @return the original index of each point, in bucket order
+     */
+    public int[] getSortedIndex() {
+        return sortedIndex;
+    }
+
+    public float[] getSortedX() {
+        return sortedX;
+    }
+
+    public float[] getSortedY() {
+        return sortedY;
+    }
+
+    public float[] getSortedZ() {
+        return sortedZ;
+    }
+
+    public float getCellSize() {
+        return cellSize;
+    }
+
+    public int getTableSize() {
+        return tableMask + 1;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    private void runPhase(int phase) {
+        this.phase = phase;
+        runner.run(stripeCount);
+    }
+
+    private void runStripe(int stripe) {
+        switch (phase) {
+            case PHASE_COUNT:
+                countStripe(stripe);
+                break;
+            case PHASE_SUM:
+                sumBuckets(stripe);
+                break;
+            case PHASE_OFFSET:
+                offsetBuckets(stripe);
+                break;
+            default:
+                scatterStripe(stripe);
+                break;
+        }
+    }
+
+    private int pointFrom(int stripe) {
+        return (int) ((long) count * stripe / stripeCount);
+    }
+
+    private int bucketFrom(int stripe) {
+        return (int) ((long) (tableMask + 1) * stripe / stripeCount);
+    }
+
+    private void countStripe(int stripe) {
+        final int[] counts = stripeCounts[stripe];
+        Arrays.fill(counts, 0);
+        final float[] x = inputX, y = inputY, z = inputZ;
+        int end = pointFrom(stripe + 1);
+        for (int i = pointFrom(stripe); i < end; i++) {
+            int bucket = bucket(cell(x[i]), cell(y[i]), cell(z[i]));
+            buckets[i] = bucket;
+            counts[bucket]++;
+        }
+    }
+
+    private void sumBuckets(int stripe) {
+        int total = 0;
+        int end = bucketFrom(stripe + 1);
+        for (int s = 0; s < stripeCount; s++) {
+            final int[] counts = stripeCounts[s];
+            for (int b = bucketFrom(stripe); b < end; b++) {
+                total += counts[b];
+            }
+        }
+        stripeTotals[stripe] = total;
+    }
+
+    /**
+     * Replaces the counts of the stripe's bucket range by the position each point stripe
+     * starts writing that bucket at.
+     */
+    private void offsetBuckets(int stripe) {
+        int start = stripeTotals[stripe];
+        int end = bucketFrom(stripe + 1);
+        for (int b = bucketFrom(stripe); b < end; b++) {
+            bucketStart[b] = start;
+            for (int s = 0; s < stripeCount; s++) {
+                int n = stripeCounts[s][b];
+                stripeCounts[s][b] = start;
+                start += n;
+            }
+        }
+    }
+
+    private void scatterStripe(int stripe) {
+        final int[] offsets = stripeCounts[stripe];
+        final float[] x = inputX, y = inputY, z = inputZ;
+        int end = pointFrom(stripe + 1);
+        for (int i = pointFrom(stripe); i < end; i++) {
+            int j = offsets[buckets[i]]++;
+            sortedIndex[j] = i;
+            sortedX[j] = x[i];
+            sortedY[j] = y[i];
+            sortedZ[j] = z[i];
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.roger.glcommon.terrain;
+
+/**
+ * Heights held in a row-major float array.
+ */
+public class ArrayHeightSource implements HeightSource {
+    private final float[] heights;
+    private final int width;
+    private final int height;
+
+    public ArrayHeightSource(float[] heights, int width, int height) {
+        if (width < 2 || height < 2 || heights.length < width * height) {
+            throw new IllegalArgumentException("Need at least " + width + "x" + height
+                    + " samples, got " + heights.length);
+        }
+        this.heights = heights;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void getHeights(int x, int y, int w, int h, float[] out) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(heights, (y + row) * width + x, out, row * w, w);
+        }
+    }
+}
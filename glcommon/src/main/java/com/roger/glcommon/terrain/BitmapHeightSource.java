@@ -0,0 +1,38 @@
+package com.roger.glcommon.terrain;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/**
+ * Heights taken from the red channel of a grayscale bitmap. Pixels are fetched per region,
+ * so reading a tile only needs a tile-sized scratch array.
+ */
+public class BitmapHeightSource implements HeightSource {
+    private final Bitmap bitmap;
+
+    public BitmapHeightSource(Bitmap bitmap) {
+        if (bitmap.getWidth() < 2 || bitmap.getHeight() < 2) {
+            throw new IllegalArgumentException("Heightmap must be at least 2x2 pixels.");
+        }
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void getHeights(int x, int y, int w, int h, float[] out) {
+        final int[] pixels = new int[w * h];
+        bitmap.getPixels(pixels, 0, w, x, y, w, h);
+        for (int i = 0; i < pixels.length; i++) {
+            out[i] = (float) Color.red(pixels[i]) / 255f;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.roger.glcommon.terrain;
+
+/**
+ * The heights of a {@link HeightSource} kept in memory for queries on the CPU, e.g. collision
+ * tests, laid out like the {@link TiledTerrain} mesh: X and Z in [-0.5, 0.5] and the samples
+ * on Y, all multiplied by the scale the mesh is drawn with.
+ * <p>
+ * Queries interpolate the four surrounding samples bilinearly, which stays within a fraction
+ * of a cell of the mesh's triangles. Once the scale is set the field does not change, so it
+ * may be queried from any number of threads.
+ */
+public class HeightField {
+    private final float[] heights;
+    private final int width;
+    private final int height;
+    private float scaleX = 1f;
+    private float scaleY = 1f;
+    private float scaleZ = 1f;
+
+    /**
+     * Reads every sample of {@code source} at once.
+     */
+    public HeightField(HeightSource source) {
+        width = source.getWidth();
+        height = source.getHeight();
+        if (width < 2 || height < 2) {
+            throw new IllegalArgumentException("Height field must be at least 2x2 samples.");
+        }
+        heights = new float[width * height];
+        source.getHeights(0, 0, width, height, heights);
+    }
+
+    /**
+     * Sets the scale of the model matrix the terrain is drawn with. Call it before handing the
+     * field to other threads.
+     */
+    public void setScale(float x, float y, float z) {
+        scaleX = x;
+        scaleY = y;
+        scaleZ = z;
+    }
+
+    /**
+     * @return the height of the terrain at world position ({@code x}, {@code z}), or
+     * {@link Float#NEGATIVE_INFINITY} outside the terrain, so nothing collides there
+     */
+    public float getHeight(float x, float z) {
+        float u = (x / scaleX + 0.5f) * (width - 1);
+        float v = (z / scaleZ + 0.5f) * (height - 1);
+        // Written so that NaN coordinates fail too.
+        if (!(u >= 0f && v >= 0f && u <= width - 1 && v <= height - 1)) {
+            return Float.NEGATIVE_INFINITY;
+        }
+        int col = Math.min((int) u, width - 2);
+        int row = Math.min((int) v, height - 2);
+        float fu = u - col;
+        float fv = v - row;
+        int i = row * width + col;
+        float top = heights[i] + (heights[i + 1] - heights[i]) * fu;
+        float bottom = heights[i + width] + (heights[i + width + 1] - heights[i + width]) * fu;
+        return (top + (bottom - top) * fv) * scaleY;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
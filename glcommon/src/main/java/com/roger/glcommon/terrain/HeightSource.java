@@ -0,0 +1,17 @@
+package com.roger.glcommon.terrain;
+
+/**
+ * A grid of height samples in the range [0, 1], read one rectangular region at a time so
+ * large maps never have to be decoded into a single array.
+ */
+public interface HeightSource {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Writes the {@code w x h} samples starting at column {@code x}, row {@code y} into
+     * {@code out}, row by row. The region must lie inside the grid.
+     */
+    void getHeights(int x, int y, int w, int h, float[] out);
+}
@@ -0,0 +1,537 @@
+package com.roger.glcommon.terrain;
+
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.gl.GlApi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Level of detail selection for a {@link TiledTerrain}.
+ * <p>
+ * Every tile is the root of a quadtree of {@link TerrainPatch}es. A patch always spans
+ * {@code patchSize x patchSize} grid cells of its own level, so the root of a tile is drawn
+ * with every 2^maxLevel-th vertex and the leaves at full resolution. Each patch knows how far,
+ * vertically, its simplified surface strays from the full resolution one.
+ * <p>
+ * {@link #select} walks the quadtrees from the camera position and refines a patch while its
+ * error, projected to the screen, is larger than {@link #setMaxScreenError the limit}.
+ * The selection is then balanced so that neighbouring patches differ by at most one level,
+ * and the finer side of each such edge drops every other edge vertex, which closes the cracks
+ * without any extra geometry.
+ * <p>
+ * Patches are drawn from the tile vertex buffers; only index buffers are added, one per
+ * distinct patch shape, level and edge combination.
+ */
+public class TerrainLod {
+    public static final int DEFAULT_PATCH_SIZE = 16;
+    public static final float DEFAULT_MAX_SCREEN_ERROR = 2f;
+
+    private final TiledTerrain terrain;
+    private final int patchSize;
+    private final int maxLevel;
+    private final int blocksX;
+    private final int blocksY;
+    private final List<TerrainPatch> roots;
+    private final TerrainPatch[] blockPatches;
+    private final List<TerrainPatch> selected = new ArrayList<TerrainPatch>();
+    private final ArrayDeque<TerrainPatch> balanceQueue = new ArrayDeque<TerrainPatch>();
+    private final Map<Long, short[]> indexData = new HashMap<Long, short[]>();
+    private final Map<Long, IndexBuffer> indexBuffers = new HashMap<Long, IndexBuffer>();
+
+    private float scaleX = 1f;
+    private float scaleY = 1f;
+    private float scaleZ = 1f;
+    private float errorToPixels;
+    private float maxScreenError = DEFAULT_MAX_SCREEN_ERROR;
+    private int triangleCount;
+    private boolean built;
+
+    /**
+     * @param patchSize edge length of a patch in cells. Must be even, and the tile edge of
+     *                  {@code terrain} in cells must be a power of two multiple of it.
+     */
+    public TerrainLod(TiledTerrain terrain, int patchSize) {
+        final int tileCells = terrain.getTileSize() - 1;
+        if (patchSize < 2 || (patchSize & 1) != 0 || tileCells % patchSize != 0
+                || Integer.bitCount(tileCells / patchSize) != 1) {
+            throw new IllegalArgumentException("Tile of " + tileCells
+                    + " cells cannot be split into patches of " + patchSize);
+        }
+        this.terrain = terrain;
+        this.patchSize = patchSize;
+        this.maxLevel = Integer.numberOfTrailingZeros(tileCells / patchSize);
+        this.blocksX = (terrain.getWidth() - 2) / patchSize + 1;
+        this.blocksY = (terrain.getHeight() - 2) / patchSize + 1;
+        this.blockPatches = new TerrainPatch[blocksX * blocksY];
+
+        final List<TerrainPatch> roots = new ArrayList<TerrainPatch>();
+        for (TerrainTile tile : terrain.getTiles()) {
+            roots.add(createPatch(tile, maxLevel, tile.x, tile.y, tile.columns - 1,
+                    tile.rows - 1));
+        }
+        this.roots = Collections.unmodifiableList(roots);
+        setProjection(45f, 1024);
+    }
+
+    private TerrainPatch createPatch(TerrainTile tile, int level, int x, int y, int columns,
+                                     int rows) {
+        final TerrainPatch patch = new TerrainPatch(tile, level, x, y, columns, rows);
+        if (level > 0) {
+            final int childSize = patchSize << (level - 1);
+            final List<TerrainPatch> children = new ArrayList<TerrainPatch>(4);
+            for (int cy = 0; cy < rows; cy += childSize) {
+                for (int cx = 0; cx < columns; cx += childSize) {
+                    children.add(createPatch(tile, level - 1, x + cx, y + cy,
+                            Math.min(childSize, columns - cx), Math.min(childSize, rows - cy)));
+                }
+            }
+            patch.children = children.toArray(new TerrainPatch[children.size()]);
+        }
+        return patch;
+    }
+
+    public void build() throws InterruptedException {
+        build(TiledTerrain.getDefaultExecutor());
+    }
+
+    /**
+     * Computes the error and height range of every patch, one task per tile. Must be called
+     * after {@link TiledTerrain#build} and before {@link TiledTerrain#upload}, while the tiles
+     * still hold their vertex data.
+     */
+    public void build(ExecutorService executor) throws InterruptedException {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(roots.size());
+        for (final TerrainPatch root : roots) {
+            final float[] vertexData = root.tile.vertexData;
+            if (vertexData == null) {
+                throw new IllegalStateException("Tile at " + root.x + "," + root.y
+                        + " holds no vertex data.");
+            }
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    computeError(root, vertexData);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        built = true;
+    }
+
+    private void computeError(TerrainPatch patch, float[] vertexData) {
+        final TerrainTile tile = patch.tile;
+        final int components = terrain.getComponentCount();
+        if (patch.children == null) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int row = patch.y; row <= patch.y + patch.rows; row++) {
+                for (int col = patch.x; col <= patch.x + patch.columns; col++) {
+                    final float h = vertexData[((row - tile.y) * tile.columns + col - tile.x)
+                            * components + 1];
+                    min = Math.min(min, h);
+                    max = Math.max(max, h);
+                }
+            }
+            patch.minHeight = min;
+            patch.maxHeight = max;
+            patch.error = 0f;
+            return;
+        }
+
+        float error = 0f;
+        patch.minHeight = Float.MAX_VALUE;
+        patch.maxHeight = -Float.MAX_VALUE;
+        for (TerrainPatch child : patch.children) {
+            computeError(child, vertexData);
+            error = Math.max(error, child.error);
+            patch.minHeight = Math.min(patch.minHeight, child.minHeight);
+            patch.maxHeight = Math.max(patch.maxHeight, child.maxHeight);
+        }
+
+        // Compare every vertex with the surface of the coarse cell it falls in. Cells are
+        // split along the top right to bottom left diagonal, like the index data.
+        final int stride = patch.getStride();
+        final int lastColumnCell = (patch.columns - 1) / stride;
+        final int lastRowCell = (patch.rows - 1) / stride;
+        for (int row = 0; row <= patch.rows; row++) {
+            final int top = Math.min(row / stride, lastRowCell) * stride;
+            final int bottom = Math.min(top + stride, patch.rows);
+            final float v = (float) (row - top) / (bottom - top);
+            for (int col = 0; col <= patch.columns; col++) {
+                final int left = Math.min(col / stride, lastColumnCell) * stride;
+                final int right = Math.min(left + stride, patch.columns);
+                final float u = (float) (col - left) / (right - left);
+
+                final float topLeft = height(patch, vertexData, left, top);
+                final float topRight = height(patch, vertexData, right, top);
+                final float bottomLeft = height(patch, vertexData, left, bottom);
+                final float bottomRight = height(patch, vertexData, right, bottom);
+                final float interpolated = u + v <= 1f
+                        ? topLeft + u * (topRight - topLeft) + v * (bottomLeft - topLeft)
+                        : bottomRight + (1f - u) * (bottomLeft - bottomRight)
+                        + (1f - v) * (topRight - bottomRight);
+                error = Math.max(error,
+                        Math.abs(height(patch, vertexData, col, row) - interpolated));
+            }
+        }
+        patch.error = error;
+    }
+
+    private float height(TerrainPatch patch, float[] vertexData, int col, int row) {
+        final TerrainTile tile = patch.tile;
+        return vertexData[((patch.y + row - tile.y) * tile.columns + patch.x + col - tile.x)
+                * terrain.getComponentCount() + 1];
+    }
+
+    /**
+     * Sets the scale of the model matrix the terrain is drawn with. The terrain itself spans
+     * [-0.5, 0.5] on X and Z and [0, 1] on Y.
+     */
+    public void setScale(float x, float y, float z) {
+        scaleX = x;
+        scaleY = y;
+        scaleZ = z;
+    }
+
+    /**
+     * @param fovyDegrees    vertical field of view of the projection
+     * @param viewportHeight height of the viewport in pixels
+     */
+    public void setProjection(float fovyDegrees, int viewportHeight) {
+        errorToPixels = (float) (viewportHeight
+                / (2.0 * Math.tan(Math.toRadians(fovyDegrees) / 2.0)));
+    }
+
+    /**
+     * @param pixels largest screen space error a selected patch may have
+     */
+    public void setMaxScreenError(float pixels) {
+        maxScreenError = pixels;
+    }
+
+    /**
+     * Selects the patches to draw for a camera at the given world position.
+     */
+    public void select(float eyeX, float eyeY, float eyeZ) {
+        if (!built) {
+            throw new IllegalStateException("TerrainLod has not been built.");
+        }
+        for (TerrainPatch patch : selected) {
+            patch.selected = false;
+        }
+        selected.clear();
+        for (TerrainPatch root : roots) {
+            refine(root, eyeX, eyeY, eyeZ);
+        }
+        for (TerrainPatch patch : selected) {
+            patch.selected = true;
+            mark(patch);
+        }
+        balance();
+
+        triangleCount = 0;
+        for (TerrainPatch patch : selected) {
+            patch.edgeMask = 0;
+            if (isCoarser(patch, patch.x, patch.y - 1)) {
+                patch.edgeMask |= TerrainPatch.EDGE_TOP;
+            }
+            if (isCoarser(patch, patch.x + patch.columns, patch.y)) {
+                patch.edgeMask |= TerrainPatch.EDGE_RIGHT;
+            }
+            if (isCoarser(patch, patch.x, patch.y + patch.rows)) {
+                patch.edgeMask |= TerrainPatch.EDGE_BOTTOM;
+            }
+            if (isCoarser(patch, patch.x - 1, patch.y)) {
+                patch.edgeMask |= TerrainPatch.EDGE_LEFT;
+            }
+            triangleCount += indexData(patch).length / 3;
+        }
+    }
+
+    private void refine(TerrainPatch patch, float eyeX, float eyeY, float eyeZ) {
+        if (patch.children != null && screenError(patch, eyeX, eyeY, eyeZ) > maxScreenError) {
+            for (TerrainPatch child : patch.children) {
+                refine(child, eyeX, eyeY, eyeZ);
+            }
+        } else {
+            selected.add(patch);
+        }
+    }
+
+    private float screenError(TerrainPatch patch, float eyeX, float eyeY, float eyeZ) {
+        final float width = terrain.getWidth() - 1;
+        final float height = terrain.getHeight() - 1;
+        final float dx = distance(eyeX, (patch.x / width - 0.5f) * scaleX,
+                ((patch.x + patch.columns) / width - 0.5f) * scaleX);
+        final float dy = distance(eyeY, patch.minHeight * scaleY, patch.maxHeight * scaleY);
+        final float dz = distance(eyeZ, (patch.y / height - 0.5f) * scaleZ,
+                ((patch.y + patch.rows) / height - 0.5f) * scaleZ);
+        final float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance < 1e-6f) {
+            return Float.MAX_VALUE;
+        }
+        return patch.error * Math.abs(scaleY) * errorToPixels / distance;
+    }
+
+    private static float distance(float value, float a, float b) {
+        final float min = Math.min(a, b);
+        final float max = Math.max(a, b);
+        return value < min ? min - value : value > max ? value - max : 0f;
+    }
+
+    /**
+     * Splits patches until no selected patch has a neighbour more than one level coarser.
+     */
+    private void balance() {
+        balanceQueue.addAll(selected);
+        while (!balanceQueue.isEmpty()) {
+            final TerrainPatch patch = balanceQueue.poll();
+            if (!patch.selected) {
+                continue;
+            }
+            boolean split = splitIfTooCoarse(patch, patch.x, patch.y - 1);
+            split |= splitIfTooCoarse(patch, patch.x + patch.columns, patch.y);
+            split |= splitIfTooCoarse(patch, patch.x, patch.y + patch.rows);
+            split |= splitIfTooCoarse(patch, patch.x - 1, patch.y);
+            if (split) {
+                // The new children may still be too coarse.
+                balanceQueue.add(patch);
+            }
+        }
+        int kept = 0;
+        for (int i = 0; i < selected.size(); i++) {
+            final TerrainPatch patch = selected.get(i);
+            if (patch.selected) {
+                selected.set(kept++, patch);
+            }
+        }
+        selected.subList(kept, selected.size()).clear();
+    }
+
+    private boolean splitIfTooCoarse(TerrainPatch patch, int col, int row) {
+        final TerrainPatch neighbour = patchAt(col, row);
+        if (neighbour == null || neighbour.level <= patch.level + 1) {
+            return false;
+        }
+        neighbour.selected = false;
+        for (TerrainPatch child : neighbour.children) {
+            child.selected = true;
+            mark(child);
+            selected.add(child);
+            balanceQueue.add(child);
+        }
+        return true;
+    }
+
+    private boolean isCoarser(TerrainPatch patch, int col, int row) {
+        final TerrainPatch neighbour = patchAt(col, row);
+        return neighbour != null && neighbour.level > patch.level;
+    }
+
+    /**
+     * @return the selected patch containing the cell at {@code col, row}
+     */
+    private TerrainPatch patchAt(int col, int row) {
+        if (col < 0 || row < 0 || col >= terrain.getWidth() - 1
+                || row >= terrain.getHeight() - 1) {
+            return null;
+        }
+        return blockPatches[(row / patchSize) * blocksX + col / patchSize];
+    }
+
+    private void mark(TerrainPatch patch) {
+        final int firstX = patch.x / patchSize;
+        final int firstY = patch.y / patchSize;
+        final int lastX = (patch.x + patch.columns - 1) / patchSize;
+        final int lastY = (patch.y + patch.rows - 1) / patchSize;
+        for (int by = firstY; by <= lastY; by++) {
+            for (int bx = firstX; bx <= lastX; bx++) {
+                blockPatches[by * blocksX + bx] = patch;
+            }
+        }
+    }
+
+    /**
+     * Draws the last selection, or the whole terrain at full resolution if nothing has been
+     * selected yet. Must run on the GL thread after {@link TiledTerrain#upload}.
+     */
+    public void draw(int positionLocation, int normalLocation) {
+        if (selected.isEmpty()) {
+            terrain.draw(positionLocation, normalLocation);
+            return;
+        }
+        for (TerrainPatch patch : selected) {
+            final TerrainTile tile = patch.tile;
+            final long key = key(patch);
+            IndexBuffer indexBuffer = indexBuffers.get(key);
+            if (indexBuffer == null) {
+                final short[] indices = indexData(patch);
+                indexBuffer = new IndexBuffer(terrain.gl, terrain.pool, GlApi.GL_STATIC_DRAW);
+                indexBuffer.setData(indices, 0, indices.length);
+                indexBuffers.put(key, indexBuffer);
+            }
+            terrain.drawElements(tile, (patch.y - tile.y) * tile.columns + patch.x - tile.x,
+                    indexBuffer, positionLocation, normalLocation);
+        }
+    }
+
+    public void release() {
+        for (IndexBuffer indexBuffer : indexBuffers.values()) {
+            indexBuffer.release();
+        }
+        indexBuffers.clear();
+    }
+
+    public int getPatchSize() {
+        return patchSize;
+    }
+
+    /**
+     * @return level of the tile roots
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * @return one quadtree root per tile
+     */
+    public List<TerrainPatch> getRoots() {
+        return roots;
+    }
+
+    /**
+     * @return the patches chosen by the last {@link #select}
+     */
+    public List<TerrainPatch> getSelectedPatches() {
+        return Collections.unmodifiableList(selected);
+    }
+
+    /**
+     * @return number of triangles {@link #draw} submits
+     */
+    public int getTriangleCount() {
+        return selected.isEmpty() ? terrain.getTriangleCount() : triangleCount;
+    }
+
+    /**
+     * @return number of index buffers created so far
+     */
+    public int getIndexBufferCount() {
+        return indexBuffers.size();
+    }
+
+    short[] indexData(TerrainPatch patch) {
+        final long key = key(patch);
+        short[] indices = indexData.get(key);
+        if (indices == null) {
+            indices = createIndexData(patch.tile.columns, patch.getStride(), patch.columns,
+                    patch.rows, patch.edgeMask);
+            indexData.put(key, indices);
+        }
+        return indices;
+    }
+
+    private static long key(TerrainPatch patch) {
+        return ((((long) patch.tile.columns << 12 | patch.level) << 16 | patch.columns) << 16
+                | patch.rows) << 4 | patch.edgeMask;
+    }
+
+    /**
+     * Indices of a patch relative to its first vertex, in a tile whose rows are {@code pitch}
+     * vertices apart. Vertices on an edge flagged in {@code edgeMask} that do not exist at
+     * the next coarser level are moved onto the previous vertex of that edge; the triangles
+     * collapsing in the process are left out.
+     */
+    static short[] createIndexData(int pitch, int stride, int columns, int rows, int edgeMask) {
+        final int[] xs = lattice(columns, stride);
+        final int[] ys = lattice(rows, stride);
+        final int[] vertices = new int[xs.length * ys.length];
+        final boolean[] moved = new boolean[vertices.length];
+        for (int j = 0; j < ys.length; j++) {
+            for (int i = 0; i < xs.length; i++) {
+                int x = xs[i];
+                int y = ys[j];
+                if ((j == 0 && (edgeMask & TerrainPatch.EDGE_TOP) != 0)
+                        || (j == ys.length - 1 && (edgeMask & TerrainPatch.EDGE_BOTTOM) != 0)) {
+                    x = snap(x, stride, columns);
+                }
+                if ((i == 0 && (edgeMask & TerrainPatch.EDGE_LEFT) != 0)
+                        || (i == xs.length - 1 && (edgeMask & TerrainPatch.EDGE_RIGHT) != 0)) {
+                    y = snap(y, stride, rows);
+                }
+                vertices[j * xs.length + i] = y * pitch + x;
+                moved[j * xs.length + i] = x != xs[i] || y != ys[j];
+            }
+        }
+
+        final short[] indices = new short[(xs.length - 1) * (ys.length - 1) * 6];
+        int offset = 0;
+        for (int j = 0; j < ys.length - 1; j++) {
+            for (int i = 0; i < xs.length - 1; i++) {
+                final int topLeft = vertices[j * xs.length + i];
+                final int topRight = vertices[j * xs.length + i + 1];
+                final int bottomLeft = vertices[(j + 1) * xs.length + i];
+                final int bottomRight = vertices[(j + 1) * xs.length + i + 1];
+                if (moved[j * xs.length + i + 1] && moved[(j + 1) * xs.length + i]) {
+                    // Both ends of the usual diagonal moved away, which would leave a
+                    // triangle with no area; split the cell the other way instead.
+                    offset = addTriangle(indices, offset, topLeft, bottomLeft, bottomRight);
+                    offset = addTriangle(indices, offset, topLeft, bottomRight, topRight);
+                } else {
+                    offset = addTriangle(indices, offset, topLeft, bottomLeft, topRight);
+                    offset = addTriangle(indices, offset, topRight, bottomLeft, bottomRight);
+                }
+            }
+        }
+        final short[] result = new short[offset];
+        System.arraycopy(indices, 0, result, 0, offset);
+        return result;
+    }
+
+    private static int[] lattice(int cells, int stride) {
+        final int count = (cells + stride - 1) / stride + 1;
+        final int[] lattice = new int[count];
+        for (int i = 0; i < count; i++) {
+            lattice[i] = Math.min(i * stride, cells);
+        }
+        return lattice;
+    }
+
+    private static int snap(int position, int stride, int end) {
+        return position % (2 * stride) == 0 || position == end ? position : position - stride;
+    }
+
+    private static int addTriangle(short[] indices, int offset, int a, int b, int c) {
+        if (a == b || b == c || a == c) {
+            return offset;
+        }
+        indices[offset++] = (short) a;
+        indices[offset++] = (short) b;
+        indices[offset++] = (short) c;
+        return offset;
+    }
+}
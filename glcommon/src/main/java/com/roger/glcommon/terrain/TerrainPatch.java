@@ -0,0 +1,108 @@
+package com.roger.glcommon.terrain;
+
+/**
+ * A node of a {@link TerrainLod} quadtree: a square block of heightmap cells drawn with every
+ * {@code stride}th vertex. Blocks on the right and bottom edge of the heightmap may be
+ * clipped, in which case their last cell is narrower than the stride.
+ */
+public class TerrainPatch {
+    /**
+     * Edge mask bits, set when the neighbour on that side is drawn at the next coarser level.
+     */
+    public static final int EDGE_TOP = 1;
+    public static final int EDGE_RIGHT = 2;
+    public static final int EDGE_BOTTOM = 4;
+    public static final int EDGE_LEFT = 8;
+
+    final TerrainTile tile;
+    final int level;
+    final int x;
+    final int y;
+    final int columns;
+    final int rows;
+    float minHeight;
+    float maxHeight;
+    float error;
+    TerrainPatch[] children;
+    boolean selected;
+    int edgeMask;
+
+    TerrainPatch(TerrainTile tile, int level, int x, int y, int columns, int rows) {
+        this.tile = tile;
+        this.level = level;
+        this.x = x;
+        this.y = y;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public TerrainTile getTile() {
+        return tile;
+    }
+
+    /**
+     * @return 0 for full resolution, each level above halves the vertex density
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public int getStride() {
+        return 1 << level;
+    }
+
+    /**
+     * @return heightmap column of the patch's first vertex
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return heightmap row of the patch's first vertex
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return width of the patch in heightmap cells
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return height of the patch in heightmap cells
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return largest vertical distance, in unscaled height units, between the full resolution
+     * surface and this patch or any of its descendants
+     */
+    public float getError() {
+        return error;
+    }
+
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * @return the EDGE_* bits of the last selection
+     */
+    public int getEdgeMask() {
+        return edgeMask;
+    }
+
+    public boolean isLeaf() {
+        return children == null;
+    }
+}
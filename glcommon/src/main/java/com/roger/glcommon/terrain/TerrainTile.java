@@ -0,0 +1,71 @@
+package com.roger.glcommon.terrain;
+
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.buffer.VertexBuffer;
+
+/**
+ * One rectangular block of a {@link TiledTerrain}. Neighbouring tiles share their border row
+ * or column of vertices so the surface has no gaps.
+ */
+public class TerrainTile {
+    final int x;
+    final int y;
+    final int columns;
+    final int rows;
+
+    float[] vertexData;
+    VertexBuffer vertexBuffer;
+    IndexBuffer indexBuffer;
+
+    TerrainTile(int x, int y, int columns, int rows) {
+        this.x = x;
+        this.y = y;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * @return heightmap column of the tile's first vertex
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return heightmap row of the tile's first vertex
+     */
+    public int getY() {
+        return y;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getVertexCount() {
+        return columns * rows;
+    }
+
+    public int getTriangleCount() {
+        return (columns - 1) * (rows - 1) * 2;
+    }
+
+    /**
+     * @return the tile's vertices after {@link TiledTerrain#build}, until they are uploaded
+     */
+    public float[] getVertexData() {
+        return vertexData;
+    }
+
+    public VertexBuffer getVertexBuffer() {
+        return vertexBuffer;
+    }
+
+    public IndexBuffer getIndexBuffer() {
+        return indexBuffer;
+    }
+}
@@ -0,0 +1,346 @@
+package com.roger.glcommon.terrain;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.buffer.VertexBuffer;
+import com.roger.glcommon.gl.GlApi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A heightmap mesh split into tiles of at most {@link #MAX_TILE_SIZE} x {@link #MAX_TILE_SIZE}
+ * vertices, so every tile can be drawn with unsigned short indices on any OpenGL ES 2.0
+ * device, whatever the size of the heightmap.
+ * <p>
+ * The heightmap lies flat on the XZ plane centered around (0, 0), with its width mapped to
+ * X in [-0.5, 0.5], its height mapped to Z in [-0.5, 0.5] and the samples mapped to Y.
+ * Each tile has its own vertex buffer; tiles of the same size share one index buffer.
+ * <p>
+ * {@link #build} computes the vertices of all tiles in parallel and may run on any thread.
+ * {@link #upload}, {@link #draw} and {@link #release} must run on the GL thread.
+ */
+public class TiledTerrain {
+    /**
+     * Largest tile edge whose vertices can all be addressed with unsigned short indices.
+     */
+    public static final int MAX_TILE_SIZE = 256;
+    public static final int POSITION_COMPONENT_COUNT = 3;
+    public static final int NORMAL_COMPONENT_COUNT = 3;
+
+    private static ExecutorService defaultExecutor;
+
+    private final HeightSource source;
+    private final int tileSize;
+    private final int width;
+    private final int height;
+    private final boolean withNormals;
+    private final int componentCount;
+    private final List<TerrainTile> tiles;
+    private final Map<Long, IndexBuffer> indexBuffers = new HashMap<Long, IndexBuffer>();
+    GlApi gl;
+    DirectBufferPool pool;
+
+    /**
+     * @param tileSize    edge length of a tile in vertices, between 2 and {@link #MAX_TILE_SIZE}
+     * @param withNormals whether each vertex carries a normal after its position
+     */
+    public TiledTerrain(HeightSource source, int tileSize, boolean withNormals) {
+        if (tileSize < 2 || tileSize > MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("Tile size must be in [2, " + MAX_TILE_SIZE
+                    + "]: " + tileSize);
+        }
+        this.source = source;
+        this.tileSize = tileSize;
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.withNormals = withNormals;
+        this.componentCount = POSITION_COMPONENT_COUNT
+                + (withNormals ? NORMAL_COMPONENT_COUNT : 0);
+
+        // Tiles overlap by one row and one column, so each one advances by tileSize - 1.
+        final List<TerrainTile> tiles = new ArrayList<TerrainTile>();
+        final int step = tileSize - 1;
+        for (int y = 0; y < height - 1; y += step) {
+            for (int x = 0; x < width - 1; x += step) {
+                tiles.add(new TerrainTile(x, y, Math.min(tileSize, width - x),
+                        Math.min(tileSize, height - y)));
+            }
+        }
+        this.tiles = Collections.unmodifiableList(tiles);
+    }
+
+    /**
+     * The pool used by {@link #build()}, with one daemon thread per core.
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            defaultExecutor = Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "TerrainBuilder-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return defaultExecutor;
+    }
+
+    public void build() throws InterruptedException {
+        build(getDefaultExecutor());
+    }
+
+    /**
+     * Computes the vertex data of every tile, one task per tile on {@code executor}, and
+     * waits for all of them.
+     */
+    public void build(ExecutorService executor) throws InterruptedException {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(tiles.size());
+        for (final TerrainTile tile : tiles) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    tile.vertexData = buildVertexData(tile);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Moves the vertex data of every tile into its own vertex buffer and drops the arrays.
+     */
+    public void upload(GlApi gl, DirectBufferPool pool) {
+        this.gl = gl;
+        this.pool = pool;
+        for (TerrainTile tile : tiles) {
+            if (tile.vertexData == null) {
+                throw new IllegalStateException("Tile at " + tile.x + "," + tile.y
+                        + " has not been built.");
+            }
+            tile.vertexBuffer = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+            tile.vertexBuffer.setData(tile.vertexData, 0, tile.vertexData.length);
+            tile.vertexData = null;
+
+            final long key = ((long) tile.columns << 32) | tile.rows;
+            IndexBuffer indexBuffer = indexBuffers.get(key);
+            if (indexBuffer == null) {
+                indexBuffer = new IndexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+                final short[] indexData = createIndexData(tile.columns, tile.rows);
+                indexBuffer.setData(indexData, 0, indexData.length);
+                indexBuffers.put(key, indexBuffer);
+            }
+            tile.indexBuffer = indexBuffer;
+        }
+    }
+
+    /**
+     * Draws every tile.
+     *
+     * @param normalLocation attribute location of the normal, ignored without normals
+     */
+    public void draw(int positionLocation, int normalLocation) {
+        for (TerrainTile tile : tiles) {
+            drawTile(tile, positionLocation, normalLocation);
+        }
+    }
+
+    /**
+     * Draws a single uploaded tile.
+     */
+    public void drawTile(TerrainTile tile, int positionLocation, int normalLocation) {
+        drawElements(tile, 0, tile.indexBuffer, positionLocation, normalLocation);
+    }
+
+    /**
+     * Draws {@code indexBuffer} against the vertices of {@code tile}, with index 0 referring
+     * to the tile's vertex number {@code firstVertex}.
+     */
+    void drawElements(TerrainTile tile, int firstVertex, IndexBuffer indexBuffer,
+                      int positionLocation, int normalLocation) {
+        final int stride = getStride();
+        final int offset = firstVertex * stride;
+        tile.vertexBuffer.setVertexAttribPointer(offset, positionLocation,
+                POSITION_COMPONENT_COUNT, stride);
+        if (withNormals) {
+            tile.vertexBuffer.setVertexAttribPointer(
+                    offset + POSITION_COMPONENT_COUNT * VertexBuffer.BYTES_PER_FLOAT,
+                    normalLocation, NORMAL_COMPONENT_COUNT, stride);
+        }
+        indexBuffer.bind();
+        gl.glDrawElements(GlApi.GL_TRIANGLES, indexBuffer.getCount(), indexBuffer.getType(), 0);
+        indexBuffer.unbind();
+    }
+
+    public void release() {
+        for (TerrainTile tile : tiles) {
+            if (tile.vertexBuffer != null) {
+                tile.vertexBuffer.release();
+                tile.vertexBuffer = null;
+            }
+            tile.indexBuffer = null;
+            tile.vertexData = null;
+        }
+        for (IndexBuffer indexBuffer : indexBuffers.values()) {
+            indexBuffer.release();
+        }
+        indexBuffers.clear();
+    }
+
+    /**
+     * @return edge length of a full tile in vertices
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    public boolean hasNormals() {
+        return withNormals;
+    }
+
+    /**
+     * @return byte stride between vertices
+     */
+    public int getStride() {
+        return componentCount * VertexBuffer.BYTES_PER_FLOAT;
+    }
+
+    public List<TerrainTile> getTiles() {
+        return tiles;
+    }
+
+    /**
+     * @return number of index buffers created by {@link #upload}, one per distinct tile size
+     */
+    public int getIndexBufferCount() {
+        return indexBuffers.size();
+    }
+
+    /**
+     * @return total number of triangles drawn by {@link #draw}
+     */
+    public int getTriangleCount() {
+        int count = 0;
+        for (TerrainTile tile : tiles) {
+            count += tile.getTriangleCount();
+        }
+        return count;
+    }
+
+    float[] buildVertexData(TerrainTile tile) {
+        // Read the tile plus a one sample border where the grid has one, so normals on the
+        // tile edges see the same neighbours as in a single mesh.
+        final int left = Math.max(tile.x - 1, 0);
+        final int top = Math.max(tile.y - 1, 0);
+        final int right = Math.min(tile.x + tile.columns, width - 1);
+        final int bottom = Math.min(tile.y + tile.rows, height - 1);
+        final int regionWidth = right - left + 1;
+        final float[] heights = new float[regionWidth * (bottom - top + 1)];
+        source.getHeights(left, top, regionWidth, bottom - top + 1, heights);
+
+        final float dx = 1f / (width - 1);
+        final float dz = 1f / (height - 1);
+        final float[] vertexData = new float[tile.columns * tile.rows * componentCount];
+        int offset = 0;
+        for (int row = tile.y; row < tile.y + tile.rows; row++) {
+            for (int col = tile.x; col < tile.x + tile.columns; col++) {
+                vertexData[offset++] = col * dx - 0.5f;
+                vertexData[offset++] = heights[(row - top) * regionWidth + col - left];
+                vertexData[offset++] = row * dz - 0.5f;
+
+                if (withNormals) {
+                    // The cross product of the vectors from the right neighbour to the left
+                    // one and from the top neighbour to the bottom one. Heights are clamped
+                    // to the grid, positions are not.
+                    final int r0 = (row - top) * regionWidth;
+                    final float hLeft = heights[r0 + Math.max(col - 1, 0) - left];
+                    final float hRight = heights[r0 + Math.min(col + 1, width - 1) - left];
+                    final float hTop = heights[(Math.max(row - 1, 0) - top) * regionWidth
+                            + col - left];
+                    final float hBottom = heights[(Math.min(row + 1, height - 1) - top)
+                            * regionWidth + col - left];
+
+                    final float nx = (hLeft - hRight) * 2 * dz;
+                    final float ny = 4 * dx * dz;
+                    final float nz = 2 * dx * (hTop - hBottom);
+                    final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                    vertexData[offset++] = nx / length;
+                    vertexData[offset++] = ny / length;
+                    vertexData[offset++] = nz / length;
+                }
+            }
+        }
+        return vertexData;
+    }
+
+    /**
+     * Two triangles per grid cell, for a tile of {@code columns x rows} vertices.
+     */
+    static short[] createIndexData(int columns, int rows) {
+        final short[] indexData = new short[(columns - 1) * (rows - 1) * 2 * 3];
+        int offset = 0;
+
+        for (int row = 0; row < rows - 1; row++) {
+            for (int col = 0; col < columns - 1; col++) {
+                // The (short) cast wraps indices above 32767 into the negative range, which
+                // is the right unsigned value for OpenGL.
+                short topLeftIndexNum = (short) (row * columns + col);
+                short topRightIndexNum = (short) (row * columns + col + 1);
+                short bottomLeftIndexNum = (short) ((row + 1) * columns + col);
+                short bottomRightIndexNum = (short) ((row + 1) * columns + col + 1);
+
+                indexData[offset++] = topLeftIndexNum;
+                indexData[offset++] = bottomLeftIndexNum;
+                indexData[offset++] = topRightIndexNum;
+
+                indexData[offset++] = topRightIndexNum;
+                indexData[offset++] = bottomLeftIndexNum;
+                indexData[offset++] = bottomRightIndexNum;
+            }
+        }
+        return indexData;
+    }
+}
@@ -0,0 +1,132 @@
+package com.roger.glcommon.timing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Named latency histograms for the stages of a renderer's frame.
+ * <p>
+ * Stages are registered once with {@link #addStage(String)}; the returned index is then used on
+ * the hot path:
+ * <pre>
+ *     long start = timings.start();
+ *     drawScene();
+ *     timings.stop(SCENE, start);
+ * </pre>
+ * Recording is lock-free and does not allocate, so stages may be timed from any thread, e.g. a
+ * callback running on a worker. Stage {@link #FRAME} is built in and holds the interval between
+ * consecutive {@link #frame()} calls.
+ */
+public class FrameTimings {
+    public static final int FRAME = 0;
+
+    private final Object lock = new Object();
+    private volatile String[] names = {"frame"};
+    private volatile LatencyHistogram[] histograms = {new LatencyHistogram()};
+    private long lastFrameNanos;
+
+    /**
+     * Registers a stage, or returns the index of the existing stage with this name.
+     */
+    public int addStage(String name) {
+        synchronized (lock) {
+            String[] current = names;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i].equals(name)) {
+                    return i;
+                }
+            }
+            String[] grownNames = new String[current.length + 1];
+            LatencyHistogram[] grownHistograms = new LatencyHistogram[current.length + 1];
+            System.arraycopy(current, 0, grownNames, 0, current.length);
+            System.arraycopy(histograms, 0, grownHistograms, 0, current.length);
+            grownNames[current.length] = name;
+            grownHistograms[current.length] = new LatencyHistogram();
+            // Publish the histogram before the name so readers of names never miss one.
+            histograms = grownHistograms;
+            names = grownNames;
+            return current.length;
+        }
+    }
+
+    public int getStageCount() {
+        return names.length;
+    }
+
+    public String getStageName(int stage) {
+        return names[stage];
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    /**
+     * @return a start time to pass to {@link #stop(int, long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos} for {@code stage}.
+     */
+    public void stop(int stage, long startNanos) {
+        histograms[stage].record(System.nanoTime() - startNanos);
+    }
+
+    public void record(int stage, long nanos) {
+        histograms[stage].record(nanos);
+    }
+
+    /**
+     * Marks the start of a frame and records the interval since the previous one in
+     * {@link #FRAME}. Call from the render thread only.
+     */
+    public void frame() {
+        long now = System.nanoTime();
+        if (lastFrameNanos != 0) {
+            histograms[FRAME].record(now - lastFrameNanos);
+        }
+        lastFrameNanos = now;
+    }
+
+    /**
+     * @return a snapshot of every stage that has recorded at least one value
+     */
+    public List<LatencyHistogram.Snapshot> snapshot() {
+        String[] currentNames = names;
+        LatencyHistogram[] currentHistograms = histograms;
+        List<LatencyHistogram.Snapshot> snapshots =
+                new ArrayList<LatencyHistogram.Snapshot>(currentNames.length);
+        for (int i = 0; i < currentNames.length; i++) {
+            if (currentHistograms[i].getCount() > 0) {
+                snapshots.add(currentHistograms[i].snapshot(currentNames[i]));
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Formats {@link #snapshot()} one stage per line, for logging.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (LatencyHistogram.Snapshot snapshot : snapshot()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(snapshot);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clears every stage, e.g. after each {@link #report()} to report per interval.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.roger.glcommon.timing;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import com.roger.glcommon.gl.GlCapabilities;
+
+/**
+ * Measures GPU time of a span of GL commands with GL_EXT_disjoint_timer_query and records it in a
+ * {@link FrameTimings} stage.
+ * <p>
+ * Results arrive a few frames late, so every {@link #begin()}/{@link #end()} pair uses the next
+ * query of a small ring and {@link #poll()} collects the finished ones without waiting. When every
+ * query is still in flight the span is not measured. Results from an interval the driver reports
+ * as disjoint (e.g. after a frequency change) are dropped.
+ * <p>
+ * Only one timer query can be active at a time, so spans must not nest. Use on the GL thread.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class GpuTimer {
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    private static final int QUERY_COUNT = 4;
+
+    private final FrameTimings timings;
+    private final int stage;
+    private final int[] queries = new int[QUERY_COUNT];
+    private final int[] result = new int[1];
+    // Queries in [first, next) are in flight, oldest first; indices grow without wrapping.
+    private int first;
+    private int next;
+    private boolean active;
+
+    private GpuTimer(FrameTimings timings, int stage) {
+        this.timings = timings;
+        this.stage = stage;
+        GLES30.glGenQueries(QUERY_COUNT, queries, 0);
+    }
+
+    /**
+     * Must be called on the GL thread of an OpenGL ES 3.0 context.
+     *
+     * @return null when the context cannot time GPU work
+     */
+    public static GpuTimer create(FrameTimings timings, int stage) {
+        if (!isSupported()) {
+            return null;
+        }
+        return new GpuTimer(timings, stage);
+    }
+
+    public static boolean isSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        // The query entry points are only exposed through GLES30, which needs an ES 3 context;
+        // GL_VERSION reports what the driver supports even when the context was asked for ES 2.
+        return GlCapabilities.getClientVersion() >= 3 && GlCapabilities.hasExtension(EXTENSION);
+    }
+
+    public void begin() {
+        poll();
+        if (next - first == QUERY_COUNT) {
+            return;
+        }
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[next % QUERY_COUNT]);
+        active = true;
+    }
+
+    public void end() {
+        if (active) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            active = false;
+            next++;
+        }
+    }
+
+    /**
+     * Records every finished measurement. Called by {@link #begin()}; call it directly to collect
+     * the last results when measuring stops.
+     */
+    public void poll() {
+        while (first < next) {
+            int query = queries[first % QUERY_COUNT];
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+            if (result[0] == 0) {
+                break;
+            }
+            GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, result, 0);
+            long nanos = result[0] & 0xFFFFFFFFL;
+            first++;
+            if (!isDisjoint()) {
+                timings.record(stage, nanos);
+            }
+        }
+    }
+
+    private boolean isDisjoint() {
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+        return result[0] != 0;
+    }
+
+    public void release() {
+        if (active) {
+            end();
+        }
+        GLES30.glDeleteQueries(QUERY_COUNT, queries, 0);
+        first = next;
+    }
+}
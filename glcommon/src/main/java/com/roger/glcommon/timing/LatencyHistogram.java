@@ -0,0 +1,170 @@
+package com.roger.glcommon.timing;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size log-linear histogram of durations in nanoseconds.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is
+ * known to within 1/16 of itself from 16ns up to over an hour; longer values land in the last
+ * bucket. The counts take about 5KB and never grow. {@link #record(long)} is lock-free and does
+ * not allocate, so it can be called from any thread on every frame.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 41;
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+    private static final long MAX_TRACKABLE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one duration; negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = nanos < 0 ? 0 : nanos;
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value that falls in the bucket holding the given percentile, capped at
+     * the largest recorded value; 0 when nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] copy = new long[BUCKET_COUNT];
+        return percentile(copy, copyCounts(copy), percentile, max.get());
+    }
+
+    /**
+     * Copies the current state. Recording may continue meanwhile, so a snapshot taken during
+     * recording can be off by the few values recorded while it was being copied.
+     */
+    public Snapshot snapshot(String name) {
+        long[] copy = new long[BUCKET_COUNT];
+        long total = copyCounts(copy);
+        long highest = max.get();
+        return new Snapshot(name, total, total == 0 ? 0 : sum.get() / total, highest,
+                percentile(copy, total, 50, highest),
+                percentile(copy, total, 95, highest),
+                percentile(copy, total, 99, highest));
+    }
+
+    /**
+     * Clears all counts. Values recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    private long copyCounts(long[] copy) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return total;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        long clamped = Math.min(value, MAX_TRACKABLE);
+        int exponent = 63 - Long.numberOfLeadingZeros(clamped);
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (clamped >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value that maps to {@code bucket}
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * total);
+        rank = Math.max(1, Math.min(total, rank));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Summary of a histogram at one point in time. All durations are in nanoseconds.
+     */
+    public static final class Snapshot {
+        public final String name;
+        public final long count;
+        public final long mean;
+        public final long max;
+        public final long p50;
+        public final long p95;
+        public final long p99;
+
+        Snapshot(String name, long count, long mean, long max, long p50, long p95, long p99) {
+            this.name = name;
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+        }
+
+        /**
+         * Formats as {@code name n=120 p50=1.25 p95=3.10 p99=4.02 max=4.10 ms}.
+         */
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s n=%d p50=%.2f p95=%.2f p99=%.2f max=%.2f ms",
+                    name, count, p50 / 1e6, p95 / 1e6, p99 / 1e6, max / 1e6);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.roger.glcommon.buffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void sizeClasses() {
+        assertEquals(0, DirectBufferPool.sizeClass(0));
+        assertEquals(0, DirectBufferPool.sizeClass(256));
+        assertEquals(1, DirectBufferPool.sizeClass(257));
+        assertEquals(1, DirectBufferPool.sizeClass(512));
+        assertEquals(16, DirectBufferPool.sizeClass(DirectBufferPool.MAX_CLASS_SIZE));
+    }
+
+    @Test
+    public void acquireReturnsNativeDirectBufferWithRequestedLimit() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer buffer = pool.acquire(1000);
+        assertTrue(buffer.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), buffer.order());
+        assertEquals(0, buffer.position());
+        assertEquals(1000, buffer.limit());
+        assertEquals(1024, buffer.capacity());
+    }
+
+    @Test
+    public void releasedBuffersAreReused() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer first = pool.acquire(1000);
+        first.order(ByteOrder.BIG_ENDIAN).position(10);
+        pool.release(first);
+        assertEquals(1024, pool.getRetainedBytes());
+
+        ByteBuffer second = pool.acquire(600);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(600, second.limit());
+        assertEquals(ByteOrder.nativeOrder(), second.order());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(1, pool.getReuseCount());
+        assertEquals(0, pool.getRetainedBytes());
+
+        //different size class
+        assertNotSame(first, pool.acquire(100));
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer a = pool.acquire(3000 + i);
+            ByteBuffer b = pool.acquire(40);
+            pool.release(b);
+            pool.release(a);
+        }
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(198, pool.getReuseCount());
+    }
+
+    @Test
+    public void retentionIsBounded() {
+        DirectBufferPool pool = new DirectBufferPool(4096);
+        ByteBuffer a = pool.acquire(4096);
+        ByteBuffer b = pool.acquire(4096);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(4096, pool.getRetainedBytes());
+
+        //oversized and foreign buffers are never retained
+        ByteBuffer huge = pool.acquire(DirectBufferPool.MAX_CLASS_SIZE + 1);
+        assertEquals(DirectBufferPool.MAX_CLASS_SIZE + 1, huge.capacity());
+        pool.release(huge);
+        pool.release(ByteBuffer.allocateDirect(1000));
+        pool.release(ByteBuffer.allocate(1024));
+        assertEquals(4096, pool.getRetainedBytes());
+
+        pool.trim();
+        assertEquals(0, pool.getRetainedBytes());
+        pool.acquire(4096);
+        assertEquals(4, pool.getAllocationCount());
+    }
+}
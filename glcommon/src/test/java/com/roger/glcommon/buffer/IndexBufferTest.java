@@ -0,0 +1,60 @@
+package com.roger.glcommon.buffer;
+
+import com.roger.glcommon.gl.GlApi;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class IndexBufferTest {
+    private RecordingGl gl;
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGl();
+        pool = new DirectBufferPool(1 << 20);
+    }
+
+    @Test
+    public void shortIndices() {
+        IndexBuffer buffer = new IndexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        short[] indices = {0, 1, 2, 2, 1, (short) 65535};
+        buffer.setData(indices, 0, 6);
+        assertEquals(GlApi.GL_UNSIGNED_SHORT, buffer.getType());
+        assertEquals(6, buffer.getCount());
+        RecordingGl.Call call = gl.calls("glBufferData").get(0);
+        assertEquals(GlApi.GL_ELEMENT_ARRAY_BUFFER, call.args[0]);
+        assertEquals(12, call.args[1]);
+        assertEquals((short) 65535, ((ByteBuffer) call.data).asShortBuffer().get(5));
+        assertEquals(0, gl.boundBuffer(GlApi.GL_ELEMENT_ARRAY_BUFFER));
+
+        gl.reset();
+        buffer.update(4, new short[]{7, 8}, 0, 2);
+        RecordingGl.Call sub = gl.calls("glBufferSubData").get(0);
+        assertEquals(8, sub.args[1]);
+        assertEquals(4, sub.args[2]);
+    }
+
+    @Test
+    public void intIndices() {
+        IndexBuffer buffer = new IndexBuffer(gl, pool, GlApi.GL_DYNAMIC_DRAW);
+        int[] indices = {0, 70000, 1};
+        buffer.setData(indices, 0, 3);
+        assertEquals(GlApi.GL_UNSIGNED_INT, buffer.getType());
+        assertEquals(12, gl.bufferSize(buffer.getBufferId()));
+        assertEquals(70000, ((ByteBuffer) gl.calls("glBufferData").get(0).data).asIntBuffer().get(1));
+        try {
+            buffer.update(0, new short[]{1}, 0, 1);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        buffer.update(2, new int[]{5}, 0, 1);
+        assertEquals(4, gl.calls("glBufferSubData").get(0).args[2]);
+    }
+}
@@ -0,0 +1,171 @@
+package com.roger.glcommon.buffer;
+
+import com.roger.glcommon.gl.GlApi;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class VertexBufferTest {
+    private RecordingGl gl;
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGl();
+        pool = new DirectBufferPool(1 << 20);
+    }
+
+    @Test
+    public void staticUploadAllocatesOnceAndUsesSubDataAfterwards() {
+        VertexBuffer buffer = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        float[] data = sequence(300);
+        buffer.setData(data, 0, 300);
+        assertEquals(1200, buffer.getCapacity());
+        assertEquals(1200, gl.bufferSize(buffer.getBufferId()));
+        RecordingGl.Call call = gl.calls("glBufferData").get(0);
+        assertEquals(GlApi.GL_ARRAY_BUFFER, call.args[0]);
+        assertEquals(1200, call.args[1]);
+        assertEquals(GlApi.GL_STATIC_DRAW, call.args[2]);
+        assertFloats(call.data, data, 0, 300);
+        assertEquals(0, gl.boundBuffer(GlApi.GL_ARRAY_BUFFER));
+
+        //same or smaller data keeps the storage
+        gl.reset();
+        buffer.setData(data, 100, 200);
+        assertEquals(0, gl.calls("glBufferData").size());
+        RecordingGl.Call sub = gl.calls("glBufferSubData").get(0);
+        assertEquals(0, sub.args[1]);
+        assertEquals(800, sub.args[2]);
+        assertFloats(sub.data, data, 100, 200);
+        assertEquals(800, gl.getUploadedBytes());
+
+        //larger data reallocates
+        buffer.setData(sequence(400), 0, 400);
+        assertEquals(1600, buffer.getCapacity());
+        assertEquals(1, gl.calls("glBufferData").size());
+    }
+
+    @Test
+    public void stagingMemoryIsPooled() {
+        VertexBuffer buffer = new VertexBuffer(gl, pool, GlApi.GL_DYNAMIC_DRAW);
+        float[] data = sequence(1000);
+        for (int i = 0; i < 50; i++) {
+            buffer.setData(data, 0, 1000);
+            buffer.update(10, data, 0, 100);
+        }
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(98, pool.getReuseCount());
+        assertEquals(4096 + 512, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void streamUploadOrphansStorage() {
+        VertexBuffer buffer = new VertexBuffer(gl, pool, GlApi.GL_STREAM_DRAW);
+        buffer.setData(sequence(100), 0, 100);
+        gl.reset();
+        buffer.setData(sequence(50), 0, 50);
+        assertEquals(4, gl.calls.size());
+        RecordingGl.Call orphan = gl.calls.get(1);
+        assertEquals("glBufferData", orphan.name);
+        assertNull(orphan.data);
+        assertEquals(400, orphan.args[1]);
+        assertEquals(GlApi.GL_STREAM_DRAW, orphan.args[2]);
+        RecordingGl.Call sub = gl.calls.get(2);
+        assertEquals("glBufferSubData", sub.name);
+        assertEquals(200, sub.args[2]);
+        assertEquals(200, gl.getUploadedBytes());
+    }
+
+    @Test
+    public void updateWritesSubRange() {
+        VertexBuffer buffer = new VertexBuffer(gl, pool, GlApi.GL_DYNAMIC_DRAW);
+        float[] data = sequence(64);
+        buffer.setData(data, 0, 64);
+        gl.reset();
+        buffer.update(16, data, 40, 8);
+        RecordingGl.Call sub = gl.calls("glBufferSubData").get(0);
+        assertEquals(64, sub.args[1]);
+        assertEquals(32, sub.args[2]);
+        assertFloats(sub.data, data, 40, 8);
+        try {
+            buffer.update(60, data, 0, 8);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            //expected
+        }
+        assertEquals(1, gl.calls("glBufferSubData").size());
+        //the staging buffer of the rejected update went back to the pool
+        assertEquals(pool.getAllocationCount() * 256, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void attribPointerUsesByteOffset() {
+        VertexBuffer buffer = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        buffer.setData(sequence(12), 0, 12);
+        gl.reset();
+        buffer.setVertexAttribPointer(12, 3, 2, 20);
+        RecordingGl.Call call = gl.calls("glVertexAttribPointer").get(0);
+        assertArrayEquals(new int[]{3, 2, GlApi.GL_FLOAT, 20, 12}, call.args);
+        assertEquals(1, gl.calls("glEnableVertexAttribArray").size());
+        assertEquals(0, gl.boundBuffer(GlApi.GL_ARRAY_BUFFER));
+    }
+
+    @Test
+    public void releaseDeletesBuffer() {
+        VertexBuffer buffer = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        assertEquals(1, gl.getLiveBuffers());
+        buffer.release();
+        buffer.release();
+        assertEquals(0, gl.getLiveBuffers());
+        assertEquals(1, gl.calls("glDeleteBuffers").size());
+        try {
+            buffer.setData(new float[4], 0, 4);
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void vertexArrayReturnsMemoryToPool() {
+        float[] data = sequence(100);
+        VertexArray array = new VertexArray(gl, pool, data);
+        assertEquals(100, array.getFloatBuffer().capacity());
+        array.setVertexAttribPointer(4, 1, 3, 0);
+        RecordingGl.Call call = gl.calls("glVertexAttribPointer").get(0);
+        assertEquals(4, call.args[4]);
+        assertEquals(0, array.getFloatBuffer().position());
+
+        data[10] = -1;
+        array.updateBuffer(data, 10, 1);
+        assertEquals(-1, array.getFloatBuffer().get(10), 0);
+
+        array.release();
+        array.release();
+        assertNull(array.getFloatBuffer());
+        assertEquals(512, pool.getRetainedBytes());
+        new VertexArray(gl, pool, data).release();
+        assertEquals(1, pool.getAllocationCount());
+    }
+
+    static float[] sequence(int count) {
+        float[] data = new float[count];
+        for (int i = 0; i < count; i++) {
+            data[i] = i * 0.5f;
+        }
+        return data;
+    }
+
+    private static void assertFloats(java.nio.Buffer data, float[] expect, int offset, int count) {
+        FloatBuffer floats = ((ByteBuffer) data).asFloatBuffer();
+        for (int i = 0; i < count; i++) {
+            assertEquals(expect[offset + i], floats.get(i), 0);
+        }
+    }
+}
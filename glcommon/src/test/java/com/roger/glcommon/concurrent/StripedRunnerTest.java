@@ -0,0 +1,92 @@
+package com.roger.glcommon.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class StripedRunnerTest {
+
+    @Test
+    public void runsEveryStripeOnce() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final AtomicIntegerArray runs = new AtomicIntegerArray(4);
+            final Thread caller = Thread.currentThread();
+            final boolean[] lastOnCaller = new boolean[1];
+            StripedRunner runner = new StripedRunner(executor, 4, new StripedRunner.Task() {
+                @Override
+                public void runStripe(int stripe) {
+                    runs.incrementAndGet(stripe);
+                    if (stripe == 2) {
+                        lastOnCaller[0] = Thread.currentThread() == caller;
+                    }
+                }
+            });
+            assertEquals(4, runner.getParallelism());
+            runner.run(3);
+            assertEquals(1, runs.get(0));
+            assertEquals(1, runs.get(1));
+            assertEquals(1, runs.get(2));
+            assertEquals(0, runs.get(3));
+            assertTrue(lastOnCaller[0]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void withoutExecutorRunsOnTheCallingThread() {
+        final int[] stripes = new int[1];
+        StripedRunner runner = new StripedRunner(null, 8, new StripedRunner.Task() {
+            @Override
+            public void runStripe(int stripe) {
+                stripes[0]++;
+            }
+        });
+        assertEquals(1, runner.getParallelism());
+        runner.run(1);
+        assertEquals(1, stripes[0]);
+        try {
+            runner.run(2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void rethrowsAfterTheOtherStripesFinish() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AtomicIntegerArray finished = new AtomicIntegerArray(3);
+            StripedRunner runner = new StripedRunner(executor, 3, new StripedRunner.Task() {
+                @Override
+                public void runStripe(int stripe) {
+                    if (stripe == 0) {
+                        throw new IllegalStateException("stripe 0");
+                    }
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.set(stripe, 1);
+                }
+            });
+            try {
+                runner.run(3);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("stripe 0", e.getMessage());
+            }
+            assertEquals(1, finished.get(1));
+            assertEquals(1, finished.get(2));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
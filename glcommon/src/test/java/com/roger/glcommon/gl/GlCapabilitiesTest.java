@@ -0,0 +1,21 @@
+package com.roger.glcommon.gl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GlCapabilitiesTest {
+
+    @Test
+    public void extensionsMatchWholeNames() {
+        String extensions = "GL_OES_element_index_uint_extra GL_EXT_disjoint_timer_query "
+                + "GL_OES_element_index_uint";
+        assertTrue(GlCapabilities.hasExtension(extensions, GlCapabilities.OES_ELEMENT_INDEX_UINT));
+        assertTrue(GlCapabilities.hasExtension(extensions, "GL_EXT_disjoint_timer_query"));
+        assertFalse(GlCapabilities.hasExtension(extensions, "GL_EXT_disjoint_timer"));
+        assertFalse(GlCapabilities.hasExtension(extensions, "timer_query"));
+        assertFalse(GlCapabilities.hasExtension("GL_OES_element_index_uint_extra",
+                GlCapabilities.OES_ELEMENT_INDEX_UINT));
+        assertFalse(GlCapabilities.hasExtension(null, GlCapabilities.OES_ELEMENT_INDEX_UINT));
+    }
+}
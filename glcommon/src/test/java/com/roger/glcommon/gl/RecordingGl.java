@@ -0,0 +1,244 @@
+package com.roger.glcommon.gl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link GlApi} for JVM tests. Nothing is drawn; every call is appended to {@link #calls}
+ * and buffer objects are tracked so tests can assert allocation counts and upload sizes.
+ */
+public class RecordingGl implements GlApi {
+
+    public static class Call {
+        public final String name;
+        public final int[] args;
+        public final Buffer data;
+
+        Call(String name, Buffer data, int... args) {
+            this.name = name;
+            this.data = data;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append('(');
+            for (int i = 0; i < args.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(args[i]);
+            }
+            return sb.append(data == null ? "" : ", data").append(')').toString();
+        }
+    }
+
+    public final List<Call> calls = new ArrayList<Call>();
+
+    private final Map<Integer, Integer> bound = new HashMap<Integer, Integer>();
+    private final Map<Integer, Integer> bufferSizes = new HashMap<Integer, Integer>();
+    private int nextName = 1;
+    private int liveBuffers;
+    private long uploadedBytes;
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = nextName++;
+            bufferSizes.put(buffers[offset + i], 0);
+            liveBuffers++;
+        }
+        calls.add(new Call("glGenBuffers", null, n));
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            if (bufferSizes.remove(buffers[offset + i]) != null) {
+                liveBuffers--;
+            }
+        }
+        calls.add(new Call("glDeleteBuffers", null, n));
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        bound.put(target, buffer);
+        calls.add(new Call("glBindBuffer", null, target, buffer));
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        int buffer = boundBuffer(target);
+        if (buffer == 0) {
+            throw new IllegalStateException("GL_INVALID_OPERATION: no buffer bound");
+        }
+        if (data != null && data.remaining() * elementSize(data) < size) {
+            throw new IllegalArgumentException("remaining() < size");
+        }
+        bufferSizes.put(buffer, size);
+        if (data != null) {
+            uploadedBytes += size;
+        }
+        calls.add(new Call("glBufferData", data, target, size, usage));
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        int buffer = boundBuffer(target);
+        if (buffer == 0) {
+            throw new IllegalStateException("GL_INVALID_OPERATION: no buffer bound");
+        }
+        if (offset < 0 || offset + size > bufferSizes.get(buffer)) {
+            throw new IllegalArgumentException("GL_INVALID_VALUE: " + offset + "+" + size);
+        }
+        if (data.remaining() * elementSize(data) < size) {
+            throw new IllegalArgumentException("remaining() < size");
+        }
+        uploadedBytes += size;
+        calls.add(new Call("glBufferSubData", data, target, offset, size));
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, int offset) {
+        calls.add(new Call("glVertexAttribPointer", null, index, size, type, stride, offset));
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer ptr) {
+        if (boundBuffer(GL_ARRAY_BUFFER) != 0) {
+            throw new IllegalStateException("client array used with an array buffer bound");
+        }
+        calls.add(new Call("glVertexAttribPointer", ptr, index, size, type, stride,
+                ptr.position()));
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        calls.add(new Call("glEnableVertexAttribArray", null, index));
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        calls.add(new Call("glDisableVertexAttribArray", null, index));
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        calls.add(new Call("glDrawArrays", null, mode, first, count));
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        if (boundBuffer(GL_ELEMENT_ARRAY_BUFFER) == 0) {
+            throw new IllegalStateException("no element array buffer bound");
+        }
+        calls.add(new Call("glDrawElements", null, mode, count, type, offset,
+                boundBuffer(GL_ARRAY_BUFFER), boundBuffer(GL_ELEMENT_ARRAY_BUFFER)));
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        if (boundBuffer(GL_ELEMENT_ARRAY_BUFFER) != 0) {
+            throw new IllegalStateException("client indices used with an element buffer bound");
+        }
+        calls.add(new Call("glDrawElements", indices, mode, count, type));
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        calls.add(new Call("glUseProgram", null, program));
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        calls.add(new Call("glActiveTexture", null, texture));
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        calls.add(new Call("glBindTexture", null, target, texture));
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        calls.add(new Call("glEnable", null, cap));
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        calls.add(new Call("glDisable", null, cap));
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        calls.add(new Call("glBlendFunc", null, sfactor, dfactor));
+    }
+
+    @Override
+    public void glDepthFunc(int func) {
+        calls.add(new Call("glDepthFunc", null, func));
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        calls.add(new Call("glDepthMask", null, flag ? 1 : 0));
+    }
+
+    public int boundBuffer(int target) {
+        Integer buffer = bound.get(target);
+        return buffer == null ? 0 : buffer;
+    }
+
+    /**
+     * @return size of the storage last allocated with glBufferData for {@code buffer}
+     */
+    public int bufferSize(int buffer) {
+        Integer size = bufferSizes.get(buffer);
+        return size == null ? -1 : size;
+    }
+
+    public int getLiveBuffers() {
+        return liveBuffers;
+    }
+
+    /**
+     * @return total bytes passed to glBufferData and glBufferSubData with non-null data
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    public List<Call> calls(String name) {
+        List<Call> result = new ArrayList<Call>();
+        for (Call call : calls) {
+            if (call.name.equals(name)) {
+                result.add(call);
+            }
+        }
+        return result;
+    }
+
+    public void reset() {
+        calls.clear();
+        uploadedBytes = 0;
+    }
+
+    private static int elementSize(Buffer buffer) {
+        if (buffer instanceof ByteBuffer) {
+            return 1;
+        } else if (buffer instanceof ShortBuffer || buffer instanceof CharBuffer) {
+            return 2;
+        } else if (buffer instanceof DoubleBuffer || buffer instanceof LongBuffer) {
+            return 8;
+        }
+        return 4;
+    }
+}
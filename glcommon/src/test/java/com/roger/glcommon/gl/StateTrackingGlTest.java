@@ -0,0 +1,170 @@
+package com.roger.glcommon.gl;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.buffer.VertexBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class StateTrackingGlTest {
+    private RecordingGl recording;
+    private StateTrackingGl gl;
+
+    @Before
+    public void setUp() {
+        recording = new RecordingGl();
+        gl = new StateTrackingGl(recording);
+    }
+
+    @Test
+    public void repeatedStateIsIssuedOnce() {
+        for (int i = 0; i < 3; i++) {
+            gl.glUseProgram(5);
+            gl.glEnable(GlApi.GL_BLEND);
+            gl.glBlendFunc(GlApi.GL_ONE, GlApi.GL_ONE);
+            gl.glDepthMask(false);
+            gl.glDepthFunc(GlApi.GL_LEQUAL);
+            gl.glEnableVertexAttribArray(2);
+        }
+        assertEquals(1, recording.calls("glUseProgram").size());
+        assertEquals(1, recording.calls("glEnable").size());
+        assertEquals(1, recording.calls("glBlendFunc").size());
+        assertEquals(1, recording.calls("glDepthMask").size());
+        assertEquals(1, recording.calls("glDepthFunc").size());
+        assertEquals(1, recording.calls("glEnableVertexAttribArray").size());
+        assertEquals(6, gl.getIssuedCount());
+        assertEquals(12, gl.getSkippedCount());
+
+        gl.glUseProgram(6);
+        gl.glDisable(GlApi.GL_BLEND);
+        gl.glBlendFunc(GlApi.GL_SRC_ALPHA, GlApi.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glDepthMask(true);
+        gl.glDisableVertexAttribArray(2);
+        assertEquals(2, recording.calls("glUseProgram").size());
+        assertEquals(1, recording.calls("glDisable").size());
+        assertEquals(2, recording.calls("glBlendFunc").size());
+        assertEquals(2, recording.calls("glDepthMask").size());
+        assertEquals(1, recording.calls("glDisableVertexAttribArray").size());
+        assertEquals(11, gl.getIssuedCount());
+
+        gl.beginFrame();
+        assertEquals(0, gl.getIssuedCount());
+        assertEquals(0, gl.getSkippedCount());
+        assertEquals(11, gl.getTotalIssuedCount());
+        assertEquals(12, gl.getTotalSkippedCount());
+    }
+
+    @Test
+    public void unknownStateIsAlwaysIssued() {
+        //GL starts with blending disabled, but nothing has told the tracker so
+        gl.glDisable(GlApi.GL_BLEND);
+        gl.glDisableVertexAttribArray(0);
+        assertEquals(1, recording.calls("glDisable").size());
+        assertEquals(1, recording.calls("glDisableVertexAttribArray").size());
+
+        gl.glUseProgram(3);
+        gl.invalidate();
+        gl.glUseProgram(3);
+        gl.glDisable(GlApi.GL_BLEND);
+        assertEquals(2, recording.calls("glUseProgram").size());
+        assertEquals(2, recording.calls("glDisable").size());
+    }
+
+    @Test
+    public void textureBindingsAreTrackedPerUnitAndTarget() {
+        gl.glActiveTexture(GlApi.GL_TEXTURE0);
+        gl.glBindTexture(GlApi.GL_TEXTURE_2D, 7);
+        gl.glBindTexture(GlApi.GL_TEXTURE_CUBE_MAP, 7);
+        gl.glActiveTexture(GlApi.GL_TEXTURE0 + 1);
+        gl.glBindTexture(GlApi.GL_TEXTURE_2D, 7);
+        assertEquals(3, recording.calls("glBindTexture").size());
+
+        gl.glActiveTexture(GlApi.GL_TEXTURE0);
+        gl.glBindTexture(GlApi.GL_TEXTURE_2D, 7);
+        gl.glBindTexture(GlApi.GL_TEXTURE_CUBE_MAP, 7);
+        gl.glActiveTexture(GlApi.GL_TEXTURE0);
+        assertEquals(3, recording.calls("glBindTexture").size());
+        assertEquals(3, recording.calls("glActiveTexture").size());
+
+        //other targets are not shadowed
+        gl.glBindTexture(0x8D65, 9);
+        gl.glBindTexture(0x8D65, 9);
+        assertEquals(5, recording.calls("glBindTexture").size());
+    }
+
+    @Test
+    public void bindWithoutKnownUnitIsIssued() {
+        gl.glBindTexture(GlApi.GL_TEXTURE_2D, 4);
+        gl.glBindTexture(GlApi.GL_TEXTURE_2D, 4);
+        assertEquals(2, recording.calls("glBindTexture").size());
+    }
+
+    @Test
+    public void bufferBindsAreDeferredUntilNeeded() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 16);
+        VertexBuffer vertices = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        vertices.setData(new float[]{0, 1, 2, 3, 4, 5, 6, 7}, 0, 8);
+        IndexBuffer indices = new IndexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        indices.setData(new short[]{0, 1, 2}, 0, 3);
+        recording.reset();
+        gl.beginFrame();
+
+        for (int frame = 0; frame < 3; frame++) {
+            vertices.setVertexAttribPointer(0, 0, 2, 16);
+            vertices.setVertexAttribPointer(8, 1, 2, 16);
+            indices.bind();
+            gl.glDrawElements(GlApi.GL_TRIANGLES, 3, indices.getType(), 0);
+            indices.unbind();
+        }
+        //both buffers are still bound from their uploads, so no bind or unbind is issued
+        assertEquals(0, recording.calls("glBindBuffer").size());
+        assertEquals(22, gl.getSkippedCount());
+        assertEquals(vertices.getBufferId(), recording.boundBuffer(GlApi.GL_ARRAY_BUFFER));
+        assertEquals(3, recording.calls("glDrawElements").size());
+        assertEquals(6, recording.calls("glVertexAttribPointer").size());
+
+        gl.flush();
+        assertEquals(0, recording.boundBuffer(GlApi.GL_ARRAY_BUFFER));
+        assertEquals(0, recording.boundBuffer(GlApi.GL_ELEMENT_ARRAY_BUFFER));
+    }
+
+    @Test
+    public void clientArraysSeeUnboundBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 16);
+        VertexBuffer vertices = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        vertices.setData(new float[]{0, 1, 2, 3}, 0, 4);
+        vertices.setVertexAttribPointer(0, 0, 2, 8);
+        IndexBuffer indices = new IndexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        indices.setData(new short[]{0, 1, 2}, 0, 3);
+        indices.bind();
+        gl.glDrawElements(GlApi.GL_TRIANGLES, 3, indices.getType(), 0);
+        indices.unbind();
+
+        //RecordingGl rejects client pointers while a buffer of the same target is bound
+        ByteBuffer client = ByteBuffer.allocateDirect(16);
+        gl.glVertexAttribPointer(1, 2, GlApi.GL_FLOAT, false, 8, client);
+        gl.glDrawElements(GlApi.GL_TRIANGLES, 3, GlApi.GL_UNSIGNED_BYTE, client);
+        assertEquals(0, recording.boundBuffer(GlApi.GL_ARRAY_BUFFER));
+        assertEquals(0, recording.boundBuffer(GlApi.GL_ELEMENT_ARRAY_BUFFER));
+    }
+
+    @Test
+    public void deletedBufferIsNotRebound() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 16);
+        VertexBuffer vertices = new VertexBuffer(gl, pool, GlApi.GL_STATIC_DRAW);
+        vertices.setData(new float[]{0, 1, 2, 3}, 0, 4);
+        int id = vertices.getBufferId();
+        vertices.bind();
+        vertices.release();
+        recording.reset();
+        gl.flush();
+        for (RecordingGl.Call call : recording.calls("glBindBuffer")) {
+            assertNotEquals(id, call.args[1]);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of emitting a burst of particles with {@link ParticleEmitter} compared with the
+ * ParticleShooter approach of a rotation matrix and a direction object per particle.
+ * Run with the GC profiler: gc.alloc.rate.norm of {@code emitter} stays at 0 bytes per
+ * operation whatever the burst size, while {@code perParticleObjects} grows with it.
+ * <p>
+ * Run the main method, or use the JMH plugin of the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParticleEmitterBenchmark {
+    private static final int COLOR = 0xFFFF3205;
+    private static final float ANGLE_VARIANCE = 5f;
+    private static final float SPEED_VARIANCE = 1f;
+
+    /**
+     * Particles emitted per operation.
+     */
+    @Param({"15", "1000", "10000"})
+    public int burst;
+
+    private ParticleStore store;
+    private ParticleEmitter emitter;
+
+    private final Random random = new Random(1);
+    private final float[] rotationMatrix = new float[16];
+    private final float[] directionVector = {0f, 0.5f, 0f, 0f};
+    private final float[] resultVector = new float[4];
+
+    @Setup
+    public void setup() {
+        store = new ParticleStore(new RecordingGl(), new DirectBufferPool(1 << 20), 100000,
+                ParticleEmitter.FLOATS_PER_PARTICLE);
+        emitter = new ParticleEmitter(0f, 0f, 0f, 0f, 0.5f, 0f, COLOR, ANGLE_VARIANCE,
+                SPEED_VARIANCE, ParticleEmitter.DEFAULT_TABLE_SIZE, 1);
+    }
+
+    @Benchmark
+    public ParticleStore emitter() {
+        emitter.emit(store, 1f, burst);
+        return store;
+    }
+
+    @Benchmark
+    public ParticleStore perParticleObjects() {
+        float[] data = store.getData();
+        for (int i = 0; i < burst; i++) {
+            setRotateEulerM(rotationMatrix, (random.nextFloat() - 0.5f) * ANGLE_VARIANCE,
+                    (random.nextFloat() - 0.5f) * ANGLE_VARIANCE,
+                    (random.nextFloat() - 0.5f) * ANGLE_VARIANCE);
+            multiplyMV(resultVector, rotationMatrix, directionVector);
+            float speedAdjustment = 1f + random.nextFloat() * SPEED_VARIANCE;
+            Vector direction = new Vector(resultVector[0] * speedAdjustment,
+                    resultVector[1] * speedAdjustment, resultVector[2] * speedAdjustment);
+
+            int offset = store.add();
+            data[offset++] = 0f;
+            data[offset++] = 0f;
+            data[offset++] = 0f;
+            data[offset++] = ((COLOR >> 16) & 0xFF) / 255f;
+            data[offset++] = ((COLOR >> 8) & 0xFF) / 255f;
+            data[offset++] = (COLOR & 0xFF) / 255f;
+            data[offset++] = direction.x;
+            data[offset++] = direction.y;
+            data[offset++] = direction.z;
+            data[offset] = 1f;
+        }
+        return store;
+    }
+
+    private static final class Vector {
+        final float x, y, z;
+
+        Vector(float x, float y, float z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+
+    // Matrix.setRotateEulerM and Matrix.multiplyMV, which are not available off the device.
+    private static void setRotateEulerM(float[] rm, float x, float y, float z) {
+        x *= (float) (Math.PI / 180.0f);
+        y *= (float) (Math.PI / 180.0f);
+        z *= (float) (Math.PI / 180.0f);
+        float cx = (float) Math.cos(x);
+        float sx = (float) Math.sin(x);
+        float cy = (float) Math.cos(y);
+        float sy = (float) Math.sin(y);
+        float cz = (float) Math.cos(z);
+        float sz = (float) Math.sin(z);
+        float cxsy = cx * sy;
+        float sxsy = sx * sy;
+        rm[0] = cy * cz;
+        rm[1] = -cy * sz;
+        rm[2] = sy;
+        rm[4] = cxsy * cz + cx * sz;
+        rm[5] = -cxsy * sz + cx * cz;
+        rm[6] = -sx * cy;
+        rm[8] = -sxsy * cz + sx * sz;
+        rm[9] = sxsy * sz + sx * cz;
+        rm[10] = cx * cy;
+        rm[15] = 1f;
+    }
+
+    private static void multiplyMV(float[] result, float[] m, float[] v) {
+        for (int i = 0; i < 4; i++) {
+            result[i] = m[i] * v[0] + m[4 + i] * v[1] + m[8 + i] * v[2] + m[12 + i] * v[3];
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParticleEmitterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,112 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.roger.glcommon.particles.ParticleEmitter.*;
+import static org.junit.Assert.*;
+
+public class ParticleEmitterTest {
+    // Color.rgb(255, 50, 5)
+    private static final int COLOR = 0xFFFF3205;
+
+    private RecordingGl gl;
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGl();
+        pool = new DirectBufferPool(1 << 20);
+    }
+
+    @Test
+    public void writesTheParticleLayout() {
+        ParticleStore store = new ParticleStore(gl, pool, 100, FLOATS_PER_PARTICLE);
+        ParticleEmitter emitter = new ParticleEmitter(-1f, 2f, 3f, 0f, 0.5f, 0f, COLOR, 0f, 0f,
+                16, 42);
+        emitter.emit(store, 1.5f, 7);
+        assertEquals(7, store.getParticleCount());
+        assertEquals(7, store.getDirtyCount());
+        float[] data = store.getData();
+        for (int i = 0; i < 7; i++) {
+            int offset = i * FLOATS_PER_PARTICLE;
+            assertEquals(-1f, data[offset + POSITION_OFFSET], 0);
+            assertEquals(3f, data[offset + POSITION_OFFSET + 2], 0);
+            assertEquals(1f, data[offset + COLOR_OFFSET], 0);
+            assertEquals(50 / 255f, data[offset + COLOR_OFFSET + 1], 0);
+            assertEquals(5 / 255f, data[offset + COLOR_OFFSET + 2], 0);
+            //no variance: exactly the direction
+            assertEquals(0f, data[offset + DIRECTION_OFFSET], 1e-6f);
+            assertEquals(0.5f, data[offset + DIRECTION_OFFSET + 1], 1e-6f);
+            assertEquals(1.5f, data[offset + START_TIME_OFFSET], 0);
+        }
+        assertEquals(0f, data[7 * FLOATS_PER_PARTICLE + START_TIME_OFFSET], 0);
+    }
+
+    @Test
+    public void directionsStayInsideTheCone() {
+        ParticleStore store = new ParticleStore(gl, pool, 5000, FLOATS_PER_PARTICLE);
+        float variance = 5f;
+        ParticleEmitter emitter = new ParticleEmitter(0f, 0f, 0f, 0f, 0.5f, 0f, COLOR, variance,
+                1f, DEFAULT_TABLE_SIZE, 7);
+        emitter.emit(store, 0f, 5000);
+        float[] data = store.getData();
+        double maxAngle = 0;
+        float minSpeed = Float.MAX_VALUE;
+        float maxSpeed = 0;
+        for (int i = 0; i < 5000; i++) {
+            int offset = i * FLOATS_PER_PARTICLE + DIRECTION_OFFSET;
+            float dx = data[offset], dy = data[offset + 1], dz = data[offset + 2];
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            maxAngle = Math.max(maxAngle, Math.toDegrees(Math.acos(Math.min(1f, dy / length))));
+            minSpeed = Math.min(minSpeed, length / 0.5f);
+            maxSpeed = Math.max(maxSpeed, length / 0.5f);
+        }
+        //each of the three Euler angles is within +-variance/2
+        assertTrue("angle " + maxAngle, maxAngle <= variance * 1.5);
+        assertTrue("angle " + maxAngle, maxAngle > variance / 4);
+        //like Matrix.setRotateEulerM the rotation is not exactly orthonormal
+        assertTrue("speed " + minSpeed, minSpeed >= 0.99f && minSpeed < 1.05f);
+        assertTrue("speed " + maxSpeed, maxSpeed <= 2.01f && maxSpeed > 1.95f);
+    }
+
+    @Test
+    public void bulkEmitWrapsAndClampsToTheRing() {
+        ParticleStore store = new ParticleStore(gl, pool, 8, FLOATS_PER_PARTICLE);
+        ParticleEmitter emitter = new ParticleEmitter(0f, 0f, 0f, 1f, 0f, 0f, COLOR, 10f, 1f,
+                64, 1);
+        emitter.emit(store, 1f, 6);
+        store.flush();
+        emitter.emit(store, 2f, 4);
+        assertEquals(2, store.getNextParticle());
+        float[] data = store.getData();
+        assertEquals(2f, data[7 * FLOATS_PER_PARTICLE + START_TIME_OFFSET], 0);
+        assertEquals(2f, data[START_TIME_OFFSET], 0);
+        assertEquals(1f, data[5 * FLOATS_PER_PARTICLE + START_TIME_OFFSET], 0);
+
+        emitter.emit(store, 3f, 100);
+        assertEquals(8, store.getDirtyCount());
+        assertEquals(2, store.getNextParticle());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(3f, data[i * FLOATS_PER_PARTICLE + START_TIME_OFFSET], 0);
+        }
+    }
+
+    @Test
+    public void sameSeedSameParticles() {
+        ParticleStore a = new ParticleStore(gl, pool, 50, FLOATS_PER_PARTICLE);
+        ParticleStore b = new ParticleStore(gl, pool, 50, FLOATS_PER_PARTICLE);
+        new ParticleEmitter(0f, 0f, 0f, 0f, 1f, 0f, COLOR, 20f, 1f, 128, 99).emit(a, 0f, 50);
+        new ParticleEmitter(0f, 0f, 0f, 0f, 1f, 0f, COLOR, 20f, 1f, 128, 99).emit(b, 0f, 50);
+        assertArrayEquals(a.getData(), b.getData(), 0);
+        try {
+            new ParticleEmitter(0f, 0f, 0f, 0f, 1f, 0f, COLOR, 20f, 1f, 100, 99);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+}
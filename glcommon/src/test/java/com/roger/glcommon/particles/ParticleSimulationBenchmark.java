@@ -0,0 +1,103 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.RecordingGl;
+import com.roger.glcommon.terrain.ArrayHeightSource;
+import com.roger.glcommon.terrain.HeightField;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of one simulated frame, a time step with drag, wind and terrain collision followed by
+ * the copy into the vertex data, for growing particle counts and thread counts. The time per
+ * frame should fall close to 1 / threads up to the number of physical cores.
+ * <p>
+ * Run the main method, or use the JMH plugin of the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParticleSimulationBenchmark {
+    @Param({"100000", "1000000"})
+    public int particles;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ExecutorService executor;
+    private ParticleSimulation simulation;
+    private ParticleStore store;
+    private int frame;
+
+    @Setup
+    public void setup() {
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+        simulation = new ParticleSimulation(particles, executor, threads);
+
+        int size = 257;
+        float[] heights = new float[size * size];
+        Random random = new Random(1);
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = random.nextFloat();
+        }
+        HeightField ground = new HeightField(new ArrayHeightSource(heights, size, size));
+        ground.setScale(100f, 10f, 100f);
+        simulation.setTerrain(ground, 0.4f, 0.8f, false);
+        simulation.setDrag(0.1f);
+        simulation.setWind(0.3f, 0f, 0f);
+        // Nothing expires, so every frame moves the same number of particles.
+        simulation.setLifetime(Float.MAX_VALUE);
+
+        ParticleEmitter emitter = new ParticleEmitter(0f, 12f, 0f, 0f, 0.5f, 0f, 0xFFFFFFFF, 90f,
+                1f, ParticleEmitter.DEFAULT_TABLE_SIZE, 1);
+        emitter.emit(simulation, 0f, particles);
+        store = new ParticleStore(new RecordingGl(), new DirectBufferPool(1 << 20), particles,
+                ParticleEmitter.FLOATS_PER_PARTICLE);
+        frame = 0;
+        simulation.update(0f);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public ParticleStore frame() {
+        // Half a step late, so rounding never leaves a frame without a step.
+        frame++;
+        simulation.update((frame + 0.5f) * ParticleSimulation.DEFAULT_TIME_STEP);
+        simulation.writeTo(store);
+        return store;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParticleSimulationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
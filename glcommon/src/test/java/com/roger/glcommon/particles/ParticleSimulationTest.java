@@ -0,0 +1,215 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.RecordingGl;
+import com.roger.glcommon.terrain.ArrayHeightSource;
+import com.roger.glcommon.terrain.HeightField;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.roger.glcommon.particles.ParticleEmitter.*;
+import static org.junit.Assert.*;
+
+public class ParticleSimulationTest {
+    private static final float DT = ParticleSimulation.DEFAULT_TIME_STEP;
+
+    @Test
+    public void fallsLikeTheShader() {
+        ParticleSimulation simulation = new ParticleSimulation(10, null, 1);
+        simulation.set(simulation.allocate(1), 1f, 0f, 0f, 0f, 0.5f, 0f, 1f, 1f, 1f, 0f);
+        simulation.update(0f);
+        //one second in updates of six steps
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(6, simulation.update(i * 6 * DT + 1e-4f));
+        }
+        //the shader's position: direction * t - t^2 / 8
+        assertEquals(0.5f - 0.125f, simulation.getY(0), 0.005f);
+        assertEquals(0.5f - 0.25f, simulation.getVelocityY(0), 1e-4f);
+        assertEquals(1f, simulation.getX(0), 0);
+    }
+
+    @Test
+    public void dragPullsTowardsTheWindAndFieldsAddForces() {
+        ParticleSimulation simulation = new ParticleSimulation(10, null, 1);
+        simulation.setGravity(0f, 0f, 0f);
+        simulation.setDrag(2f);
+        simulation.setWind(1f, 0f, 0f);
+        simulation.setForceField(new ForceField() {
+            @Override
+            public void apply(float[] x, float[] y, float[] z, float[] vx, float[] vy,
+                              float[] vz, int from, int to, float time, float dt) {
+                for (int i = from; i < to; i++) {
+                    vz[i] -= dt;
+                }
+            }
+        });
+        simulation.setLifetime(100f);
+        simulation.set(simulation.allocate(1), 0f, 0f, 0f, 0f, 0f, 0f, 1f, 1f, 1f, 0f);
+        simulation.update(0f);
+        for (int i = 1; i <= 60; i++) {
+            simulation.update(i * 8 * DT + 1e-4f);
+        }
+        assertEquals(1f, simulation.getVelocityX(0), 1e-3f);
+        //the field's acceleration of -1 balances drag at -0.5, less a step's worth of drag
+        assertEquals(-0.5f, simulation.getVelocityZ(0), 0.02f);
+    }
+
+    @Test
+    public void nearbyParticlesPushEachOtherApart() {
+        ParticleSimulation simulation = new ParticleSimulation(10, null, 1);
+        simulation.setGravity(0f, 0f, 0f);
+        simulation.setRepulsion(0.2f, 1f);
+        simulation.set(simulation.allocate(1), -0.05f, 0f, 0f, 0f, 0f, 0f, 1f, 1f, 1f, 0f);
+        simulation.set(simulation.allocate(1), 0.05f, 0f, 0f, 0f, 0f, 0f, 1f, 1f, 1f, 0f);
+        //out of reach of both
+        simulation.set(simulation.allocate(1), 5f, 0f, 0f, 0f, 0f, 0f, 1f, 1f, 1f, 0f);
+        simulation.update(0f);
+        simulation.update(DT + 1e-4f);
+        //half the radius apart: half the strength for one step
+        assertEquals(-0.5f * DT, simulation.getVelocityX(0), 1e-5f);
+        assertEquals(0.5f * DT, simulation.getVelocityX(1), 1e-5f);
+        assertEquals(0f, simulation.getVelocityX(2), 0);
+        for (int i = 2; i <= 60; i++) {
+            simulation.update(i * DT + 1e-4f);
+        }
+        assertTrue(simulation.getX(1) - simulation.getX(0) > 0.15f);
+        assertEquals(0f, simulation.getVelocityY(0), 0);
+    }
+
+    @Test
+    public void bouncesOffOrDiesOnTheTerrain() {
+        //flat ground at height 2 over [-5, 5]
+        HeightField ground = new HeightField(new ArrayHeightSource(new float[]{
+                1f, 1f, 1f, 1f}, 2, 2));
+        ground.setScale(10f, 2f, 10f);
+
+        ParticleSimulation simulation = new ParticleSimulation(10, null, 1);
+        simulation.setTerrain(ground, 0.5f, 1f, false);
+        simulation.set(simulation.allocate(1), 0f, 2.5f, 0f, 0f, -1f, 0f, 1f, 1f, 1f, 0f);
+        //outside the terrain: falls freely
+        simulation.set(simulation.allocate(1), 6f, 2.5f, 0f, 0f, -1f, 0f, 1f, 1f, 1f, 0f);
+        simulation.update(0f);
+        float lowest = Float.MAX_VALUE;
+        boolean bounced = false;
+        for (int i = 1; i <= 60; i++) {
+            simulation.update(i * DT + 1e-4f);
+            lowest = Math.min(lowest, simulation.getY(0));
+            bounced |= simulation.getVelocityY(0) > 0f;
+        }
+        assertEquals(2f, lowest, 0);
+        assertTrue(bounced);
+        assertTrue(simulation.getY(1) < 1.5f);
+
+        simulation.clear();
+        simulation.setTerrain(ground, 0.5f, 1f, true);
+        simulation.set(simulation.allocate(1), 0f, 2.5f, 0f, 0f, -1f, 0f, 1f, 1f, 1f, 0f);
+        simulation.set(simulation.allocate(1), 6f, 2.5f, 0f, 0f, -1f, 0f, 1f, 1f, 1f, 0f);
+        float start = simulation.getSimulatedTime();
+        simulation.update(start + 6 * DT + 1e-4f);
+        assertEquals(2, simulation.getCount());
+        for (int i = 1; i <= 10; i++) {
+            simulation.update(start + (i + 1) * 6 * DT + 1e-4f);
+        }
+        assertEquals(1, simulation.getCount());
+        assertEquals(6f, simulation.getX(0), 0);
+    }
+
+    @Test
+    public void expiredParticlesAreRemovedInOrder() {
+        int max = 3 * ParticleSimulation.CHUNK_SIZE + 100;
+        ParticleSimulation simulation = new ParticleSimulation(max, null, 1);
+        simulation.setLifetime(1f);
+        simulation.allocate(max);
+        for (int i = 0; i < max; i++) {
+            //every third particle is old
+            float birth = i % 3 == 0 ? -5f : 0f;
+            simulation.set(i, i, 0f, 0f, 0f, 0f, 0f, 1f, 1f, 1f, birth);
+        }
+        assertEquals(max, simulation.allocate(10));
+        assertEquals(10, simulation.getDroppedCount());
+
+        simulation.update(0f);
+        simulation.update(DT + 1e-4f);
+        int live = max - (max + 2) / 3;
+        assertEquals(live, simulation.getCount());
+        for (int i = 0; i < live; i++) {
+            //i-th survivor of the pattern 1, 2, 4, 5, 7, ...
+            assertEquals(i / 2 * 3 + i % 2 + 1, simulation.getX(i), 0);
+        }
+
+        RecordingGl gl = new RecordingGl();
+        ParticleStore store = new ParticleStore(gl, new DirectBufferPool(1 << 20), max,
+                FLOATS_PER_PARTICLE);
+        simulation.writeTo(store);
+        assertEquals(live, store.getParticleCount());
+        assertEquals(live, store.getDirtyCount());
+        assertEquals(1, store.flush());
+        float[] data = store.getData();
+        assertEquals(2f, data[FLOATS_PER_PARTICLE + POSITION_OFFSET], 0);
+        assertEquals(0f, data[FLOATS_PER_PARTICLE + DIRECTION_OFFSET + 1], 0);
+        assertEquals(0f, data[FLOATS_PER_PARTICLE + START_TIME_OFFSET], 0);
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        int max = 10 * ParticleSimulation.CHUNK_SIZE + 123;
+        HeightField ground = new HeightField(new ArrayHeightSource(randomHeights(33 * 33, 5),
+                33, 33));
+        ground.setScale(4f, 1f, 4f);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ParticleSimulation serial = new ParticleSimulation(max, null, 1);
+            ParticleSimulation parallel = new ParticleSimulation(max, executor, 4);
+            for (ParticleSimulation simulation : new ParticleSimulation[]{serial, parallel}) {
+                simulation.setTerrain(ground, 0.5f, 0.9f, false);
+                simulation.setDrag(0.3f);
+                simulation.setWind(0.5f, 0f, -0.2f);
+                simulation.setLifetime(1.5f);
+                new ParticleEmitter(0f, 1f, 0f, 0.3f, 0.5f, 0f, 0xFFFFFFFF, 90f, 1f, 256, 3)
+                        .emit(simulation, 0f, max);
+                simulation.update(0f);
+            }
+            Random random = new Random(8);
+            for (int frame = 1; frame <= 20; frame++) {
+                float time = frame * 0.05f;
+                //kill some particles early so the chunks shrink unevenly
+                for (int i = 0; i < 200; i++) {
+                    int index = random.nextInt(serial.getCount());
+                    float birth = serial.getBirthTime(index) - 2f;
+                    reset(serial, index, birth);
+                    reset(parallel, index, birth);
+                }
+                serial.update(time);
+                parallel.update(time);
+                assertEquals(serial.getCount(), parallel.getCount());
+                for (int i = 0; i < serial.getCount(); i++) {
+                    assertEquals(serial.getX(i), parallel.getX(i), 0);
+                    assertEquals(serial.getY(i), parallel.getY(i), 0);
+                    assertEquals(serial.getVelocityZ(i), parallel.getVelocityZ(i), 0);
+                }
+            }
+            assertTrue(serial.getCount() > 0 && serial.getCount() < max);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void reset(ParticleSimulation simulation, int index, float birth) {
+        simulation.set(index, simulation.getX(index), simulation.getY(index),
+                simulation.getZ(index), simulation.getVelocityX(index),
+                simulation.getVelocityY(index), simulation.getVelocityZ(index), 1f, 1f, 1f, birth);
+    }
+
+    private static float[] randomHeights(int n, long seed) {
+        Random random = new Random(seed);
+        float[] heights = new float[n];
+        for (int i = 0; i < n; i++) {
+            heights[i] = random.nextFloat();
+        }
+        return heights;
+    }
+}
@@ -0,0 +1,107 @@
+package com.roger.glcommon.particles;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link ParticleSorter}: {@code fromScratch} sorts randomly placed particles
+ * with no usable previous order, {@code coherent} sorts them again for a camera that turns a
+ * tenth of a degree back and forth, as between two frames. The denser the particles, the more
+ * of them such a turn reorders, so the previous order mostly pays off at the smaller counts.
+ * <p>
+ * Run the main method, or use the JMH plugin of the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParticleSorterBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int particles;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ExecutorService executor;
+    private ParticleSorter sorter;
+    private float[] data;
+    private final float[][] views = new float[2][];
+    private int frame;
+
+    @Setup
+    public void setup() {
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+        sorter = new ParticleSorter(particles, executor, threads);
+        data = new float[particles * ParticleEmitter.FLOATS_PER_PARTICLE];
+        Random random = new Random(1);
+        for (int i = 0; i < particles; i++) {
+            int offset = i * ParticleEmitter.FLOATS_PER_PARTICLE + ParticleEmitter.POSITION_OFFSET;
+            data[offset] = (random.nextFloat() - 0.5f) * 20f;
+            data[offset + 1] = random.nextFloat() * 10f;
+            data[offset + 2] = (random.nextFloat() - 0.5f) * 20f;
+        }
+        views[0] = yRotation(0f);
+        views[1] = yRotation(0.1f);
+        sorter.sort(data, ParticleEmitter.FLOATS_PER_PARTICLE, particles, views[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public ParticleSorter fromScratch() {
+        sorter.reset();
+        sorter.sort(data, ParticleEmitter.FLOATS_PER_PARTICLE, particles, views[0]);
+        return sorter;
+    }
+
+    @Benchmark
+    public ParticleSorter coherent() {
+        frame ^= 1;
+        sorter.sort(data, ParticleEmitter.FLOATS_PER_PARTICLE, particles, views[frame]);
+        return sorter;
+    }
+
+    /**
+     * A view matrix turned {@code degrees} about Y, 30 units behind the particles.
+     */
+    private static float[] yRotation(float degrees) {
+        float angle = (float) Math.toRadians(degrees);
+        float c = (float) Math.cos(angle), s = (float) Math.sin(angle);
+        return new float[]{
+                c, 0f, -s, 0f,
+                0f, 1f, 0f, 0f,
+                s, 0f, c, 0f,
+                0f, 0f, -30f, 1f};
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ParticleSorterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
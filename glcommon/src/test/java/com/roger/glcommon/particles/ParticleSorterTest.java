@@ -0,0 +1,214 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.buffer.IndexBuffer;
+import com.roger.glcommon.gl.GlApi;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.roger.glcommon.particles.ParticleEmitter.*;
+import static org.junit.Assert.*;
+
+public class ParticleSorterTest {
+    private static final float[] IDENTITY = {
+            1f, 0f, 0f, 0f,
+            0f, 1f, 0f, 0f,
+            0f, 0f, 1f, 0f,
+            0f, 0f, 0f, 1f};
+
+    @Test
+    public void sortsFarthestFirst() {
+        float[] data = randomParticles(1000, 1);
+        ParticleSorter sorter = new ParticleSorter(1000);
+        assertTrue(sorter.sort(data, FLOATS_PER_PARTICLE, 1000, IDENTITY));
+        assertEquals(1, sorter.getRadixSortCount());
+        assertBackToFront(data, sorter, IDENTITY);
+        assertIsPermutation(sorter.getOrder(), 1000);
+
+        //looking along +X from x = -5: depth is now -x - 5
+        float[] view = {
+                0f, 0f, -1f, 0f,
+                0f, 1f, 0f, 0f,
+                1f, 0f, 0f, 0f,
+                0f, 0f, -5f, 1f};
+        sorter.sort(data, FLOATS_PER_PARTICLE, 1000, view);
+        assertBackToFront(data, sorter, view);
+    }
+
+    @Test
+    public void keysCompareLikeFloats() {
+        float[] depths = {0f, -0f, 3.5f, -1e-30f, 1e30f, -2f, Float.MIN_VALUE, -1e30f, 2f};
+        float[] data = new float[depths.length * FLOATS_PER_PARTICLE];
+        for (int i = 0; i < depths.length; i++) {
+            data[i * FLOATS_PER_PARTICLE + POSITION_OFFSET + 2] = depths[i];
+        }
+        ParticleSorter sorter = new ParticleSorter(depths.length);
+        sorter.sort(data, FLOATS_PER_PARTICLE, depths.length, IDENTITY);
+        //stable: 0 before -0, which compare equal
+        assertArrayEquals(new int[]{7, 5, 3, 0, 1, 6, 8, 2, 4},
+                Arrays.copyOf(sorter.getOrder(), depths.length));
+    }
+
+    @Test
+    public void reusesThePreviousOrder() {
+        int n = 5000;
+        float[] data = randomParticles(n, 2);
+        ParticleSorter sorter = new ParticleSorter(n);
+        sorter.sort(data, FLOATS_PER_PARTICLE, n, IDENTITY);
+        assertEquals(1, sorter.getRadixSortCount());
+
+        //nothing moved: nothing to upload
+        assertFalse(sorter.sort(data, FLOATS_PER_PARTICLE, n, IDENTITY));
+        assertEquals(1, sorter.getCoherentSortCount());
+
+        //a few small movements are finished by insertion
+        for (int i = 0; i < n; i += 500) {
+            data[i * FLOATS_PER_PARTICLE + POSITION_OFFSET + 2] += 0.01f;
+        }
+        assertTrue(sorter.sort(data, FLOATS_PER_PARTICLE, n, IDENTITY));
+        assertEquals(1, sorter.getRadixSortCount());
+        assertEquals(2, sorter.getCoherentSortCount());
+        assertBackToFront(data, sorter, IDENTITY);
+
+        //turning the camera around falls back to the radix sort
+        float[] behind = IDENTITY.clone();
+        behind[10] = -1f;
+        sorter.sort(data, FLOATS_PER_PARTICLE, n, behind);
+        assertEquals(2, sorter.getRadixSortCount());
+        assertBackToFront(data, sorter, behind);
+    }
+
+    @Test
+    public void followsTheParticleCount() {
+        float[] data = randomParticles(100, 4);
+        ParticleSorter sorter = new ParticleSorter(100);
+        sorter.sort(data, FLOATS_PER_PARTICLE, 40, IDENTITY);
+        assertTrue(sorter.sort(data, FLOATS_PER_PARTICLE, 100, IDENTITY));
+        assertIsPermutation(sorter.getOrder(), 100);
+        assertBackToFront(data, sorter, IDENTITY);
+        assertTrue(sorter.sort(data, FLOATS_PER_PARTICLE, 30, IDENTITY));
+        assertIsPermutation(sorter.getOrder(), 30);
+        assertBackToFront(data, sorter, IDENTITY);
+        try {
+            sorter.sort(data, FLOATS_PER_PARTICLE, 101, IDENTITY);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void movingParticlesAreSortedWhereTheShaderDrawsThem() {
+        float[] data = new float[2 * FLOATS_PER_PARTICLE];
+        //both start at z = 0; the second flies towards the viewer
+        data[FLOATS_PER_PARTICLE + DIRECTION_OFFSET + 2] = 1f;
+        data[FLOATS_PER_PARTICLE + START_TIME_OFFSET] = 1f;
+        data[DIRECTION_OFFSET + 2] = -1f;
+        ParticleSorter sorter = new ParticleSorter(2);
+        sorter.sortMoving(data, FLOATS_PER_PARTICLE, 2, IDENTITY, 2f, 0.125f);
+        assertEquals(0, sorter.getOrder()[0]);
+        //seen from above, the fall decides: the older particle has fallen further
+        float[] above = {
+                1f, 0f, 0f, 0f,
+                0f, 0f, 1f, 0f,
+                0f, -1f, 0f, 0f,
+                0f, 0f, -10f, 1f};
+        sorter.sortMoving(data, FLOATS_PER_PARTICLE, 2, above, 2f, 0.125f);
+        assertEquals(0, sorter.getOrder()[0]);
+        sorter.sortMoving(data, FLOATS_PER_PARTICLE, 2, above, 2f, -0.125f);
+        assertEquals(1, sorter.getOrder()[0]);
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        int n = ParticleSorter.PARALLEL_THRESHOLD * 2 + 7;
+        float[] data = randomParticles(n, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ParticleSorter serial = new ParticleSorter(n);
+            ParticleSorter parallel = new ParticleSorter(n, executor, 4);
+            serial.sort(data, FLOATS_PER_PARTICLE, n, IDENTITY);
+            parallel.sort(data, FLOATS_PER_PARTICLE, n, IDENTITY);
+            assertEquals(1, parallel.getRadixSortCount());
+            assertArrayEquals(serial.getOrder(), parallel.getOrder());
+            assertBackToFront(data, parallel, IDENTITY);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void uploadsShortIndicesWhenTheyFit() {
+        RecordingGl gl = new RecordingGl();
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        IndexBuffer indices = new IndexBuffer(gl, pool, GlApi.GL_STREAM_DRAW);
+        float[] data = randomParticles(70000, 6);
+        ParticleSorter sorter = new ParticleSorter(70000);
+        sorter.sort(data, FLOATS_PER_PARTICLE, 65536, IDENTITY);
+        sorter.writeTo(indices);
+        assertEquals(GlApi.GL_UNSIGNED_SHORT, indices.getType());
+        assertEquals(65536, indices.getCount());
+        sorter.sort(data, FLOATS_PER_PARTICLE, 70000, IDENTITY);
+        sorter.writeTo(indices);
+        assertEquals(GlApi.GL_UNSIGNED_INT, indices.getType());
+        assertEquals(70000, indices.getCount());
+    }
+
+    @Test
+    public void gathersParticlesInDrawingOrder() {
+        float[] data = randomParticles(500, 7);
+        for (int i = 0; i < 500; i++) {
+            data[i * FLOATS_PER_PARTICLE + START_TIME_OFFSET] = i;
+        }
+        ParticleSorter sorter = new ParticleSorter(500);
+        sorter.sort(data, FLOATS_PER_PARTICLE, 500, IDENTITY);
+        float[] gathered = new float[data.length];
+        sorter.gather(data, FLOATS_PER_PARTICLE, gathered);
+        float previous = Float.NEGATIVE_INFINITY;
+        for (int j = 0; j < 500; j++) {
+            float z = gathered[j * FLOATS_PER_PARTICLE + POSITION_OFFSET + 2];
+            assertTrue(z >= previous);
+            previous = z;
+            assertEquals(sorter.getOrder()[j],
+                    gathered[j * FLOATS_PER_PARTICLE + START_TIME_OFFSET], 0);
+        }
+    }
+
+    private static void assertBackToFront(float[] data, ParticleSorter sorter, float[] view) {
+        int[] order = sorter.getOrder();
+        float previous = Float.NEGATIVE_INFINITY;
+        for (int j = 0; j < sorter.getCount(); j++) {
+            int offset = order[j] * FLOATS_PER_PARTICLE + POSITION_OFFSET;
+            float depth = view[2] * data[offset] + view[6] * data[offset + 1]
+                    + view[10] * data[offset + 2] + view[14];
+            assertTrue(depth >= previous);
+            previous = depth;
+        }
+    }
+
+    private static void assertIsPermutation(int[] order, int count) {
+        int[] sorted = Arrays.copyOf(order, count);
+        Arrays.sort(sorted);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, sorted[i]);
+        }
+    }
+
+    private static float[] randomParticles(int n, long seed) {
+        Random random = new Random(seed);
+        float[] data = new float[n * FLOATS_PER_PARTICLE];
+        for (int i = 0; i < n; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                data[i * FLOATS_PER_PARTICLE + POSITION_OFFSET + axis] =
+                        (random.nextFloat() - 0.5f) * 20f;
+            }
+        }
+        return data;
+    }
+}
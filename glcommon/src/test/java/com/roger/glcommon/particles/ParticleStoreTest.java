@@ -0,0 +1,150 @@
+package com.roger.glcommon.particles;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.GlApi;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ParticleStoreTest {
+    private static final int FLOATS = 10;
+    private static final int BYTES = FLOATS * 4;
+
+    private RecordingGl gl;
+    private DirectBufferPool pool;
+
+    @Before
+    public void setUp() {
+        gl = new RecordingGl();
+        pool = new DirectBufferPool(1 << 20);
+    }
+
+    @Test
+    public void storageIsAllocatedOnceAsStream() {
+        ParticleStore store = new ParticleStore(gl, pool, 100, FLOATS);
+        RecordingGl.Call call = gl.calls("glBufferData").get(0);
+        assertEquals(100 * BYTES, call.args[1]);
+        assertEquals(GlApi.GL_STREAM_DRAW, call.args[2]);
+        assertNull(call.data);
+        assertEquals(0, gl.getUploadedBytes());
+        assertEquals(0, store.flush());
+        assertEquals(1, gl.calls("glBufferData").size());
+        assertTrue(gl.calls("glBufferSubData").isEmpty());
+    }
+
+    @Test
+    public void addedParticlesAreUploadedInOneCallPerFrame() {
+        ParticleStore store = new ParticleStore(gl, pool, 100, FLOATS);
+        gl.reset();
+        for (int i = 0; i < 3; i++) {
+            int offset = store.add();
+            assertEquals(i * FLOATS, offset);
+            store.getData()[offset] = i + 1;
+        }
+        assertEquals(3, store.getDirtyCount());
+        assertTrue(gl.calls.isEmpty());
+
+        assertEquals(1, store.flush());
+        List<RecordingGl.Call> subs = gl.calls("glBufferSubData");
+        assertEquals(1, subs.size());
+        assertEquals(0, subs.get(0).args[1]);
+        assertEquals(3 * BYTES, subs.get(0).args[2]);
+        FloatBuffer floats = ((ByteBuffer) subs.get(0).data).asFloatBuffer();
+        assertEquals(3, floats.get(2 * FLOATS), 0);
+        assertEquals(0, gl.calls("glBufferData").size());
+
+        //nothing changed, nothing uploaded
+        assertEquals(0, store.flush());
+        assertEquals(1, gl.calls("glBufferSubData").size());
+
+        store.add();
+        store.flush();
+        assertEquals(3 * BYTES, gl.calls("glBufferSubData").get(1).args[1]);
+        assertEquals(3, store.getFlushCount());
+        assertEquals(2, store.getUploadCount());
+        assertEquals(4 * BYTES, store.getUploadedBytes());
+        assertEquals(gl.getUploadedBytes(), store.getUploadedBytes());
+    }
+
+    @Test
+    public void wrappedSpanNeedsTwoCalls() {
+        ParticleStore store = new ParticleStore(gl, pool, 8, FLOATS);
+        for (int i = 0; i < 6; i++) {
+            store.add();
+        }
+        store.flush();
+        gl.reset();
+        for (int i = 0; i < 4; i++) {
+            store.add();
+        }
+        assertEquals(8, store.getParticleCount());
+        assertEquals(2, store.getNextParticle());
+        assertEquals(2, store.flush());
+        List<RecordingGl.Call> subs = gl.calls("glBufferSubData");
+        assertEquals(6 * BYTES, subs.get(0).args[1]);
+        assertEquals(2 * BYTES, subs.get(0).args[2]);
+        assertEquals(0, subs.get(1).args[1]);
+        assertEquals(2 * BYTES, subs.get(1).args[2]);
+        assertEquals(4 * BYTES, gl.getUploadedBytes());
+    }
+
+    @Test
+    public void overrunUploadsTheRingOnce() {
+        ParticleStore store = new ParticleStore(gl, pool, 8, FLOATS);
+        store.add();
+        store.flush();
+        gl.reset();
+        for (int i = 0; i < 20; i++) {
+            store.add();
+        }
+        assertEquals(8, store.getDirtyCount());
+        //the span starts at slot 1 and wraps
+        assertEquals(2, store.flush());
+        assertEquals(8 * BYTES, gl.getUploadedBytes());
+
+        gl.reset();
+        store.markAllDirty();
+        assertEquals(1, store.flush());
+        assertEquals(8 * BYTES, gl.getUploadedBytes());
+    }
+
+    @Test
+    public void markedRangesMergeIntoOneSpan() {
+        ParticleStore store = new ParticleStore(gl, pool, 16, FLOATS);
+        store.markDirty(4, 2);
+        store.markDirty(10, 1);
+        assertEquals(7, store.getDirtyCount());
+        store.markDirty(6, 1);
+        assertEquals(7, store.getDirtyCount());
+        //behind the start: grows forward around the ring
+        store.markDirty(2, 1);
+        assertEquals(15, store.getDirtyCount());
+        gl.reset();
+        assertEquals(2, store.flush());
+        assertEquals(15 * BYTES, gl.getUploadedBytes());
+        try {
+            store.markDirty(16, 1);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void attributesUseByteOffsetsIntoTheBuffer() {
+        ParticleStore store = new ParticleStore(gl, pool, 8, FLOATS);
+        gl.reset();
+        store.setVertexAttribPointer(3, 1, 3);
+        RecordingGl.Call call = gl.calls("glVertexAttribPointer").get(0);
+        assertArrayEquals(new int[]{1, 3, GlApi.GL_FLOAT, BYTES, 12}, call.args);
+        store.release();
+        assertEquals(0, gl.getLiveBuffers());
+    }
+}
@@ -0,0 +1,100 @@
+package com.roger.glcommon.spatial;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rebuilding a {@link SpatialHash} and of radius queries against it. The points keep
+ * the same density and the table grows with them, so {@code build} does the same work per
+ * point from 1K to 1M points; divide the score by {@code points} to compare. What growth
+ * remains once the arrays outgrow the caches comes from the scattered writes of the sort.
+ * <p>
+ * Run the main method, or use the JMH plugin of the IDE.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SpatialHashBenchmark {
+    /** Average number of points per cell. */
+    private static final float DENSITY = 2f;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int points;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ExecutorService executor;
+    private SpatialHash hash;
+    private float[] x, y, z;
+    private final int[] out = new int[256];
+    private int query;
+
+    @Setup
+    public void setup() {
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+        int tableSize = Integer.highestOneBit(points - 1) << 1;
+        hash = new SpatialHash(1f, tableSize, executor, threads);
+        float extent = (float) Math.cbrt(points / DENSITY);
+        Random random = new Random(1);
+        x = new float[points];
+        y = new float[points];
+        z = new float[points];
+        for (int i = 0; i < points; i++) {
+            x[i] = random.nextFloat() * extent;
+            y[i] = random.nextFloat() * extent;
+            z[i] = random.nextFloat() * extent;
+        }
+        hash.build(x, y, z, points);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public SpatialHash build() {
+        hash.build(x, y, z, points);
+        return hash;
+    }
+
+    /**
+     * One query around a point of the set, with the cell size as radius.
+     */
+    @Benchmark
+    public int queryRadius() {
+        int i = query;
+        query = i + 1 == points ? 0 : i + 1;
+        return hash.queryRadius(x[i], y[i], z[i], 1f, out);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SpatialHashBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
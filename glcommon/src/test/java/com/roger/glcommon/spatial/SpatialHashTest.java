@@ -0,0 +1,128 @@
+package com.roger.glcommon.spatial;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class SpatialHashTest {
+
+    @Test
+    public void radiusQueriesMatchALinearScan() {
+        float[][] points = randomPoints(5000, 10f, 1);
+        SpatialHash hash = new SpatialHash(0.5f, 4096);
+        hash.build(points[0], points[1], points[2], 5000);
+        Random random = new Random(2);
+        int[] out = new int[5000];
+        for (int q = 0; q < 200; q++) {
+            float x = random.nextFloat() * 12f - 6f;
+            float y = random.nextFloat() * 12f - 6f;
+            float z = random.nextFloat() * 12f - 6f;
+            float radius = random.nextFloat() * 2f;
+            int found = hash.queryRadius(x, y, z, radius, out);
+            int[] expected = new int[5000];
+            int n = 0;
+            for (int i = 0; i < 5000; i++) {
+                float dx = points[0][i] - x, dy = points[1][i] - y, dz = points[2][i] - z;
+                if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                    expected[n++] = i;
+                }
+            }
+            assertArrayEquals(Arrays.copyOf(expected, n), sorted(out, found));
+        }
+    }
+
+    @Test
+    public void boxQueriesNeverRepeatPointsOfSharedBuckets() {
+        //a tiny table: most cells share a bucket
+        float[][] points = randomPoints(2000, 4f, 3);
+        SpatialHash hash = new SpatialHash(0.25f, 4);
+        hash.build(points[0], points[1], points[2], 2000);
+        int[] out = new int[2000];
+        int found = hash.queryBox(-1f, -2f, 0f, 1f, 0.5f, 2f, out);
+        int n = 0;
+        for (int i = 0; i < 2000; i++) {
+            if (points[0][i] >= -1f && points[0][i] <= 1f && points[1][i] >= -2f
+                    && points[1][i] <= 0.5f && points[2][i] >= 0f && points[2][i] <= 2f) {
+                n++;
+            }
+        }
+        assertEquals(n, found);
+        int[] result = sorted(out, found);
+        for (int i = 1; i < found; i++) {
+            assertTrue(result[i] > result[i - 1]);
+        }
+
+        //the whole space: more cells than buckets
+        assertEquals(2000, hash.queryBox(-100f, -100f, -100f, 100f, 100f, 100f, out));
+        //a short output array still reports the total
+        assertEquals(2000, hash.queryRadius(0f, 0f, 0f, 1000f, new int[3]));
+    }
+
+    @Test
+    public void bucketsAreContiguousRunsOfTheSortedArrays() {
+        float[][] points = randomPoints(1000, 5f, 4);
+        SpatialHash hash = new SpatialHash(1f, 64);
+        hash.build(points[0], points[1], points[2], 1000);
+        assertEquals(0, hash.getBucketStart(0));
+        assertEquals(1000, hash.getBucketEnd(63));
+        for (int b = 0; b < 64; b++) {
+            for (int j = hash.getBucketStart(b); j < hash.getBucketEnd(b); j++) {
+                int i = hash.getSortedIndex()[j];
+                assertEquals(b, hash.bucket(hash.cell(points[0][i]), hash.cell(points[1][i]),
+                        hash.cell(points[2][i])));
+                assertEquals(points[0][i], hash.getSortedX()[j], 0);
+            }
+        }
+        assertEquals(-1, hash.cell(-0.5f));
+        assertEquals(0, hash.cell(0.5f));
+        assertEquals(-2, hash.cell(-1.5f));
+    }
+
+    @Test
+    public void parallelBuildMatchesSerial() {
+        int n = SpatialHash.PARALLEL_THRESHOLD * 3 + 17;
+        float[][] points = randomPoints(n, 50f, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            SpatialHash serial = new SpatialHash(1f, 1 << 16);
+            SpatialHash parallel = new SpatialHash(1f, 1 << 16, executor, 4);
+            serial.build(points[0], points[1], points[2], n);
+            parallel.build(points[0], points[1], points[2], n);
+            assertArrayEquals(serial.getSortedIndex(), parallel.getSortedIndex());
+            assertArrayEquals(serial.getSortedZ(), parallel.getSortedZ(), 0);
+            for (int b = 0; b < serial.getTableSize(); b++) {
+                assertEquals(serial.getBucketStart(b), parallel.getBucketStart(b));
+            }
+
+            //rebuilding with fewer points falls back to one thread
+            parallel.build(points[0], points[1], points[2], 100);
+            assertEquals(100, parallel.getCount());
+            assertEquals(100, parallel.queryBox(-100f, -100f, -100f, 100f, 100f, 100f,
+                    new int[100]));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int[] sorted(int[] out, int found) {
+        int[] result = Arrays.copyOf(out, found);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static float[][] randomPoints(int n, float extent, long seed) {
+        Random random = new Random(seed);
+        float[][] points = new float[3][n];
+        for (int i = 0; i < n; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                points[axis][i] = (random.nextFloat() - 0.5f) * extent;
+            }
+        }
+        return points;
+    }
+}
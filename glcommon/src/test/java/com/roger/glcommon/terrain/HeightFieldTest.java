@@ -0,0 +1,34 @@
+package com.roger.glcommon.terrain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeightFieldTest {
+
+    @Test
+    public void interpolatesSamplesInWorldSpace() {
+        //3x2 samples: a ramp along X, the second row one higher
+        HeightField field = new HeightField(new ArrayHeightSource(new float[]{
+                0f, 1f, 2f,
+                1f, 2f, 3f}, 3, 2));
+        assertEquals(0f, field.getHeight(-0.5f, -0.5f), 1e-6f);
+        assertEquals(3f, field.getHeight(0.5f, 0.5f), 1e-6f);
+        assertEquals(1.5f, field.getHeight(0f, 0f), 1e-6f);
+        assertEquals(0.5f, field.getHeight(-0.25f, -0.5f), 1e-6f);
+
+        field.setScale(100f, 10f, 50f);
+        assertEquals(15f, field.getHeight(0f, 0f), 1e-5f);
+        assertEquals(30f, field.getHeight(50f, 25f), 1e-5f);
+        assertEquals(5f, field.getHeight(-25f, -25f), 1e-5f);
+    }
+
+    @Test
+    public void nothingOutsideTheTerrain() {
+        HeightField field = new HeightField(new ArrayHeightSource(new float[4], 2, 2));
+        assertEquals(Float.NEGATIVE_INFINITY, field.getHeight(0.51f, 0f), 0);
+        assertEquals(Float.NEGATIVE_INFINITY, field.getHeight(0f, -0.51f), 0);
+        assertEquals(Float.NEGATIVE_INFINITY, field.getHeight(Float.NaN, 0f), 0);
+        assertEquals(0f, field.getHeight(0.5f, 0.5f), 0);
+    }
+}
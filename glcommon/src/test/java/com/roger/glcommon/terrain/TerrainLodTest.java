@@ -0,0 +1,235 @@
+package com.roger.glcommon.terrain;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class TerrainLodTest {
+
+    @Test
+    public void patchSizeMustDivideTiles() {
+        TiledTerrain terrain = new TiledTerrain(source(100, 100, 1, 1f), 65, false);
+        assertEquals(2, new TerrainLod(terrain, 16).getMaxLevel());
+        try {
+            new TerrainLod(terrain, 24);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void flatTerrainUsesRoots() throws InterruptedException {
+        TerrainLod lod = build(new TiledTerrain(source(257, 257, 2, 0f), 129, true), 16);
+        lod.select(0f, 0.1f, 0f);
+        assertEquals(4, lod.getSelectedPatches().size());
+        for (TerrainPatch patch : lod.getSelectedPatches()) {
+            assertEquals(3, patch.getLevel());
+        }
+        assertEquals(4 * 16 * 16 * 2, lod.getTriangleCount());
+    }
+
+    @Test
+    public void detailFollowsCamera() throws InterruptedException {
+        TiledTerrain terrain = new TiledTerrain(source(257, 257, 3, 1f), 129, false);
+        TerrainLod lod = build(terrain, 16);
+        lod.setScale(100f, 10f, 100f);
+        lod.setProjection(45f, 1080);
+
+        lod.select(-50f, 1f, -50f);
+        TerrainPatch near = patchAt(lod, 0, 0);
+        TerrainPatch far = patchAt(lod, 255, 255);
+        assertEquals(0, near.getLevel());
+        assertTrue(far.getLevel() > near.getLevel());
+        assertTrue(lod.getTriangleCount() < terrain.getTriangleCount());
+        assertBalanced(lod, 257, 257);
+
+        lod.select(0f, 1000f, 0f);
+        assertTrue(lod.getTriangleCount() <= terrain.getTriangleCount() / 16);
+    }
+
+    @Test
+    public void selectionIsWatertight() throws InterruptedException {
+        // Sizes that leave clipped tiles and patches on the right and bottom edges.
+        int width = 203;
+        int height = 150;
+        TerrainLod lod = build(new TiledTerrain(source(width, height, 4, 1f), 65, true), 8);
+        lod.setScale(100f, 10f, 100f);
+        float[][] eyes = {{-50f, 1f, -50f}, {0f, 2f, 0f}, {30f, 5f, -10f}, {0f, 40f, 0f}};
+        for (float[] eye : eyes) {
+            lod.select(eye[0], eye[1], eye[2]);
+            assertBalanced(lod, width, height);
+            assertWatertight(lod, width, height);
+        }
+    }
+
+    @Test
+    public void drawsEachPatchFromItsTile() throws InterruptedException {
+        TiledTerrain terrain = new TiledTerrain(source(129, 129, 5, 1f), 65, true);
+        TerrainLod lod = build(terrain, 16);
+        RecordingGl gl = new RecordingGl();
+        terrain.upload(gl, new DirectBufferPool(1 << 20));
+        lod.setScale(100f, 10f, 100f);
+        lod.select(-50f, 1f, -50f);
+
+        gl.reset();
+        lod.draw(0, 1);
+        List<TerrainPatch> patches = lod.getSelectedPatches();
+        List<RecordingGl.Call> draws = gl.calls("glDrawElements");
+        assertEquals(patches.size(), draws.size());
+        int triangles = 0;
+        for (RecordingGl.Call call : draws) {
+            triangles += call.args[1] / 3;
+        }
+        assertEquals(lod.getTriangleCount(), triangles);
+        assertTrue(lod.getIndexBufferCount() <= patches.size());
+
+        TerrainPatch last = patches.get(patches.size() - 1);
+        TerrainTile tile = last.getTile();
+        int firstVertex = (last.getY() - tile.getY()) * tile.getColumns()
+                + last.getX() - tile.getX();
+        List<RecordingGl.Call> pointers = gl.calls("glVertexAttribPointer");
+        assertEquals(firstVertex * terrain.getStride(), pointers.get(pointers.size() - 2).args[4]);
+
+        lod.release();
+        terrain.release();
+        assertEquals(0, gl.getLiveBuffers());
+    }
+
+    @Test
+    public void coarseEdgeDropsOddVertices() {
+        short[] plain = TerrainLod.createIndexData(9, 2, 8, 8, 0);
+        short[] stitched = TerrainLod.createIndexData(9, 2, 8, 8, TerrainPatch.EDGE_TOP);
+        assertEquals(4 * 4 * 6, plain.length);
+        assertEquals(plain.length - 2 * 3, stitched.length);
+        for (short index : stitched) {
+            assertFalse(index == 2 || index == 6);
+        }
+    }
+
+    private static TerrainLod build(TiledTerrain terrain, int patchSize)
+            throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        terrain.build(executor);
+        TerrainLod lod = new TerrainLod(terrain, patchSize);
+        lod.build(executor);
+        executor.shutdown();
+        return lod;
+    }
+
+    private static TerrainPatch patchAt(TerrainLod lod, int col, int row) {
+        for (TerrainPatch patch : lod.getSelectedPatches()) {
+            if (col >= patch.getX() && col < patch.getX() + patch.getColumns()
+                    && row >= patch.getY() && row < patch.getY() + patch.getRows()) {
+                return patch;
+            }
+        }
+        throw new AssertionError("No patch at " + col + "," + row);
+    }
+
+    private static void assertBalanced(TerrainLod lod, int width, int height) {
+        int[] levels = new int[(width - 1) * (height - 1)];
+        int cells = 0;
+        for (TerrainPatch patch : lod.getSelectedPatches()) {
+            for (int row = patch.getY(); row < patch.getY() + patch.getRows(); row++) {
+                for (int col = patch.getX(); col < patch.getX() + patch.getColumns(); col++) {
+                    levels[row * (width - 1) + col] = patch.getLevel();
+                    cells++;
+                }
+            }
+        }
+        assertEquals(levels.length, cells);
+        for (int row = 0; row < height - 1; row++) {
+            for (int col = 0; col < width - 1; col++) {
+                int level = levels[row * (width - 1) + col];
+                if (col + 1 < width - 1) {
+                    assertTrue(Math.abs(level - levels[row * (width - 1) + col + 1]) <= 1);
+                }
+                if (row + 1 < height - 1) {
+                    assertTrue(Math.abs(level - levels[(row + 1) * (width - 1) + col]) <= 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Every triangle edge inside the grid must be shared by exactly two triangles, and the
+     * triangles must cover the grid exactly once.
+     */
+    private static void assertWatertight(TerrainLod lod, int width, int height) {
+        Map<Long, Integer> edges = new HashMap<Long, Integer>();
+        long doubleArea = 0;
+        for (TerrainPatch patch : lod.getSelectedPatches()) {
+            TerrainTile tile = patch.getTile();
+            short[] indices = lod.indexData(patch);
+            int first = (patch.getY() - tile.getY()) * tile.getColumns()
+                    + patch.getX() - tile.getX();
+            int[] vertex = new int[3];
+            for (int i = 0; i < indices.length; i += 3) {
+                for (int k = 0; k < 3; k++) {
+                    int local = first + (indices[i + k] & 0xFFFF);
+                    vertex[k] = (tile.getY() + local / tile.getColumns()) * width
+                            + tile.getX() + local % tile.getColumns();
+                }
+                long area = cross(vertex, width);
+                assertTrue("triangle must be wound like the grid", area < 0);
+                doubleArea -= area;
+                for (int k = 0; k < 3; k++) {
+                    int a = Math.min(vertex[k], vertex[(k + 1) % 3]);
+                    int b = Math.max(vertex[k], vertex[(k + 1) % 3]);
+                    long key = (long) a * width * height + b;
+                    Integer count = edges.get(key);
+                    edges.put(key, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        assertEquals(2L * (width - 1) * (height - 1), doubleArea);
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            int a = (int) (edge.getKey() / ((long) width * height));
+            int b = (int) (edge.getKey() % ((long) width * height));
+            boolean border = onSameBorder(a, b, width, height);
+            assertEquals("edge " + a + "-" + b, border ? 1 : 2, (int) edge.getValue());
+        }
+    }
+
+    private static long cross(int[] vertex, int width) {
+        long ax = vertex[1] % width - vertex[0] % width;
+        long ay = vertex[1] / width - vertex[0] / width;
+        long bx = vertex[2] % width - vertex[0] % width;
+        long by = vertex[2] / width - vertex[0] / width;
+        return ax * by - ay * bx;
+    }
+
+    private static boolean onSameBorder(int a, int b, int width, int height) {
+        int ax = a % width, ay = a / width, bx = b % width, by = b / width;
+        return (ax == bx && (ax == 0 || ax == width - 1))
+                || (ay == by && (ay == 0 || ay == height - 1));
+    }
+
+    /**
+     * Rolling hills plus noise of amplitude {@code roughness}.
+     */
+    private static HeightSource source(int width, int height, long seed, float roughness) {
+        Random random = new Random(seed);
+        float[] heights = new float[width * height];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                float hills = roughness == 0f ? 0f
+                        : 0.3f * (float) (Math.sin(col / 20.0) * Math.cos(row / 25.0));
+                heights[row * width + col] = 0.5f + hills
+                        + roughness * 0.02f * (random.nextFloat() - 0.5f);
+            }
+        }
+        return new ArrayHeightSource(heights, width, height);
+    }
+}
@@ -0,0 +1,150 @@
+package com.roger.glcommon.terrain;
+
+import com.roger.glcommon.buffer.DirectBufferPool;
+import com.roger.glcommon.gl.GlApi;
+import com.roger.glcommon.gl.RecordingGl;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class TiledTerrainTest {
+
+    @Test
+    public void tilesCoverGridWithSharedBorders() {
+        TiledTerrain terrain = new TiledTerrain(source(300, 20, 1), 256, false);
+        List<TerrainTile> tiles = terrain.getTiles();
+        assertEquals(2, tiles.size());
+        assertEquals(0, tiles.get(0).getX());
+        assertEquals(256, tiles.get(0).getColumns());
+        assertEquals(255, tiles.get(1).getX());
+        assertEquals(45, tiles.get(1).getColumns());
+        assertEquals(20, tiles.get(1).getRows());
+        assertEquals(299 * 19 * 2, terrain.getTriangleCount());
+    }
+
+    @Test
+    public void largeMapFitsShortIndices() throws InterruptedException {
+        HeightSource source = source(600, 520, 2);
+        TiledTerrain terrain = new TiledTerrain(source, TiledTerrain.MAX_TILE_SIZE, true);
+        terrain.build(Executors.newSingleThreadExecutor());
+        for (TerrainTile tile : terrain.getTiles()) {
+            assertTrue(tile.getVertexCount() <= 65536);
+        }
+
+        RecordingGl gl = new RecordingGl();
+        terrain.upload(gl, new DirectBufferPool(1 << 20));
+        // 3 x 3 tiles in 4 distinct sizes.
+        assertEquals(9, terrain.getTiles().size());
+        assertEquals(4, terrain.getIndexBufferCount());
+        assertEquals(9 + 4, gl.getLiveBuffers());
+
+        gl.reset();
+        terrain.draw(1, 2);
+        List<RecordingGl.Call> draws = gl.calls("glDrawElements");
+        assertEquals(9, draws.size());
+        int triangles = 0;
+        for (RecordingGl.Call call : draws) {
+            assertEquals(GlApi.GL_TRIANGLES, call.args[0]);
+            assertEquals(GlApi.GL_UNSIGNED_SHORT, call.args[2]);
+            triangles += call.args[1] / 3;
+        }
+        assertEquals(599 * 519 * 2, triangles);
+        assertEquals(18, gl.calls("glVertexAttribPointer").size());
+
+        terrain.release();
+        assertEquals(0, gl.getLiveBuffers());
+    }
+
+    @Test
+    public void tilesMatchSingleMesh() throws InterruptedException {
+        int width = 40;
+        int height = 33;
+        float[] heights = heights(width, height, 3);
+        TiledTerrain terrain = new TiledTerrain(new ArrayHeightSource(heights, width, height), 16,
+                true);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        terrain.build(executor);
+        executor.shutdown();
+
+        for (TerrainTile tile : terrain.getTiles()) {
+            float[] data = tile.getVertexData();
+            int offset = 0;
+            for (int row = tile.getY(); row < tile.getY() + tile.getRows(); row++) {
+                for (int col = tile.getX(); col < tile.getX() + tile.getColumns(); col++) {
+                    float[] expected = referenceVertex(heights, width, height, row, col);
+                    for (int i = 0; i < 6; i++) {
+                        assertEquals("vertex " + col + "," + row, expected[i], data[offset++],
+                                1e-5f);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void indexPatternMatchesGrid() {
+        short[] indices = TiledTerrain.createIndexData(256, 256);
+        assertEquals(255 * 255 * 6, indices.length);
+        assertEquals(0, indices[0]);
+        assertEquals(256, indices[1]);
+        assertEquals(1, indices[2]);
+        assertEquals(65535, indices[indices.length - 1] & 0xFFFF);
+    }
+
+    @Test
+    public void uploadBeforeBuildFails() {
+        TiledTerrain terrain = new TiledTerrain(source(10, 10, 4), 8, false);
+        try {
+            terrain.upload(new RecordingGl(), new DirectBufferPool(1 << 16));
+            fail();
+        } catch (IllegalStateException e) {
+            //expected
+        }
+    }
+
+    /**
+     * The per vertex computation of the book's single-mesh Heightmap.
+     */
+    private static float[] referenceVertex(float[] heights, int width, int height, int row,
+                                           int col) {
+        float[] p = point(heights, width, height, row, col);
+        float[] top = point(heights, width, height, row - 1, col);
+        float[] left = point(heights, width, height, row, col - 1);
+        float[] right = point(heights, width, height, row, col + 1);
+        float[] bottom = point(heights, width, height, row + 1, col);
+        float[] a = {left[0] - right[0], left[1] - right[1], left[2] - right[2]};
+        float[] b = {bottom[0] - top[0], bottom[1] - top[1], bottom[2] - top[2]};
+        float nx = a[1] * b[2] - a[2] * b[1];
+        float ny = a[2] * b[0] - a[0] * b[2];
+        float nz = a[0] * b[1] - a[1] * b[0];
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        return new float[]{p[0], p[1], p[2], nx / length, ny / length, nz / length};
+    }
+
+    private static float[] point(float[] heights, int width, int height, int row, int col) {
+        float x = ((float) col / (float) (width - 1)) - 0.5f;
+        float z = ((float) row / (float) (height - 1)) - 0.5f;
+        row = Math.max(0, Math.min(height - 1, row));
+        col = Math.max(0, Math.min(width - 1, col));
+        return new float[]{x, heights[row * width + col], z};
+    }
+
+    private static HeightSource source(int width, int height, long seed) {
+        return new ArrayHeightSource(heights(width, height, seed), width, height);
+    }
+
+    private static float[] heights(int width, int height, long seed) {
+        Random random = new Random(seed);
+        float[] heights = new float[width * height];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = random.nextFloat();
+        }
+        return heights;
+    }
+}
@@ -0,0 +1,58 @@
+package com.roger.glcommon.timing;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameTimingsTest {
+
+    @Test
+    public void stagesAreRegisteredOnce() {
+        FrameTimings timings = new FrameTimings();
+        assertEquals(1, timings.getStageCount());
+        assertEquals("frame", timings.getStageName(FrameTimings.FRAME));
+        int upload = timings.addStage("upload");
+        int draw = timings.addStage("draw");
+        assertEquals(upload, timings.addStage("upload"));
+        assertNotEquals(upload, draw);
+        assertEquals(3, timings.getStageCount());
+        assertEquals("draw", timings.getStageName(draw));
+    }
+
+    @Test
+    public void snapshotSkipsEmptyStages() {
+        FrameTimings timings = new FrameTimings();
+        int upload = timings.addStage("upload");
+        int draw = timings.addStage("draw");
+        timings.record(draw, 2000000);
+        timings.record(draw, 4000000);
+        long start = timings.start();
+        timings.stop(draw, start);
+        List<LatencyHistogram.Snapshot> snapshots = timings.snapshot();
+        assertEquals(1, snapshots.size());
+        assertEquals("draw", snapshots.get(0).name);
+        assertEquals(3, snapshots.get(0).count);
+        assertEquals(0, timings.getHistogram(upload).getCount());
+        assertTrue(timings.report().startsWith("draw n=3 "));
+
+        timings.reset();
+        assertTrue(timings.snapshot().isEmpty());
+        assertEquals("", timings.report());
+    }
+
+    @Test
+    public void frameRecordsIntervals() throws InterruptedException {
+        FrameTimings timings = new FrameTimings();
+        timings.frame();
+        assertEquals(0, timings.getHistogram(FrameTimings.FRAME).getCount());
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(2);
+            timings.frame();
+        }
+        LatencyHistogram frames = timings.getHistogram(FrameTimings.FRAME);
+        assertEquals(3, frames.getCount());
+        assertTrue(frames.getPercentile(50) >= 2000000);
+    }
+}
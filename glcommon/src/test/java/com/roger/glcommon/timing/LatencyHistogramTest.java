@@ -0,0 +1,82 @@
+package com.roger.glcommon.timing;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheRangeWithBoundedError() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(15, LatencyHistogram.bucketOf(15));
+        int previous = -1;
+        for (long value = 1; value < (1L << 42); value += 1 + value / 7) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            assertTrue(bucket < LatencyHistogram.BUCKET_COUNT);
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertTrue(value + " in bucket ending at " + highest, highest >= value);
+            assertTrue(value + " in bucket ending at " + highest,
+                    highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+            previous = bucket;
+        }
+        //values beyond the range share the last bucket
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000000L, histogram.getMax());
+        assertEquals(500500000L, histogram.getMean());
+        assertWithin(500000000L, histogram.getPercentile(50));
+        assertWithin(950000000L, histogram.getPercentile(95));
+        assertWithin(990000000L, histogram.getPercentile(99));
+        assertEquals(1000000000L, histogram.getPercentile(100));
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot("draw");
+        assertEquals("draw", snapshot.name);
+        assertEquals(histogram.getPercentile(95), snapshot.p95);
+        assertTrue(snapshot.toString().startsWith("draw n=1000 p50="));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 50000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final long value = (t + 1) * 1000L;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(value);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(threads * perThread, histogram.getCount());
+        assertEquals(4000, histogram.getMax());
+        assertEquals(2500, histogram.getMean());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
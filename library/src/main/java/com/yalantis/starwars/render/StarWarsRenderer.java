@@ -10,6 +10,8 @@ import android.os.Handler;
 import android.os.Looper;
 import android.view.animation.AccelerateDecelerateInterpolator;
 
+import com.roger.glcommon.timing.FrameTimings;
+import com.roger.glcommon.timing.GpuTimer;
 import com.yalantis.starwars.Const;
 import com.yalantis.starwars.R;
 import com.yalantis.starwars.TilesFrameLayout;
@@ -67,6 +69,10 @@ public class StarWarsRenderer implements GLSurfaceView.Renderer {
     private int mAndroidDataHandle;
     private float[] mTemporaryMatrix = new float[16];
     private int frames;
+    private final FrameTimings mTimings = new FrameTimings();
+    private final int mDrawStage = mTimings.addStage("draw");
+    private final int mGpuStage = mTimings.addStage("gpu");
+    private GpuTimer mGpuTimer;
     private long startTime;
 
     private float deltaPosX;
@@ -95,6 +101,9 @@ public class StarWarsRenderer implements GLSurfaceView.Renderer {
         GLES20.glEnable(GLES20.GL_CULL_FACE);
         GLES20.glFrontFace(GLES20.GL_CW);
 
+        // Queries of a previous context died with it.
+        mGpuTimer = GpuTimer.create(mTimings, mGpuStage);
+
         // Enable depth testing
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
@@ -124,6 +133,17 @@ public class StarWarsRenderer implements GLSurfaceView.Renderer {
         programHandle = ShaderHelper.createAndLinkProgram(vertexShaderHandle, fragmentShaderHandle,
                 new String[]{"a_Position", "a_Normal", "a_TexCoordinate"});
 
+        // Look up program handles once per context instead of every frame
+        mvpMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
+        mvMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
+        textureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
+        deltaPosHandle = GLES20.glGetUniformLocation(programHandle, "u_DeltaPos");
+
+        positionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
+        normalHandle = GLES20.glGetAttribLocation(programHandle, "a_Normal");
+        textureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
+        tileXyHandle = GLES20.glGetAttribLocation(programHandle, "a_TileXY");
+
         // Initialize the accumulated rotation matrix
         Matrix.setIdentityM(mAccumulatedRotation, 0);
     }
@@ -161,7 +181,15 @@ public class StarWarsRenderer implements GLSurfaceView.Renderer {
     @Override
     public void onDrawFrame(GL10 gl10) {
         logFrame();
+        if (mGpuTimer != null) {
+            mGpuTimer.begin();
+        }
+        long start = mTimings.start();
         drawGl();
+        mTimings.stop(mDrawStage, start);
+        if (mGpuTimer != null) {
+            mGpuTimer.end();
+        }
         if (!requestedReveal && mAndroidDataHandle > 0) {
             requestedReveal = true;
             mListener.reveal();
@@ -175,17 +203,6 @@ public class StarWarsRenderer implements GLSurfaceView.Renderer {
 
             GLES20.glUseProgram(programHandle);
 
-            // Set program handles
-            mvpMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVPMatrix");
-            mvMatrixHandle = GLES20.glGetUniformLocation(programHandle, "u_MVMatrix");
-            textureUniformHandle = GLES20.glGetUniformLocation(programHandle, "u_Texture");
-            deltaPosHandle = GLES20.glGetUniformLocation(programHandle, "u_DeltaPos");
-
-            positionHandle = GLES20.glGetAttribLocation(programHandle, "a_Position");
-            normalHandle = GLES20.glGetAttribLocation(programHandle, "a_Normal");
-            textureCoordinateHandle = GLES20.glGetAttribLocation(programHandle, "a_TexCoordinate");
-            tileXyHandle = GLES20.glGetAttribLocation(programHandle, "a_TileXY");
-
             Matrix.setIdentityM(mModelMatrix, 0);
             Matrix.translateM(mModelMatrix, 0, 0.0f, 0.0f, 5f);
 
@@ -229,11 +246,21 @@ public class StarWarsRenderer implements GLSurfaceView.Renderer {
         return sizeX * sizeY;
     }
     
+    /**
+     * @return frame interval, CPU draw time and, where supported, GPU time; cleared every time
+     * they are logged
+     */
+    public FrameTimings getFrameTimings() {
+        return mTimings;
+    }
+
     public void logFrame() {
+        mTimings.frame();
         frames++;
         timePassed = (System.nanoTime() - startTime) / 1_000_000;
         if(timePassed >= 1000) {
-            Timber.d("%d tiles @ %d fps", getTilesCount(), frames);
+            Timber.d("%d tiles @ %d fps\n%s", getTilesCount(), frames, mTimings.report());
+            mTimings.reset();
             frames = 0;
             startTime = System.nanoTime();
         }